@@ -25,6 +25,7 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
 import org.waarp.openr66.client.utils.OutputFormat;
 import org.waarp.openr66.client.utils.OutputFormat.FIELDS;
+import org.waarp.openr66.commander.InternalRunner;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.database.DbConstant;
@@ -111,6 +112,8 @@ public class SubmitTransfer extends AbstractTransfer {
                 return;
             }
         }
+        // launch it now if submitted from within a server
+        InternalRunner.submitLocally(taskRunner);
         R66Result result = new R66Result(null, false, ErrorCode.InitOk, taskRunner);
         future.setResult(result);
         future.setSuccess();
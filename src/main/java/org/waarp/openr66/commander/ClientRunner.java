@@ -38,18 +38,29 @@ import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
+import org.waarp.openr66.protocol.exception.OpenR66Exception;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNotYetConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.networkhandler.PartnerCircuitBreaker;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
 import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.protocol.utils.R66FutureListener;
 import org.waarp.openr66.protocol.utils.TransferUtils;
 
 /**
- * Client Runner from a TaskRunner
+ * Client Runner from a TaskRunner<br>
+ * <br>
+ * The transfer is run as an asynchronous state machine (runAsync and runTransferAsync): connection
+ * and request, then wait for the validation of the request, then wait for the end of the transfer,
+ * each step being launched by the completion of the previous R66Future on the
+ * ClientRunnerExecutor, such that no thread is held while the transfer is running. A transfer to
+ * retry (partner not reachable or overloaded) is given back to the RetryScheduler. run() and
+ * runTransfer() are the blocking versions kept for compatibility; with runTransfer() and
+ * initRequest(), the caller retries by itself after waiting in its own thread.
  * 
  * @author Frederic Bregier
  * 
@@ -77,6 +88,21 @@ public class ClientRunner extends Thread {
 
     private LocalChannelReference localChannelReference = null;
 
+    /**
+     * Future of the transfer operation once runTransferAsync is done
+     */
+    private volatile R66Future transferFuture = null;
+
+    /**
+     * True while the blocking runTransfer is running: its caller retries by itself
+     */
+    private volatile boolean retryByCaller = false;
+    /**
+     * Delay in ms to wait before the next attempt of the caller of runTransfer, and its reason
+     */
+    private volatile long retryDelay = 0;
+    private volatile ErrorCode retryCode = null;
+
     public ClientRunner(NetworkTransaction networkTransaction,
             DbTaskRunner taskRunner, R66Future futureRequest) {
         this.networkTransaction = networkTransaction;
@@ -116,28 +142,60 @@ public class ClientRunner extends Thread {
      */
     @Override
     public void run() {
+        runAsync().awaitUninterruptibly();
+    }
+
+    /**
+     * Run the transfer and its final status without holding the calling thread
+     * 
+     * @return a future done once the transfer and its final status are done
+     */
+    public R66Future runAsync() {
+        final R66Future end = new R66Future(true);
         if (Configuration.configuration.isShutdown) {
             taskRunner.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
             taskRunner.forceSaveStatus();
-            return;
+            end.setSuccess();
+            return end;
         }
-        try {
-            if (activeRunners != null) {
-                activeRunners.add(this);
-            }
-            // fix for SelfRequest
-            if (taskRunner.isSelfRequest()) {
-                taskRunner.setSenderByRequestToValidate(false);
+        if (activeRunners != null) {
+            activeRunners.add(this);
+        }
+        // fix for SelfRequest
+        if (taskRunner.isSelfRequest()) {
+            taskRunner.setSenderByRequestToValidate(false);
+        }
+        final R66Future outcome = runTransferAsync();
+        outcome.addListener(new R66FutureListener() {
+            public void operationComplete(R66Future future) {
+                ClientRunnerExecutor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            endOfRun(outcome);
+                        } finally {
+                            if (activeRunners != null) {
+                                activeRunners.remove(ClientRunner.this);
+                            }
+                            end.setSuccess();
+                        }
+                    }
+                });
             }
-            R66Future transfer;
-            try {
-                transfer = this.runTransfer();
-            } catch (OpenR66RunnerErrorException e) {
-                logger.error("Runner Error: {} {}", e.getMessage(),
-                        taskRunner.toShortString());
-                return;
-            } catch (OpenR66ProtocolNoConnectionException e) {
-                logger.error("No connection Error {}", e.getMessage());
+        });
+        return end;
+    }
+
+    /**
+     * Final status of the run
+     * 
+     * @param outcome
+     *            the future returned by runTransferAsync
+     */
+    private void endOfRun(R66Future outcome) {
+        if (!outcome.isSuccess()) {
+            Throwable cause = outcome.getCause();
+            if (cause instanceof OpenR66ProtocolNoConnectionException) {
+                logger.error("No connection Error {}", cause.getMessage());
                 if (localChannelReference != null) {
                     localChannelReference.setErrorMessage(
                             ErrorCode.ConnectionImpossible.mesg,
@@ -151,52 +209,47 @@ public class ClientRunner extends Thread {
                     this.changeUpdatedInfo(UpdatedInfo.INERROR,
                             ErrorCode.ConnectionImpossible, true);
                 }
-                return;
-            } catch (OpenR66ProtocolPacketException e) {
-                logger.error("Protocol Error", e);
-                return;
-            } catch (OpenR66ProtocolNotYetConnectionException e) {
-                logger.warn("No connection warning {}", e.getMessage());
-                return;
+            } else if (cause instanceof OpenR66ProtocolPacketException) {
+                logger.error("Protocol Error", cause);
+            } else if (cause instanceof OpenR66ProtocolNotYetConnectionException) {
+                logger.warn("No connection warning {}", cause.getMessage());
+            } else {
+                logger.error("Runner Error: {} {}", (cause != null ? cause.getMessage()
+                        : "no cause"), taskRunner.toShortString());
             }
-            R66Result result = transfer.getResult();
-            if (result != null) {
-                if (result.code == ErrorCode.QueryAlreadyFinished) {
-                    logger.warn(Messages.getString("Transfer.Status")
-                            +
-                            (transfer.isSuccess() ? Messages.getString("RequestInformation.Success") : Messages
-                                    .getString("RequestInformation.Failure")) +
-                            "     " + ErrorCode.QueryAlreadyFinished.mesg +
-                            ":" +
-                            (result != null ? result.toString() : "no result"));
-                } else {
-                    if (transfer.isSuccess()) {
-                        logger.info(Messages.getString("Transfer.Status")
-                                + Messages.getString("RequestInformation.Success") + "     " +
-                                (result != null ? result.toString()
-                                        : "no result"));
-                    } else {
-                        logger.error(Messages.getString("Transfer.Status")
-                                + Messages.getString("RequestInformation.Failure") + "     " +
-                                (result != null ? result.toString()
-                                        : "no result"));
-                    }
-                }
+            return;
+        }
+        R66Future transfer = transferFuture;
+        R66Result result = transfer.getResult();
+        if (result != null) {
+            if (result.code == ErrorCode.QueryAlreadyFinished) {
+                logger.warn(Messages.getString("Transfer.Status")
+                        +
+                        (transfer.isSuccess() ? Messages.getString("RequestInformation.Success") : Messages
+                                .getString("RequestInformation.Failure")) +
+                        "     " + ErrorCode.QueryAlreadyFinished.mesg +
+                        ":" +
+                        (result != null ? result.toString() : "no result"));
             } else {
                 if (transfer.isSuccess()) {
-                    logger.warn(Messages.getString("Transfer.Status")
-                            + Messages.getString("RequestInformation.Success") + "     no result");
+                    logger.info(Messages.getString("Transfer.Status")
+                            + Messages.getString("RequestInformation.Success") + "     " +
+                            (result != null ? result.toString()
+                                    : "no result"));
                 } else {
                     logger.error(Messages.getString("Transfer.Status")
-                            + Messages.getString("RequestInformation.Failure") + "     no result");
+                            + Messages.getString("RequestInformation.Failure") + "     " +
+                            (result != null ? result.toString()
+                                    : "no result"));
                 }
             }
-            transfer = null;
-            Thread.currentThread().setName(
-                    "Finished_" + Thread.currentThread().getName());
-        } finally {
-            if (activeRunners != null) {
-                activeRunners.remove(this);
+        } else {
+            if (transfer.isSuccess()) {
+                logger.warn(Messages.getString("Transfer.Status")
+                        + Messages.getString("RequestInformation.Success") + "     no result");
+            } else {
+                logger.error(Messages.getString("Transfer.Status")
+                        + Messages.getString("RequestInformation.Failure") + "     no result");
             }
         }
     }
@@ -226,7 +279,9 @@ public class ClientRunner extends Thread {
     }
 
     /**
-     * True transfer run (can be called directly to enable exception outside any executors)
+     * True transfer run (can be called directly to enable exception outside any executors).<br>
+     * Blocking version of runTransferAsync: the transfer is not given back to the RetryScheduler,
+     * the delay before a new attempt being waited in the calling thread.
      * 
      * @return The R66Future of the transfer operation
      * @throws OpenR66RunnerErrorException
@@ -238,19 +293,155 @@ public class ClientRunner extends Thread {
             OpenR66ProtocolNoConnectionException,
             OpenR66ProtocolPacketException,
             OpenR66ProtocolNotYetConnectionException {
+        retryByCaller = true;
+        retryCode = null;
+        R66Future outcome;
+        try {
+            outcome = runTransferAsync();
+            outcome.awaitUninterruptibly();
+        } finally {
+            retryByCaller = false;
+        }
+        if (outcome.isSuccess()) {
+            return transferFuture;
+        }
+        Throwable cause = outcome.getCause();
+        ErrorCode code = retryCode;
+        if (code != null && cause instanceof OpenR66ProtocolNotYetConnectionException) {
+            retryCode = null;
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException e) {
+            }
+            if (code == ErrorCode.ServerOverloaded) {
+                // redo directly as the number of tries is already checked
+                return runTransfer();
+            }
+        }
+        if (cause instanceof OpenR66RunnerErrorException) {
+            throw (OpenR66RunnerErrorException) cause;
+        } else if (cause instanceof OpenR66ProtocolNoConnectionException) {
+            throw (OpenR66ProtocolNoConnectionException) cause;
+        } else if (cause instanceof OpenR66ProtocolPacketException) {
+            throw (OpenR66ProtocolPacketException) cause;
+        } else if (cause instanceof OpenR66ProtocolNotYetConnectionException) {
+            throw (OpenR66ProtocolNotYetConnectionException) cause;
+        }
+        throw new OpenR66RunnerErrorException("Transfer in error", cause);
+    }
+
+    /**
+     * Asynchronous transfer run
+     * 
+     * @return a future done at the end of the transfer: in success if the transfer reached its end
+     *         (the transfer operation being then given by getTransferFuture()), else in failure
+     *         with the exception runTransfer would have thrown
+     */
+    public R66Future runTransferAsync() {
+        R66Future outcome = new R66Future(true);
+        transferFuture = null;
+        startAttempt(outcome);
+        return outcome;
+    }
+
+    /**
+     * @return the R66Future of the transfer operation once runTransferAsync is done
+     */
+    public R66Future getTransferFuture() {
+        return transferFuture;
+    }
+
+    private void startAttempt(final R66Future outcome) {
+        ClientRunnerExecutor.execute(new Runnable() {
+            public void run() {
+                attempt(outcome);
+            }
+        });
+    }
+
+    /**
+     * Step 1: connection and request
+     * 
+     * @param outcome
+     */
+    private void attempt(final R66Future outcome) {
         logger.debug("Start attempt Transfer");
-        localChannelReference = initRequest();
+        final LocalChannelReference lcr;
+        try {
+            lcr = initRequest(false);
+        } catch (OpenR66Exception e) {
+            outcome.setFailure(e);
+            return;
+        } catch (RuntimeException e) {
+            outcome.setFailure(e);
+            return;
+        }
+        localChannelReference = lcr;
+        lcr.getFutureValidRequest().addListener(new R66FutureListener() {
+            public void operationComplete(R66Future future) {
+                ClientRunnerExecutor.execute(new Runnable() {
+                    public void run() {
+                        afterValidRequest(lcr, outcome);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Step 2: request validated or not by the remote host
+     * 
+     * @param lcr
+     * @param outcome
+     */
+    private void afterValidRequest(final LocalChannelReference lcr, final R66Future outcome) {
+        R66Future validRequest = lcr.getFutureValidRequest();
+        if (!validRequest.isSuccess() && validRequest.getResult() != null &&
+                validRequest.getResult().code == ErrorCode.ServerOverloaded) {
+            if (prepareRetryOnOverloaded(true, lcr)) {
+                outcome.setFailure(retryLaterOnOverloaded(lcr));
+                return;
+            }
+            try {
+                endOfRetryOnOverloaded(lcr);
+            } catch (OpenR66RunnerErrorException e) {
+                outcome.setFailure(e);
+                return;
+            } catch (RuntimeException e) {
+                outcome.setFailure(e);
+                return;
+            }
+            outcome.setFailure(new OpenR66ProtocolNoConnectionException(
+                    "End of retry on ServerOverloaded"));
+            return;
+        }
+        RetryScheduler.success(taskRunner.getRequested());
+        lcr.getFutureRequest().addListener(new R66FutureListener() {
+            public void operationComplete(R66Future future) {
+                ClientRunnerExecutor.execute(new Runnable() {
+                    public void run() {
+                        endOfTransfer(lcr, outcome);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Step 3: end of the transfer
+     * 
+     * @param lcr
+     * @param outcome
+     */
+    private void endOfTransfer(LocalChannelReference lcr, R66Future outcome) {
         try {
-            localChannelReference.getFutureValidRequest().await();
-        } catch (InterruptedException e) {
-        }
-        if (localChannelReference.getFutureValidRequest().isSuccess()) {
-            return finishTransfer(localChannelReference);
-        } else if (localChannelReference.getFutureValidRequest().getResult() != null &&
-                localChannelReference.getFutureValidRequest().getResult().code == ErrorCode.ServerOverloaded) {
-            return tryAgainTransferOnOverloaded(true, localChannelReference);
-        } else
-            return finishTransfer(localChannelReference);
+            transferFuture = finishTransfer(lcr);
+            outcome.setSuccess();
+        } catch (OpenR66RunnerErrorException e) {
+            outcome.setFailure(e);
+        } catch (RuntimeException e) {
+            outcome.setFailure(e);
+        }
     }
 
     /**
@@ -271,6 +462,29 @@ public class ClientRunner extends Thread {
             OpenR66ProtocolNoConnectionException,
             OpenR66ProtocolPacketException,
             OpenR66ProtocolNotYetConnectionException {
+        // redo if possible
+        if (prepareRetryOnOverloaded(retry, localChannelReference)) {
+            try {
+                Thread.sleep(Configuration.configuration.constraintLimitHandler
+                        .getSleepTime());
+            } catch (InterruptedException e) {
+            }
+            return runTransfer();
+        } else {
+            endOfRetryOnOverloaded(localChannelReference);
+            throw new OpenR66ProtocolNoConnectionException(
+                    "End of retry on ServerOverloaded");
+        }
+    }
+
+    /**
+     * 
+     * @param retry
+     * @param localChannelReference
+     * @return True if the transfer can be tried again
+     */
+    private boolean prepareRetryOnOverloaded(boolean retry,
+            LocalChannelReference localChannelReference) {
         if (this.localChannelReference == null) {
             this.localChannelReference = localChannelReference;
         }
@@ -286,27 +500,55 @@ public class ClientRunner extends Thread {
                 this.changeUpdatedInfo(UpdatedInfo.INERROR,
                         ErrorCode.ServerOverloaded, true);
         }
-        // redo if possible
-        if (retry && incRetry) {
-            try {
-                Thread.sleep(Configuration.configuration.constraintLimitHandler
-                        .getSleepTime());
-            } catch (InterruptedException e) {
-            }
-            return runTransfer();
+        return retry && incRetry;
+    }
+
+    /**
+     * Give back the transfer to the RetryScheduler (or to the caller of runTransfer) with the delay
+     * advised by the partner if any, else with a delay based on the one of the local constraint
+     * handler
+     * 
+     * @param localChannelReference
+     * @return the exception to report for this attempt
+     */
+    private OpenR66ProtocolNotYetConnectionException retryLaterOnOverloaded(
+            LocalChannelReference localChannelReference) {
+        long delay;
+        if (localChannelReference != null && localChannelReference.getRetryAfter() > 0) {
+            delay = RetryScheduler.spread(localChannelReference.getRetryAfter());
+            logger.debug("Retry after {} ms as advised by {} (load {}%)", delay,
+                    taskRunner.getRequested(), localChannelReference.getRemoteLoadLevel());
+        } else if (retryByCaller) {
+            // no backoff: the caller counts its own tries
+            delay = Configuration.configuration.constraintLimitHandler.getSleepTime();
         } else {
-            if (localChannelReference == null) {
-                taskRunner
-                        .setLocalChannelReference(new LocalChannelReference());
-            }
-            taskRunner.getLocalChannelReference().setErrorMessage(
-                    ErrorCode.ConnectionImpossible.mesg,
-                    ErrorCode.ConnectionImpossible);
-            this.taskRunner.setErrorTask(localChannelReference);
-            this.taskRunner.run();
-            throw new OpenR66ProtocolNoConnectionException(
-                    "End of retry on ServerOverloaded");
+            delay = RetryScheduler.nextDelay(taskRunner.getRequested(),
+                    Configuration.configuration.constraintLimitHandler.getSleepTime());
+        }
+        if (!waitForCallerRetry(ErrorCode.ServerOverloaded, delay)) {
+            RetryScheduler.retryLater(taskRunner, ErrorCode.ServerOverloaded, delay);
+        }
+        return new OpenR66ProtocolNotYetConnectionException(
+                "Server overloaded: will retry in " + delay + " ms");
+    }
+
+    /**
+     * No more retry on ServerOverloaded
+     * 
+     * @param localChannelReference
+     * @throws OpenR66RunnerErrorException
+     */
+    private void endOfRetryOnOverloaded(LocalChannelReference localChannelReference)
+            throws OpenR66RunnerErrorException {
+        if (localChannelReference == null) {
+            taskRunner
+                    .setLocalChannelReference(new LocalChannelReference());
         }
+        taskRunner.getLocalChannelReference().setErrorMessage(
+                ErrorCode.ConnectionImpossible.mesg,
+                ErrorCode.ConnectionImpossible);
+        this.taskRunner.setErrorTask(localChannelReference);
+        this.taskRunner.run();
     }
 
     /**
@@ -416,6 +658,25 @@ public class ClientRunner extends Thread {
             throws OpenR66ProtocolNoConnectionException,
             OpenR66RunnerErrorException, OpenR66ProtocolPacketException,
             OpenR66ProtocolNotYetConnectionException {
+        return initRequest(true);
+    }
+
+    /**
+     * Initialize the request
+     * 
+     * @param blocking
+     *            if True, called from the calling thread (renamed as the transfer), else called
+     *            from the ClientRunnerExecutor
+     * @return the localChannelReference holding the transfer request
+     * @throws OpenR66ProtocolNoConnectionException
+     * @throws OpenR66RunnerErrorException
+     * @throws OpenR66ProtocolPacketException
+     * @throws OpenR66ProtocolNotYetConnectionException
+     */
+    private LocalChannelReference initRequest(boolean blocking)
+            throws OpenR66ProtocolNoConnectionException,
+            OpenR66RunnerErrorException, OpenR66ProtocolPacketException,
+            OpenR66ProtocolNotYetConnectionException {
         this.changeUpdatedInfo(UpdatedInfo.RUNNING, ErrorCode.Running, true);
         long id = taskRunner.getSpecialId();
         String tid;
@@ -426,7 +687,9 @@ public class ClientRunner extends Thread {
             tid = taskRunner.getRuleId() + "_" + taskRunner.getMode() + "_" +
                     id;
         }
-        Thread.currentThread().setName(tid);
+        if (blocking) {
+            Thread.currentThread().setName(tid);
+        }
         logger.debug("Will run {}", this.taskRunner);
         boolean restartPost = false;
         if (taskRunner.getGloballaststep() == TASKSTEP.POSTTASK.ordinal()) {
@@ -461,6 +724,28 @@ public class ClientRunner extends Thread {
             throw new OpenR66ProtocolNoConnectionException(
                     "Cannot connect to client " + host.toString());
         }
+        long deferred = PartnerCircuitBreaker.allowRequest(host.getHostid());
+        if (deferred > 0) {
+            // partner known as unreachable: no connection attempt nor retry counted
+            logger.debug("Circuit breaker open for {}: deferred", host.getHostid());
+            long wait = Math.min(deferred, Configuration.configuration.delayRetry);
+            if (blocking) {
+                // the caller retries by itself: wait as for a failed connection
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                }
+                this.changeUpdatedInfo(UpdatedInfo.TOSUBMIT,
+                        ErrorCode.ConnectionImpossible, true);
+            } else if (waitForCallerRetry(ErrorCode.ConnectionImpossible, wait)) {
+                this.changeUpdatedInfo(UpdatedInfo.TOSUBMIT,
+                        ErrorCode.ConnectionImpossible, true);
+            } else {
+                RetryScheduler.retryLater(taskRunner, ErrorCode.ConnectionImpossible, deferred);
+            }
+            throw new OpenR66ProtocolNotYetConnectionException(
+                    "Partner " + host.getHostid() + " unreachable: deferred for " + deferred + " ms");
+        }
         SocketAddress socketAddress = host.getSocketAddress();
         boolean isSSL = host.isSsl();
 
@@ -468,29 +753,41 @@ public class ClientRunner extends Thread {
                 .createConnectionWithRetry(socketAddress, isSSL, futureRequest);
         taskRunner.setLocalChannelReference(localChannelReference);
         if (localChannelReference == null) {
+            PartnerCircuitBreaker.onFailure(host.getHostid());
             // propose to redo
             // See if reprogramming is ok (not too many tries)
             String retry;
             if (incrementTaskRunnerTry(taskRunner, Configuration.RETRYNB)) {
                 logger.debug("Will retry since Cannot connect to {}", host);
                 retry = " but will retry";
-                // now wait
-                try {
-                    Thread.sleep(Configuration.configuration.delayRetry);
-                } catch (InterruptedException e) {
-                    logger.debug(
-                            "Will not retry since limit of connection attemtps is reached for {}",
-                            host);
-                    retry = " and retries limit is reached so stop here";
-                    this.changeUpdatedInfo(UpdatedInfo.INERROR,
+                if (blocking) {
+                    // the caller retries by itself: now wait
+                    try {
+                        Thread.sleep(Configuration.configuration.delayRetry);
+                    } catch (InterruptedException e) {
+                        logger.debug(
+                                "Will not retry since limit of connection attemtps is reached for {}",
+                                host);
+                        retry = " and retries limit is reached so stop here";
+                        this.changeUpdatedInfo(UpdatedInfo.INERROR,
+                                ErrorCode.ConnectionImpossible, true);
+                        taskRunner
+                                .setLocalChannelReference(new LocalChannelReference());
+                        throw new OpenR66ProtocolNoConnectionException(
+                                "Cannot connect to server " + host.toString() + retry);
+                    }
+                    this.changeUpdatedInfo(UpdatedInfo.TOSUBMIT,
                             ErrorCode.ConnectionImpossible, true);
-                    taskRunner
-                            .setLocalChannelReference(new LocalChannelReference());
-                    throw new OpenR66ProtocolNoConnectionException(
-                            "Cannot connect to server " + host.toString() + retry);
+                } else if (waitForCallerRetry(ErrorCode.ConnectionImpossible,
+                        Configuration.configuration.delayRetry)) {
+                    this.changeUpdatedInfo(UpdatedInfo.TOSUBMIT,
+                            ErrorCode.ConnectionImpossible, true);
+                } else {
+                    // no wait here: submitted again once the delay is over
+                    RetryScheduler.retryLater(taskRunner, ErrorCode.ConnectionImpossible,
+                            RetryScheduler.nextDelay(taskRunner.getRequested(),
+                                    Configuration.configuration.delayRetry));
                 }
-                this.changeUpdatedInfo(UpdatedInfo.TOSUBMIT,
-                        ErrorCode.ConnectionImpossible, true);
                 throw new OpenR66ProtocolNotYetConnectionException(
                         "Cannot connect to server " + host.toString() + retry);
             } else {
@@ -508,6 +805,7 @@ public class ClientRunner extends Thread {
                         "Cannot connect to server " + host.toString() + retry);
             }
         }
+        PartnerCircuitBreaker.onSuccess(host.getHostid());
         socketAddress = null;
         if (handler != null) {
             localChannelReference.setRecvThroughHandler(handler);
@@ -574,6 +872,25 @@ public class ClientRunner extends Thread {
         return localChannelReference;
     }
 
+    /**
+     * If the caller of runTransfer retries by itself, register the delay it has to wait (in its
+     * own thread, not in the ClientRunnerExecutor) before its next attempt
+     * 
+     * @param code
+     *            the reason of the retry
+     * @param delay
+     *            in ms
+     * @return True if the caller retries by itself, False if the RetryScheduler has to
+     */
+    private boolean waitForCallerRetry(ErrorCode code, long delay) {
+        if (!retryByCaller) {
+            return false;
+        }
+        retryDelay = delay;
+        retryCode = code;
+        return true;
+    }
+
     /**
      * Change the UpdatedInfo of the current runner
      * 
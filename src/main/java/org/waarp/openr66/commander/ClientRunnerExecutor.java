@@ -0,0 +1,128 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.commander;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Executor of the steps of the asynchronous ClientRunner.<br>
+ * <br>
+ * A transfer does not hold a thread while waiting for the remote validation, for the end of the
+ * transfer or before a retry: only the short steps (connection, database updates, end of transfer)
+ * are done by a small pool of threads, the delays being handled by the RetryScheduler.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class ClientRunnerExecutor {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(ClientRunnerExecutor.class);
+
+    private static ExecutorService workers = null;
+
+    private ClientRunnerExecutor() {
+    }
+
+    private static synchronized void initialize() {
+        if (workers == null) {
+            int nb = Configuration.configuration.clientRunnerThreads;
+            if (nb <= 0) {
+                nb = 1;
+            }
+            workers = Executors.newFixedThreadPool(nb, new DaemonThreadFactory("ClientRunner"));
+        }
+    }
+
+    /**
+     * Daemon threads such that a client JVM does not wait for them to exit
+     */
+    static class DaemonThreadFactory implements ThreadFactory {
+        private final ThreadFactory factory;
+
+        DaemonThreadFactory(String name) {
+            factory = new WaarpThreadFactory(name);
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = factory.newThread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Execute this step of a ClientRunner
+     * 
+     * @param task
+     */
+    public static void execute(Runnable task) {
+        ExecutorService executor;
+        synchronized (ClientRunnerExecutor.class) {
+            initialize();
+            executor = workers;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // shutting down: do it directly
+            logger.debug("ClientRunner step executed directly since in shutdown");
+            task.run();
+        }
+    }
+
+    /**
+     * Stop the threads
+     */
+    public static void shutdown() {
+        ExecutorService executor;
+        synchronized (ClientRunnerExecutor.class) {
+            executor = workers;
+            workers = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Configuration.configuration.TIMEOUTCON,
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 
+     * @return the status of this executor
+     */
+    public static String hashStatus() {
+        return "ClientRunnerExecutor: [threads: " + Configuration.configuration.clientRunnerThreads +
+                "] ";
+    }
+}
@@ -17,7 +17,10 @@
  */
 package org.waarp.openr66.commander;
 
+import java.util.List;
+
 import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
 import org.waarp.common.database.data.AbstractDbData;
 import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
 import org.waarp.common.database.exception.WaarpDatabaseException;
@@ -28,6 +31,8 @@ import org.waarp.common.database.model.DbModelFactory;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbSessionPool;
+import org.waarp.openr66.database.data.DbChangeVersion;
 import org.waarp.openr66.database.data.DbConfiguration;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbHostConfiguration;
@@ -54,12 +59,41 @@ public class Commander implements CommanderInterface {
     private static final int LIMITSUBMIT = 100;
 
     private InternalRunner internalRunner = null;
+    private DbSession dbSession = null;
     private DbPreparedStatement preparedStatementLock = null;
     private DbPreparedStatement preparedStatementConfig = null;
     private DbPreparedStatement preparedStatementHostConfig = null;
     private DbPreparedStatement preparedStatementHost = null;
     private DbPreparedStatement preparedStatementRule = null;
     private DbPreparedStatement preparedStatementRunner = null;
+    /**
+     * In HA mode, True if the runners to submit are shared between the monitors by their index
+     */
+    private boolean sharded = false;
+    /**
+     * In HA mode, last time the expired leases were checked
+     */
+    private long lastLeaseCheck = 0;
+    /**
+     * In HA mode, last time the leases of the runners held by this monitor were refreshed
+     */
+    private long lastLeaseRefresh = 0;
+    /**
+     * Version of the changes fully handled by the last scan
+     */
+    private long lastVersion = DbChangeVersion.UNKNOWN;
+    /**
+     * Time of the last full scan
+     */
+    private long lastFullScan = 0;
+    /**
+     * Earliest start time of the runners to submit later, as seen by the last scan
+     */
+    private long nextStartToSubmit = 0;
+    /**
+     * True if the last scan reached its limit of runners to submit
+     */
+    private boolean moreToSubmit = false;
 
     /**
      * Prepare requests that will be executed from time to time
@@ -86,13 +120,21 @@ public class Commander implements CommanderInterface {
             throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
         this.internalConstructor(runner);
         if (fromStartup) {
-            // Change RUNNING or INTERRUPTED to TOSUBMIT since they should be ready
-            DbTaskRunner.resetToSubmit(DbConstant.admin.session);
+            if (Configuration.configuration.multipleMonitors > 1) {
+                // Other monitors may still run their transfers: only take back expired ones
+                DbTaskRunner.resetExpiredToSubmit(dbSession,
+                        Configuration.configuration.multipleMonitorLease, true);
+                lastLeaseCheck = System.currentTimeMillis();
+            } else if (!CrashRecovery.isEnabled()) {
+                // Change RUNNING or INTERRUPTED to TOSUBMIT since they should be ready
+                DbTaskRunner.resetToSubmit(dbSession);
+            } // else the CrashRecovery submits them again progressively
         }
     }
 
     private void internalConstructor(InternalRunner runner)
             throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        dbSession = DbSessionPool.SCHEDULER.acquire();
         try {
             if (Configuration.configuration.multipleMonitors > 1) {
                 preparedStatementLock =
@@ -102,19 +144,29 @@ public class Commander implements CommanderInterface {
                 preparedStatementLock = null;
             }
             preparedStatementConfig =
-                    DbConfiguration.getUpdatedPrepareStament(DbConstant.admin.session);
+                    DbConfiguration.getUpdatedPrepareStament(dbSession);
             preparedStatementHostConfig =
-                    DbHostConfiguration.getUpdatedPrepareStament(DbConstant.admin.session);
+                    DbHostConfiguration.getUpdatedPrepareStament(dbSession);
             preparedStatementHost =
-                    DbHostAuth.getUpdatedPrepareStament(DbConstant.admin.session);
+                    DbHostAuth.getUpdatedPrepareStament(dbSession);
             preparedStatementRule =
-                    DbRule.getUpdatedPrepareStament(DbConstant.admin.session);
-            preparedStatementRunner =
-                    DbTaskRunner.getSelectFromInfoPrepareStatement(DbConstant.admin.session,
-                            UpdatedInfo.TOSUBMIT, false, LIMITSUBMIT);
+                    DbRule.getUpdatedPrepareStament(dbSession);
+            sharded = Configuration.configuration.multipleMonitors > 1 &&
+                    Configuration.configuration.multipleMonitorIndex >= 0;
+            if (sharded) {
+                // Each monitor takes first its own shard of runners
+                preparedStatementRunner =
+                        DbTaskRunner.getSelectClaimablePrepareStatement(dbSession,
+                                Configuration.configuration.multipleMonitorIndex,
+                                Configuration.configuration.multipleMonitors, LIMITSUBMIT);
+            } else {
+                preparedStatementRunner =
+                        DbTaskRunner.getSelectFromInfoPrepareStatement(dbSession,
+                                UpdatedInfo.TOSUBMIT, false, LIMITSUBMIT);
+            }
 
             // Clean tasks (CompleteOK and ALLDONE => DONE)
-            DbTaskRunner.changeFinishedToDone(DbConstant.admin.session);
+            DbTaskRunner.changeFinishedToDone(dbSession);
             internalRunner = runner;
         } finally {
             if (internalRunner == null) {
@@ -137,25 +189,27 @@ public class Commander implements CommanderInterface {
                 if (preparedStatementRunner != null) {
                     preparedStatementRunner.realClose();
                 }
+                DbSessionPool.SCHEDULER.release(dbSession);
+                dbSession = null;
             } else {
                 if (preparedStatementLock != null) {
                     DbConstant.noCommitAdmin.session
                             .addLongTermPreparedStatement(preparedStatementLock);
                 }
                 if (preparedStatementConfig != null) {
-                    DbConstant.admin.session.addLongTermPreparedStatement(preparedStatementConfig);
+                    dbSession.addLongTermPreparedStatement(preparedStatementConfig);
                 }
                 if (preparedStatementHostConfig != null) {
-                    DbConstant.admin.session.addLongTermPreparedStatement(preparedStatementHostConfig);
+                    dbSession.addLongTermPreparedStatement(preparedStatementHostConfig);
                 }
                 if (preparedStatementHost != null) {
-                    DbConstant.admin.session.addLongTermPreparedStatement(preparedStatementHost);
+                    dbSession.addLongTermPreparedStatement(preparedStatementHost);
                 }
                 if (preparedStatementRule != null) {
-                    DbConstant.admin.session.addLongTermPreparedStatement(preparedStatementRule);
+                    dbSession.addLongTermPreparedStatement(preparedStatementRule);
                 }
                 if (preparedStatementRunner != null) {
-                    DbConstant.admin.session.addLongTermPreparedStatement(preparedStatementRunner);
+                    dbSession.addLongTermPreparedStatement(preparedStatementRunner);
                 }
             }
         }
@@ -178,33 +232,60 @@ public class Commander implements CommanderInterface {
         }
         if (preparedStatementConfig != null) {
             preparedStatementConfig.realClose();
-            DbConstant.admin.session.removeLongTermPreparedStatements(preparedStatementConfig);
+            dbSession.removeLongTermPreparedStatements(preparedStatementConfig);
+            preparedStatementConfig = null;
         }
         if (preparedStatementHostConfig != null) {
             preparedStatementHostConfig.realClose();
-            DbConstant.admin.session.removeLongTermPreparedStatements(preparedStatementHostConfig);
+            dbSession.removeLongTermPreparedStatements(preparedStatementHostConfig);
+            preparedStatementHostConfig = null;
         }
         if (preparedStatementHost != null) {
             preparedStatementHost.realClose();
-            DbConstant.admin.session.removeLongTermPreparedStatements(preparedStatementHost);
+            dbSession.removeLongTermPreparedStatements(preparedStatementHost);
+            preparedStatementHost = null;
         }
         if (preparedStatementRule != null) {
             preparedStatementRule.realClose();
-            DbConstant.admin.session.removeLongTermPreparedStatements(preparedStatementRule);
+            dbSession.removeLongTermPreparedStatements(preparedStatementRule);
+            preparedStatementRule = null;
         }
         if (preparedStatementRunner != null) {
             preparedStatementRunner.realClose();
-            DbConstant.admin.session.removeLongTermPreparedStatements(preparedStatementRunner);
+            dbSession.removeLongTermPreparedStatements(preparedStatementRunner);
+            preparedStatementRunner = null;
         }
-        // DbConstant.admin.session.removeLongTermPreparedStatements();
+        // dbSession.removeLongTermPreparedStatements();
+        DbSessionPool.SCHEDULER.release(dbSession);
+        dbSession = null;
+    }
+
+    /**
+     * 
+     * @return the session of the Commander, kept during its whole life, to which the runners it
+     *         launches are bound
+     */
+    DbSession getDbSession() {
+        return dbSession;
     }
 
     public void run() {
         Thread.currentThread().setName("OpenR66Commander");
-        if (DbConstant.admin.session != null && DbConstant.admin.session.isDisActive) {
-            DbConstant.admin.session.checkConnectionNoException();
+        if (dbSession != null && dbSession.isDisActive) {
+            dbSession.checkConnectionNoException();
+        }
+        long now = System.currentTimeMillis();
+        if (preparedStatementLock != null) {
+            refreshLeases();
+            checkExpiredLeases();
+        }
+        // each time the change version moved, it parses all database for updates
+        long version = DbChangeVersion.getVersion(dbSession, Configuration.configuration.HOST_ID);
+        if (isUnchanged(version, now)) {
+            logger.debug("No change since version {}", version);
+            return;
         }
-        // each time it is runned, it parses all database for updates
+        moreToSubmit = false;
         DbMultipleMonitor multipleMonitor = null;
         // Open a lock to prevent other "HA" monitors to retrieve access as Commander
         try {
@@ -260,21 +341,21 @@ public class Commander implements CommanderInterface {
                 preparedStatementConfig.close();
             } catch (WaarpDatabaseNoConnectionException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database No Connection Error: Cannot execute Commander", e);
                 return;
             } catch (WaarpDatabaseSqlException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database SQL Error: Cannot execute Commander", e);
                 return;
             } catch (WaarpDatabaseException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database Error: Cannot execute Commander", e);
@@ -311,21 +392,21 @@ public class Commander implements CommanderInterface {
                 preparedStatementHostConfig.close();
             } catch (WaarpDatabaseNoConnectionException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database No Connection Error: Cannot execute Commander", e);
                 return;
             } catch (WaarpDatabaseSqlException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database SQL Error: Cannot execute Commander", e);
                 // XXX no return since table might not be initialized return;
             } catch (WaarpDatabaseException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database Error: Cannot execute Commander", e);
@@ -367,21 +448,21 @@ public class Commander implements CommanderInterface {
                 }
             } catch (WaarpDatabaseNoConnectionException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database No Connection Error: Cannot execute Commander", e);
                 return;
             } catch (WaarpDatabaseSqlException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database SQL Error: Cannot execute Commander", e);
                 return;
             } catch (WaarpDatabaseException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database Error: Cannot execute Commander", e);
@@ -421,28 +502,28 @@ public class Commander implements CommanderInterface {
                 }
             } catch (WaarpDatabaseNoConnectionException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database No Connection Error: Cannot execute Commander", e);
                 return;
             } catch (WaarpDatabaseSqlException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database SQL Error: Cannot execute Commander", e);
                 return;
             } catch (WaarpDatabaseNoDataException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database Error: Cannot execute Commander", e);
                 return;
             } catch (WaarpDatabaseException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database Error: Cannot execute Commander", e);
@@ -454,17 +535,34 @@ public class Commander implements CommanderInterface {
                 // no more task to submit
                 return;
             }
+            if (multipleMonitor != null) {
+                // Runners are claimed one by one: no need to keep the lock
+                releaseLock(multipleMonitor);
+                multipleMonitor = null;
+            }
             logger.debug("start runner");
             // Check TaskRunner
             try {
-                DbTaskRunner.finishSelectOrCountPrepareStatement(preparedStatementRunner);
-                // No specific HA mode since the other servers will wait for the commit on Lock
+                if (sharded) {
+                    DbTaskRunner.finishSelectClaimablePrepareStatement(preparedStatementRunner,
+                            System.currentTimeMillis(),
+                            Configuration.configuration.multipleMonitorLease);
+                } else {
+                    DbTaskRunner.finishSelectOrCountPrepareStatement(preparedStatementRunner);
+                }
                 preparedStatementRunner.executeQuery();
+                int nb = 0;
                 while (preparedStatementRunner.getNext()) {
                     if (R66ShutdownHook.isShutdownStarting()) {
                         // no more task to submit
                         return;
                     }
+                    nb++;
+                    if (nb >= LIMITSUBMIT) {
+                        // probably more to submit: run again soon
+                        internalRunner.setBacklog();
+                        moreToSubmit = true;
+                    }
                     DbTaskRunner taskRunner = null;
                     try {
                         taskRunner = DbTaskRunner
@@ -492,28 +590,39 @@ public class Commander implements CommanderInterface {
                         taskRunner.update();
                         continue;
                     }
-                    taskRunner.changeUpdatedInfo(UpdatedInfo.RUNNING);
-                    taskRunner.forceSaveStatus();
+                    if (preparedStatementLock != null) {
+                        if (!taskRunner.claimToSubmit()) {
+                            // already taken by another monitor
+                            continue;
+                        }
+                    } else {
+                        // waiting in the scheduler, RUNNING only once launched
+                        taskRunner.changeUpdatedInfo(UpdatedInfo.INTERRUPTED);
+                        taskRunner.forceSaveStatus();
+                    }
                     internalRunner.submitTaskRunner(taskRunner);
                     taskRunner = null;
                 }
+                nextStartToSubmit = DbTaskRunner.getNextStartToSubmit(dbSession, now);
+                lastVersion = version;
+                lastFullScan = now;
             } catch (WaarpDatabaseNoConnectionException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database No Connection Error: Cannot execute Commander", e);
                 return;
             } catch (WaarpDatabaseSqlException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database SQL Error: Cannot execute Commander", e);
                 return;
             } catch (WaarpDatabaseException e) {
                 try {
-                    DbModelFactory.dbModel.validConnection(DbConstant.admin.session);
+                    DbModelFactory.dbModel.validConnection(dbSession);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                 }
                 logger.error("Database Error: Cannot execute Commander", e);
@@ -524,20 +633,71 @@ public class Commander implements CommanderInterface {
             logger.debug("end commander");
         } finally {
             if (multipleMonitor != null) {
-                try {
-                    // Now update and Commit so releasing the lock
-                    logger.debug("Update " + multipleMonitor);
-                    multipleMonitor.update();
-                    DbConstant.noCommitAdmin.session.commit();
-                } catch (WaarpDatabaseException e) {
-                    try {
-                        DbModelFactory.dbModel.validConnection(DbConstant.noCommitAdmin.session);
-                    } catch (WaarpDatabaseNoConnectionException e1) {
-                    }
-                }
+                releaseLock(multipleMonitor);
                 multipleMonitor = null;
             }
         }
     }
 
+    /**
+     * 
+     * @param version
+     *            current change version
+     * @param now
+     * @return True if nothing changed since the last full scan, so that the scan can be skipped
+     */
+    private boolean isUnchanged(long version, long now) {
+        return version != DbChangeVersion.UNKNOWN && version == lastVersion &&
+                !moreToSubmit && now < nextStartToSubmit &&
+                now - lastFullScan < Configuration.configuration.delayCommanderFullScan;
+    }
+
+    /**
+     * Update and Commit so releasing the lock on the multiple monitor
+     * 
+     * @param multipleMonitor
+     */
+    private void releaseLock(DbMultipleMonitor multipleMonitor) {
+        try {
+            logger.debug("Update " + multipleMonitor);
+            multipleMonitor.update();
+            DbConstant.noCommitAdmin.session.commit();
+        } catch (WaarpDatabaseException e) {
+            try {
+                DbModelFactory.dbModel.validConnection(DbConstant.noCommitAdmin.session);
+            } catch (WaarpDatabaseNoConnectionException e1) {
+            }
+        }
+    }
+
+    /**
+     * In HA mode, refresh from time to time the leases of the runners held by this monitor (waiting
+     * in its scheduler, or running possibly without any save as in a long pre-task), such that they
+     * are not taken back by another monitor while this one is alive
+     */
+    private void refreshLeases() {
+        long now = System.currentTimeMillis();
+        if (now - lastLeaseRefresh < Configuration.configuration.multipleMonitorLease / 3) {
+            return;
+        }
+        lastLeaseRefresh = now;
+        List<DbTaskRunner> runners = internalRunner.getScheduler().getHeld();
+        runners.addAll(Configuration.configuration.getLocalTransaction().getRunners());
+        DbTaskRunner.refreshLeases(dbSession, runners);
+    }
+
+    /**
+     * In HA mode, take back from time to time the running runners of dead monitors (leases
+     * expired), the INTERRUPTED ones being only taken back at startup of a monitor
+     */
+    private void checkExpiredLeases() {
+        long now = System.currentTimeMillis();
+        if (now - lastLeaseCheck < Configuration.configuration.multipleMonitorLease / 2) {
+            return;
+        }
+        lastLeaseCheck = now;
+        DbTaskRunner.resetExpiredToSubmit(dbSession,
+                Configuration.configuration.multipleMonitorLease, false);
+    }
+
 }
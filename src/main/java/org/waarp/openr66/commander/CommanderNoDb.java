@@ -18,6 +18,7 @@
 package org.waarp.openr66.commander;
 
 import java.io.File;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.waarp.common.database.data.AbstractDbData;
@@ -31,6 +32,7 @@ import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbRule;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
 import org.waarp.openr66.protocol.utils.FileUtils;
 import org.waarp.openr66.protocol.utils.R66ShutdownHook;
 
@@ -73,6 +75,10 @@ public class CommanderNoDb implements CommanderInterface {
         this.internalConstructor(runner);
         if (fromStartup) {
             ClientRunner.activeRunners = new ConcurrentLinkedQueue<ClientRunner>();
+            if (Configuration.configuration.journalTaskRunnerWithNoDb) {
+                reloadFromJournal();
+                return;
+            }
             // Change RUNNING or INTERRUPTED to TOSUBMIT since they should be ready
             /*
              * Configuration.configuration.baseDirectory+
@@ -113,6 +119,30 @@ public class CommanderNoDb implements CommanderInterface {
         }
     }
 
+    /**
+     * Replay the Journal and change RUNNING or INTERRUPTED to TOSUBMIT since they should be ready
+     */
+    private void reloadFromJournal() {
+        List<DbTaskRunner> tasks;
+        try {
+            tasks = DbTaskRunner.loadAllJournalWorkNoDb();
+        } catch (OpenR66ProtocolBusinessException e) {
+            logger.error("Cannot reload the Journal", e);
+            return;
+        }
+        for (DbTaskRunner task : tasks) {
+            UpdatedInfo status = task.getUpdatedInfo();
+            if (status == UpdatedInfo.RUNNING || status == UpdatedInfo.INTERRUPTED) {
+                task.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
+                try {
+                    task.update();
+                } catch (WaarpDatabaseException e) {
+                    logger.warn("Cannot reload the task: " + task.getKey());
+                }
+            }
+        }
+    }
+
     private void internalConstructor(InternalRunner runner) {
         internalRunner = runner;
     }
@@ -172,7 +202,8 @@ public class CommanderNoDb implements CommanderInterface {
                         taskRunner.update();
                         continue;
                     }
-                    taskRunner.changeUpdatedInfo(UpdatedInfo.RUNNING);
+                    // waiting in the scheduler, RUNNING only once launched
+                    taskRunner.changeUpdatedInfo(UpdatedInfo.INTERRUPTED);
                     taskRunner.update();
                     internalRunner.submitTaskRunner(taskRunner);
                     try {
@@ -0,0 +1,301 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.commander;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseNoDataException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.database.model.DbModelFactory;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.commander.TransferScheduler.PRIORITY;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.networkhandler.AdaptiveConcurrencyLimiter;
+import org.waarp.openr66.protocol.networkhandler.R66ConstraintLimitHandler;
+import org.waarp.openr66.protocol.utils.R66ShutdownHook;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Paced recovery of the transfers interrupted by a stop or a crash of the server.<br>
+ * <br>
+ * Instead of changing at startup all the RUNNING or INTERRUPTED transfers to TOSUBMIT at once, the
+ * transfers not updated since the startup are read by chunks, by priority class of their rule
+ * (URGENT first, BULK last) then by start time, and submitted directly to the InternalRunner. Each
+ * one restarts from its saved rank as any restarted transfer.<br>
+ * <br>
+ * The number of concurrent transfers allowed starts at recoveryStart. At each step, it is doubled
+ * (up to the adaptive limit if any) while the server is not overloaded, else halved.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class CrashRecovery {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(CrashRecovery.class);
+
+    /**
+     * Load level (in %) above which the server is considered as overloaded
+     */
+    private static final int OVERLOAD_LEVEL = 90;
+    /**
+     * Maximum number of chunks with only ignored transfers in one step
+     */
+    private static final int MAX_IGNORED_CHUNKS = 10;
+
+    private static final PRIORITY[] PRIORITIES = PRIORITY.values();
+
+    private final InternalRunner internalRunner;
+    private final long startupTime = System.currentTimeMillis();
+    private int priority = 0;
+    private int target;
+    private long lastStep = 0;
+    private long lastRejected = 0;
+    private long recovered = 0;
+    private long ignored = 0;
+    private long endTime = 0;
+    private volatile boolean finished = false;
+
+    /**
+     * 
+     * @return True if the paced recovery is to be used at startup
+     */
+    public static boolean isEnabled() {
+        return Configuration.configuration.recoveryChunkSize > 0 &&
+                Configuration.configuration.multipleMonitors <= 1;
+    }
+
+    CrashRecovery(InternalRunner internalRunner) {
+        this.internalRunner = internalRunner;
+        target = Configuration.configuration.recoveryStart;
+        logger.info("Paced recovery of interrupted transfers started");
+    }
+
+    /**
+     * Run one step of the recovery if the delay since the previous one is reached
+     * 
+     * @return True if the recovery is finished
+     */
+    synchronized boolean step() {
+        if (finished) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastStep < Configuration.configuration.recoveryStepDelay) {
+            return false;
+        }
+        if (lastStep > 0) {
+            ramp();
+        }
+        lastStep = now;
+        // run by the Commander thread: never wait for a pooled session, and the runners stay
+        // bound to this long lived one while waiting and running
+        DbSession dbSession = internalRunner.getCommanderSession();
+        TransferScheduler scheduler = internalRunner.getScheduler();
+        int allowed = target - scheduler.getRunning() - scheduler.getWaiting();
+        int ignoredChunks = 0;
+        try {
+            while (allowed > 0) {
+                if (R66ShutdownHook.isShutdownStarting()) {
+                    return false;
+                }
+                if (priority >= PRIORITIES.length) {
+                    stop();
+                    return true;
+                }
+                int nb = restartChunk(dbSession, Math.min(allowed,
+                        Configuration.configuration.recoveryChunkSize));
+                if (nb < 0) {
+                    // this priority class is done
+                    priority++;
+                } else if (nb == 0) {
+                    // only ignored transfers: bounded since they should not be selected again
+                    if (++ignoredChunks >= MAX_IGNORED_CHUNKS) {
+                        break;
+                    }
+                } else {
+                    allowed -= nb;
+                }
+            }
+        } catch (WaarpDatabaseNoConnectionException e) {
+            logger.error("Database No Connection Error: Cannot continue recovery", e);
+            try {
+                DbModelFactory.dbModel.validConnection(dbSession);
+            } catch (WaarpDatabaseNoConnectionException e1) {
+            }
+        } catch (WaarpDatabaseException e) {
+            logger.error("Database Error: Cannot continue recovery", e);
+        }
+        return false;
+    }
+
+    /**
+     * Double the target while the server is not overloaded, else halve it
+     */
+    private void ramp() {
+        R66ConstraintLimitHandler handler = Configuration.configuration.constraintLimitHandler;
+        AdaptiveConcurrencyLimiter limiter = handler.getAdaptiveLimiter();
+        boolean overloaded = handler.checkConstraints() ||
+                handler.getLoadLevel() >= OVERLOAD_LEVEL;
+        int max = Configuration.configuration.RUNNER_THREAD;
+        if (limiter != null) {
+            long rejected = limiter.getRejected();
+            if (rejected > lastRejected) {
+                overloaded = true;
+            }
+            lastRejected = rejected;
+            max = limiter.getLimit();
+        }
+        int min = Configuration.configuration.recoveryStart;
+        if (overloaded) {
+            target = Math.max(min, target / 2);
+        } else {
+            target = Math.max(min, Math.min(target * 2, max));
+        }
+        logger.debug("Recovery target: {}", target);
+    }
+
+    /**
+     * 
+     * @return the rules of the current priority class to include, or to exclude for NORMAL
+     */
+    private List<String> getRules(PRIORITY current) {
+        List<String> rules = new ArrayList<String>();
+        Map<String, PRIORITY> priorities = Configuration.configuration.schedulerRulePriorities;
+        if (priorities != null) {
+            for (Entry<String, PRIORITY> entry : priorities.entrySet()) {
+                if (current == PRIORITY.NORMAL ? entry.getValue() != PRIORITY.NORMAL
+                        : entry.getValue() == current) {
+                    rules.add(entry.getKey());
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Restart the next transfers of the current priority class
+     * 
+     * @param dbSession
+     * @param limit
+     * @return the number of restarted transfers, or -1 if no more transfer in this class
+     * @throws WaarpDatabaseException
+     */
+    private int restartChunk(DbSession dbSession, int limit) throws WaarpDatabaseException {
+        PRIORITY current = PRIORITIES[priority];
+        List<String> rules = getRules(current);
+        boolean include = current != PRIORITY.NORMAL;
+        if (include && rules.isEmpty()) {
+            return -1;
+        }
+        List<DbTaskRunner> list = new ArrayList<DbTaskRunner>(limit);
+        DbPreparedStatement preparedStatement =
+                DbTaskRunner.getSelectRecoverablePrepareStatement(dbSession, startupTime, rules,
+                        include, limit);
+        int nb = 0;
+        try {
+            preparedStatement.executeQuery();
+            while (preparedStatement.getNext()) {
+                nb++;
+                try {
+                    list.add(DbTaskRunner.getFromStatement(preparedStatement));
+                } catch (WaarpDatabaseSqlException e) {
+                    // ignore and continue if NoData
+                    if (e.getCause() instanceof WaarpDatabaseNoDataException) {
+                        logger.warn("DbTaskRunner cannot be loaded: " + e.getMessage());
+                        continue;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            preparedStatement.realClose();
+        }
+        if (nb == 0 || list.isEmpty()) {
+            return -1;
+        }
+        int restarted = 0;
+        for (DbTaskRunner taskRunner : list) {
+            if (taskRunner.isSelfRequested()) {
+                // cannot schedule a request where the host is the requested host
+                taskRunner.changeUpdatedInfo(UpdatedInfo.INTERRUPTED);
+                taskRunner.update();
+                ignored++;
+                continue;
+            }
+            // waiting in the scheduler (saved after the startup so not selected again)
+            taskRunner.changeUpdatedInfo(UpdatedInfo.INTERRUPTED);
+            taskRunner.forceSaveStatus();
+            internalRunner.submitTaskRunner(taskRunner);
+            recovered++;
+            restarted++;
+        }
+        logger.debug("Recovery of {} transfers of priority {}", restarted, current);
+        return restarted;
+    }
+
+    /**
+     * End the recovery
+     */
+    synchronized void stop() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        endTime = System.currentTimeMillis();
+        logger.info("Paced recovery of interrupted transfers ended: " + recovered +
+                " restarted, " + ignored + " left as interrupted, in " +
+                (endTime - startupTime) + " ms");
+    }
+
+    /**
+     * 
+     * @return True if the recovery is finished
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * 
+     * @param node
+     *            the node to fill with the progress of the recovery
+     */
+    public synchronized void getStatus(ObjectNode node) {
+        node.put("Running", !finished);
+        node.put("Start", startupTime);
+        node.put("End", endTime);
+        node.put("Priority", priority < PRIORITIES.length ? PRIORITIES[priority].name() : "");
+        node.put("Target", target);
+        node.put("Recovered", recovered);
+        node.put("Ignored", ignored);
+    }
+}
@@ -17,15 +17,17 @@
  */
 package org.waarp.openr66.commander;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.waarp.common.database.DbSession;
 import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.database.exception.WaarpDatabaseSqlException;
 import org.waarp.common.logging.WaarpLogger;
@@ -35,9 +37,17 @@ import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.protocol.utils.R66FutureListener;
+import org.waarp.openr66.protocol.utils.R66ShutdownHook;
 
 /**
- * This class launch and control the Commander and enable TaskRunner job submissions
+ * This class launch and control the Commander and enable TaskRunner job submissions<br>
+ * <br>
+ * Transfers submitted from within this server (REST, Thrift, SubmitTransfer, RescheduleTransferTask)
+ * are pushed directly in a submission queue handled by the Commander thread, such that they do not
+ * wait for the next run of the Commander. The Commander remains the fallback for submissions from
+ * other processes, and runs again shortly while a backlog remains.
  * 
  * @author Frederic Bregier
  * 
@@ -49,13 +59,62 @@ public class InternalRunner {
     private static final WaarpLogger logger = WaarpLoggerFactory
             .getLogger(InternalRunner.class);
 
+    /**
+     * Delay in ms after which a transfer waiting in the scheduler is checked again before launch
+     */
+    private static final long CHECK_WAITING_DELAY = 1000;
+
     private final ScheduledExecutorService scheduledExecutorService;
     private ScheduledFuture<?> scheduledFuture;
-    private CommanderInterface commander = null;
+    private volatile CommanderInterface commander = null;
     private volatile boolean isRunning = true;
-    private final ThreadPoolExecutor threadPoolExecutor;
+    /**
+     * Transfers submitted from within this server, waiting to be launched
+     */
+    private final ConcurrentLinkedQueue<LocalSubmission> submissionQueue =
+            new ConcurrentLinkedQueue<LocalSubmission>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    /**
+     * True if the Commander should run again as soon as possible
+     */
+    private volatile boolean wakeUpRequested = false;
+    /**
+     * True if the last Commander run has left submitted transfers in the database
+     */
+    private volatile boolean backlog = false;
+    private final Runnable commanderTask = new Runnable() {
+        public void run() {
+            runCommander();
+        }
+    };
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            drainSubmissionQueue();
+        }
+    };
+    private final TransferScheduler scheduler = new TransferScheduler();
+    /**
+     * Paced recovery of the interrupted transfers at startup, null if none or finished
+     */
+    private volatile CrashRecovery recovery = null;
     private final NetworkTransaction networkTransaction;
 
+    /**
+     * Identity of a transfer submitted from within this server (the DbTaskRunner itself is still
+     * used by the submitter)
+     */
+    private static final class LocalSubmission {
+        private final long specialId;
+        private final String requester;
+        private final String requested;
+
+        private LocalSubmission(DbTaskRunner taskRunner) {
+            specialId = taskRunner.getSpecialId();
+            requester = taskRunner.getRequester();
+            requested = taskRunner.getRequested();
+        }
+    }
+
     /**
      * Create the structure to enable submission by database
      * 
@@ -65,48 +124,326 @@ public class InternalRunner {
     public InternalRunner() throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
         if (DbConstant.admin.isActive) {
             commander = new Commander(this, true);
+            if (CrashRecovery.isEnabled()) {
+                recovery = new CrashRecovery(this);
+            }
         } else {
             commander = new CommanderNoDb(this, true);
         }
         scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new WaarpThreadFactory("InternalRunner"));
         isRunning = true;
-        BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<Runnable>(10);
-        threadPoolExecutor = new ThreadPoolExecutor(10, Configuration.configuration.RUNNER_THREAD,
-                1000, TimeUnit.MILLISECONDS, workQueue);
-        scheduledFuture = scheduledExecutorService.scheduleWithFixedDelay(commander,
-                Configuration.configuration.delayCommander,
-                Configuration.configuration.delayCommander, TimeUnit.MILLISECONDS);
+        scheduleCommander(Configuration.configuration.delayCommander);
         networkTransaction = new NetworkTransaction();
     }
 
+    /**
+     * Schedule the next run of the Commander, replacing the current scheduled one
+     * 
+     * @param delay
+     */
+    private synchronized void scheduleCommander(long delay) {
+        if (!isRunning) {
+            return;
+        }
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+        }
+        try {
+            scheduledFuture = scheduledExecutorService.schedule(commanderTask, delay,
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Run the Commander then reschedule it, sooner if a backlog remains or if a wake up was
+     * requested during the run
+     */
+    private void runCommander() {
+        wakeUpRequested = false;
+        backlog = false;
+        try {
+            commander.run();
+            CrashRecovery current = recovery;
+            if (current != null) {
+                if (current.step()) {
+                    recovery = null;
+                } else {
+                    // run again soon for the next step
+                    backlog = true;
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error in Commander", e);
+        } finally {
+            long delay = Configuration.configuration.delayCommander;
+            if (wakeUpRequested) {
+                delay = 0;
+            } else if (backlog && Configuration.configuration.delayCommanderBacklog < delay) {
+                delay = Configuration.configuration.delayCommanderBacklog;
+            }
+            scheduleCommander(delay);
+        }
+    }
+
+    /**
+     * Called by the Commander when it leaves submitted transfers in the database (limit reached or
+     * no more thread available)
+     */
+    void setBacklog() {
+        backlog = true;
+    }
+
+    /**
+     * Ask for a run of the Commander as soon as possible
+     */
+    public void wakeUpCommander() {
+        wakeUpRequested = true;
+        scheduleCommander(0);
+    }
+
+    /**
+     * Submit a transfer from within this server, already saved with TOSUBMIT status, without
+     * waiting for the next run of the Commander
+     * 
+     * @param taskRunner
+     */
+    public void submitLocal(DbTaskRunner taskRunner) {
+        if (!isRunning || taskRunner == null) {
+            return;
+        }
+        if (!DbConstant.admin.isActive || Configuration.configuration.multipleMonitors > 1) {
+            // NoDb: the Commander has its own queue; HA: the Commander has to take the lock
+            wakeUpCommander();
+            return;
+        }
+        final LocalSubmission submission = new LocalSubmission(taskRunner);
+        long delay = taskRunner.getStart().getTime() - System.currentTimeMillis();
+        if (delay > 0) {
+            // not yet to be started
+            try {
+                scheduledExecutorService.schedule(new Runnable() {
+                    public void run() {
+                        submissionQueue.add(submission);
+                        drainSubmissionQueue();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+            }
+            return;
+        }
+        submissionQueue.add(submission);
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                scheduledExecutorService.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+                drainScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Submit a transfer from within this server if this server is running an InternalRunner
+     * 
+     * @param taskRunner
+     */
+    public static void submitLocally(DbTaskRunner taskRunner) {
+        InternalRunner internalRunner = Configuration.configuration.getInternalRunner();
+        if (internalRunner != null) {
+            internalRunner.submitLocal(taskRunner);
+        }
+    }
+
+    /**
+     * Launch the transfers of the submission queue, within the Commander thread such that a
+     * transfer cannot be launched by both
+     */
+    private void drainSubmissionQueue() {
+        drainScheduled.set(false);
+        if (submissionQueue.isEmpty()) {
+            return;
+        }
+        // the runners stay bound to this session while waiting and running
+        DbSession dbSession = getCommanderSession();
+        LocalSubmission submission;
+        while ((submission = submissionQueue.poll()) != null) {
+            if (R66ShutdownHook.isShutdownStarting()) {
+                // no more task to submit, the Commander will take them at restart
+                submissionQueue.clear();
+                return;
+            }
+            String key = submission.requested + " " + submission.requester +
+                    " " + submission.specialId;
+            if (Configuration.configuration.getLocalTransaction().
+                    getFromRequest(key) != null) {
+                // already running
+                continue;
+            }
+            DbTaskRunner taskRunner;
+            try {
+                // reload since the Commander or a user may have changed it
+                taskRunner = new DbTaskRunner(dbSession, submission.specialId,
+                        submission.requester, submission.requested);
+            } catch (WaarpDatabaseException e) {
+                logger.warn("DbTaskRunner cannot be loaded: " + e.getMessage());
+                continue;
+            }
+            if (taskRunner.getUpdatedInfo() != UpdatedInfo.TOSUBMIT ||
+                    taskRunner.getStart().getTime() > System.currentTimeMillis()) {
+                // already launched, cancelled or rescheduled: let the Commander take it
+                continue;
+            }
+            if (taskRunner.isSelfRequested()) {
+                // cannot schedule a request where the host is the requested host
+                taskRunner.changeUpdatedInfo(UpdatedInfo.INTERRUPTED);
+                try {
+                    taskRunner.update();
+                } catch (WaarpDatabaseException e) {
+                    logger.warn("DbTaskRunner cannot be updated: " + e.getMessage());
+                }
+                continue;
+            }
+            // waiting in the scheduler, RUNNING only once launched
+            taskRunner.changeUpdatedInfo(UpdatedInfo.INTERRUPTED);
+            taskRunner.forceSaveStatus();
+            submitTaskRunner(taskRunner);
+        }
+    }
+
+    /**
+     * To be called from the Commander thread
+     * 
+     * @return the long lived session of the Commander, as for the runners it launches itself, or
+     *         the shared session if none
+     */
+    DbSession getCommanderSession() {
+        CommanderInterface current = commander;
+        if (current instanceof Commander) {
+            DbSession session = ((Commander) current).getDbSession();
+            if (session != null) {
+                return session;
+            }
+        }
+        return DbConstant.admin == null ? null : DbConstant.admin.session;
+    }
+
     public NetworkTransaction getNetworkTransaction() {
         return networkTransaction;
     }
 
     /**
-     * Submit a task
+     * Submit a task, already saved as INTERRUPTED while waiting in the scheduler: it becomes
+     * RUNNING only once launched
      * 
      * @param taskRunner
      */
     public void submitTaskRunner(DbTaskRunner taskRunner) {
         if (isRunning || !Configuration.configuration.isShutdown) {
-            if (threadPoolExecutor.getActiveCount() + 5 > Configuration.configuration.RUNNER_THREAD) {
-                // too many current active threads
-                taskRunner.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
-                taskRunner.forceSaveStatus();
+            DbTaskRunner rejected = scheduler.offer(taskRunner);
+            if (rejected != null) {
+                // too many waiting transfers
+                rejected.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
+                rejected.forceSaveStatus();
+                setBacklog();
+            }
+            launchScheduled();
+        }
+    }
+
+    /**
+     * Launch the transfers selected by the scheduler
+     */
+    private void launchScheduled() {
+        for (TransferScheduler.Waiting waiting : scheduler.poll()) {
+            launch(waiting.getTaskRunner(), waiting.getWaitTime());
+        }
+    }
+
+    private void launch(final DbTaskRunner taskRunner, long waitTime) {
+        if (!isRunning && Configuration.configuration.isShutdown) {
+            scheduler.done(taskRunner);
+            taskRunner.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
+            taskRunner.forceSaveStatus();
+            return;
+        }
+        if (waitTime > CHECK_WAITING_DELAY) {
+            // it waited in the scheduler: check it was not cancelled meanwhile
+            try {
+                taskRunner.select();
+            } catch (WaarpDatabaseException e) {
+                logger.warn("DbTaskRunner cannot be loaded: " + e.getMessage());
+                scheduler.done(taskRunner);
                 return;
             }
-            logger.debug("Will run {}", taskRunner);
-            ClientRunner runner = new ClientRunner(networkTransaction, taskRunner, null);
-            if (taskRunner.isSendThrough() && (taskRunner.isRescheduledTransfer()
-                    || taskRunner.isPreTaskStarting())) {
-                runner.setSendThroughMode();
-                taskRunner.checkThroughMode();
+            if (taskRunner.getUpdatedInfo() != UpdatedInfo.INTERRUPTED) {
+                scheduler.done(taskRunner);
+                return;
             }
-            runner.setDaemon(true);
-            // create the client, connect and run
-            threadPoolExecutor.execute(runner);
-            runner = null;
+        }
+        if (Configuration.configuration.multipleMonitors > 1) {
+            // HA: check that no other monitor took it back meanwhile
+            try {
+                if (!taskRunner.claimToRun()) {
+                    scheduler.done(taskRunner);
+                    return;
+                }
+            } catch (WaarpDatabaseException e) {
+                logger.warn("DbTaskRunner cannot be claimed: " + e.getMessage());
+                scheduler.done(taskRunner);
+                return;
+            }
+        } // else the ClientRunner changes it to RUNNING at startup
+        logger.debug("Will run {}", taskRunner);
+        ClientRunner runner = new ClientRunner(networkTransaction, taskRunner, null);
+        if (taskRunner.isSendThrough() && (taskRunner.isRescheduledTransfer()
+                || taskRunner.isPreTaskStarting())) {
+            runner.setSendThroughMode();
+            taskRunner.checkThroughMode();
+        }
+        // connect and run without holding a thread, then let the scheduler launch the next ones
+        runner.runAsync().addListener(new R66FutureListener() {
+            public void operationComplete(R66Future future) {
+                scheduler.done(taskRunner);
+                launchScheduled();
+            }
+        });
+        runner = null;
+    }
+
+    /**
+     * Put back the waiting transfers as to be submitted
+     */
+    private void clearScheduler() {
+        for (DbTaskRunner taskRunner : scheduler.clear()) {
+            taskRunner.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
+            taskRunner.forceSaveStatus();
+        }
+    }
+
+    /**
+     * 
+     * @return the scheduler of the transfers
+     */
+    public TransferScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 
+     * @return the paced recovery at startup, null if none or finished
+     */
+    public CrashRecovery getRecovery() {
+        return recovery;
+    }
+
+    private void stopRecovery() {
+        CrashRecovery current = recovery;
+        recovery = null;
+        if (current != null) {
+            current.stop();
         }
     }
 
@@ -115,9 +452,13 @@ public class InternalRunner {
      */
     public void prepareStopInternalRunner() {
         isRunning = false;
-        scheduledFuture.cancel(false);
+        synchronized (this) {
+            scheduledFuture.cancel(false);
+        }
+        stopRecovery();
+        submissionQueue.clear();
+        clearScheduler();
         scheduledExecutorService.shutdown();
-        threadPoolExecutor.shutdown();
     }
 
     /**
@@ -127,19 +468,27 @@ public class InternalRunner {
     public void stopInternalRunner() {
         isRunning = false;
         logger.info("Stopping Commander and Runner Tasks");
-        scheduledFuture.cancel(false);
+        synchronized (this) {
+            scheduledFuture.cancel(false);
+        }
+        stopRecovery();
+        submissionQueue.clear();
+        clearScheduler();
         scheduledExecutorService.shutdownNow();
-        threadPoolExecutor.shutdownNow();
+        RetryScheduler.shutdown();
+        ClientRunnerExecutor.shutdown();
         networkTransaction.closeAll(false);
     }
 
     public int nbInternalRunner() {
-        return threadPoolExecutor.getActiveCount();
+        return scheduler.getRunning();
     }
 
     public void reloadInternalRunner()
             throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
-        scheduledFuture.cancel(false);
+        synchronized (this) {
+            scheduledFuture.cancel(false);
+        }
         if (commander != null) {
             commander.finalize();
         }
@@ -148,8 +497,14 @@ public class InternalRunner {
         } else {
             commander = new CommanderNoDb(this);
         }
-        scheduledFuture = scheduledExecutorService.scheduleWithFixedDelay(commander,
-                Configuration.configuration.delayCommander,
-                Configuration.configuration.delayCommander, TimeUnit.MILLISECONDS);
+        scheduleCommander(Configuration.configuration.delayCommander);
+    }
+
+    /**
+     * 
+     * @return the number of transfers in the submission queue
+     */
+    public int nbSubmissionQueue() {
+        return submissionQueue.size();
     }
 }
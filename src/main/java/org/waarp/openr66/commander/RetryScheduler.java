@@ -0,0 +1,223 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.commander;
+
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Retry scheduling of the transfers without sleeping threads.<br>
+ * <br>
+ * The delays are handled by one hashed timing wheel. The delay before a new attempt grows
+ * exponentially with the number of consecutive failures with the same partner (starting from the
+ * given base delay, bounded by Configuration.delayRetryMax), with a random jitter such that the
+ * transfers to a partner in outage do not retry all at once. A transfer to retry is saved as
+ * TOSUBMIT with a start time set to the time of the next attempt, then given back to the
+ * submission queue when due, releasing meanwhile its runner.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class RetryScheduler {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(RetryScheduler.class);
+
+    /**
+     * Limit of the exponent of the backoff
+     */
+    private static final int MAX_SHIFT = 16;
+
+    private static HashedWheelTimer timer = null;
+    private static final Random random = new Random();
+    /**
+     * Number of consecutive failures by partner
+     */
+    private static final ConcurrentHashMap<String, Integer> partnerFailures = new ConcurrentHashMap<String, Integer>();
+    private static final AtomicInteger nbWaiting = new AtomicInteger();
+
+    private RetryScheduler() {
+    }
+
+    private static synchronized HashedWheelTimer getTimer() {
+        if (timer == null) {
+            timer = new HashedWheelTimer(new ClientRunnerExecutor.DaemonThreadFactory("RetryTimer"),
+                    100, TimeUnit.MILLISECONDS, 512);
+        }
+        return timer;
+    }
+
+    /**
+     * Register a new failure with this partner
+     * 
+     * @param partner
+     *            the host id of the partner
+     * @param baseDelay
+     *            the delay in ms for the first retry
+     * @return the delay in ms before the next attempt with this partner
+     */
+    public static long nextDelay(String partner, long baseDelay) {
+        int failures = 1;
+        if (partner != null) {
+            synchronized (partnerFailures) {
+                Integer previous = partnerFailures.get(partner);
+                if (previous != null) {
+                    failures = previous + 1;
+                }
+                partnerFailures.put(partner, failures);
+            }
+        }
+        long max = Configuration.configuration.delayRetryMax;
+        if (max < baseDelay) {
+            max = baseDelay;
+        }
+        long delay = baseDelay;
+        for (int i = 1; i < failures && i <= MAX_SHIFT && delay < max; i++) {
+            delay *= 2;
+        }
+        if (delay > max) {
+            delay = max;
+        }
+        // equal jitter: half fixed, half random
+        long half = delay / 2;
+        if (half > 0) {
+            synchronized (random) {
+                delay = half + (long) (random.nextDouble() * (delay - half));
+            }
+        }
+        logger.debug("Retry with {} after {} failures in {} ms", partner, failures, delay);
+        return delay;
+    }
+
+    /**
+     * Spread a delay advised by a partner, such that its clients do not come back all at once
+     * 
+     * @param delay
+     *            in ms, used as minimum
+     * @return the delay increased by a random part up to a quarter of it
+     */
+    public static long spread(long delay) {
+        long quarter = delay / 4;
+        if (quarter <= 0) {
+            return delay;
+        }
+        synchronized (random) {
+            return delay + (long) (random.nextDouble() * quarter);
+        }
+    }
+
+    /**
+     * A connection with this partner succeeded: reset its backoff
+     * 
+     * @param partner
+     */
+    public static void success(String partner) {
+        if (partner != null) {
+            partnerFailures.remove(partner);
+        }
+    }
+
+    /**
+     * Execute this task on the ClientRunnerExecutor after the delay, without holding a thread
+     * meanwhile
+     * 
+     * @param task
+     * @param delay
+     *            in ms
+     * @return the associated Timeout, or null if the task was executed directly
+     */
+    public static Timeout schedule(final Runnable task, long delay) {
+        HashedWheelTimer wheel = getTimer();
+        nbWaiting.incrementAndGet();
+        try {
+            return wheel.newTimeout(new TimerTask() {
+                public void run(Timeout timeout) {
+                    nbWaiting.decrementAndGet();
+                    ClientRunnerExecutor.execute(task);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            // timer stopped: shutting down
+            nbWaiting.decrementAndGet();
+            ClientRunnerExecutor.execute(task);
+            return null;
+        }
+    }
+
+    /**
+     * Save the transfer as to be submitted again after the delay (as start time), and give it
+     * back to the submission queue when due if this server runs an InternalRunner
+     * 
+     * @param taskRunner
+     * @param code
+     *            the reason of the retry
+     * @param delay
+     *            in ms
+     */
+    public static void retryLater(final DbTaskRunner taskRunner, ErrorCode code, long delay) {
+        taskRunner.setStart(new Timestamp(System.currentTimeMillis() + delay));
+        taskRunner.changeUpdatedInfo(UpdatedInfo.TOSUBMIT);
+        taskRunner.setErrorExecutionStatus(code);
+        taskRunner.forceSaveStatus();
+        if (Configuration.configuration.getInternalRunner() == null) {
+            // client only: the retry will be done by the server sharing the database if any
+            return;
+        }
+        schedule(new Runnable() {
+            public void run() {
+                InternalRunner.submitLocally(taskRunner);
+            }
+        }, delay);
+    }
+
+    /**
+     * Stop the timer (pending retries are left to the Commander through their TOSUBMIT status)
+     */
+    public static synchronized void shutdown() {
+        if (timer != null) {
+            timer.stop();
+            timer = null;
+        }
+        nbWaiting.set(0);
+    }
+
+    /**
+     * 
+     * @return the status of the retries
+     */
+    public static String hashStatus() {
+        return "RetryScheduler: [waiting: " + nbWaiting.get() + " partnersInBackoff: " +
+                partnerFailures.size() + "] ";
+    }
+}
@@ -0,0 +1,495 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.commander;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Scheduler of the transfers launched by the InternalRunner.<br>
+ * <br>
+ * Each transfer belongs to a priority class according to its rule (URGENT, NORMAL or BULK), a
+ * higher class being always served first. Within a class, partners are served in weighted fair
+ * share (the partner with the lowest virtual time, increased by 1/weight at each launch, is served
+ * first) and a partner cannot have more running transfers than its limit. Waiting transfers are
+ * kept in memory up to a maximum number, lower priority ones being rejected first (back to
+ * TOSUBMIT). While waiting, a transfer is saved as INTERRUPTED, such that it is neither selected
+ * again nor considered as a running one.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class TransferScheduler {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(TransferScheduler.class);
+
+    /**
+     * Priority classes, from the highest to the lowest
+     */
+    public static enum PRIORITY {
+        URGENT, NORMAL, BULK;
+    }
+
+    private static final PRIORITY[] PRIORITIES = PRIORITY.values();
+
+    /**
+     * Number of transfer threads kept free (as before the scheduler)
+     */
+    private static final int RESERVED_THREADS = 5;
+
+    /**
+     * Transfer waiting in the scheduler
+     */
+    public static final class Waiting {
+        private final DbTaskRunner taskRunner;
+        private final long queuedTime = System.currentTimeMillis();
+        private long waitTime = 0;
+
+        private Waiting(DbTaskRunner taskRunner) {
+            this.taskRunner = taskRunner;
+        }
+
+        /**
+         * 
+         * @return the transfer
+         */
+        public DbTaskRunner getTaskRunner() {
+            return taskRunner;
+        }
+
+        /**
+         * 
+         * @return the time in ms this transfer waited in the scheduler
+         */
+        public long getWaitTime() {
+            return waitTime;
+        }
+    }
+
+    private static final class Partner {
+        private int running = 0;
+        private int waiting = 0;
+        private double virtualTime = 0;
+    }
+
+    private static final class PriorityClass {
+        private final Map<String, LinkedList<Waiting>> queues =
+                new HashMap<String, LinkedList<Waiting>>();
+        private int size = 0;
+        private long launched = 0;
+        private long rejected = 0;
+        private long totalWait = 0;
+        private long maxWait = 0;
+    }
+
+    private final PriorityClass[] classes = new PriorityClass[PRIORITIES.length];
+    private final Map<String, Partner> partners = new HashMap<String, Partner>();
+    /**
+     * Transfers launched and not yet done
+     */
+    private final Set<DbTaskRunner> launched = new HashSet<DbTaskRunner>();
+    private double virtualTime = 0;
+    private int running = 0;
+    private int waiting = 0;
+
+    public TransferScheduler() {
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new PriorityClass();
+        }
+    }
+
+    /**
+     * 
+     * @param taskRunner
+     * @return the priority class of this transfer according to its rule
+     */
+    public static PRIORITY getPriority(DbTaskRunner taskRunner) {
+        Map<String, PRIORITY> priorities = Configuration.configuration.schedulerRulePriorities;
+        if (priorities != null) {
+            PRIORITY priority = priorities.get(taskRunner.getRuleId());
+            if (priority != null) {
+                return priority;
+            }
+        }
+        return PRIORITY.NORMAL;
+    }
+
+    private static int getLimit(String partner) {
+        Map<String, Integer> limits = Configuration.configuration.schedulerPartnerLimits;
+        if (limits != null) {
+            Integer limit = limits.get(partner);
+            if (limit != null) {
+                return limit;
+            }
+        }
+        return Configuration.configuration.schedulerPartnerLimit;
+    }
+
+    private static int getWeight(String partner) {
+        Map<String, Integer> weights = Configuration.configuration.schedulerPartnerWeights;
+        if (weights != null) {
+            Integer weight = weights.get(partner);
+            if (weight != null && weight > 0) {
+                return weight;
+            }
+        }
+        return 1;
+    }
+
+    private Partner getPartner(String id) {
+        Partner partner = partners.get(id);
+        if (partner == null) {
+            partner = new Partner();
+            partners.put(id, partner);
+        }
+        return partner;
+    }
+
+    /**
+     * Add a transfer to the waiting ones
+     * 
+     * @param taskRunner
+     * @return the transfer rejected (this one or a lower priority one) if the maximum number of
+     *         waiting transfers is reached, else null
+     */
+    public synchronized DbTaskRunner offer(DbTaskRunner taskRunner) {
+        int priority = getPriority(taskRunner).ordinal();
+        DbTaskRunner rejected = null;
+        if (waiting >= Configuration.configuration.schedulerMaxWaiting) {
+            rejected = removeLowerPriority(priority);
+            if (rejected == null) {
+                classes[priority].rejected++;
+                return taskRunner;
+            }
+        }
+        String id = taskRunner.getRequested();
+        Partner partner = getPartner(id);
+        if (partner.running == 0 && partner.waiting == 0 && partner.virtualTime < virtualTime) {
+            // newly active partner starts at the current virtual time (no credit from idle time)
+            partner.virtualTime = virtualTime;
+        }
+        PriorityClass priorityClass = classes[priority];
+        LinkedList<Waiting> queue = priorityClass.queues.get(id);
+        if (queue == null) {
+            queue = new LinkedList<Waiting>();
+            priorityClass.queues.put(id, queue);
+        }
+        queue.add(new Waiting(taskRunner));
+        priorityClass.size++;
+        partner.waiting++;
+        waiting++;
+        return rejected;
+    }
+
+    /**
+     * Remove the last waiting transfer of the longest queue of the lowest priority class lower than
+     * the given one
+     * 
+     * @param priority
+     * @return the removed transfer or null if none
+     */
+    private DbTaskRunner removeLowerPriority(int priority) {
+        for (int i = classes.length - 1; i > priority; i--) {
+            PriorityClass priorityClass = classes[i];
+            if (priorityClass.size == 0) {
+                continue;
+            }
+            String longest = null;
+            LinkedList<Waiting> longestQueue = null;
+            for (Entry<String, LinkedList<Waiting>> entry : priorityClass.queues.entrySet()) {
+                if (longestQueue == null || entry.getValue().size() > longestQueue.size()) {
+                    longest = entry.getKey();
+                    longestQueue = entry.getValue();
+                }
+            }
+            Waiting removed = longestQueue.removeLast();
+            if (longestQueue.isEmpty()) {
+                priorityClass.queues.remove(longest);
+            }
+            priorityClass.size--;
+            priorityClass.rejected++;
+            partners.get(longest).waiting--;
+            waiting--;
+            return removed.taskRunner;
+        }
+        return null;
+    }
+
+    /**
+     * Select the next transfers to launch, according to the free transfer threads, the priority
+     * classes, the limit and the share of each partner. The caller must call done() at the end of
+     * each transfer returned.
+     * 
+     * @return the transfers to launch now (possibly empty)
+     */
+    public synchronized List<Waiting> poll() {
+        List<Waiting> list = new ArrayList<Waiting>();
+        int capacity = Configuration.configuration.RUNNER_THREAD - RESERVED_THREADS - running;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < classes.length && capacity > 0; i++) {
+            PriorityClass priorityClass = classes[i];
+            while (capacity > 0 && priorityClass.size > 0) {
+                String selected = null;
+                Partner selectedPartner = null;
+                for (String id : priorityClass.queues.keySet()) {
+                    Partner partner = partners.get(id);
+                    int limit = getLimit(id);
+                    if (limit > 0 && partner.running >= limit) {
+                        continue;
+                    }
+                    if (selectedPartner == null ||
+                            partner.virtualTime < selectedPartner.virtualTime) {
+                        selected = id;
+                        selectedPartner = partner;
+                    }
+                }
+                if (selectedPartner == null) {
+                    // all partners of this class are at their limit
+                    break;
+                }
+                LinkedList<Waiting> queue = priorityClass.queues.get(selected);
+                Waiting next = queue.removeFirst();
+                if (queue.isEmpty()) {
+                    priorityClass.queues.remove(selected);
+                }
+                priorityClass.size--;
+                long wait = now - next.queuedTime;
+                next.waitTime = wait;
+                priorityClass.launched++;
+                priorityClass.totalWait += wait;
+                if (wait > priorityClass.maxWait) {
+                    priorityClass.maxWait = wait;
+                }
+                virtualTime = selectedPartner.virtualTime;
+                selectedPartner.virtualTime += 1.0 / getWeight(selected);
+                selectedPartner.waiting--;
+                selectedPartner.running++;
+                waiting--;
+                running++;
+                capacity--;
+                launched.add(next.taskRunner);
+                list.add(next);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * To be called at the end of each transfer returned by poll()
+     * 
+     * @param taskRunner
+     */
+    public synchronized void done(DbTaskRunner taskRunner) {
+        launched.remove(taskRunner);
+        Partner partner = partners.get(taskRunner.getRequested());
+        if (partner != null) {
+            partner.running--;
+            if (partner.running <= 0 && partner.waiting <= 0) {
+                partners.remove(taskRunner.getRequested());
+            }
+        }
+        running--;
+    }
+
+    /**
+     * Remove all waiting transfers
+     * 
+     * @return the removed transfers
+     */
+    public synchronized List<DbTaskRunner> clear() {
+        List<DbTaskRunner> list = new ArrayList<DbTaskRunner>();
+        for (PriorityClass priorityClass : classes) {
+            for (LinkedList<Waiting> queue : priorityClass.queues.values()) {
+                for (Waiting item : queue) {
+                    list.add(item.taskRunner);
+                }
+            }
+            priorityClass.queues.clear();
+            priorityClass.size = 0;
+        }
+        Iterator<Partner> iterator = partners.values().iterator();
+        while (iterator.hasNext()) {
+            Partner partner = iterator.next();
+            partner.waiting = 0;
+            if (partner.running <= 0) {
+                iterator.remove();
+            }
+        }
+        waiting = 0;
+        return list;
+    }
+
+    /**
+     * 
+     * @return the transfers held by this scheduler (waiting or launched and not yet done)
+     */
+    public synchronized List<DbTaskRunner> getHeld() {
+        List<DbTaskRunner> list = new ArrayList<DbTaskRunner>(waiting + launched.size());
+        for (PriorityClass priorityClass : classes) {
+            for (LinkedList<Waiting> queue : priorityClass.queues.values()) {
+                for (Waiting item : queue) {
+                    list.add(item.taskRunner);
+                }
+            }
+        }
+        list.addAll(launched);
+        return list;
+    }
+
+    /**
+     * 
+     * @return the number of waiting transfers
+     */
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * 
+     * @return the number of running transfers launched by this scheduler
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * Fill the node with the metrics of each priority class
+     * 
+     * @param node
+     */
+    public synchronized void getStatus(ObjectNode node) {
+        long now = System.currentTimeMillis();
+        node.put("Running", running);
+        node.put("Waiting", waiting);
+        for (int i = 0; i < classes.length; i++) {
+            PriorityClass priorityClass = classes[i];
+            ObjectNode node2 = node.putObject(PRIORITIES[i].name());
+            node2.put("QueueDepth", priorityClass.size);
+            long oldest = 0;
+            for (LinkedList<Waiting> queue : priorityClass.queues.values()) {
+                long wait = now - queue.getFirst().queuedTime;
+                if (wait > oldest) {
+                    oldest = wait;
+                }
+            }
+            node2.put("OldestWaitMs", oldest);
+            node2.put("Launched", priorityClass.launched);
+            node2.put("Rejected", priorityClass.rejected);
+            node2.put("AverageWaitMs", priorityClass.launched > 0 ?
+                    priorityClass.totalWait / priorityClass.launched : 0);
+            node2.put("MaxWaitMs", priorityClass.maxWait);
+        }
+    }
+
+    /**
+     * 
+     * @return a short status of the scheduler
+     */
+    public synchronized String hashStatus() {
+        StringBuilder builder = new StringBuilder("TransferScheduler: [running: ")
+                .append(running).append(" waiting: ").append(waiting).append("] ");
+        for (int i = 0; i < classes.length; i++) {
+            builder.append('[').append(PRIORITIES[i].name()).append(": ")
+                    .append(classes[i].size).append(" launched: ")
+                    .append(classes[i].launched).append("] ");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 
+     * @param value
+     *            as "rule1:URGENT,rule2:BULK" (or 0, 1, 2 as priority)
+     * @return the map of priority by rule
+     */
+    public static Map<String, PRIORITY> parsePriorities(String value) {
+        Map<String, PRIORITY> map = new HashMap<String, PRIORITY>();
+        for (Entry<String, String> entry : parse(value).entrySet()) {
+            String priority = entry.getValue().toUpperCase();
+            try {
+                int rank = Integer.parseInt(priority);
+                if (rank < 0) {
+                    rank = 0;
+                } else if (rank >= PRIORITIES.length) {
+                    rank = PRIORITIES.length - 1;
+                }
+                map.put(entry.getKey(), PRIORITIES[rank]);
+            } catch (NumberFormatException e) {
+                try {
+                    map.put(entry.getKey(), PRIORITY.valueOf(priority));
+                } catch (IllegalArgumentException e1) {
+                    logger.warn("Unknown priority for rule " + entry.getKey() + ": " + priority);
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * 
+     * @param value
+     *            as "host1:5,host2:10"
+     * @return the map of integer by host
+     */
+    public static Map<String, Integer> parseIntegers(String value) {
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        for (Entry<String, String> entry : parse(value).entrySet()) {
+            try {
+                map.put(entry.getKey(), Integer.parseInt(entry.getValue()));
+            } catch (NumberFormatException e) {
+                logger.warn("Incorrect value for " + entry.getKey() + ": " + entry.getValue());
+            }
+        }
+        return map;
+    }
+
+    private static Map<String, String> parse(String value) {
+        Map<String, String> map = new HashMap<String, String>();
+        if (value == null) {
+            return map;
+        }
+        for (String item : value.split(",")) {
+            int pos = item.lastIndexOf(':');
+            if (pos <= 0 || pos == item.length() - 1) {
+                if (!item.trim().isEmpty()) {
+                    logger.warn("Incorrect item (name:value expected): " + item);
+                }
+                continue;
+            }
+            map.put(item.substring(0, pos).trim(), item.substring(pos + 1).trim());
+        }
+        return map;
+    }
+}
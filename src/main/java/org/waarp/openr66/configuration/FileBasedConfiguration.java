@@ -55,11 +55,15 @@ import org.waarp.common.xml.XmlType;
 import org.waarp.common.xml.XmlUtil;
 import org.waarp.common.xml.XmlValue;
 import org.waarp.gateway.kernel.rest.RestConfiguration;
+import org.waarp.openr66.commander.TransferScheduler;
 import org.waarp.openr66.context.authentication.R66Auth;
 import org.waarp.openr66.context.task.localexec.LocalExecClient;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbReadReplica;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.database.data.DbConfiguration;
 import org.waarp.openr66.database.data.DbHostConfiguration;
+import org.waarp.openr66.database.data.DbTaskRunnerExporter;
 import org.waarp.openr66.database.model.DbModelFactory;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
@@ -258,14 +262,39 @@ public class FileBasedConfiguration {
      * Monitoring: minimal interval in ms before redo real monitoring
      */
     private static final String XML_MONITOR_MINIMALDELAY = "minimaldelay";
+    /**
+     * Monitoring: interval in ms between 2 reconciliations of in memory statistics with database
+     */
+    private static final String XML_MONITOR_RECONCILEDELAY = "reconciledelay";
     /**
      * Monitoring: snmp configuration file (if empty, no snmp support)
      */
     private static final String XML_MONITOR_SNMP_CONFIG = "snmpconfig";
+    /**
+     * Monitoring: interval in ms between 2 sendings of pending snmp transfer notifications
+     */
+    private static final String XML_MONITOR_SNMP_INTERVAL = "snmpnotifinterval";
+    /**
+     * Monitoring: maximum number of snmp transfer notifications sent per interval
+     */
+    private static final String XML_MONITOR_SNMP_MAXPERINTERVAL = "snmpnotifmax";
+    /**
+     * Monitoring: maximum number of transfers with pending snmp notifications
+     */
+    private static final String XML_MONITOR_SNMP_QUEUESIZE = "snmpnotifqueue";
     /**
      * In case of multiple OpenR66 Monitors behing a loadbalancer (ha config)
      */
     private static final String XML_MULTIPLE_MONITORS = "multiplemonitors";
+    /**
+     * In HA config, index of this monitor within the group (from 0 to multiplemonitors - 1), to be
+     * set explicitly and uniquely on each monitor to share the runners to submit
+     */
+    private static final String XML_MULTIPLE_MONITORS_INDEX = "monitorindex";
+    /**
+     * In HA config, delay in ms before a runner of another monitor can be taken
+     */
+    private static final String XML_MULTIPLE_MONITORS_LEASE = "monitorlease";
     /**
      * Usage of CPU Limit
      */
@@ -304,6 +333,14 @@ public class FileBasedConfiguration {
      * Bandwidth low limit to not got below
      */
     private static final String XML_CSTRT_LIMITLOWBANDWIDTH = "limitlowbandwidth";
+    /**
+     * Usage of an adaptive limit of concurrent transfers based on latencies
+     */
+    private static final String XML_CSTRT_USEADAPTIVELIMIT = "useadaptivelimit";
+    /**
+     * Minimum value of the adaptive limit of concurrent transfers
+     */
+    private static final String XML_CSTRT_ADAPTIVELIMITMIN = "adaptivelimitmin";
     /**
      * Usage of checking remote address with the DbHost definition
      */
@@ -318,6 +355,92 @@ public class FileBasedConfiguration {
      */
     private static final String XML_SAVE_TASKRUNNERNODB = "taskrunnernodb";
 
+    /**
+     * In case of No Db Client, Usage of saving TaskRunner into an append-only Journal instead of
+     * XML files
+     */
+    private static final String XML_JOURNAL_TASKRUNNERNODB = "taskrunnernodbjournal";
+
+    /**
+     * In case of No Db Client using Journal, number of obsolete records before compaction
+     */
+    private static final String XML_JOURNAL_COMPACTION = "journalcompaction";
+
+    /**
+     * Log export: format of the exported logs (xml or jsonl)
+     */
+    private static final String XML_LOGEXPORT_FORMAT = "logexportformat";
+
+    /**
+     * Log export: do we gzip the exported logs
+     */
+    private static final String XML_LOGEXPORT_COMPRESS = "logexportcompress";
+
+    /**
+     * Log export: number of time partitions exported in parallel
+     */
+    private static final String XML_LOGEXPORT_PARALLEL = "logexportparallel";
+
+    /**
+     * Log purge: number of transfers deleted per chunk
+     */
+    private static final String XML_PURGE_CHUNKSIZE = "purgechunksize";
+
+    /**
+     * Log purge: delay in ms between two chunks
+     */
+    private static final String XML_PURGE_CHUNKDELAY = "purgechunkdelay";
+
+    /**
+     * Database connection pools: size for transfers
+     */
+    private static final String XML_DBPOOL_TRANSFER = "dbpooltransfer";
+
+    /**
+     * Database connection pools: size for the Commander
+     */
+    private static final String XML_DBPOOL_SCHEDULER = "dbpoolscheduler";
+
+    /**
+     * Database connection pools: size for the Monitoring
+     */
+    private static final String XML_DBPOOL_MONITORING = "dbpoolmonitoring";
+
+    /**
+     * Database connection pools: size for HTTP, HTTPS and REST interfaces
+     */
+    private static final String XML_DBPOOL_ADMIN = "dbpooladmin";
+
+    /**
+     * Database connection pools: maximum wait in ms for a connection
+     */
+    private static final String XML_DBPOOL_WAIT = "dbpoolwait";
+
+    /**
+     * Number of threads updating the transfers out of the network handlers
+     */
+    private static final String XML_DBASYNC_THREADS = "dbasyncthreads";
+
+    /**
+     * Optional read only replica of the database used for listing and information requests
+     */
+    private static final String XML_DBREPLICA_SERVER = "dbreplicaserver";
+
+    /**
+     * Read only replica user (default is dbuser)
+     */
+    private static final String XML_DBREPLICA_USER = "dbreplicauser";
+
+    /**
+     * Read only replica password (default is dbpasswd)
+     */
+    private static final String XML_DBREPLICA_PASSWD = "dbreplicapasswd";
+
+    /**
+     * Delay in ms before using again the read only replica after an error
+     */
+    private static final String XML_DBREPLICA_RETRY = "dbreplicaretry";
+
     /**
      * Use external Waarp Local Exec for ExecTask and ExecMoveTask
      */
@@ -358,11 +481,81 @@ public class FileBasedConfiguration {
      */
     private static final String XML_DELAYCOMMANDER = "delaycommand";
 
+    /**
+     * Delay between two checks of Commander while submitted transfers remain
+     */
+    private static final String XML_DELAYCOMMANDER_BACKLOG = "delaycommandbacklog";
+
+    /**
+     * Maximal delay between two full checks of Commander while nothing changed
+     */
+    private static final String XML_DELAYCOMMANDER_FULLSCAN = "delaycommandfullscan";
+
+    /**
+     * Number of rows by chunk for the paced recovery at startup (0 for none)
+     */
+    private static final String XML_RECOVERY_CHUNK = "recoverychunk";
+
+    /**
+     * Initial number of concurrent transfers during the recovery at startup
+     */
+    private static final String XML_RECOVERY_START = "recoverystart";
+
+    /**
+     * Delay between two steps of the recovery at startup
+     */
+    private static final String XML_RECOVERY_STEP = "recoverystep";
+
+    /**
+     * Number of threads running the steps of the submitted transfers
+     */
+    private static final String XML_CLIENTRUNNER_THREADS = "clientrunnerthreads";
+
+    /**
+     * Transfer scheduler: priority class by rule as "rule:URGENT,rule2:BULK"
+     */
+    private static final String XML_SCHEDULER_RULES = "schedulerrules";
+
+    /**
+     * Transfer scheduler: default limit of running transfers by partner
+     */
+    private static final String XML_SCHEDULER_PARTNERLIMIT = "schedulerpartnerlimit";
+
+    /**
+     * Transfer scheduler: limit of running transfers for specific partners as "host:5,host2:10"
+     */
+    private static final String XML_SCHEDULER_PARTNERLIMITS = "schedulerpartnerlimits";
+
+    /**
+     * Transfer scheduler: weight of specific partners as "host:3,host2:2"
+     */
+    private static final String XML_SCHEDULER_PARTNERWEIGHTS = "schedulerpartnerweights";
+
+    /**
+     * Transfer scheduler: maximum number of transfers waiting in memory
+     */
+    private static final String XML_SCHEDULER_MAXWAITING = "schedulermaxwaiting";
+
     /**
      * Delay between two retry after bad connection
      */
     private static final String XML_DELAYRETRY = "delayretry";
 
+    /**
+     * Maximum delay between two attempts with the same partner
+     */
+    private static final String XML_DELAYRETRY_MAX = "delayretrymax";
+
+    /**
+     * Number of consecutive connection failures before opening the circuit breaker of a partner
+     */
+    private static final String XML_CIRCUITBREAKER_THRESHOLD = "circuitbreakerthreshold";
+
+    /**
+     * Delay before probing a partner whose circuit breaker is open
+     */
+    private static final String XML_CIRCUITBREAKER_DELAY = "circuitbreakerdelay";
+
     /**
      * Nb of milliseconds after connection is in timeout
      */
@@ -519,8 +712,14 @@ public class FileBasedConfiguration {
             new XmlDecl(XmlType.STRING, XML_PATH_ADMIN_KEYPASS),
             new XmlDecl(XmlType.LONG, XML_MONITOR_PASTLIMIT),
             new XmlDecl(XmlType.LONG, XML_MONITOR_MINIMALDELAY),
+            new XmlDecl(XmlType.LONG, XML_MONITOR_RECONCILEDELAY),
             new XmlDecl(XmlType.STRING, XML_MONITOR_SNMP_CONFIG),
-            new XmlDecl(XmlType.INTEGER, XML_MULTIPLE_MONITORS)
+            new XmlDecl(XmlType.LONG, XML_MONITOR_SNMP_INTERVAL),
+            new XmlDecl(XmlType.INTEGER, XML_MONITOR_SNMP_MAXPERINTERVAL),
+            new XmlDecl(XmlType.INTEGER, XML_MONITOR_SNMP_QUEUESIZE),
+            new XmlDecl(XmlType.INTEGER, XML_MULTIPLE_MONITORS),
+            new XmlDecl(XmlType.INTEGER, XML_MULTIPLE_MONITORS_INDEX),
+            new XmlDecl(XmlType.LONG, XML_MULTIPLE_MONITORS_LEASE)
     };
     /**
      * Structure of the Configuration file
@@ -558,7 +757,24 @@ public class FileBasedConfiguration {
             new XmlDecl(XmlType.STRING, XML_DBUSER),
             new XmlDecl(XmlType.STRING, XML_DBPASSWD),
             new XmlDecl(XmlType.BOOLEAN, XML_DBCHECK),
-            new XmlDecl(XmlType.BOOLEAN, XML_SAVE_TASKRUNNERNODB)
+            new XmlDecl(XmlType.BOOLEAN, XML_SAVE_TASKRUNNERNODB),
+            new XmlDecl(XmlType.BOOLEAN, XML_JOURNAL_TASKRUNNERNODB),
+            new XmlDecl(XmlType.INTEGER, XML_JOURNAL_COMPACTION),
+            new XmlDecl(XmlType.STRING, XML_LOGEXPORT_FORMAT),
+            new XmlDecl(XmlType.BOOLEAN, XML_LOGEXPORT_COMPRESS),
+            new XmlDecl(XmlType.INTEGER, XML_LOGEXPORT_PARALLEL),
+            new XmlDecl(XmlType.INTEGER, XML_PURGE_CHUNKSIZE),
+            new XmlDecl(XmlType.LONG, XML_PURGE_CHUNKDELAY),
+            new XmlDecl(XmlType.INTEGER, XML_DBPOOL_TRANSFER),
+            new XmlDecl(XmlType.INTEGER, XML_DBPOOL_SCHEDULER),
+            new XmlDecl(XmlType.INTEGER, XML_DBPOOL_MONITORING),
+            new XmlDecl(XmlType.INTEGER, XML_DBPOOL_ADMIN),
+            new XmlDecl(XmlType.LONG, XML_DBPOOL_WAIT),
+            new XmlDecl(XmlType.INTEGER, XML_DBASYNC_THREADS),
+            new XmlDecl(XmlType.STRING, XML_DBREPLICA_SERVER),
+            new XmlDecl(XmlType.STRING, XML_DBREPLICA_USER),
+            new XmlDecl(XmlType.STRING, XML_DBREPLICA_PASSWD),
+            new XmlDecl(XmlType.LONG, XML_DBREPLICA_RETRY)
     };
 
     /**
@@ -572,7 +788,21 @@ public class FileBasedConfiguration {
             new XmlDecl(XmlType.LONG, XML_LIMITDELAY),
             new XmlDecl(XmlType.INTEGER, XML_LIMITRUNNING),
             new XmlDecl(XmlType.LONG, XML_DELAYCOMMANDER),
+            new XmlDecl(XmlType.LONG, XML_DELAYCOMMANDER_BACKLOG),
+            new XmlDecl(XmlType.LONG, XML_DELAYCOMMANDER_FULLSCAN),
+            new XmlDecl(XmlType.INTEGER, XML_RECOVERY_CHUNK),
+            new XmlDecl(XmlType.INTEGER, XML_RECOVERY_START),
+            new XmlDecl(XmlType.LONG, XML_RECOVERY_STEP),
+            new XmlDecl(XmlType.INTEGER, XML_CLIENTRUNNER_THREADS),
+            new XmlDecl(XmlType.STRING, XML_SCHEDULER_RULES),
+            new XmlDecl(XmlType.INTEGER, XML_SCHEDULER_PARTNERLIMIT),
+            new XmlDecl(XmlType.STRING, XML_SCHEDULER_PARTNERLIMITS),
+            new XmlDecl(XmlType.STRING, XML_SCHEDULER_PARTNERWEIGHTS),
+            new XmlDecl(XmlType.INTEGER, XML_SCHEDULER_MAXWAITING),
             new XmlDecl(XmlType.LONG, XML_DELAYRETRY),
+            new XmlDecl(XmlType.LONG, XML_DELAYRETRY_MAX),
+            new XmlDecl(XmlType.INTEGER, XML_CIRCUITBREAKER_THRESHOLD),
+            new XmlDecl(XmlType.LONG, XML_CIRCUITBREAKER_DELAY),
             new XmlDecl(XmlType.INTEGER, XML_SERVER_THREAD),
             new XmlDecl(XmlType.INTEGER, XML_CLIENT_THREAD),
             new XmlDecl(XmlType.LONG, XML_MEMORY_LIMIT),
@@ -584,6 +814,8 @@ public class FileBasedConfiguration {
             new XmlDecl(XmlType.DOUBLE, XML_CSTRT_HIGHCPULIMIT),
             new XmlDecl(XmlType.DOUBLE, XML_CSTRT_PERCENTDECREASE),
             new XmlDecl(XmlType.LONG, XML_CSTRT_LIMITLOWBANDWIDTH),
+            new XmlDecl(XmlType.BOOLEAN, XML_CSTRT_USEADAPTIVELIMIT),
+            new XmlDecl(XmlType.INTEGER, XML_CSTRT_ADAPTIVELIMITMIN),
             new XmlDecl(XmlType.LONG, XML_CSTRT_DELAYTHROTTLE),
             new XmlDecl(XmlType.LONG, XML_TIMEOUTCON),
             new XmlDecl(XmlType.BOOLEAN, XML_USENIO),
@@ -615,6 +847,12 @@ public class FileBasedConfiguration {
             new XmlDecl(
                     XmlType.BOOLEAN,
                     XML_SAVE_TASKRUNNERNODB),
+            new XmlDecl(
+                    XmlType.BOOLEAN,
+                    XML_JOURNAL_TASKRUNNERNODB),
+            new XmlDecl(
+                    XmlType.INTEGER,
+                    XML_JOURNAL_COMPACTION),
     };
     /**
      * Structure of the Configuration file
@@ -975,6 +1213,10 @@ public class FileBasedConfiguration {
         if (value != null && (!value.isEmpty())) {
             config.minimalDelay = (value.getLong() / 10) * 10;
         }
+        value = hashConfig.get(XML_MONITOR_RECONCILEDELAY);
+        if (value != null && (!value.isEmpty())) {
+            config.monitoringReconcileDelay = value.getLong();
+        }
         value = hashConfig.get(XML_MONITOR_SNMP_CONFIG);
         if (value != null && (!value.isEmpty())) {
             config.snmpConfig = value.getString();
@@ -987,6 +1229,27 @@ public class FileBasedConfiguration {
                 config.snmpConfig = null;
             }
         }
+        value = hashConfig.get(XML_MONITOR_SNMP_INTERVAL);
+        if (value != null && (!value.isEmpty())) {
+            long interval = value.getLong();
+            if (interval > 0) {
+                config.snmpNotificationInterval = interval;
+            }
+        }
+        value = hashConfig.get(XML_MONITOR_SNMP_MAXPERINTERVAL);
+        if (value != null && (!value.isEmpty())) {
+            int max = value.getInteger();
+            if (max > 0) {
+                config.snmpNotificationMaxPerInterval = max;
+            }
+        }
+        value = hashConfig.get(XML_MONITOR_SNMP_QUEUESIZE);
+        if (value != null && (!value.isEmpty())) {
+            int size = value.getInteger();
+            if (size > 0) {
+                config.snmpNotificationQueueSize = size;
+            }
+        }
         value = hashConfig.get(XML_MULTIPLE_MONITORS);
         if (value != null && (!value.isEmpty())) {
             config.multipleMonitors = value.getInteger();
@@ -994,6 +1257,23 @@ public class FileBasedConfiguration {
                 logger.warn(Messages.getString("FileBasedConfiguration.MMOn") //$NON-NLS-1$
                         + config.multipleMonitors
                         + Messages.getString("FileBasedConfiguration.MMOn2")); //$NON-NLS-1$
+                value = hashConfig.get(XML_MULTIPLE_MONITORS_INDEX);
+                if (value != null && (!value.isEmpty())) {
+                    config.multipleMonitorIndex = value.getInteger();
+                    if (config.multipleMonitorIndex < 0 ||
+                            config.multipleMonitorIndex >= config.multipleMonitors) {
+                        logger.warn("Monitor index " + config.multipleMonitorIndex +
+                                " out of range, runners to submit not shared");
+                        config.multipleMonitorIndex = -1;
+                    }
+                }
+                value = hashConfig.get(XML_MULTIPLE_MONITORS_LEASE);
+                if (value != null && (!value.isEmpty())) {
+                    long lease = value.getLong();
+                    if (lease > 0) {
+                        config.multipleMonitorLease = lease;
+                    }
+                }
             } else {
                 config.multipleMonitors = 1;
                 if (config.warnOnStartup) {
@@ -1023,9 +1303,28 @@ public class FileBasedConfiguration {
         if (value != null && (!value.isEmpty())) {
             config.saveTaskRunnerWithNoDb = value.getBoolean();
         }
+        loadJournalParam(config);
         return true;
     }
 
+    /**
+     * 
+     * @param config
+     */
+    private static void loadJournalParam(Configuration config) {
+        XmlValue value = hashConfig.get(XML_JOURNAL_TASKRUNNERNODB);
+        if (value != null && (!value.isEmpty())) {
+            config.journalTaskRunnerWithNoDb = value.getBoolean();
+        }
+        value = hashConfig.get(XML_JOURNAL_COMPACTION);
+        if (value != null && (!value.isEmpty())) {
+            int threshold = value.getInteger();
+            if (threshold > 0) {
+                config.journalCompactionThreshold = threshold;
+            }
+        }
+    }
+
     /**
      * 
      * @param config
@@ -1151,6 +1450,71 @@ public class FileBasedConfiguration {
             logger.info("Delay Commander: {}",
                     config.delayCommander);
         }
+        value = hashConfig.get(XML_DELAYCOMMANDER_BACKLOG);
+        if (value != null && (!value.isEmpty())) {
+            config.delayCommanderBacklog = value.getLong();
+            if (config.delayCommanderBacklog <= 100) {
+                config.delayCommanderBacklog = 100;
+            }
+        }
+        value = hashConfig.get(XML_DELAYCOMMANDER_FULLSCAN);
+        if (value != null && (!value.isEmpty())) {
+            config.delayCommanderFullScan = value.getLong();
+        }
+        value = hashConfig.get(XML_RECOVERY_CHUNK);
+        if (value != null && (!value.isEmpty())) {
+            config.recoveryChunkSize = value.getInteger();
+            if (config.recoveryChunkSize < 0) {
+                config.recoveryChunkSize = 0;
+            }
+        }
+        value = hashConfig.get(XML_RECOVERY_START);
+        if (value != null && (!value.isEmpty())) {
+            config.recoveryStart = value.getInteger();
+            if (config.recoveryStart <= 0) {
+                config.recoveryStart = 1;
+            }
+        }
+        value = hashConfig.get(XML_RECOVERY_STEP);
+        if (value != null && (!value.isEmpty())) {
+            config.recoveryStepDelay = value.getLong();
+            if (config.recoveryStepDelay < 100) {
+                config.recoveryStepDelay = 100;
+            }
+        }
+        value = hashConfig.get(XML_CLIENTRUNNER_THREADS);
+        if (value != null && (!value.isEmpty())) {
+            config.clientRunnerThreads = value.getInteger();
+            if (config.clientRunnerThreads <= 0) {
+                config.clientRunnerThreads = 1;
+            }
+        }
+        value = hashConfig.get(XML_SCHEDULER_RULES);
+        if (value != null && (!value.isEmpty())) {
+            config.schedulerRulePriorities = TransferScheduler.parsePriorities(value.getString());
+        }
+        value = hashConfig.get(XML_SCHEDULER_PARTNERLIMIT);
+        if (value != null && (!value.isEmpty())) {
+            config.schedulerPartnerLimit = value.getInteger();
+            if (config.schedulerPartnerLimit < 0) {
+                config.schedulerPartnerLimit = 0;
+            }
+        }
+        value = hashConfig.get(XML_SCHEDULER_PARTNERLIMITS);
+        if (value != null && (!value.isEmpty())) {
+            config.schedulerPartnerLimits = TransferScheduler.parseIntegers(value.getString());
+        }
+        value = hashConfig.get(XML_SCHEDULER_PARTNERWEIGHTS);
+        if (value != null && (!value.isEmpty())) {
+            config.schedulerPartnerWeights = TransferScheduler.parseIntegers(value.getString());
+        }
+        value = hashConfig.get(XML_SCHEDULER_MAXWAITING);
+        if (value != null && (!value.isEmpty())) {
+            config.schedulerMaxWaiting = value.getInteger();
+            if (config.schedulerMaxWaiting < 1) {
+                config.schedulerMaxWaiting = 1;
+            }
+        }
         value = hashConfig.get(XML_DELAYRETRY);
         if (value != null && (!value.isEmpty())) {
             config.delayRetry = (value.getLong() / 10) * 10;
@@ -1160,6 +1524,24 @@ public class FileBasedConfiguration {
             logger.info("Delay Retry: {}",
                     config.delayRetry);
         }
+        value = hashConfig.get(XML_DELAYRETRY_MAX);
+        if (value != null && (!value.isEmpty())) {
+            config.delayRetryMax = value.getLong();
+        }
+        if (config.delayRetryMax < config.delayRetry) {
+            config.delayRetryMax = config.delayRetry;
+        }
+        value = hashConfig.get(XML_CIRCUITBREAKER_THRESHOLD);
+        if (value != null && (!value.isEmpty())) {
+            config.circuitBreakerThreshold = value.getInteger();
+        }
+        value = hashConfig.get(XML_CIRCUITBREAKER_DELAY);
+        if (value != null && (!value.isEmpty())) {
+            config.circuitBreakerDelay = value.getLong();
+            if (config.circuitBreakerDelay < 1000) {
+                config.circuitBreakerDelay = 1000;
+            }
+        }
         if (DbConstant.admin.isActive && updateLimit) {
             value = hashConfig.get(XML_SERVER_HOSTID);
             if (value != null && (!value.isEmpty())) {
@@ -1257,6 +1639,23 @@ public class FileBasedConfiguration {
             config.constraintLimitHandler =
                     new R66ConstraintLimitHandler(false, false, 1.0, connlimit);
         }
+        value = hashConfig.get(XML_CSTRT_USEADAPTIVELIMIT);
+        if (value != null && (!value.isEmpty())) {
+            config.adaptiveLimit = value.getBoolean();
+        }
+        value = hashConfig.get(XML_CSTRT_ADAPTIVELIMITMIN);
+        if (value != null && (!value.isEmpty())) {
+            config.adaptiveLimitMin = value.getInteger();
+            if (config.adaptiveLimitMin < 1) {
+                config.adaptiveLimitMin = 1;
+            }
+        }
+        if (config.adaptiveLimit) {
+            logger.debug("Adaptive limit of concurrent transfers from " + config.adaptiveLimitMin +
+                    " to " + config.RUNNER_THREAD);
+            config.constraintLimitHandler.setAdaptiveLimit(config.adaptiveLimitMin,
+                    config.RUNNER_THREAD);
+        }
         value = hashConfig.get(XML_SERVER_THREAD);
         if (value != null && (!value.isEmpty())) {
             config.SERVER_THREAD = value.getInteger();
@@ -1767,14 +2166,116 @@ public class FileBasedConfiguration {
                     return false;
                 }
             }
+            loadReadReplica(config, dbdriver, dbuser, dbpasswd);
         }
         value = hashConfig.get(XML_SAVE_TASKRUNNERNODB);
         if (value != null && (!value.isEmpty())) {
             config.saveTaskRunnerWithNoDb = value.getBoolean();
         }
+        loadJournalParam(config);
+        value = hashConfig.get(XML_LOGEXPORT_FORMAT);
+        if (value != null && (!value.isEmpty())) {
+            config.logExportFormat = DbTaskRunnerExporter.FORMAT.getFormat(value.getString());
+        }
+        value = hashConfig.get(XML_LOGEXPORT_COMPRESS);
+        if (value != null && (!value.isEmpty())) {
+            config.logExportCompress = value.getBoolean();
+        }
+        value = hashConfig.get(XML_LOGEXPORT_PARALLEL);
+        if (value != null && (!value.isEmpty())) {
+            int parallel = value.getInteger();
+            if (parallel > 0) {
+                config.logExportParallelism = parallel;
+            }
+        }
+        value = hashConfig.get(XML_PURGE_CHUNKSIZE);
+        if (value != null && (!value.isEmpty())) {
+            int chunk = value.getInteger();
+            if (chunk >= 0) {
+                config.purgeChunkSize = chunk;
+            }
+        }
+        value = hashConfig.get(XML_PURGE_CHUNKDELAY);
+        if (value != null && (!value.isEmpty())) {
+            long delay = value.getLong();
+            if (delay >= 0) {
+                config.purgeChunkDelay = delay;
+            }
+        }
+        value = hashConfig.get(XML_DBPOOL_TRANSFER);
+        if (value != null && (!value.isEmpty())) {
+            config.dbPoolTransfer = value.getInteger();
+        }
+        value = hashConfig.get(XML_DBPOOL_SCHEDULER);
+        if (value != null && (!value.isEmpty())) {
+            config.dbPoolScheduler = value.getInteger();
+        }
+        value = hashConfig.get(XML_DBPOOL_MONITORING);
+        if (value != null && (!value.isEmpty())) {
+            config.dbPoolMonitoring = value.getInteger();
+        }
+        value = hashConfig.get(XML_DBPOOL_ADMIN);
+        if (value != null && (!value.isEmpty())) {
+            config.dbPoolAdmin = value.getInteger();
+        }
+        value = hashConfig.get(XML_DBPOOL_WAIT);
+        if (value != null && (!value.isEmpty())) {
+            config.dbPoolWaitTimeout = value.getLong();
+        }
+        DbSessionPool.TRANSFER.setMaxSize(config.dbPoolTransfer);
+        DbSessionPool.SCHEDULER.setMaxSize(config.dbPoolScheduler);
+        DbSessionPool.MONITORING.setMaxSize(config.dbPoolMonitoring);
+        DbSessionPool.ADMIN.setMaxSize(config.dbPoolAdmin);
+        DbSessionPool.setWaitTimeout(config.dbPoolWaitTimeout);
+        value = hashConfig.get(XML_DBASYNC_THREADS);
+        if (value != null && (!value.isEmpty())) {
+            int nb = value.getInteger();
+            if (nb >= 0) {
+                config.dbAsyncThreads = nb;
+            }
+        }
         return true;
     }
 
+    /**
+     * Load the optional read only replica of the database
+     * 
+     * @param config
+     * @param dbdriver
+     * @param dbuser
+     * @param dbpasswd
+     */
+    private static void loadReadReplica(Configuration config, String dbdriver, String dbuser,
+            String dbpasswd) {
+        XmlValue value = hashConfig.get(XML_DBREPLICA_SERVER);
+        if (value == null || (value.isEmpty())) {
+            return;
+        }
+        config.dbReplicaServer = value.getString();
+        String user = dbuser;
+        value = hashConfig.get(XML_DBREPLICA_USER);
+        if (value != null && (!value.isEmpty())) {
+            user = value.getString();
+        }
+        String passwd = dbpasswd;
+        value = hashConfig.get(XML_DBREPLICA_PASSWD);
+        if (value != null && (!value.isEmpty())) {
+            passwd = value.getString();
+        }
+        value = hashConfig.get(XML_DBREPLICA_RETRY);
+        if (value != null && (!value.isEmpty())) {
+            config.dbReplicaRetryDelay = value.getLong();
+        }
+        try {
+            DbReadReplica.initialize(DbModelFactory.initializeReadReplica(dbdriver,
+                    config.dbReplicaServer, user, passwd), config.dbReplicaRetryDelay);
+            logger.info("Database read replica: " + config.dbReplicaServer);
+        } catch (WaarpDatabaseNoConnectionException e) {
+            logger.warn("Cannot connect to the database read replica, main database will be used",
+                    e);
+        }
+    }
+
     /**
      * Load white list for Business if any
      * 
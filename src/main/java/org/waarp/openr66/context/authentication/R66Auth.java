@@ -34,6 +34,7 @@ import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.networkhandler.NetworkChannelReference;
 
 /**
  * @author frederic bregier
@@ -104,6 +105,24 @@ public class R66Auth extends FilesystemBasedAuthImpl {
      */
     public boolean connection(DbSession dbSession, String hostId, byte[] arg0)
             throws Reply530Exception, Reply421Exception {
+        return connection(dbSession, hostId, arg0, null);
+    }
+
+    /**
+     * @param dbSession
+     * @param hostId
+     * @param arg0
+     * @param networkChannelReference
+     *            if not null, the network connection whose previous authentication may be reused
+     * @return True if the connection is OK (authentication is OK)
+     * @throws Reply530Exception
+     *             if the authentication is wrong
+     * @throws Reply421Exception
+     *             If the service is not available
+     */
+    public boolean connection(DbSession dbSession, String hostId, byte[] arg0,
+            NetworkChannelReference networkChannelReference)
+            throws Reply530Exception, Reply421Exception {
         DbHostAuth auth = R66Auth
                 .getServerAuth(dbSession, hostId);
         if (auth == null) {
@@ -114,7 +133,9 @@ public class R66Auth extends FilesystemBasedAuthImpl {
         }
         currentAuth = auth;
         role.clear();
-        if (currentAuth.isKeyValid(arg0)) {
+        if ((networkChannelReference != null &&
+                networkChannelReference.isAuthenticated(hostId, arg0, currentAuth)) ||
+                currentAuth.isKeyValid(arg0)) {
             setIsIdentified(true);
             user = hostId;
             setRootFromAuth();
@@ -147,6 +168,14 @@ public class R66Auth extends FilesystemBasedAuthImpl {
         throw new Reply530Exception("Key is not valid for this HostId");
     }
 
+    /**
+     * 
+     * @return the current authentication
+     */
+    public DbHostAuth getCurrentAuth() {
+        return currentAuth;
+    }
+
     /**
      * 
      * @param key
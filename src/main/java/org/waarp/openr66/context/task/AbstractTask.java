@@ -18,16 +18,15 @@
 package org.waarp.openr66.context.task;
 
 import java.io.File;
-import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.waarp.common.command.exception.CommandAbstractException;
-import org.waarp.common.utility.WaarpStringUtils;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.context.filesystem.R66Dir;
 import org.waarp.openr66.context.filesystem.R66File;
+import org.waarp.openr66.context.task.SubstitutionTemplate.Placeholder;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoSslException;
@@ -175,6 +174,22 @@ public abstract class AbstractTask implements Runnable {
      */
     public static final String LOCALEXEC = "#LOCALEXEC#";
 
+    /**
+     * Formatters for DATE and HOUR (SimpleDateFormat is not thread safe)
+     */
+    private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyyMMdd");
+        }
+    };
+    private static final ThreadLocal<SimpleDateFormat> hourFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("HHmmss");
+        }
+    };
+
     /**
      * Type of operation
      */
@@ -272,181 +287,160 @@ public abstract class AbstractTask implements Runnable {
      * @return The string with replaced values from context and second argument
      */
     protected String getReplacedValue(String arg, Object[] argFormat) {
-        StringBuilder builder = new StringBuilder(arg);
+        SubstitutionTemplate template = SubstitutionTemplate.compile(arg);
         // check NOWAIT and LOCALEXEC
-        if (arg.contains(NOWAIT)) {
+        if (template.contains(Placeholder.NOWAIT)) {
             waitForValidation = false;
-            WaarpStringUtils.replaceAll(builder, NOWAIT, "");
         }
-        if (arg.contains(LOCALEXEC)) {
+        if (template.contains(Placeholder.LOCALEXEC)) {
             useLocalExec = true;
-            WaarpStringUtils.replaceAll(builder, LOCALEXEC, "");
-        }
-        File trueFile = null;
-        if (session.getFile() != null) {
-            trueFile = session.getFile().getTrueFile();
         }
-        if (trueFile != null) {
-            WaarpStringUtils.replaceAll(builder, TRUEFULLPATH, trueFile.getAbsolutePath());
-            WaarpStringUtils.replaceAll(builder, TRUEFILENAME, R66Dir
-                    .getFinalUniqueFilename(session.getFile()));
-            WaarpStringUtils.replaceAll(builder, FILESIZE, Long.toString(trueFile.length()));
-        } else {
-            WaarpStringUtils.replaceAll(builder, TRUEFULLPATH, "nofile");
-            WaarpStringUtils.replaceAll(builder, TRUEFILENAME, "nofile");
-            WaarpStringUtils.replaceAll(builder, FILESIZE, "0");
-        }
-        DbTaskRunner runner = session.getRunner();
-        if (runner != null) {
-            WaarpStringUtils.replaceAll(builder, ORIGINALFULLPATH, runner
-                    .getOriginalFilename());
-            WaarpStringUtils.replaceAll(builder, ORIGINALFILENAME,
-                    R66File.getBasename(runner
-                            .getOriginalFilename()));
-            WaarpStringUtils.replaceAll(builder, RULE, runner
-                    .getRuleId());
-        }
-        DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-        Date date = new Date();
-        WaarpStringUtils.replaceAll(builder, DATE, dateFormat.format(date));
-        dateFormat = new SimpleDateFormat("HHmmss");
-        WaarpStringUtils.replaceAll(builder, HOUR, dateFormat.format(date));
-        if (session.getAuth() != null) {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOST, session.getAuth().getUser());
-            try {
-                WaarpStringUtils.replaceAll(builder, LOCALHOST,
-                        Configuration.configuration.getHostId(session.getAuth().isSsl()));
-            } catch (OpenR66ProtocolNoSslException e) {
-                // replace by standard name
-                WaarpStringUtils.replaceAll(builder, LOCALHOST,
-                        Configuration.configuration.HOST_ID);
+        String[] values = new String[Placeholder.values().length];
+        Date date = null;
+        for (Placeholder placeholder : template.getPlaceholders()) {
+            if (placeholder == Placeholder.DATE || placeholder == Placeholder.HOUR) {
+                if (date == null) {
+                    date = new Date();
+                }
+                values[placeholder.ordinal()] = placeholder == Placeholder.DATE ?
+                        dateFormat.get().format(date) : hourFormat.get().format(date);
+            } else {
+                values[placeholder.ordinal()] = getPlaceholderValue(placeholder);
             }
         }
-        if (session.getRemoteAddress() != null) {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOSTADDR, session.getRemoteAddress()
-                    .toString());
-            WaarpStringUtils.replaceAll(builder, LOCALHOSTADDR, session.getLocalAddress()
-                    .toString());
-        } else {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOSTADDR, "unknown");
-            WaarpStringUtils.replaceAll(builder, LOCALHOSTADDR, "unknown");
-        }
-        if (runner != null) {
-            WaarpStringUtils.replaceAll(builder, TRANSFERID, Long.toString(runner.getSpecialId()));
-            String requester = runner.getRequester();
-            WaarpStringUtils.replaceAll(builder, REQUESTERHOST, requester);
-            String requested = runner.getRequested();
-            WaarpStringUtils.replaceAll(builder, REQUESTEDHOST, requested);
-            WaarpStringUtils.replaceAll(builder, FULLTRANSFERID,
-                    runner.getSpecialId() + "_" + requester + "_" + requested);
-            WaarpStringUtils.replaceAll(builder, RANKTRANSFER, Integer.toString(runner.getRank()));
-        }
-        WaarpStringUtils.replaceAll(builder, BLOCKSIZE, Integer.toString(session
-                .getBlockSize()));
-        R66Dir dir = new R66Dir(session);
-        if (runner != null) {
-            if (runner.isRecvThrough() || runner.isSendThrough()) {
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getRecvPath());
-                    WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+        String result = template.apply(values);
+        // finalname
+        if (argFormat != null && argFormat.length > 0)
+            return String.format(result, argFormat);
+        return result;
+    }
+
+    /**
+     * 
+     * @param placeholder
+     * @return the value from context for this placeholder (except DATE and HOUR), or null if the
+     *         placeholder must be kept as is
+     */
+    private String getPlaceholderValue(Placeholder placeholder) {
+        DbTaskRunner runner = session.getRunner();
+        switch (placeholder) {
+            case NOWAIT:
+            case LOCALEXEC:
+                return "";
+            case TRUEFULLPATH:
+            case TRUEFILENAME:
+            case FILESIZE: {
+                File trueFile = null;
+                if (session.getFile() != null) {
+                    trueFile = session.getFile().getTrueFile();
                 }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getSendPath());
-                    WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                if (trueFile == null) {
+                    return placeholder == Placeholder.FILESIZE ? "0" : "nofile";
                 }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getWorkPath());
-                    WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                if (placeholder == Placeholder.TRUEFULLPATH) {
+                    return trueFile.getAbsolutePath();
+                } else if (placeholder == Placeholder.TRUEFILENAME) {
+                    return R66Dir.getFinalUniqueFilename(session.getFile());
                 }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getArchivePath());
-                    WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                return Long.toString(trueFile.length());
+            }
+            case ORIGINALFULLPATH:
+                return runner == null ? null : runner.getOriginalFilename();
+            case ORIGINALFILENAME:
+                return runner == null ? null : R66File.getBasename(runner.getOriginalFilename());
+            case RULE:
+                return runner == null ? null : runner.getRuleId();
+            case REMOTEHOST:
+                return session.getAuth() == null ? null : session.getAuth().getUser();
+            case LOCALHOST:
+                if (session.getAuth() == null) {
+                    return null;
                 }
-            } else {
                 try {
-                    dir.changeDirectory(runner.getRule().getRecvPath());
-                    WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                    return Configuration.configuration.getHostId(session.getAuth().isSsl());
+                } catch (OpenR66ProtocolNoSslException e) {
+                    // replace by standard name
+                    return Configuration.configuration.HOST_ID;
                 }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectory(runner.getRule().getSendPath());
-                    WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+            case REMOTEHOSTADDR:
+                return session.getRemoteAddress() == null ? "unknown" :
+                        session.getRemoteAddress().toString();
+            case LOCALHOSTADDR:
+                return session.getRemoteAddress() == null ? "unknown" :
+                        session.getLocalAddress().toString();
+            case TRANSFERID:
+                return runner == null ? null : Long.toString(runner.getSpecialId());
+            case REQUESTERHOST:
+                return runner == null ? null : runner.getRequester();
+            case REQUESTEDHOST:
+                return runner == null ? null : runner.getRequested();
+            case FULLTRANSFERID:
+                return runner == null ? null : runner.getSpecialId() + "_" + runner.getRequester()
+                        + "_" + runner.getRequested();
+            case RANKTRANSFER:
+                return runner == null ? null : Integer.toString(runner.getRank());
+            case BLOCKSIZE:
+                return Integer.toString(session.getBlockSize());
+            case INPATH:
+                return getPath(runner == null ? Configuration.configuration.inPath :
+                        runner.getRule().getRecvPath(), runner);
+            case OUTPATH:
+                return getPath(runner == null ? Configuration.configuration.outPath :
+                        runner.getRule().getSendPath(), runner);
+            case WORKPATH:
+                return getPath(runner == null ? Configuration.configuration.workingPath :
+                        runner.getRule().getWorkPath(), runner);
+            case ARCHPATH:
+                return getPath(runner == null ? Configuration.configuration.archivePath :
+                        runner.getRule().getArchivePath(), runner);
+            case HOMEPATH:
+                return Configuration.configuration.baseDirectory;
+            case ERRORMSG:
+                if (session.getLocalChannelReference() == null) {
+                    return "NoError";
+                }
+                String message = session.getLocalChannelReference().getErrorMessage();
+                return message == null ? "NoError" : message;
+            case ERRORCODE:
+                if (session.getLocalChannelReference() == null) {
+                    return "-";
                 }
-                dir = new R66Dir(session);
                 try {
-                    dir.changeDirectory(runner.getRule().getWorkPath());
-                    WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                    return session.getLocalChannelReference().getCurrentCode().getCode();
+                } catch (NullPointerException e) {
+                    return "-";
+                }
+            case ERRORSTRCODE:
+                if (session.getLocalChannelReference() == null) {
+                    return ErrorCode.Unknown.name();
                 }
-                dir = new R66Dir(session);
                 try {
-                    dir.changeDirectory(runner.getRule().getArchivePath());
-                    WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                    return session.getLocalChannelReference().getCurrentCode().name();
+                } catch (NullPointerException e) {
+                    return ErrorCode.Unknown.name();
                 }
-            }
-        } else {
-            try {
-                dir.changeDirectory(Configuration.configuration.inPath);
-                WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.outPath);
-                WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.workingPath);
-                WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.archivePath);
-                WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
+            default:
+                return null;
         }
-        WaarpStringUtils.replaceAll(builder, HOMEPATH, Configuration.configuration.baseDirectory);
-        if (session.getLocalChannelReference() == null) {
-            WaarpStringUtils.replaceAll(builder, ERRORMSG, "NoError");
-            WaarpStringUtils.replaceAll(builder, ERRORCODE, "-");
-            WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, ErrorCode.Unknown.name());
-        } else {
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORMSG, session.getLocalChannelReference()
-                        .getErrorMessage());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORMSG, "NoError");
-            }
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORCODE, session.getLocalChannelReference()
-                        .getCurrentCode().getCode());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORCODE, "-");
-            }
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, session
-                        .getLocalChannelReference().getCurrentCode().name());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, ErrorCode.Unknown.name());
+    }
+
+    /**
+     * 
+     * @param path
+     * @param runner
+     * @return the full path of this Rule or default path, or null if not valid
+     */
+    private String getPath(String path, DbTaskRunner runner) {
+        R66Dir dir = new R66Dir(session);
+        try {
+            if (runner != null && (runner.isRecvThrough() || runner.isSendThrough())) {
+                dir.changeDirectoryNotChecked(path);
+            } else {
+                dir.changeDirectory(path);
             }
+            return dir.getFullPath();
+        } catch (CommandAbstractException e) {
+            return null;
         }
-        // finalname
-        if (argFormat != null && argFormat.length > 0)
-            return String.format(builder.toString(), argFormat);
-        return builder.toString();
     }
 }
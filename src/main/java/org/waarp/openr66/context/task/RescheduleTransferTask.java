@@ -24,6 +24,7 @@ import java.util.Map;
 
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.commander.InternalRunner;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.R66Session;
@@ -208,6 +209,7 @@ public class RescheduleTransferTask extends AbstractTask {
             runner.setStart(start);
             if (runner.restart(true)) {
                 runner.saveStatus();
+                InternalRunner.submitLocally(runner);
             }
         } catch (OpenR66RunnerErrorException e) {
             logger.error(
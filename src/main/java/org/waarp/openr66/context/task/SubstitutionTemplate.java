@@ -0,0 +1,205 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled form of a task argument: the argument is parsed once into literal segments and
+ * placeholders (#TRUEFULLPATH#, #DATE#, ...) such that only the placeholders really present are
+ * evaluated at each task execution, in one pass.<br>
+ * <br>
+ * A placeholder with no value (null) is kept as is in the result, as with the previous
+ * successive replacements.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class SubstitutionTemplate {
+    /**
+     * All placeholders known by AbstractTask
+     */
+    public static enum Placeholder {
+        TRUEFULLPATH(AbstractTask.TRUEFULLPATH),
+        TRUEFILENAME(AbstractTask.TRUEFILENAME),
+        ORIGINALFULLPATH(AbstractTask.ORIGINALFULLPATH),
+        ORIGINALFILENAME(AbstractTask.ORIGINALFILENAME),
+        FILESIZE(AbstractTask.FILESIZE),
+        RULE(AbstractTask.RULE),
+        DATE(AbstractTask.DATE),
+        HOUR(AbstractTask.HOUR),
+        REMOTEHOST(AbstractTask.REMOTEHOST),
+        REMOTEHOSTADDR(AbstractTask.REMOTEHOSTADDR),
+        LOCALHOST(AbstractTask.LOCALHOST),
+        LOCALHOSTADDR(AbstractTask.LOCALHOSTADDR),
+        TRANSFERID(AbstractTask.TRANSFERID),
+        REQUESTERHOST(AbstractTask.REQUESTERHOST),
+        REQUESTEDHOST(AbstractTask.REQUESTEDHOST),
+        FULLTRANSFERID(AbstractTask.FULLTRANSFERID),
+        RANKTRANSFER(AbstractTask.RANKTRANSFER),
+        BLOCKSIZE(AbstractTask.BLOCKSIZE),
+        INPATH(AbstractTask.INPATH),
+        OUTPATH(AbstractTask.OUTPATH),
+        WORKPATH(AbstractTask.WORKPATH),
+        ARCHPATH(AbstractTask.ARCHPATH),
+        HOMEPATH(AbstractTask.HOMEPATH),
+        ERRORMSG(AbstractTask.ERRORMSG),
+        ERRORCODE(AbstractTask.ERRORCODE),
+        ERRORSTRCODE(AbstractTask.ERRORSTRCODE),
+        NOWAIT(AbstractTask.NOWAIT),
+        LOCALEXEC(AbstractTask.LOCALEXEC);
+
+        public final String token;
+
+        private Placeholder(String token) {
+            this.token = token;
+        }
+    }
+
+    private static final Map<String, Placeholder> placeholders = new HashMap<String, Placeholder>();
+    static {
+        for (Placeholder placeholder : Placeholder.values()) {
+            placeholders.put(placeholder.token, placeholder);
+        }
+    }
+
+    /**
+     * Maximum number of compiled templates kept
+     */
+    private static final int MAXTEMPLATES = 5000;
+
+    private static final ConcurrentHashMap<String, SubstitutionTemplate> templates =
+            new ConcurrentHashMap<String, SubstitutionTemplate>();
+
+    private final String source;
+    /**
+     * literals[i] is before placeholdersArray[i], last literal is after the last placeholder
+     */
+    private final String[] literals;
+    private final Placeholder[] placeholdersArray;
+    private final EnumSet<Placeholder> used;
+
+    private SubstitutionTemplate(String source) {
+        this.source = source;
+        List<String> literalList = new ArrayList<String>();
+        List<Placeholder> placeholderList = new ArrayList<Placeholder>();
+        used = EnumSet.noneOf(Placeholder.class);
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        int length = source.length();
+        while (pos < length) {
+            int start = source.indexOf('#', pos);
+            if (start < 0) {
+                literal.append(source, pos, length);
+                break;
+            }
+            int end = source.indexOf('#', start + 1);
+            if (end < 0) {
+                literal.append(source, pos, length);
+                break;
+            }
+            Placeholder placeholder = placeholders.get(source.substring(start, end + 1));
+            if (placeholder == null) {
+                // not a placeholder: the closing '#' might open the next one
+                literal.append(source, pos, end);
+                pos = end;
+                continue;
+            }
+            literal.append(source, pos, start);
+            literalList.add(literal.toString());
+            literal.setLength(0);
+            placeholderList.add(placeholder);
+            used.add(placeholder);
+            pos = end + 1;
+        }
+        literalList.add(literal.toString());
+        literals = literalList.toArray(new String[literalList.size()]);
+        placeholdersArray = placeholderList.toArray(new Placeholder[placeholderList.size()]);
+    }
+
+    /**
+     * 
+     * @param arg
+     * @return the compiled template for this argument (compiled once)
+     */
+    public static SubstitutionTemplate compile(String arg) {
+        SubstitutionTemplate template = templates.get(arg);
+        if (template == null) {
+            template = new SubstitutionTemplate(arg);
+            if (templates.size() >= MAXTEMPLATES) {
+                templates.clear();
+            }
+            templates.put(arg, template);
+        }
+        return template;
+    }
+
+    /**
+     * 
+     * @return the source argument
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * 
+     * @param placeholder
+     * @return True if this placeholder is present in the template
+     */
+    public boolean contains(Placeholder placeholder) {
+        return used.contains(placeholder);
+    }
+
+    /**
+     * 
+     * @return the placeholders present in the template (read only usage)
+     */
+    public EnumSet<Placeholder> getPlaceholders() {
+        return used;
+    }
+
+    /**
+     * 
+     * @param values
+     *            values indexed by Placeholder ordinal, null meaning keep the placeholder as is
+     * @return the final String
+     */
+    public String apply(String[] values) {
+        if (placeholdersArray.length == 0) {
+            return literals[0];
+        }
+        StringBuilder builder = new StringBuilder(source.length() + 64);
+        for (int i = 0; i < placeholdersArray.length; i++) {
+            builder.append(literals[i]);
+            String value = values[placeholdersArray[i].ordinal()];
+            if (value == null) {
+                builder.append(placeholdersArray[i].token);
+            } else {
+                builder.append(value);
+            }
+        }
+        builder.append(literals[literals.length - 1]);
+        return builder.toString();
+    }
+}
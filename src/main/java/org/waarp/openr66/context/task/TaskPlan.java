@@ -0,0 +1,150 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
+
+/**
+ * Immutable compiled form of one task chain of a Rule (pre, post or error tasks for sender or
+ * receiver).<br>
+ * <br>
+ * Task types, arguments and delays are resolved once from the Rule task array, such that each
+ * transfer only instantiates the tasks without parsing them again. Errors (unknown task type,
+ * malformed delay) are kept and raised only when the faulty task is reached, as before.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class TaskPlan {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(TaskPlan.class);
+
+    /**
+     * One compiled task
+     */
+    private static final class CompiledTask {
+        private final String name;
+        private final TaskType type;
+        private final String arg;
+        private final int delay;
+        private final boolean malformed;
+
+        private CompiledTask(String[] task) {
+            name = task[0];
+            TaskType found = null;
+            if (name != null) {
+                try {
+                    found = TaskType.valueOf(name);
+                } catch (IllegalArgumentException e) {
+                    found = null;
+                }
+            }
+            type = found;
+            arg = task[1];
+            int value = 0;
+            boolean error = false;
+            try {
+                value = Integer.parseInt(task[2]);
+            } catch (NumberFormatException e) {
+                error = true;
+            }
+            delay = value;
+            malformed = error;
+        }
+    }
+
+    private final String[][] source;
+    private final CompiledTask[] tasks;
+
+    /**
+     * 
+     * @param source
+     *            the task array of the Rule (might be null)
+     */
+    public TaskPlan(String[][] source) {
+        this.source = source;
+        if (source == null) {
+            tasks = null;
+        } else {
+            tasks = new CompiledTask[source.length];
+            for (int i = 0; i < source.length; i++) {
+                tasks[i] = new CompiledTask(source[i]);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param array
+     * @return True if this plan was compiled from this very task array
+     */
+    public boolean isCompiledFrom(String[][] array) {
+        return source == array;
+    }
+
+    /**
+     * 
+     * @return True if there is no task array at all
+     */
+    public boolean isEmpty() {
+        return tasks == null;
+    }
+
+    /**
+     * 
+     * @return the number of tasks
+     */
+    public int size() {
+        return tasks == null ? 0 : tasks.length;
+    }
+
+    /**
+     * 
+     * @param rank
+     * @return the type of the task at this rank, or null if unknown
+     */
+    public TaskType getType(int rank) {
+        return tasks[rank].type;
+    }
+
+    /**
+     * 
+     * @param rank
+     * @param session
+     * @return the AbstractTask at this rank for this session
+     * @throws OpenR66RunnerErrorException
+     */
+    public AbstractTask getTask(int rank, R66Session session) throws OpenR66RunnerErrorException {
+        CompiledTask task = tasks[rank];
+        if (task.malformed) {
+            logger.warn("Malformed task so stop the execution: " + session.getRunner().toShortString());
+            throw new OpenR66RunnerErrorException("Malformed task so stop the execution");
+        }
+        if (task.type == null) {
+            logger.error("name unknown: " + task.name);
+            throw new OpenR66RunnerErrorException("Unvalid Task: " + task.name);
+        }
+        return TaskType.getTaskFromId(task.type, task.arg, task.delay, session);
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database;
+
+import org.waarp.common.database.DbAdmin;
+import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseNoDataException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+/**
+ * Optional read only database (as a replica of the main one) used for reporting requests (listing
+ * of transfers through HTTPS and REST, information requests on transfers), such that they do not
+ * slow down the transfers using the main database. Exports stay on the main database.<br>
+ * <br>
+ * When the replica is in error, requests are done on the main database and the replica is not used
+ * again before the retry delay. A data not found on the replica (not yet replicated) is searched
+ * on the main database.
+ * <br>
+ * Monitoring stays on the main database: its counts are reconciled with the in memory statistics,
+ * which a lagging replica would skew.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DbReadReplica {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DbReadReplica.class);
+
+    /**
+     * Default delay in ms before using again a replica in error
+     */
+    public static final long DEFAULT_RETRY_DELAY = 30000;
+
+    private static volatile DbAdmin replica = null;
+    private static volatile long retryDelay = DEFAULT_RETRY_DELAY;
+    private static volatile long unavailableUntil = 0;
+
+    /**
+     * Read operation to be done on the replica or on the main database
+     * 
+     * @param <T>
+     */
+    public static abstract class ReadOperation<T> {
+        /**
+         * 
+         * @param session
+         *            the session to use
+         * @return the result of the read
+         * @throws WaarpDatabaseException
+         */
+        public abstract T read(DbSession session) throws WaarpDatabaseException;
+    }
+
+    /**
+     * Read only statement to be done on the replica or on the main database
+     */
+    public static abstract class ReadStatement {
+        /**
+         * 
+         * @param session
+         *            the session to use
+         * @return the prepared statement not yet executed
+         * @throws WaarpDatabaseNoConnectionException
+         * @throws WaarpDatabaseSqlException
+         */
+        public abstract DbPreparedStatement prepare(DbSession session)
+                throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException;
+    }
+
+    private DbReadReplica() {
+    }
+
+    /**
+     * 
+     * @param admin
+     *            the read only DbAdmin connected to the replica (null to stop using the replica)
+     * @param delay
+     *            the delay in ms before using again the replica after an error
+     */
+    public static void initialize(DbAdmin admin, long delay) {
+        DbAdmin old = replica;
+        replica = admin;
+        retryDelay = delay;
+        unavailableUntil = 0;
+        if (old != null && old != admin) {
+            old.close();
+        }
+    }
+
+    /**
+     * 
+     * @param primary
+     * @return the session to use for a read only request: the replica one if available, else the
+     *         primary
+     */
+    public static DbSession route(DbSession primary) {
+        DbAdmin admin = replica;
+        if (admin == null || !admin.isActive || admin.session == null ||
+                admin.session.isDisActive ||
+                System.currentTimeMillis() < unavailableUntil) {
+            return primary;
+        }
+        return admin.session;
+    }
+
+    private static void failed(Exception e) {
+        unavailableUntil = System.currentTimeMillis() + retryDelay;
+        logger.warn("Read replica in error, use main database for " + retryDelay + " ms: {}",
+                e.getMessage());
+        DbAdmin admin = replica;
+        if (admin != null && admin.session != null && admin.session.isDisActive) {
+            admin.session.checkConnectionNoException();
+        }
+    }
+
+    /**
+     * Do the read operation on the replica if available, else or in case of error on the primary
+     * 
+     * @param primary
+     * @param operation
+     * @return the result of the read
+     * @throws WaarpDatabaseException
+     */
+    public static <T> T read(DbSession primary, ReadOperation<T> operation)
+            throws WaarpDatabaseException {
+        DbSession session = route(primary);
+        if (session != primary) {
+            try {
+                return operation.read(session);
+            } catch (WaarpDatabaseNoDataException e) {
+                // maybe not yet replicated
+            } catch (WaarpDatabaseException e) {
+                failed(e);
+            }
+        }
+        return operation.read(primary);
+    }
+
+    /**
+     * Prepare and execute the read only statement on the replica if available, else or in case of
+     * error on the primary
+     * 
+     * @param primary
+     * @param statement
+     * @return the executed DbPreparedStatement, ready for getNext()
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbPreparedStatement executeQuery(DbSession primary, ReadStatement statement)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        DbSession session = route(primary);
+        if (session != primary) {
+            DbPreparedStatement preparedStatement = null;
+            try {
+                preparedStatement = statement.prepare(session);
+                preparedStatement.executeQuery();
+                return preparedStatement;
+            } catch (WaarpDatabaseException e) {
+                if (preparedStatement != null) {
+                    preparedStatement.realClose();
+                }
+                failed(e);
+            }
+        }
+        DbPreparedStatement preparedStatement = statement.prepare(primary);
+        try {
+            preparedStatement.executeQuery();
+        } catch (WaarpDatabaseNoConnectionException e) {
+            preparedStatement.realClose();
+            throw e;
+        } catch (WaarpDatabaseSqlException e) {
+            preparedStatement.realClose();
+            throw e;
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * 
+     * @return the status of the replica
+     */
+    public static String hashStatus() {
+        DbAdmin admin = replica;
+        return "DbReadReplica: [configured: " + (admin != null) + " active: " +
+                (admin != null && admin.isActive) + " available: " +
+                (System.currentTimeMillis() >= unavailableUntil) + "] ";
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Pool of DbSession (one connection each) dedicated to one subsystem, such that transfers,
+ * scheduler, monitoring and administration (HTTPS and REST) do not contend on the same
+ * connections.<br>
+ * <br>
+ * A DbSession is acquired from the pool and must be released to it once the usage is over. If the
+ * pool is exhausted, the caller waits up to the wait timeout, then the shared
+ * DbConstant.admin.session is used as before. Callers running in a Netty event loop must use
+ * acquireNoWait, which falls back immediately to the shared session. A max size of 0 means no
+ * pooling: each acquire opens a new connection and each release closes it, as without pools.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DbSessionPool {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DbSessionPool.class);
+
+    /**
+     * Pool for the transfers (network and local channels), not bounded by default as one
+     * connection per channel
+     */
+    public static final DbSessionPool TRANSFER = new DbSessionPool("Transfer", 0);
+    /**
+     * Pool for the Commander
+     */
+    public static final DbSessionPool SCHEDULER = new DbSessionPool("Scheduler", 2);
+    /**
+     * Pool for the Monitoring
+     */
+    public static final DbSessionPool MONITORING = new DbSessionPool("Monitoring", 2);
+    /**
+     * Pool for the HTTP, HTTPS and REST interfaces, not bounded by default as one connection per
+     * session
+     */
+    public static final DbSessionPool ADMIN = new DbSessionPool("Admin", 0);
+
+    private static final DbSessionPool[] pools = { TRANSFER, SCHEDULER, MONITORING, ADMIN };
+
+    /**
+     * Maximum wait in ms when a pool is exhausted
+     */
+    private static volatile long waitTimeout = 10000;
+
+    private final String name;
+    private volatile int maxSize;
+    private final LinkedBlockingQueue<DbSession> idle = new LinkedBlockingQueue<DbSession>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private DbSessionPool(String name, int maxSize) {
+        this.name = name;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum number of connections of this pool (0 for no pooling)
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param timeout
+     *            the maximum wait in ms when a pool is exhausted
+     */
+    public static void setWaitTimeout(long timeout) {
+        waitTimeout = timeout;
+    }
+
+    /**
+     * 
+     * @return a DbSession from this pool, or the shared DbConstant.admin.session if the pool is
+     *         still exhausted after the wait timeout or the database is not active
+     */
+    public DbSession acquire() {
+        return acquire(true);
+    }
+
+    /**
+     * To be used from a Netty event loop, which must never wait
+     * 
+     * @return a DbSession from this pool, or the shared DbConstant.admin.session if the pool is
+     *         exhausted or the database is not active
+     */
+    public DbSession acquireNoWait() {
+        return acquire(false);
+    }
+
+    private DbSession acquire(boolean canWait) {
+        if (DbConstant.admin == null || !DbConstant.admin.isActive) {
+            return DbConstant.admin == null ? null : DbConstant.admin.session;
+        }
+        acquired.incrementAndGet();
+        DbSession session = pollIdle();
+        if (session != null) {
+            inUse.incrementAndGet();
+            return session;
+        }
+        if (maxSize <= 0 || created.incrementAndGet() <= maxSize) {
+            session = newSession();
+            if (session != null) {
+                inUse.incrementAndGet();
+            }
+            return session == null ? DbConstant.admin.session : session;
+        }
+        created.decrementAndGet();
+        if (!canWait) {
+            timeouts.incrementAndGet();
+            logger.info("DbSession pool " + name + " exhausted, use default database connection");
+            return DbConstant.admin.session;
+        }
+        // exhausted so wait
+        waits.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            session = idle.poll(waitTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            session = null;
+        }
+        long wait = (System.nanoTime() - start) / 1000000;
+        waitTime.addAndGet(wait);
+        long max = maxWaitTime.get();
+        while (wait > max && !maxWaitTime.compareAndSet(max, wait)) {
+            max = maxWaitTime.get();
+        }
+        if (session != null && session.isDisActive) {
+            discard(session);
+            session = null;
+        }
+        if (session == null) {
+            timeouts.incrementAndGet();
+            logger.warn("DbSession pool " + name + " exhausted, use default database connection");
+            return DbConstant.admin.session;
+        }
+        inUse.incrementAndGet();
+        return session;
+    }
+
+    private DbSession pollIdle() {
+        DbSession session = idle.poll();
+        while (session != null && session.isDisActive) {
+            discard(session);
+            session = idle.poll();
+        }
+        return session;
+    }
+
+    private DbSession newSession() {
+        try {
+            return new DbSession(DbConstant.admin, false);
+        } catch (WaarpDatabaseNoConnectionException e) {
+            // Cannot connect so use default connection
+            logger.warn("Use default database connection");
+            created.decrementAndGet();
+            return null;
+        }
+    }
+
+    private void discard(DbSession session) {
+        session.forceDisconnect();
+        created.decrementAndGet();
+    }
+
+    /**
+     * Give back the DbSession to this pool
+     * 
+     * @param session
+     *            the DbSession obtained through acquire (the shared DbConstant.admin.session is
+     *            ignored)
+     */
+    public void release(DbSession session) {
+        if (session == null || DbConstant.admin == null || session == DbConstant.admin.session) {
+            return;
+        }
+        inUse.decrementAndGet();
+        if (session.isDisActive || maxSize <= 0 || created.get() > maxSize) {
+            discard(session);
+            return;
+        }
+        idle.offer(session);
+    }
+
+    /**
+     * Close all idle connections of all pools
+     */
+    public static void closeAll() {
+        for (DbSessionPool pool : pools) {
+            DbSession session = pool.idle.poll();
+            while (session != null) {
+                pool.discard(session);
+                session = pool.idle.poll();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param node
+     *            the node to fill with the usage of each pool
+     */
+    public static void getStatus(ObjectNode node) {
+        for (DbSessionPool pool : pools) {
+            ObjectNode node2 = node.putObject(pool.name);
+            int max = pool.maxSize;
+            int used = pool.inUse.get();
+            node2.put("MaxSize", max);
+            node2.put("Opened", pool.created.get());
+            node2.put("InUse", used);
+            node2.put("Idle", pool.idle.size());
+            node2.put("Utilization", max > 0 ? (used * 100) / max : 0);
+            node2.put("Acquired", pool.acquired.get());
+            node2.put("Waits", pool.waits.get());
+            node2.put("WaitTimeMs", pool.waitTime.get());
+            node2.put("MaxWaitTimeMs", pool.maxWaitTime.get());
+            node2.put("Timeouts", pool.timeouts.get());
+        }
+    }
+
+    /**
+     * 
+     * @return a short status of all pools
+     */
+    public static String hashStatus() {
+        StringBuilder builder = new StringBuilder("DbSessionPool: ");
+        for (DbSessionPool pool : pools) {
+            builder.append('[').append(pool.name).append(": ").append(pool.inUse.get())
+                    .append('/').append(pool.maxSize).append(" waits: ")
+                    .append(pool.waits.get()).append("] ");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.data;
+
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+/**
+ * Change Version Table: one monotonic counter by host, incremented each time an item that the
+ * Commander has to look at (UpdatedInfo set to TOSUBMIT on a runner, a configuration, a host or a
+ * rule) is inserted or updated.<br>
+ * <br>
+ * The Commander reads this version first and skips its scans of the tables while it did not move.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DbChangeVersion {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DbChangeVersion.class);
+
+    public static enum Columns {
+        VERSIONID,
+        HOSTID
+    }
+
+    public static final int[] dbTypes = {
+            Types.BIGINT, Types.NVARCHAR };
+
+    public static final String table = " CHANGEVERSION ";
+
+    /**
+     * Version returned when the table is not available: the caller shall not rely on it
+     */
+    public static final long UNKNOWN = -1;
+
+    private DbChangeVersion() {
+    }
+
+    /**
+     * Increment the version of the given host. Errors are only logged since the Commander still
+     * scans the tables from time to time.
+     * 
+     * @param session
+     * @param hostid
+     */
+    public static void changed(DbSession session, String hostid) {
+        if (session == null || hostid == null) {
+            return;
+        }
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        try {
+            preparedStatement.createPrepareStatement("UPDATE " + table + " SET " +
+                    Columns.VERSIONID.name() + " = " + Columns.VERSIONID.name() + " + 1 WHERE " +
+                    Columns.HOSTID.name() + " = ?");
+            preparedStatement.getPreparedStatement().setString(1, hostid);
+            if (preparedStatement.executeUpdate() <= 0) {
+                // first change for this host
+                DbPreparedStatement insert = new DbPreparedStatement(session);
+                try {
+                    insert.createPrepareStatement("INSERT INTO " + table + " (" +
+                            Columns.VERSIONID.name() + "," + Columns.HOSTID.name() +
+                            ") VALUES (1,?)");
+                    insert.getPreparedStatement().setString(1, hostid);
+                    insert.executeUpdate();
+                } finally {
+                    insert.realClose();
+                }
+            }
+        } catch (SQLException e) {
+            logger.debug("Cannot change version: " + e.getMessage());
+        } catch (WaarpDatabaseNoConnectionException e) {
+            logger.debug("Cannot change version: " + e.getMessage());
+        } catch (WaarpDatabaseSqlException e) {
+            logger.debug("Cannot change version: " + e.getMessage());
+        } finally {
+            preparedStatement.realClose();
+        }
+    }
+
+    /**
+     * 
+     * @param session
+     * @param hostid
+     * @return the current version of the given host, 0 if never changed, or UNKNOWN if it cannot
+     *         be read
+     */
+    public static long getVersion(DbSession session, String hostid) {
+        if (session == null) {
+            return UNKNOWN;
+        }
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        try {
+            preparedStatement.createPrepareStatement("SELECT " + Columns.VERSIONID.name() +
+                    " FROM " + table + " WHERE " + Columns.HOSTID.name() + " = ?");
+            preparedStatement.getPreparedStatement().setString(1, hostid);
+            preparedStatement.executeQuery();
+            if (preparedStatement.getNext()) {
+                return preparedStatement.getResultSet().getLong(1);
+            }
+            return 0;
+        } catch (SQLException e) {
+            logger.debug("Cannot get version: " + e.getMessage());
+            return UNKNOWN;
+        } catch (WaarpDatabaseNoConnectionException e) {
+            logger.debug("Cannot get version: " + e.getMessage());
+            return UNKNOWN;
+        } catch (WaarpDatabaseSqlException e) {
+            logger.debug("Cannot get version: " + e.getMessage());
+            return UNKNOWN;
+        } finally {
+            preparedStatement.realClose();
+        }
+    }
+}
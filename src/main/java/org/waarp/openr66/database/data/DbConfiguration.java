@@ -346,6 +346,9 @@ public class DbConfiguration extends AbstractDbData {
             return;
         }
         super.insert();
+        if (this.updatedInfo == UpdatedInfo.TOSUBMIT.ordinal()) {
+            DbChangeVersion.changed(dbSession, hostid);
+        }
     }
 
     /*
@@ -401,6 +404,9 @@ public class DbConfiguration extends AbstractDbData {
             return;
         }
         super.update();
+        if (this.updatedInfo == UpdatedInfo.TOSUBMIT.ordinal()) {
+            DbChangeVersion.changed(dbSession, hostid);
+        }
     }
 
     /**
@@ -22,6 +22,7 @@ import java.net.SocketAddress;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.waarp.common.database.DbPreparedStatement;
@@ -35,6 +36,7 @@ import org.waarp.common.database.exception.WaarpDatabaseSqlException;
 import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.lru.SynchronizedLruCache;
 import org.waarp.common.role.RoleDefault;
 import org.waarp.common.utility.WaarpStringUtils;
 import org.waarp.openr66.context.R66Session;
@@ -74,6 +76,84 @@ public class DbHostAuth extends AbstractDbData {
     private static final ConcurrentHashMap<String, DbHostAuth> dbR66HostAuthHashMap =
             new ConcurrentHashMap<String, DbHostAuth>();
 
+    /**
+     * Read-through cache in case of database, containing private snapshots only, refreshed by
+     * local writes and by the Commander
+     */
+    private static SynchronizedLruCache<String, DbHostAuth> dbR66HostAuthCache =
+            new SynchronizedLruCache<String, DbHostAuth>(20000, 180000);
+
+    /**
+     * Decrypted key associated with the crypted stored key it comes from
+     */
+    private static final class KeyVerifier {
+        private final byte[] cryptedKey;
+        private final byte[] key;
+
+        private KeyVerifier(byte[] cryptedKey, byte[] key) {
+            this.cryptedKey = cryptedKey;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Cached key verifiers by host id, replaced as soon as the stored key changes
+     */
+    private static final ConcurrentHashMap<String, KeyVerifier> keyVerifiers =
+            new ConcurrentHashMap<String, KeyVerifier>();
+
+    /**
+     * Create the LRU cache
+     * 
+     * @param limit
+     *            limit of number of entries in the cache
+     * @param ttl
+     *            time to leave used
+     */
+    public static void createLruCache(int limit, long ttl) {
+        dbR66HostAuthCache = new SynchronizedLruCache<String, DbHostAuth>(limit, ttl);
+    }
+
+    public static String hashStatus() {
+        return "DbHostAuth: [dbR66HostAuthCache: " + dbR66HostAuthCache.size() + "] ";
+    }
+
+    /**
+     * To enable clear of oldest entries in the cache
+     * 
+     * @return the number of elements removed
+     */
+    public static int clearCache() {
+        return dbR66HostAuthCache.forceClearOldest();
+    }
+
+    /**
+     * To update the TTL for the cache (to 10xTIMEOUT)
+     * 
+     * @param ttl
+     */
+    public static void updateLruCacheTimeout(long ttl) {
+        dbR66HostAuthCache.setNewTtl(ttl);
+    }
+
+    /**
+     * Invalidate the cached entry for this host
+     * 
+     * @param hostid
+     */
+    public static void invalidateCache(String hostid) {
+        dbR66HostAuthCache.remove(hostid);
+        keyVerifiers.remove(hostid);
+    }
+
+    /**
+     * Invalidate all cached entries
+     */
+    public static void invalidateCache() {
+        dbR66HostAuthCache.clear();
+        keyVerifiers.clear();
+    }
+
     private String hostid;
 
     private String address;
@@ -371,6 +451,7 @@ public class DbHostAuth extends AbstractDbData {
      */
     public static DbHostAuth[] deleteAll(DbSession dbSession) throws WaarpDatabaseException {
         DbHostAuth[] result = getAllHosts(dbSession);
+        invalidateCache();
         if (dbSession == null) {
             dbR66HostAuthHashMap.clear();
             return result;
@@ -392,6 +473,7 @@ public class DbHostAuth extends AbstractDbData {
      */
     @Override
     public void delete() throws WaarpDatabaseException {
+        invalidateCache(this.hostid);
         if (dbSession == null) {
             dbR66HostAuthHashMap.remove(this.hostid);
             isSaved = false;
@@ -439,9 +521,13 @@ public class DbHostAuth extends AbstractDbData {
                 throw new WaarpDatabaseNoDataException("No row found");
             }
             isSaved = true;
+            putInCache();
         } finally {
             preparedStatement.realClose();
         }
+        if (this.updatedInfo == UpdatedInfo.TOSUBMIT.ordinal()) {
+            DbChangeVersion.changed(dbSession, Configuration.configuration.HOST_ID);
+        }
     }
 
     /*
@@ -488,6 +574,11 @@ public class DbHostAuth extends AbstractDbData {
                 return;
             }
         }
+        DbHostAuth snapshot = dbR66HostAuthCache.get(this.hostid);
+        if (snapshot != null) {
+            setFromSnapshot(snapshot);
+            return;
+        }
         DbPreparedStatement preparedStatement = new DbPreparedStatement(
                 dbSession);
         try {
@@ -501,6 +592,7 @@ public class DbHostAuth extends AbstractDbData {
                 getValues(preparedStatement, allFields);
                 setFromArray();
                 isSaved = true;
+                putInCache();
             } else {
                 throw new WaarpDatabaseNoDataException("No row found");
             }
@@ -535,9 +627,13 @@ public class DbHostAuth extends AbstractDbData {
                 throw new WaarpDatabaseNoDataException("No row found");
             }
             isSaved = true;
+            putInCache();
         } finally {
             preparedStatement.realClose();
         }
+        if (this.updatedInfo == UpdatedInfo.TOSUBMIT.ordinal()) {
+            DbChangeVersion.changed(dbSession, Configuration.configuration.HOST_ID);
+        }
     }
 
     /**
@@ -547,6 +643,46 @@ public class DbHostAuth extends AbstractDbData {
         super(session);
     }
 
+    /**
+     * Put a private snapshot of this host in the read-through cache
+     */
+    private void putInCache() {
+        DbHostAuth snapshot = new DbHostAuth(dbSession);
+        snapshot.hostid = hostid;
+        snapshot.address = address;
+        snapshot.port = port;
+        snapshot.isSsl = isSsl;
+        snapshot.hostkey = hostkey;
+        snapshot.adminrole = adminrole;
+        snapshot.isClient = isClient;
+        snapshot.isActive = isActive;
+        snapshot.isProxified = isProxified;
+        snapshot.updatedInfo = updatedInfo;
+        snapshot.setToArray();
+        snapshot.isSaved = true;
+        dbR66HostAuthCache.put(hostid, snapshot);
+    }
+
+    /**
+     * Set this host from a cached snapshot
+     * 
+     * @param snapshot
+     */
+    private void setFromSnapshot(DbHostAuth snapshot) {
+        hostid = snapshot.hostid;
+        address = snapshot.address;
+        port = snapshot.port;
+        isSsl = snapshot.isSsl;
+        hostkey = snapshot.hostkey;
+        adminrole = snapshot.adminrole;
+        isClient = snapshot.isClient;
+        isActive = snapshot.isActive;
+        isProxified = snapshot.isProxified;
+        updatedInfo = snapshot.updatedInfo;
+        setToArray();
+        isSaved = true;
+    }
+
     /**
      * Get All DbHostAuth from database or from internal hashMap in case of no database support
      * 
@@ -590,6 +726,10 @@ public class DbHostAuth extends AbstractDbData {
         dbHostAuth.getValues(preparedStatement, dbHostAuth.allFields);
         dbHostAuth.setFromArray();
         dbHostAuth.isSaved = true;
+        if (dbHostAuth.dbSession != null) {
+            // fresh from database so refresh the cache
+            dbHostAuth.putInCache();
+        }
         return dbHostAuth;
     }
 
@@ -721,15 +861,23 @@ public class DbHostAuth extends AbstractDbData {
             return false;
         }
         try {
-            return FilesystemBasedDigest.equalPasswd(
-                    Configuration.configuration.cryptoKey.decryptHexInBytes(this.hostkey),
-                    newkey);
+            return FilesystemBasedDigest.equalPasswd(getKeyVerifier().key, newkey);
         } catch (Exception e) {
             logger.debug("Error while checking key", e);
             return false;
         }
     }
 
+    /**
+     * 
+     * @param other
+     * @return True if both hosts share the very same stored key
+     */
+    public boolean hasSameHostkey(DbHostAuth other) {
+        return other != null && hostid.equals(other.hostid) &&
+                Arrays.equals(hostkey, other.hostkey);
+    }
+
     /**
      * @return the hostkey
      */
@@ -738,12 +886,28 @@ public class DbHostAuth extends AbstractDbData {
             return null;
         }
         try {
-            return Configuration.configuration.cryptoKey.decryptHexInBytes(hostkey);
+            return getKeyVerifier().key.clone();
         } catch (Exception e) {
             return new byte[0];
         }
     }
 
+    /**
+     * 
+     * @return the cached verifier for the current stored key, decrypting it only if the key
+     *         changed
+     * @throws Exception
+     */
+    private KeyVerifier getKeyVerifier() throws Exception {
+        KeyVerifier verifier = keyVerifiers.get(hostid);
+        if (verifier == null || !Arrays.equals(verifier.cryptedKey, hostkey)) {
+            verifier = new KeyVerifier(hostkey,
+                    Configuration.configuration.cryptoKey.decryptHexInBytes(hostkey));
+            keyVerifiers.put(hostid, verifier);
+        }
+        return verifier;
+    }
+
     /**
      * @return the adminrole
      */
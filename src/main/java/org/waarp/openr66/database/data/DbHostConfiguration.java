@@ -670,6 +670,9 @@ public class DbHostConfiguration extends AbstractDbData {
             return;
         }
         super.insert();
+        if (this.updatedInfo == UpdatedInfo.TOSUBMIT.ordinal()) {
+            DbChangeVersion.changed(dbSession, hostid);
+        }
     }
 
     /*
@@ -725,6 +728,9 @@ public class DbHostConfiguration extends AbstractDbData {
             return;
         }
         super.update();
+        if (this.updatedInfo == UpdatedInfo.TOSUBMIT.ordinal()) {
+            DbChangeVersion.changed(dbSession, hostid);
+        }
     }
 
     /**
@@ -43,6 +43,7 @@ import org.waarp.common.xml.XmlUtil;
 import org.waarp.common.xml.XmlValue;
 import org.waarp.openr66.configuration.RuleFileBasedConfiguration;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.TaskPlan;
 import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
@@ -91,7 +92,8 @@ public class DbRule extends AbstractDbData {
     public static final String table = " RULES ";
 
     /**
-     * HashTable in case of lack of database
+     * HashTable in case of lack of database, and read-through cache in case of database. It only
+     * contains private snapshots, never instances given to callers.
      */
     private static final ConcurrentHashMap<String, DbRule> dbR66RuleHashMap =
             new ConcurrentHashMap<String, DbRule>();
@@ -271,6 +273,12 @@ public class DbRule extends AbstractDbData {
      */
     public String[][] serrorTasksArray = null;
 
+    /**
+     * Compiled task plans (Sender pre, post, error then Receiver pre, post, error), shared with
+     * clones from the cache and recompiled only when the corresponding task array changes
+     */
+    private TaskPlan[] taskPlans = new TaskPlan[6];
+
     private int updatedInfo = UpdatedInfo.UNKNOWN
             .ordinal();
 
@@ -541,6 +549,7 @@ public class DbRule extends AbstractDbData {
         spreTasksArray = source.spreTasksArray;
         spostTasksArray = source.spostTasksArray;
         serrorTasksArray = source.serrorTasksArray;
+        taskPlans = source.taskPlans;
         checkPath();
     }
 
@@ -756,12 +765,16 @@ public class DbRule extends AbstractDbData {
         if (isSaved) {
             return;
         }
-        dbR66RuleHashMap.put(this.idRule, this);
         if (dbSession == null) {
+            dbR66RuleHashMap.put(this.idRule, snapshot());
             isSaved = true;
             return;
         }
         super.insert();
+        dbR66RuleHashMap.put(this.idRule, snapshot());
+        if (this.updatedInfo == UpdatedInfo.TOSUBMIT.ordinal()) {
+            DbChangeVersion.changed(dbSession, Configuration.configuration.HOST_ID);
+        }
     }
 
     /*
@@ -830,7 +843,7 @@ public class DbRule extends AbstractDbData {
             workPath = "";
         }
         setFromArray();
-        dbR66RuleHashMap.put(this.idRule, this);
+        dbR66RuleHashMap.put(this.idRule, snapshot());
     }
 
     /*
@@ -842,12 +855,16 @@ public class DbRule extends AbstractDbData {
         if (isSaved) {
             return;
         }
-        dbR66RuleHashMap.put(this.idRule, this);
         if (dbSession == null) {
+            dbR66RuleHashMap.put(this.idRule, snapshot());
             isSaved = true;
             return;
         }
         super.update();
+        dbR66RuleHashMap.put(this.idRule, snapshot());
+        if (this.updatedInfo == UpdatedInfo.TOSUBMIT.ordinal()) {
+            DbChangeVersion.changed(dbSession, Configuration.configuration.HOST_ID);
+        }
     }
 
     /**
@@ -857,6 +874,25 @@ public class DbRule extends AbstractDbData {
         super(session);
     }
 
+    /**
+     * 
+     * @return a private copy of this rule to be stored in the cache
+     */
+    private DbRule snapshot() {
+        DbRule snapshot = new DbRule(dbSession);
+        setToArray();
+        for (int i = 0; i < allFields.length; i++) {
+            snapshot.allFields[i].value = allFields[i].value;
+        }
+        try {
+            snapshot.setFromArrayClone(this);
+        } catch (WaarpDatabaseSqlException e) {
+            // cannot occur since values are already checked
+        }
+        snapshot.isSaved = true;
+        return snapshot;
+    }
+
     /**
      * Get All DbRule from database or from internal hashMap in case of no database support
      * 
@@ -903,7 +939,7 @@ public class DbRule extends AbstractDbData {
         dbRule.setFromArray();
         dbRule.isSaved = true;
         logger.debug("Get one Rule from Db: " + dbRule.idRule);
-        dbR66RuleHashMap.put(dbRule.idRule, dbRule);
+        dbR66RuleHashMap.put(dbRule.idRule, dbRule.snapshot());
         return dbRule;
     }
 
@@ -1197,6 +1233,44 @@ public class DbRule extends AbstractDbData {
         }
     }
 
+    /**
+     * 
+     * @param isSender
+     * @param step
+     * @return the compiled task plan for this step (PRETASK, POSTTASK or ERRORTASK), compiled
+     *         only once as long as the task array is not changed
+     */
+    public TaskPlan getTaskPlan(boolean isSender, TASKSTEP step) {
+        int rank;
+        String[][] tasks;
+        switch (step) {
+            case PRETASK:
+                rank = 0;
+                tasks = isSender ? spreTasksArray : rpreTasksArray;
+                break;
+            case POSTTASK:
+                rank = 1;
+                tasks = isSender ? spostTasksArray : rpostTasksArray;
+                break;
+            case ERRORTASK:
+                rank = 2;
+                tasks = isSender ? serrorTasksArray : rerrorTasksArray;
+                break;
+            default:
+                return new TaskPlan(null);
+        }
+        if (!isSender) {
+            rank += 3;
+        }
+        TaskPlan[] plans = taskPlans;
+        TaskPlan plan = plans[rank];
+        if (plan == null || !plan.isCompiledFrom(tasks)) {
+            plan = new TaskPlan(tasks);
+            plans[rank] = plan;
+        }
+        return plan;
+    }
+
     /**
      * Object to String
      * 
@@ -17,17 +17,31 @@
  */
 package org.waarp.openr66.database.data;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -61,6 +75,7 @@ import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.context.filesystem.R66Dir;
 import org.waarp.openr66.context.filesystem.R66File;
 import org.waarp.openr66.context.task.AbstractTask;
+import org.waarp.openr66.context.task.TaskPlan;
 import org.waarp.openr66.context.task.TaskType;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerEndTasksException;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
@@ -73,6 +88,7 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoSslException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+import org.waarp.openr66.protocol.localhandler.TransferStatistics;
 import org.waarp.openr66.protocol.localhandler.packet.ErrorPacket;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
@@ -82,6 +98,7 @@ import org.waarp.openr66.protocol.utils.R66Future;
 import org.xml.sax.SAXException;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
@@ -109,6 +126,11 @@ public class DbTaskRunner extends AbstractDbData {
      */
     private static SynchronizedLruCache<Long, DbTaskRunner> dbR66TaskHashMap;
 
+    /**
+     * Journal in case of lack of database when TaskRunners are saved using the Journal
+     */
+    private static DbTaskRunnerJournal noDbJournal = null;
+
     /**
      * Create the LRU cache
      * 
@@ -122,7 +144,9 @@ public class DbTaskRunner extends AbstractDbData {
     }
 
     public static String hashStatus() {
-        return "DbTaskRunner: [dbR66TaskHashMap: " + dbR66TaskHashMap.size() + "] ";
+        return "DbTaskRunner: [dbR66TaskHashMap: " + dbR66TaskHashMap.size() + "] " +
+                (purgeRunning ? "[purge: " + purgeDeleted.get() + " deleted in " +
+                        purgeChunks.get() + " chunks] " : "");
     }
 
     /**
@@ -186,6 +210,25 @@ public class DbTaskRunner extends AbstractDbData {
             Columns.GLOBALSTEP, Columns.INFOSTATUS, Columns.SPECIALID
     };
 
+    /**
+     * Names of the composite indexes tuned for the most frequent requests
+     */
+    public static final String[] tunedIndexNames = {
+            "IDX_RUN_INFO", "IDX_RUN_STEP", "IDX_RUN_STATUS", "IDX_RUN_START"
+    };
+
+    /**
+     * Columns of the composite indexes (equality columns first, then range and order columns):
+     * Commander and Monitoring on UpdatedInfo, Monitoring on GlobalStep and on InfoStatus, and
+     * listing by time range
+     */
+    public static final Columns[][] tunedIndexes = {
+            { Columns.OWNERREQ, Columns.UPDATEDINFO, Columns.STARTTRANS },
+            { Columns.OWNERREQ, Columns.GLOBALSTEP, Columns.STARTTRANS },
+            { Columns.OWNERREQ, Columns.INFOSTATUS, Columns.STARTTRANS },
+            { Columns.OWNERREQ, Columns.STARTTRANS, Columns.SPECIALID }
+    };
+
     public static final String XMLRUNNERS = "taskrunners";
     public static final String XMLRUNNER = "runner";
     public static final String XMLEXTENSION = "_singlerunner.xml";
@@ -203,6 +246,7 @@ public class DbTaskRunner extends AbstractDbData {
     private R66Session session;
     volatile DbPreparedStatement preparedStatementUpdate = null;
 
+
     /**
      * Last step
      */
@@ -273,6 +317,16 @@ public class DbTaskRunner extends AbstractDbData {
     private boolean isSendThrough = false;
     private long originalSize = -1;
 
+    /**
+     * Number of updates submitted to DbTaskRunnerExecutor and not yet done
+     */
+    final AtomicInteger pendingAsync = new AtomicInteger();
+    /**
+     * Set by DbTaskRunnerExecutor when an asynchronous update failed, isSaved being reset by the
+     * thread using this runner
+     */
+    private volatile boolean asyncUpdateFailed = false;
+
     /**
      * Special For DbTaskRunner
      */
@@ -1025,11 +1079,12 @@ public class DbTaskRunner extends AbstractDbData {
         if (dbSession == null || shallIgnoreSave()) {
             removeNoDbSpecialId();
             if (Configuration.configuration.saveTaskRunnerWithNoDb) {
-                deleteXmlWorkNoDb();
+                deleteWorkNoDb();
             }
             return;
         }
         super.delete();
+        deletedStatistics();
     }
 
     private void addNoDb() {
@@ -1065,7 +1120,7 @@ public class DbTaskRunner extends AbstractDbData {
             if (Configuration.configuration.saveTaskRunnerWithNoDb) {
                 try {
                     setToArray();
-                    this.writeXmlWorkNoDb();
+                    this.writeWorkNoDb();
                 } catch (OpenR66ProtocolBusinessException e) {
                     // Ignore
                 }
@@ -1086,6 +1141,7 @@ public class DbTaskRunner extends AbstractDbData {
             setPrimaryKey();
         }
         super.insert();
+        savedStatistics(true);
     }
 
     /**
@@ -1107,7 +1163,7 @@ public class DbTaskRunner extends AbstractDbData {
             if (Configuration.configuration.saveTaskRunnerWithNoDb) {
                 try {
                     setToArray();
-                    this.writeXmlWorkNoDb();
+                    this.writeWorkNoDb();
                 } catch (OpenR66ProtocolBusinessException e) {
                     // Ignore
                 }
@@ -1178,9 +1234,13 @@ public class DbTaskRunner extends AbstractDbData {
                 }
             }
             isSaved = true;
+            savedStatistics(true);
         } finally {
             preparedStatement.realClose();
         }
+        if (this.updatedInfo == UpdatedInfo.TOSUBMIT.ordinal()) {
+            DbChangeVersion.changed(dbSession, ownerRequest);
+        }
     }
 
     @Override
@@ -1188,7 +1248,7 @@ public class DbTaskRunner extends AbstractDbData {
         boolean shallIgnore = shallIgnoreSave();
         if (dbSession == null || shallIgnore) {
             if (Configuration.configuration.saveTaskRunnerWithNoDb) {
-                return existXmlWorkNoDb();
+                return existWorkNoDb();
             }
             if (shallIgnore) {
                 return dbR66TaskHashMap.contains(specialId);//containsKey(specialId);
@@ -1211,6 +1271,7 @@ public class DbTaskRunner extends AbstractDbData {
         if (super.exist()) {
             boolean isSenderBack = isSender;
             super.select();
+            loadedStatistics();
             if (rule == null) {
                 rule = new DbRule(this.dbSession, ruleId);
             }
@@ -1227,7 +1288,7 @@ public class DbTaskRunner extends AbstractDbData {
         if (dbSession == null) {
             if (Configuration.configuration.saveTaskRunnerWithNoDb) {
                 try {
-                    this.loadXmlWorkNoDb();
+                    this.loadWorkNoDb();
                     setFromArray();
                 } catch (OpenR66ProtocolBusinessException e) {
                     throw new WaarpDatabaseNoDataException("No file found");
@@ -1304,9 +1365,11 @@ public class DbTaskRunner extends AbstractDbData {
                 rule = new DbRule(this.dbSession, ruleId);
             }
             checkThroughMode();
+            loadedStatistics();
             return;
         }
         super.select();
+        loadedStatistics();
         if (rule == null) {
             try {
                 rule = new DbRule(this.dbSession, ruleId);
@@ -1319,6 +1382,7 @@ public class DbTaskRunner extends AbstractDbData {
 
     @Override
     public void update() throws WaarpDatabaseException {
+        checkAsyncUpdate();
         if (isSaved) {
             return;
         }
@@ -1328,7 +1392,7 @@ public class DbTaskRunner extends AbstractDbData {
             if (Configuration.configuration.saveTaskRunnerWithNoDb) {
                 try {
                     setToArray();
-                    this.writeXmlWorkNoDb();
+                    this.writeWorkNoDb();
                 } catch (OpenR66ProtocolBusinessException e) {
                     // Ignore
                 }
@@ -1346,7 +1410,23 @@ public class DbTaskRunner extends AbstractDbData {
             }
             return;
         }
-        // SNMP notification
+        notifySnmp();
+        // FIX SelfRequest
+        if (isSelfRequest()) {
+            if (RequestPacket.isCompatibleMode(mode,
+                    isSender ? RequestPacket.TRANSFERMODE.RECVMODE.ordinal() :
+                            RequestPacket.TRANSFERMODE.SENDMODE.ordinal())) {
+                optimizedUpdate();
+            }
+        } else {
+            optimizedUpdate();
+        }
+    }
+
+    /**
+     * SNMP notification of the current state
+     */
+    private void notifySnmp() {
         if (updatedInfo == UpdatedInfo.INERROR.ordinal() ||
                 updatedInfo == UpdatedInfo.INTERRUPTED.ordinal()) {
             if (Configuration.configuration.r66Mib != null) {
@@ -1363,18 +1443,114 @@ public class DbTaskRunner extends AbstractDbData {
                 }
             }
         }
-        // FIX SelfRequest
-        if (isSelfRequest()) {
-            if (RequestPacket.isCompatibleMode(mode,
-                    isSender ? RequestPacket.TRANSFERMODE.RECVMODE.ordinal() :
-                            RequestPacket.TRANSFERMODE.SENDMODE.ordinal())) {
-                optimizedUpdate();
+    }
+
+    /**
+     * Prepare an update to be done by another thread and connection (DbTaskRunnerExecutor): the
+     * values are taken now, such that later changes of this runner do not interfere.
+     * 
+     * @return the values to update (in the order of allFields), or null if the update does not need
+     *         the database and shall be done directly by update()
+     */
+    DbValue[] prepareAsyncUpdate() {
+        checkAsyncUpdate();
+        if (isSaved || dbSession == null || shallIgnoreSave()) {
+            return null;
+        }
+        if (isSelfRequest() && !RequestPacket.isCompatibleMode(mode,
+                isSender ? RequestPacket.TRANSFERMODE.RECVMODE.ordinal() :
+                        RequestPacket.TRANSFERMODE.SENDMODE.ordinal())) {
+            return null;
+        }
+        notifySnmp();
+        stop = new Timestamp(System.currentTimeMillis());
+        DbValue[] values = new DbValue[] {
+                new DbValue(globalstep, Columns.GLOBALSTEP.name()),
+                new DbValue(globallaststep, Columns.GLOBALLASTSTEP.name()),
+                new DbValue(step, Columns.STEP.name()),
+                new DbValue(rank, Columns.RANK.name()),
+                new DbValue(status.getCode(), Columns.STEPSTATUS.name()),
+                new DbValue(isSender, Columns.RETRIEVEMODE.name()),
+                new DbValue(filename, Columns.FILENAME.name()),
+                new DbValue(isFileMoved, Columns.ISMOVED.name()),
+                new DbValue(ruleId, Columns.IDRULE.name()),
+                new DbValue(blocksize, Columns.BLOCKSZ.name()),
+                new DbValue(originalFilename, Columns.ORIGINALNAME.name()),
+                new DbValue(fileInformation, Columns.FILEINFO.name(), true),
+                new DbValue(transferInformation, Columns.TRANSFERINFO.name(), true),
+                new DbValue(mode, Columns.MODETRANS.name()),
+                new DbValue(start, Columns.STARTTRANS.name()),
+                new DbValue(stop, Columns.STOPTRANS.name()),
+                new DbValue(infostatus.getCode(), Columns.INFOSTATUS.name()),
+                new DbValue(updatedInfo, Columns.UPDATEDINFO.name()),
+                new DbValue(ownerRequest, Columns.OWNERREQ.name()),
+                new DbValue(requesterHostId, Columns.REQUESTER.name()),
+                new DbValue(requestedHostId, Columns.REQUESTED.name()),
+                new DbValue(specialId, Columns.SPECIALID.name()) };
+        // considered as saved from now, a failure resetting it
+        isSaved = true;
+        savedStatistics(false);
+        return values;
+    }
+
+    /**
+     * Do an update prepared by prepareAsyncUpdate
+     * 
+     * @param session
+     *            the session of the calling thread
+     * @param preparedStatement
+     *            the update statement (from getAsyncUpdateRequest) of the calling thread
+     * @param values
+     *            the values from prepareAsyncUpdate
+     * @throws WaarpDatabaseException
+     */
+    void executeAsyncUpdate(DbSession session, DbPreparedStatement preparedStatement,
+            DbValue[] values) throws WaarpDatabaseException {
+        try {
+            setValues(preparedStatement, values);
+            int count = preparedStatement.executeUpdate();
+            if (count <= 0) {
+                throw new WaarpDatabaseNoDataException("No row found");
             }
-        } else {
-            optimizedUpdate();
+        } catch (WaarpDatabaseException e) {
+            // to be saved again at next change
+            cancelAsyncUpdate();
+            throw e;
+        }
+        if (((Integer) values[Columns.UPDATEDINFO.ordinal()].getValue()) == UpdatedInfo.TOSUBMIT
+                .ordinal()) {
+            DbChangeVersion.changed(session, (String) values[Columns.OWNERREQ.ordinal()]
+                    .getValue());
         }
     }
 
+    /**
+     * The update prepared by prepareAsyncUpdate was not done (possibly called from another thread)
+     */
+    void cancelAsyncUpdate() {
+        asyncUpdateFailed = true;
+    }
+
+    /**
+     * To be saved again if an asynchronous update failed
+     */
+    private void checkAsyncUpdate() {
+        if (asyncUpdateFailed) {
+            asyncUpdateFailed = false;
+            isSaved = false;
+        }
+    }
+
+    /**
+     * 
+     * @return the update request used by executeAsyncUpdate
+     */
+    static String getAsyncUpdateRequest() {
+        return "UPDATE " + table + " SET " + updateAllFields + " WHERE " +
+                Columns.OWNERREQ.name() + " = ? AND " + Columns.REQUESTER.name() + " = ? AND " +
+                Columns.REQUESTED.name() + " = ? AND " + Columns.SPECIALID.name() + " = ? ";
+    }
+
     /**
      * Update Runner using special PreparedStatement
      * 
@@ -1397,9 +1573,62 @@ public class DbTaskRunner extends AbstractDbData {
                 throw new WaarpDatabaseNoDataException("No row found");
             }
             isSaved = true;
+            savedStatistics(false);
         } finally {
             // preparedStatement.realClose();
         }
+        if (this.updatedInfo == UpdatedInfo.TOSUBMIT.ordinal()) {
+            DbChangeVersion.changed(dbSession, ownerRequest);
+        }
+    }
+
+    /**
+     * 
+     * @return the current state as accounted in the in memory statistics, null if this runner is
+     *         not owned by this host
+     */
+    private TransferStatistics.State getStatisticsState() {
+        if (!Configuration.configuration.HOST_ID.equals(ownerRequest)) {
+            return null;
+        }
+        boolean in = requestedHostId.equals(Configuration.configuration.HOST_ID) ||
+                requestedHostId.equals(Configuration.configuration.HOST_SSLID);
+        boolean out = requesterHostId.equals(Configuration.configuration.HOST_ID) ||
+                requesterHostId.equals(Configuration.configuration.HOST_SSLID);
+        return new TransferStatistics.State(start == null ? System.currentTimeMillis()
+                : start.getTime(), updatedInfo, globalstep, status, infostatus, in, out);
+    }
+
+    /**
+     * Remember the state loaded from the database as already accounted
+     */
+    private void loadedStatistics() {
+        TransferStatistics.State state = getStatisticsState();
+        if (state != null) {
+            Configuration.configuration.getTransferStatistics().loaded(getKey(), state);
+        }
+    }
+
+    /**
+     * Account the state just saved into the database
+     * 
+     * @param isNew
+     *            True if just inserted
+     */
+    private void savedStatistics(boolean isNew) {
+        TransferStatistics.State next = getStatisticsState();
+        if (next != null) {
+            Configuration.configuration.getTransferStatistics().saved(getKey(), next, isNew);
+        }
+    }
+
+    /**
+     * Account the deletion from the database
+     */
+    private void deletedStatistics() {
+        if (Configuration.configuration.HOST_ID.equals(ownerRequest)) {
+            Configuration.configuration.getTransferStatistics().deleted(getKey());
+        }
     }
 
     public void clean() {
@@ -1509,6 +1738,7 @@ public class DbTaskRunner extends AbstractDbData {
         }
         dbTaskRunner.checkThroughMode();
         dbTaskRunner.isSaved = true;
+        dbTaskRunner.loadedStatistics();
         return dbTaskRunner;
     }
 
@@ -1538,6 +1768,7 @@ public class DbTaskRunner extends AbstractDbData {
         }
         dbTaskRunner.checkThroughMode();
         dbTaskRunner.isSaved = true;
+        dbTaskRunner.loadedStatistics();
         return dbTaskRunner;
     }
 
@@ -1598,6 +1829,61 @@ public class DbTaskRunner extends AbstractDbData {
         return new DbPreparedStatement(session, request);
     }
 
+    /**
+     * Cache of the SQL requests built for filters, keyed by the shape of the filter (which
+     * conditions are set, not their values). Values are always given as parameters, so the same
+     * shape always gives the same SQL text, allowing the JDBC driver to reuse its prepared
+     * statements.
+     */
+    private static final ConcurrentHashMap<String, String> filterRequests =
+            new ConcurrentHashMap<String, String>();
+    /**
+     * Limit of the number of different filter shapes kept in cache
+     */
+    private static final int MAXFILTERREQUESTS = 500;
+    /**
+     * Separator between date and specialId within a cursor token
+     */
+    public static final char CURSOR_SEPARATOR = '_';
+
+    /**
+     * 
+     * @param runner
+     *            the last DbTaskRunner of the current page
+     * @return the cursor token to use in order to get the next page after this DbTaskRunner
+     *         (keyset pagination on (STARTTRANS, SPECIALID)), or null if runner is null
+     */
+    public static String getFilterCursor(DbTaskRunner runner) {
+        if (runner == null) {
+            return null;
+        }
+        return Long.toString(runner.getStart().getTime()) + CURSOR_SEPARATOR + runner.getSpecialId();
+    }
+
+    /**
+     * 
+     * @param cursor
+     *            a cursor token as "startInMs_specialId" (from getFilterCursor)
+     * @return the array of (startInMs, specialId) or null if the cursor is not valid
+     */
+    private static long[] parseFilterCursor(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        int pos = cursor.indexOf(CURSOR_SEPARATOR);
+        if (pos <= 0 || pos == cursor.length() - 1) {
+            return null;
+        }
+        try {
+            return new long[] {
+                    Long.parseLong(cursor.substring(0, pos).trim()),
+                    Long.parseLong(cursor.substring(pos + 1).trim()) };
+        } catch (NumberFormatException e) {
+            logger.info("Invalid cursor ignored: " + cursor);
+            return null;
+        }
+    }
+
     /**
      * 
      * @param preparedStatement
@@ -1615,42 +1901,150 @@ public class DbTaskRunner extends AbstractDbData {
      * @param error
      * @param done
      * @param all
+     * @param cursor
+     *            (startInMs, specialId) of the last item of the previous page, or null
+     * @param cursorOnSpecialId
+     *            True if the order is on SPECIALID only, False if on (STARTTRANS, SPECIALID)
      * @return The DbPreparedStatement already prepared according to select or delete command
      * @throws WaarpDatabaseNoConnectionException
      * @throws WaarpDatabaseSqlException
      */
     private static DbPreparedStatement getFilterCondition(
-            DbPreparedStatement preparedStatement, String srcrequest, int limit,
+            DbPreparedStatement preparedStatement, String srcrequest, String fields, int limit,
             String orderby, String startid, String stopid, Timestamp start, Timestamp stop,
-            String rule,
+            boolean stopExcluded, String rule,
             String req, boolean pending, boolean transfer, boolean error,
-            boolean done, boolean all) throws WaarpDatabaseNoConnectionException,
+            boolean done, boolean all, long[] cursor, boolean cursorOnSpecialId)
+            throws WaarpDatabaseNoConnectionException,
             WaarpDatabaseSqlException {
+        StringBuilder key = new StringBuilder(srcrequest).append('|').append(orderby)
+                .append('|').append(limit).append('|')
+                .append(start != null ? 'S' : '-').append(stop != null ? 'E' : '-')
+                .append(stopExcluded ? 'e' : '-')
+                .append(startid != null ? 'I' : '-').append(stopid != null ? 'J' : '-')
+                .append(rule != null ? 'R' : '-').append(req != null ? 'Q' : '-')
+                .append(pending ? 'P' : '-').append(transfer ? 'T' : '-')
+                .append(error ? 'X' : '-').append(done ? 'D' : '-').append(all ? 'A' : '-')
+                .append(cursor == null ? '-' : (cursorOnSpecialId ? 'C' : 'K'));
+        String skey = key.toString();
+        String request = filterRequests.get(skey);
+        if (request == null) {
+            request = getFilterRequest(srcrequest, fields, limit, orderby, startid, stopid, start, stop,
+                    stopExcluded, rule, req, pending, transfer, error, done, all, cursor, cursorOnSpecialId);
+            if (filterRequests.size() >= MAXFILTERREQUESTS) {
+                filterRequests.clear();
+            }
+            filterRequests.put(skey, request);
+        }
+        preparedStatement.createPrepareStatement(request);
+        int rank = 1;
+        try {
+            if (start != null & stop != null) {
+                preparedStatement.getPreparedStatement().setTimestamp(rank,
+                        start);
+                rank++;
+                preparedStatement.getPreparedStatement().setTimestamp(rank,
+                        stop);
+                rank++;
+            } else if (start != null) {
+                preparedStatement.getPreparedStatement().setTimestamp(rank,
+                        start);
+                rank++;
+            } else if (stop != null) {
+                preparedStatement.getPreparedStatement().setTimestamp(rank,
+                        stop);
+                rank++;
+            }
+            if (startid != null) {
+                long value = DbConstant.ILLEGALVALUE;
+                try {
+                    value = Long.parseLong(startid);
+                } catch (NumberFormatException e) {
+                    // ignore then
+                }
+                preparedStatement.getPreparedStatement().setLong(rank,
+                        value);
+                rank++;
+            }
+            if (stopid != null) {
+                long value = Long.MAX_VALUE;
+                try {
+                    value = Long.parseLong(stopid);
+                } catch (NumberFormatException e) {
+                    // ignore then
+                }
+                preparedStatement.getPreparedStatement().setLong(rank,
+                        value);
+                rank++;
+            }
+            if (rule != null) {
+                preparedStatement.getPreparedStatement().setString(rank,
+                        "%" + rule + "%");
+                rank++;
+            }
+            if (req != null) {
+                preparedStatement.getPreparedStatement().setString(rank,
+                        "%" + req + "%");
+                rank++;
+                preparedStatement.getPreparedStatement().setString(rank,
+                        "%" + req + "%");
+                rank++;
+            }
+            if (cursor != null) {
+                if (!cursorOnSpecialId) {
+                    Timestamp last = new Timestamp(cursor[0]);
+                    preparedStatement.getPreparedStatement().setTimestamp(rank,
+                            last);
+                    rank++;
+                    preparedStatement.getPreparedStatement().setTimestamp(rank,
+                            last);
+                    rank++;
+                }
+                preparedStatement.getPreparedStatement().setLong(rank,
+                        cursor[1]);
+                rank++;
+            }
+        } catch (SQLException e) {
+            preparedStatement.realClose();
+            throw new WaarpDatabaseSqlException(e);
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * 
+     * @return the SQL request for this shape of filter, values being set as parameters
+     */
+    private static String getFilterRequest(String srcrequest, String fields, int limit,
+            String orderby, String startid, String stopid, Timestamp start, Timestamp stop,
+            boolean stopExcluded, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all, long[] cursor, boolean cursorOnSpecialId) {
         String request = srcrequest;
         if (startid == null && stopid == null &&
-                start == null && stop == null && rule == null && req == null && all) {
+                start == null && stop == null && rule == null && req == null && all &&
+                cursor == null) {
             // finish
             if (limit > 0) {
-                request = DbModelFactory.dbModel.limitRequest(selectAllFields,
+                request = DbModelFactory.dbModel.limitRequest(fields,
                         request + orderby, limit);
             } else {
                 request = request + orderby;
             }
-            preparedStatement.createPrepareStatement(request);
-            return preparedStatement;
+            return request;
         }
         request += " WHERE ";
         StringBuilder scondition = new StringBuilder();
         boolean hasCondition = false;
         if (start != null & stop != null) {
             scondition.append(Columns.STARTTRANS.name()).append(" >= ? AND ")
-                    .append(Columns.STARTTRANS.name()).append(" <= ? ");
+                    .append(Columns.STARTTRANS.name()).append(stopExcluded ? " < ? " : " <= ? ");
             hasCondition = true;
         } else if (start != null) {
             scondition.append(Columns.STARTTRANS.name()).append(" >= ? ");
             hasCondition = true;
         } else if (stop != null) {
-            scondition.append(Columns.STARTTRANS.name()).append(" <= ? ");
+            scondition.append(Columns.STARTTRANS.name()).append(stopExcluded ? " < ? " : " <= ? ");
             hasCondition = true;
         }
         if (startid != null) {
@@ -1672,16 +2066,28 @@ public class DbTaskRunner extends AbstractDbData {
                 scondition.append(" AND ");
             }
             hasCondition = true;
-            scondition.append(Columns.IDRULE.name()).append(" LIKE '%").append(rule).append("%' ");
+            scondition.append(Columns.IDRULE.name()).append(" LIKE ? ");
         }
         if (req != null) {
             if (hasCondition) {
                 scondition.append(" AND ");
             }
             hasCondition = true;
-            scondition.append("( ").append(Columns.REQUESTED.name()).append(" LIKE '%")
-                    .append(req).append("%' OR ").append(Columns.REQUESTER.name())
-                    .append(" LIKE '%").append(req).append("%' )");
+            scondition.append("( ").append(Columns.REQUESTED.name()).append(" LIKE ? OR ")
+                    .append(Columns.REQUESTER.name()).append(" LIKE ? )");
+        }
+        if (cursor != null) {
+            if (hasCondition) {
+                scondition.append(" AND ");
+            }
+            hasCondition = true;
+            if (cursorOnSpecialId) {
+                scondition.append(Columns.SPECIALID.name()).append(" < ? ");
+            } else {
+                scondition.append("( ").append(Columns.STARTTRANS.name()).append(" < ? OR ( ")
+                        .append(Columns.STARTTRANS.name()).append(" = ? AND ")
+                        .append(Columns.SPECIALID.name()).append(" < ? ) )");
+            }
         }
         if (!all) {
             if (hasCondition) {
@@ -1727,61 +2133,13 @@ public class DbTaskRunner extends AbstractDbData {
             }
             scondition.append(" )");
         }
+        scondition.insert(0, request).append(orderby);
+        request = scondition.toString();
         if (limit > 0) {
-            scondition.insert(0, request).append(orderby);
-            request = scondition.toString();
-            request = DbModelFactory.dbModel.limitRequest(selectAllFields,
+            request = DbModelFactory.dbModel.limitRequest(fields,
                     request, limit);
-        } else {
-            scondition.insert(0, request).append(orderby);
-            request = scondition.toString();
         }
-        preparedStatement.createPrepareStatement(request);
-        int rank = 1;
-        try {
-            if (start != null & stop != null) {
-                preparedStatement.getPreparedStatement().setTimestamp(rank,
-                        start);
-                rank++;
-                preparedStatement.getPreparedStatement().setTimestamp(rank,
-                        stop);
-                rank++;
-            } else if (start != null) {
-                preparedStatement.getPreparedStatement().setTimestamp(rank,
-                        start);
-                rank++;
-            } else if (stop != null) {
-                preparedStatement.getPreparedStatement().setTimestamp(rank,
-                        stop);
-                rank++;
-            }
-            if (startid != null) {
-                long value = DbConstant.ILLEGALVALUE;
-                try {
-                    value = Long.parseLong(startid);
-                } catch (NumberFormatException e) {
-                    // ignore then
-                }
-                preparedStatement.getPreparedStatement().setLong(rank,
-                        value);
-                rank++;
-            }
-            if (stopid != null) {
-                long value = Long.MAX_VALUE;
-                try {
-                    value = Long.parseLong(stopid);
-                } catch (NumberFormatException e) {
-                    // ignore then
-                }
-                preparedStatement.getPreparedStatement().setLong(rank,
-                        value);
-                rank++;
-            }
-        } catch (SQLException e) {
-            preparedStatement.realClose();
-            throw new WaarpDatabaseSqlException(e);
-        }
-        return preparedStatement;
+        return request;
     }
 
     /**
@@ -1812,7 +2170,39 @@ public class DbTaskRunner extends AbstractDbData {
             WaarpDatabaseSqlException {
         return getFilterPrepareStatement(session, limit, orderBySpecialId, startid, stopid, start, stop, rule, req,
                 pending, transfer, error, done, all,
-                null);
+                null, null);
+    }
+
+    /**
+     * 
+     * @param session
+     * @param limit
+     * @param orderBySpecialId
+     * @param startid
+     * @param stopid
+     * @param start
+     * @param stop
+     * @param rule
+     * @param req
+     * @param pending
+     * @param transfer
+     * @param error
+     * @param done
+     * @param all
+     * @param owner
+     * @return the DbPreparedStatement according to the filter
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbPreparedStatement getFilterPrepareStatement(
+            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
+            Timestamp start, Timestamp stop, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all, String owner) throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException {
+        return getFilterPrepareStatement(session, limit, orderBySpecialId, startid, stopid, start, stop, rule, req,
+                pending, transfer, error, done, all,
+                owner, null);
     }
 
     /**
@@ -1832,21 +2222,72 @@ public class DbTaskRunner extends AbstractDbData {
      * @param done
      * @param all
      * @param owner
+     * @param cursor
+     *            the cursor token (from getFilterCursor) of the last item of the previous page, in
+     *            order to get the next page without offset, or null for the first page
      * @return the DbPreparedStatement according to the filter
      * @throws WaarpDatabaseNoConnectionException
      * @throws WaarpDatabaseSqlException
      */
     public static DbPreparedStatement getFilterPrepareStatement(
+            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
+            Timestamp start, Timestamp stop, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all, String owner, String cursor)
+            throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException {
+        return getFilterPrepareStatement(session, limit, orderBySpecialId, startid, stopid, start,
+                stop, false, rule, req, pending, transfer, error, done, all, owner, cursor);
+    }
+
+    /**
+     * Same as getFilterPrepareStatement with owner, but STARTTRANS is in [start, stop[, such that
+     * consecutive periods do not overlap nor leave any gap
+     * 
+     * @param session
+     * @param limit
+     * @param orderBySpecialId
+     * @param startid
+     * @param stopid
+     * @param start
+     * @param stop
+     *            excluded
+     * @param rule
+     * @param req
+     * @param pending
+     * @param transfer
+     * @param error
+     * @param done
+     * @param all
+     * @param owner
+     * @return the DbPreparedStatement according to the filter
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbPreparedStatement getFilterPartitionPrepareStatement(
             DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
             Timestamp start, Timestamp stop, String rule,
             String req, boolean pending, boolean transfer, boolean error,
             boolean done, boolean all, String owner) throws WaarpDatabaseNoConnectionException,
             WaarpDatabaseSqlException {
+        return getFilterPrepareStatement(session, limit, orderBySpecialId, startid, stopid, start,
+                stop, true, rule, req, pending, transfer, error, done, all, owner, null);
+    }
+
+    private static DbPreparedStatement getFilterPrepareStatement(
+            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
+            Timestamp start, Timestamp stop, boolean stopExcluded, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all, String owner, String cursor)
+            throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException {
+        long[] seek = parseFilterCursor(cursor);
         DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
         String request = "SELECT " + selectAllFields + " FROM " + table;
         String orderby = "";
         if (startid == null && stopid == null &&
-                start == null && stop == null && rule == null && req == null && all) {
+                start == null && stop == null && rule == null && req == null && all &&
+                seek == null) {
             if (owner == null || owner.isEmpty()) {
                 orderby = " WHERE " + getLimitWhereCondition();
             } else if (!owner.equals("*")) {
@@ -1862,11 +2303,13 @@ public class DbTaskRunner extends AbstractDbData {
         if (orderBySpecialId) {
             orderby += " ORDER BY " + Columns.SPECIALID.name() + " DESC ";
         } else {
-            orderby += " ORDER BY " + Columns.STARTTRANS.name() + " DESC ";
+            // SPECIALID as tie-breaker to allow keyset pagination
+            orderby += " ORDER BY " + Columns.STARTTRANS.name() + " DESC, " +
+                    Columns.SPECIALID.name() + " DESC ";
         }
-        return getFilterCondition(preparedStatement, request, limit, orderby,
-                startid, stopid, start, stop, rule,
-                req, pending, transfer, error, done, all);
+        return getFilterCondition(preparedStatement, request, selectAllFields, limit, orderby,
+                startid, stopid, start, stop, stopExcluded, rule,
+                req, pending, transfer, error, done, all, seek, orderBySpecialId);
     }
 
     /**
@@ -1896,6 +2339,239 @@ public class DbTaskRunner extends AbstractDbData {
         return pstt;
     }
 
+    /**
+     * In HA mode (multiple monitors), select the runners to submit of the shard of this monitor
+     * (specialId modulo the number of monitors), plus those of any shard not taken by their monitor
+     * since the lease delay. Parameters are to be set by finishSelectClaimablePrepareStatement.
+     * 
+     * @param session
+     * @param shard
+     *            index of this monitor
+     * @param nbShards
+     *            number of monitors
+     * @param limit
+     * @return the DbPreparedStatement for getting the runners that this monitor may claim
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbPreparedStatement getSelectClaimablePrepareStatement(DbSession session,
+            int shard, int nbShards, int limit)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String request = "SELECT " + selectAllFields +
+                " FROM " + table + " WHERE " + Columns.UPDATEDINFO.name() +
+                " = " + UpdatedInfo.TOSUBMIT.ordinal() +
+                " AND " + Columns.STARTTRANS.name() + " <= ? AND " + getLimitWhereCondition() +
+                " AND (ABS(MOD(" + Columns.SPECIALID.name() + ", " + nbShards + ")) = " + shard +
+                " OR " + Columns.STARTTRANS.name() + " <= ?) ";
+        request =
+                DbModelFactory.dbModel.limitRequest(selectAllFields, request, limit);
+        DbPreparedStatement pstt = new DbPreparedStatement(session, request);
+        return pstt;
+    }
+
+    /**
+     * Set the current time and the lease limit in the given claimable PreparedStatement
+     * 
+     * @param pstt
+     * @param time
+     * @param lease
+     *            delay in ms after which any monitor can take a runner
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static void finishSelectClaimablePrepareStatement(DbPreparedStatement pstt,
+            long time, long lease)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        try {
+            pstt.getPreparedStatement().setTimestamp(1, new Timestamp(time));
+            pstt.getPreparedStatement().setTimestamp(2, new Timestamp(time - lease));
+        } catch (SQLException e) {
+            logger.error("Database SQL Error: Cannot set timestamp", e);
+            throw new WaarpDatabaseSqlException("Cannot set timestamp", e);
+        }
+    }
+
+    /**
+     * Claim atomically this runner for submission: only one of the monitors sharing the database
+     * (HA mode) can change it from TOSUBMIT to INTERRUPTED (waiting in the TransferScheduler).
+     * 
+     * @return True if this monitor owns now the runner, False if another one was faster
+     * @throws WaarpDatabaseException
+     */
+    public boolean claimToSubmit() throws WaarpDatabaseException {
+        return claim(UpdatedInfo.TOSUBMIT, UpdatedInfo.INTERRUPTED);
+    }
+
+    /**
+     * Claim atomically this runner, waiting in the TransferScheduler, for launch: change it from
+     * INTERRUPTED to RUNNING only if no other monitor (HA mode) took it back meanwhile.
+     * 
+     * @return True if this monitor still owns the runner
+     * @throws WaarpDatabaseException
+     */
+    public boolean claimToRun() throws WaarpDatabaseException {
+        return claim(UpdatedInfo.INTERRUPTED, UpdatedInfo.RUNNING);
+    }
+
+    private boolean claim(UpdatedInfo from, UpdatedInfo to) throws WaarpDatabaseException {
+        changeUpdatedInfo(to);
+        setToArray();
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(dbSession);
+        try {
+            preparedStatement.createPrepareStatement("UPDATE " + table +
+                    " SET " + getUpdateAllFields() + " WHERE " + getWherePrimaryKey() +
+                    " AND " + Columns.UPDATEDINFO.name() + " = " + from.ordinal());
+            setValues(preparedStatement, allFields);
+            int count = preparedStatement.executeUpdate();
+            if (count <= 0) {
+                logger.debug("Runner already claimed by another monitor: {}", specialId);
+                changeUpdatedInfo(from);
+                return false;
+            }
+            isSaved = true;
+            savedStatistics(false);
+            return true;
+        } finally {
+            preparedStatement.realClose();
+        }
+    }
+
+    /**
+     * 
+     * @param session
+     * @param time
+     * @return the earliest start time in ms, after the given time, of the runners to submit, or
+     *         Long.MAX_VALUE if none
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static long getNextStartToSubmit(DbSession session, long time)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String request = "SELECT MIN(" + Columns.STARTTRANS.name() + ") FROM " + table +
+                " WHERE " + Columns.UPDATEDINFO.name() + " = " + UpdatedInfo.TOSUBMIT.ordinal() +
+                " AND " + Columns.STARTTRANS.name() + " > ? AND " + getLimitWhereCondition();
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        try {
+            preparedStatement.createPrepareStatement(request);
+            preparedStatement.getPreparedStatement().setTimestamp(1, new Timestamp(time));
+            preparedStatement.executeQuery();
+            if (preparedStatement.getNext()) {
+                Timestamp next = preparedStatement.getResultSet().getTimestamp(1);
+                if (next != null) {
+                    return next.getTime();
+                }
+            }
+            return Long.MAX_VALUE;
+        } catch (SQLException e) {
+            throw new WaarpDatabaseSqlException("Cannot get next start", e);
+        } finally {
+            preparedStatement.realClose();
+        }
+    }
+
+    /**
+     * In HA mode, change to TOSUBMIT the RUNNING runners no more updated since the lease delay
+     * (their monitor is considered as dead), so that any monitor can restart them.<br>
+     * INTERRUPTED runners cannot be told apart from the ones left INTERRUPTED on purpose (stopped,
+     * or request not sent), so they are only taken back with withInterrupted, at startup of a
+     * monitor as without HA mode: this includes the ones waiting in the TransferScheduler of a dead
+     * monitor.
+     * 
+     * @param session
+     * @param lease
+     *            delay in ms
+     * @param withInterrupted
+     *            True to also take back the INTERRUPTED runners
+     * @return the number of runners changed
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    public static int resetExpiredToSubmit(DbSession session, long lease,
+            boolean withInterrupted) throws WaarpDatabaseNoConnectionException {
+        String info = Columns.UPDATEDINFO.name() + " = " +
+                AbstractDbData.UpdatedInfo.RUNNING.ordinal();
+        if (withInterrupted) {
+            info = "(" + info + " OR " + Columns.UPDATEDINFO.name() + " = " +
+                    AbstractDbData.UpdatedInfo.INTERRUPTED.ordinal() + ")";
+        }
+        String request = "UPDATE " + table + " SET " +
+                Columns.UPDATEDINFO.name() + "=" +
+                AbstractDbData.UpdatedInfo.TOSUBMIT.ordinal() +
+                " WHERE " + info + " AND " +
+                Columns.STOPTRANS.name() + " <= ? AND " + getLimitWhereCondition();
+        DbPreparedStatement initial = new DbPreparedStatement(session);
+        try {
+            initial.createPrepareStatement(request);
+            initial.getPreparedStatement().setTimestamp(1,
+                    new Timestamp(System.currentTimeMillis() - lease));
+            int nb = initial.executeUpdate();
+            if (nb > 0) {
+                logger.info("Runners taken back from expired leases: " + nb);
+                DbChangeVersion.changed(session, Configuration.configuration.HOST_ID);
+            }
+            return nb;
+        } catch (SQLException e) {
+            logger.error("Database SQL Error: Cannot set timestamp", e);
+            return 0;
+        } catch (WaarpDatabaseNoConnectionException e) {
+            logger.error("Database No Connection Error: Cannot execute Commander", e);
+            return 0;
+        } catch (WaarpDatabaseSqlException e) {
+            logger.error("Database SQL Error: Cannot execute Commander", e);
+            return 0;
+        } finally {
+            initial.realClose();
+        }
+    }
+
+    /**
+     * In HA mode, refresh the lease (stop time) of the given runners held by this monitor, if
+     * still RUNNING or INTERRUPTED (waiting in its scheduler), such that resetExpiredToSubmit does
+     * not take them back
+     * 
+     * @param session
+     * @param runners
+     * @return the number of runners refreshed
+     */
+    public static int refreshLeases(DbSession session, List<DbTaskRunner> runners) {
+        if (runners.isEmpty()) {
+            return 0;
+        }
+        String request = "UPDATE " + table + " SET " + Columns.STOPTRANS.name() + " = ? WHERE " +
+                Columns.REQUESTER.name() + " = ? AND " + Columns.REQUESTED.name() + " = ? AND " +
+                Columns.SPECIALID.name() + " = ? AND (" + Columns.UPDATEDINFO.name() + " = " +
+                AbstractDbData.UpdatedInfo.RUNNING.ordinal() +
+                " OR " + Columns.UPDATEDINFO.name() + " = " +
+                AbstractDbData.UpdatedInfo.INTERRUPTED.ordinal() + ") AND " +
+                getLimitWhereCondition();
+        DbPreparedStatement refresh = new DbPreparedStatement(session);
+        int nb = 0;
+        try {
+            refresh.createPrepareStatement(request);
+            PreparedStatement preparedStatement = refresh.getPreparedStatement();
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            for (DbTaskRunner runner : runners) {
+                preparedStatement.setTimestamp(1, now);
+                preparedStatement.setString(2, runner.requesterHostId);
+                preparedStatement.setString(3, runner.requestedHostId);
+                preparedStatement.setLong(4, runner.specialId);
+                nb += preparedStatement.executeUpdate();
+            }
+            logger.debug("Leases refreshed: {}", nb);
+            return nb;
+        } catch (SQLException e) {
+            logger.error("Database SQL Error: Cannot refresh leases", e);
+            return nb;
+        } catch (WaarpDatabaseNoConnectionException e) {
+            logger.error("Database No Connection Error: Cannot refresh leases", e);
+            return nb;
+        } catch (WaarpDatabaseSqlException e) {
+            logger.error("Database SQL Error: Cannot refresh leases", e);
+            return nb;
+        } finally {
+            refresh.realClose();
+        }
+    }
+
     /**
      * 
      * @param session
@@ -2220,6 +2896,168 @@ public class DbTaskRunner extends AbstractDbData {
         return preparedStatement;
     }
 
+    /**
+     * Progress of one purge
+     */
+    private static class PurgeProgress {
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong chunks = new AtomicLong();
+
+        private void getStatus(ObjectNode node) {
+            node.put("Start", startTime);
+            node.put("Deleted", deleted.get());
+            node.put("Chunks", chunks.get());
+        }
+    }
+
+    /**
+     * Current purges
+     */
+    private static final Set<PurgeProgress> purgesRunning = Collections
+            .synchronizedSet(new HashSet<PurgeProgress>());
+    /**
+     * Last finished purge
+     */
+    private static volatile PurgeProgress lastPurge = null;
+
+    /**
+     * 
+     * @param node
+     *            the node to fill with the progress of the current purges and of the last one
+     */
+    public static void getPurgeStatus(ObjectNode node) {
+        synchronized (purgesRunning) {
+            node.put("Running", purgesRunning.size());
+            ArrayNode array = node.putArray("Current");
+            for (PurgeProgress progress : purgesRunning) {
+                progress.getStatus(array.addObject());
+            }
+        }
+        PurgeProgress last = lastPurge;
+        if (last != null) {
+            last.getStatus(node.putObject("Last"));
+        }
+    }
+
+    /**
+     * Statements used for one chunk of a purge or of an update: the chunk is made of the transfers
+     * selected in decreasing order of SPECIALID below the cursor, then deleted or updated using the
+     * same condition between the lowest SPECIALID of the chunk and the cursor.
+     */
+    private static abstract class KeysetChunk {
+        /**
+         * 
+         * @param cursor
+         *            excluded higher SPECIALID
+         * @param limit
+         * @return the select statement for the next chunk
+         */
+        abstract DbPreparedStatement select(long cursor, int limit)
+                throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException;
+
+        /**
+         * 
+         * @param low
+         *            included lower SPECIALID
+         * @param cursor
+         *            excluded higher SPECIALID
+         * @return the delete or update statement for this chunk
+         */
+        abstract DbPreparedStatement change(long low, long cursor)
+                throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException;
+    }
+
+    /**
+     * Walk the transfers by chunks in decreasing order of SPECIALID, deleting or updating each
+     * chunk before selecting the next one, in order to not lock the table for a long time
+     * 
+     * @param chunk
+     * @param limit
+     *            size of the chunks
+     * @param delay
+     *            sleep in ms between two chunks (none if 0)
+     * @param progress
+     *            the progress to update (may be null)
+     * @return the number of deleted or updated rows
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    private static int walkByChunks(KeysetChunk chunk, int limit, long delay,
+            PurgeProgress progress)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        long cursor = Long.MAX_VALUE;
+        int total = 0;
+        while (true) {
+            long low = cursor;
+            int nb = 0;
+            DbPreparedStatement preparedStatement = chunk.select(cursor, limit);
+            try {
+                preparedStatement.executeQuery();
+                while (preparedStatement.getNext()) {
+                    low = preparedStatement.getResultSet().getLong(Columns.SPECIALID.name());
+                    nb++;
+                }
+            } catch (SQLException e) {
+                throw new WaarpDatabaseSqlException(e);
+            } finally {
+                preparedStatement.realClose();
+            }
+            if (nb == 0) {
+                break;
+            }
+            preparedStatement = chunk.change(low, cursor);
+            try {
+                int changed = preparedStatement.executeUpdate();
+                total += changed;
+                if (progress != null) {
+                    progress.deleted.addAndGet(changed);
+                    progress.chunks.incrementAndGet();
+                }
+            } finally {
+                preparedStatement.realClose();
+            }
+            logger.debug("Chunk down to " + low + ": " + total + " changed");
+            if (nb < limit) {
+                break;
+            }
+            cursor = low;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    logger.warn("Chunks interrupted after " + total + " changed");
+                    break;
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Delete by chunks of purgeChunkSize rows, sleeping purgeChunkDelay between two chunks
+     * 
+     * @param purgeChunk
+     * @return the number of deleted rows
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    private static int purgeByChunks(KeysetChunk purgeChunk)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        PurgeProgress progress = new PurgeProgress();
+        purgesRunning.add(progress);
+        int total;
+        try {
+            total = walkByChunks(purgeChunk, Configuration.configuration.purgeChunkSize,
+                    Configuration.configuration.purgeChunkDelay, progress);
+        } finally {
+            purgesRunning.remove(progress);
+            lastPurge = progress;
+        }
+        logger.info("Purge " + total + " in " + progress.chunks.get() + " chunks");
+        return total;
+    }
+
     /**
      * purge in same interval all runners with globallaststep as ALLDONETASK or UpdatedInfo as Done
      * 
@@ -2230,47 +3068,45 @@ public class DbTaskRunner extends AbstractDbData {
      * @throws WaarpDatabaseNoConnectionException
      * @throws WaarpDatabaseSqlException
      */
-    public static int purgeLogPrepareStatement(DbSession session,
-            Timestamp start, Timestamp stop)
+    public static int purgeLogPrepareStatement(final DbSession session,
+            final Timestamp start, final Timestamp stop)
             throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
-        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
-        String request = "DELETE FROM " + table + " WHERE (" +
+        String condition = " WHERE (" +
                 Columns.GLOBALLASTSTEP + " = " + TASKSTEP.ALLDONETASK.ordinal() + " OR " +
                 Columns.UPDATEDINFO + " = " + UpdatedInfo.DONE.ordinal() +
                 ") AND " + getLimitWhereCondition();
-        try {
-            if (start != null & stop != null) {
-                request += " AND " + Columns.STARTTRANS.name() + " >= ? AND " +
-                        Columns.STOPTRANS.name() + " <= ? ";
-                preparedStatement.createPrepareStatement(request);
-                try {
-                    preparedStatement.getPreparedStatement().setTimestamp(1, start);
-                    preparedStatement.getPreparedStatement().setTimestamp(2, stop);
-                } catch (SQLException e) {
-                    preparedStatement.realClose();
-                    throw new WaarpDatabaseSqlException(e);
-                }
-            } else if (start != null) {
-                request += " AND " + Columns.STARTTRANS.name() + " >= ? ";
-                preparedStatement.createPrepareStatement(request);
-                try {
-                    preparedStatement.getPreparedStatement().setTimestamp(1, start);
-                } catch (SQLException e) {
-                    preparedStatement.realClose();
-                    throw new WaarpDatabaseSqlException(e);
+        if (start != null) {
+            condition += " AND " + Columns.STARTTRANS.name() + " >= ? ";
+        }
+        if (stop != null) {
+            condition += " AND " + Columns.STOPTRANS.name() + " <= ? ";
+        }
+        if (Configuration.configuration.purgeChunkSize > 0) {
+            final String where = condition + " AND " + Columns.SPECIALID.name() + " < ? ";
+            return purgeByChunks(new KeysetChunk() {
+                @Override
+                DbPreparedStatement select(long cursor, int limit)
+                        throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+                    // only SPECIALID is needed to delimit the chunk
+                    String request = DbModelFactory.dbModel.limitRequest(Columns.SPECIALID.name(),
+                            "SELECT " + Columns.SPECIALID.name() + " FROM " + table + where +
+                                    " ORDER BY " + Columns.SPECIALID.name() + " DESC ", limit);
+                    return prepareChunk(session, request, start, stop, cursor, null);
                 }
-            } else if (stop != null) {
-                request += " AND " + Columns.STOPTRANS.name() + " <= ? ";
-                preparedStatement.createPrepareStatement(request);
-                try {
-                    preparedStatement.getPreparedStatement().setTimestamp(1, stop);
-                } catch (SQLException e) {
-                    preparedStatement.realClose();
-                    throw new WaarpDatabaseSqlException(e);
+
+                @Override
+                DbPreparedStatement change(long low, long cursor)
+                        throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+                    String request = "DELETE FROM " + table + where + " AND " +
+                            Columns.SPECIALID.name() + " >= ? ";
+                    return prepareChunk(session, request, start, stop, cursor, low);
                 }
-            } else {
-                preparedStatement.createPrepareStatement(request);
-            }
+            });
+        }
+        String request = "DELETE FROM " + table + condition;
+        DbPreparedStatement preparedStatement = prepareChunk(session, request, start, stop,
+                null, null);
+        try {
             int nb = preparedStatement.executeUpdate();
             logger.info("Purge " + nb + " from " + request);
             return nb;
@@ -2279,6 +3115,38 @@ public class DbTaskRunner extends AbstractDbData {
         }
     }
 
+    /**
+     * 
+     * @return the prepared statement with start, stop, cursor and low set if not null
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    private static DbPreparedStatement prepareChunk(DbSession session, String request,
+            Timestamp start, Timestamp stop, Long cursor, Long low)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        preparedStatement.createPrepareStatement(request);
+        int rank = 1;
+        try {
+            if (start != null) {
+                preparedStatement.getPreparedStatement().setTimestamp(rank++, start);
+            }
+            if (stop != null) {
+                preparedStatement.getPreparedStatement().setTimestamp(rank++, stop);
+            }
+            if (cursor != null) {
+                preparedStatement.getPreparedStatement().setLong(rank++, cursor);
+            }
+            if (low != null) {
+                preparedStatement.getPreparedStatement().setLong(rank++, low);
+            }
+        } catch (SQLException e) {
+            preparedStatement.realClose();
+            throw new WaarpDatabaseSqlException(e);
+        }
+        return preparedStatement;
+    }
+
     /**
      * 
      * @param session
@@ -2298,38 +3166,73 @@ public class DbTaskRunner extends AbstractDbData {
      * @throws WaarpDatabaseSqlException
      */
     public static int purgeLogPrepareStatement(
-            DbSession session, String startid, String stopid,
-            Timestamp start, Timestamp stop, String rule,
-            String req, boolean pending, boolean transfer, boolean error,
-            boolean done, boolean all) throws WaarpDatabaseNoConnectionException,
+            final DbSession session, final String startid, final String stopid,
+            final Timestamp start, final Timestamp stop, final String rule,
+            final String req, final boolean pending, final boolean transfer, final boolean error,
+            final boolean done, final boolean all) throws WaarpDatabaseNoConnectionException,
             WaarpDatabaseSqlException {
-        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
-        String request = "DELETE FROM " + table;
-        String orderby;
-        if (startid == null && stopid == null && start == null && stop == null &&
-                rule == null && req == null && all) {
-            orderby = " WHERE (" +
+        boolean noFilter = startid == null && stopid == null && start == null && stop == null &&
+                rule == null && req == null && all;
+        String condition;
+        if (noFilter) {
+            condition = "(" +
                     Columns.GLOBALLASTSTEP + " = " + TASKSTEP.ALLDONETASK.ordinal() + " OR " +
                     Columns.UPDATEDINFO + " = " + UpdatedInfo.DONE.ordinal() +
                     ") AND " + getLimitWhereCondition();
+        } else if (all) {
+            condition = "(" +
+                    Columns.GLOBALLASTSTEP + " = " + TASKSTEP.ALLDONETASK.ordinal() + " OR " +
+                    Columns.UPDATEDINFO + " = " + UpdatedInfo.DONE.ordinal() + " OR " +
+                    Columns.UPDATEDINFO + " = " + UpdatedInfo.INERROR.ordinal() +
+                    ") AND " + getLimitWhereCondition();
         } else {
-            if (all) {
-                orderby = " AND (" +
-                        Columns.GLOBALLASTSTEP + " = " + TASKSTEP.ALLDONETASK.ordinal() + " OR " +
-                        Columns.UPDATEDINFO + " = " + UpdatedInfo.DONE.ordinal() + " OR " +
-                        Columns.UPDATEDINFO + " = " + UpdatedInfo.INERROR.ordinal() +
-                        ") AND " + getLimitWhereCondition();
-            } else {
-                orderby = " AND " +
-                        Columns.UPDATEDINFO + " <> " + UpdatedInfo.RUNNING.ordinal() +
-                        " AND " + getLimitWhereCondition();// limit by field
+            condition = Columns.UPDATEDINFO + " <> " + UpdatedInfo.RUNNING.ordinal() +
+                    " AND " + getLimitWhereCondition();// limit by field
+        }
+        if (Configuration.configuration.purgeChunkSize > 0) {
+            // the cursor on SPECIALID is always set, so the condition always follows another one
+            final String where = " AND " + condition;
+            long value = DbConstant.ILLEGALVALUE;
+            if (startid != null) {
+                try {
+                    value = Long.parseLong(startid);
+                } catch (NumberFormatException e) {
+                    // ignore then
+                }
             }
+            final long lowid = value;
+            return purgeByChunks(new KeysetChunk() {
+                @Override
+                DbPreparedStatement select(long cursor, int limit)
+                        throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+                    // only SPECIALID is needed to delimit the chunk
+                    return getFilterCondition(new DbPreparedStatement(session),
+                            "SELECT " + Columns.SPECIALID.name() + " FROM " + table,
+                            Columns.SPECIALID.name(), limit,
+                            where + " ORDER BY " + Columns.SPECIALID.name() + " DESC ",
+                            startid, stopid, start, stop, false, rule,
+                            req, pending, transfer, error, done, all, new long[] { 0, cursor }, true);
+                }
+
+                @Override
+                DbPreparedStatement change(long low, long cursor)
+                        throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+                    return getFilterCondition(new DbPreparedStatement(session),
+                            "DELETE FROM " + table, selectAllFields, 0, where,
+                            Long.toString(Math.max(low, lowid)), stopid, start, stop, false, rule,
+                            req, pending, transfer, error, done, all, new long[] { 0, cursor }, true);
+                }
+            });
         }
+        String request = "DELETE FROM " + table;
+        String orderby = (noFilter ? " WHERE " : " AND ") + condition;
+        DbPreparedStatement preparedStatement = null;
         int nb = 0;
         try {
-            preparedStatement = getFilterCondition(preparedStatement, request, 0,
-                    orderby, startid, stopid, start, stop, rule,
-                    req, pending, transfer, error, done, all);
+            preparedStatement = getFilterCondition(new DbPreparedStatement(session), request,
+                    selectAllFields, 0,
+                    orderby, startid, stopid, start, stop, false, rule,
+                    req, pending, transfer, error, done, all, null, false);
             nb = preparedStatement.executeUpdate();
             logger.info("Purge " + nb + " from " + request);
         } finally {
@@ -2340,6 +3243,93 @@ public class DbTaskRunner extends AbstractDbData {
         return nb;
     }
 
+    /**
+     * Update by chunks of the given size, in decreasing order of SPECIALID, so that each update
+     * only locks a limited number of rows
+     * 
+     * @param session
+     * @param set
+     *            the SET part of the update
+     * @param condition
+     *            the WHERE part of the update, without parameter
+     * @param limit
+     *            size of the chunks
+     * @return the number of updated rows
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    private static int updateByChunks(final DbSession session, String set, String condition,
+            int limit) throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        final String where = " WHERE " + condition + " AND " + Columns.SPECIALID.name() + " < ? ";
+        final String update = "UPDATE " + table + " SET " + set;
+        int total = walkByChunks(new KeysetChunk() {
+            @Override
+            DbPreparedStatement select(long cursor, int limit)
+                    throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+                String request = DbModelFactory.dbModel.limitRequest(Columns.SPECIALID.name(),
+                        "SELECT " + Columns.SPECIALID.name() + " FROM " + table + where +
+                                " ORDER BY " + Columns.SPECIALID.name() + " DESC ", limit);
+                return prepareChunk(session, request, null, null, cursor, null);
+            }
+
+            @Override
+            DbPreparedStatement change(long low, long cursor)
+                    throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+                String request = update + where + " AND " + Columns.SPECIALID.name() + " >= ? ";
+                return prepareChunk(session, request, null, null, cursor, low);
+            }
+        }, limit, 0, null);
+        logger.debug("Update " + total + " by chunks");
+        return total;
+    }
+
+    /**
+     * Select the transfers still RUNNING or INTERRUPTED since before the given time (interrupted
+     * by a stop or a crash of the server), for the paced recovery at startup
+     * 
+     * @param session
+     * @param before
+     *            time of the startup
+     * @param rules
+     *            rules to include or exclude (none if null or empty)
+     * @param include
+     *            True to select only the given rules, False to exclude them
+     * @param limit
+     * @return the DbPreparedStatement, ordered by start time, ready to be executed
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbPreparedStatement getSelectRecoverablePrepareStatement(DbSession session,
+            long before, List<String> rules, boolean include, int limit)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String request = "SELECT " + selectAllFields + " FROM " + table + " WHERE (" +
+                Columns.UPDATEDINFO.name() + " = " + UpdatedInfo.RUNNING.ordinal() + " OR " +
+                Columns.UPDATEDINFO.name() + " = " + UpdatedInfo.INTERRUPTED.ordinal() +
+                ") AND " + Columns.STOPTRANS.name() + " < ? AND " + getLimitWhereCondition();
+        if (rules != null && !rules.isEmpty()) {
+            request += " AND " + Columns.IDRULE.name() + (include ? " IN (" : " NOT IN (");
+            for (int i = 0; i < rules.size(); i++) {
+                request += (i > 0 ? ",?" : "?");
+            }
+            request += ") ";
+        }
+        request += " ORDER BY " + Columns.STARTTRANS.name() + " ASC ";
+        request = DbModelFactory.dbModel.limitRequest(selectAllFields, request, limit);
+        DbPreparedStatement pstt = new DbPreparedStatement(session, request);
+        try {
+            pstt.getPreparedStatement().setTimestamp(1, new Timestamp(before));
+            if (rules != null) {
+                for (int i = 0; i < rules.size(); i++) {
+                    pstt.getPreparedStatement().setString(i + 2, rules.get(i));
+                }
+            }
+        } catch (SQLException e) {
+            pstt.realClose();
+            throw new WaarpDatabaseSqlException("Cannot set parameters", e);
+        }
+        return pstt;
+    }
+
     /**
      * Change RUNNING, INTERRUPTED to TOSUBMIT TaskRunner from database. This method is to be used
      * when the commander is starting the very first time, in order to be ready to rerun tasks that
@@ -2362,7 +3352,9 @@ public class DbTaskRunner extends AbstractDbData {
         DbPreparedStatement initial = new DbPreparedStatement(session);
         try {
             initial.createPrepareStatement(request);
-            initial.executeUpdate();
+            if (initial.executeUpdate() > 0) {
+                DbChangeVersion.changed(session, Configuration.configuration.HOST_ID);
+            }
         } catch (WaarpDatabaseNoConnectionException e) {
             logger.error("Database No Connection Error: Cannot execute Commander", e);
             return;
@@ -2386,10 +3378,9 @@ public class DbTaskRunner extends AbstractDbData {
             throws WaarpDatabaseNoConnectionException {
         // Update all UpdatedInfo to DONE where GlobalLastStep = ALLDONETASK and
         // status = CompleteOk
-        String request = "UPDATE " + table + " SET " +
-                Columns.UPDATEDINFO.name() + "=" +
-                AbstractDbData.UpdatedInfo.DONE.ordinal() +
-                " WHERE " + Columns.UPDATEDINFO.name() + " <> " +
+        String set = Columns.UPDATEDINFO.name() + "=" +
+                AbstractDbData.UpdatedInfo.DONE.ordinal();
+        String condition = Columns.UPDATEDINFO.name() + " <> " +
                 AbstractDbData.UpdatedInfo.DONE.ordinal() + " AND " +
                 Columns.UPDATEDINFO.name() + " > 0 AND " +
                 Columns.GLOBALLASTSTEP.name() + " = " +
@@ -2397,6 +3388,19 @@ public class DbTaskRunner extends AbstractDbData {
                 Columns.STEPSTATUS.name() + " = '" +
                 ErrorCode.CompleteOk.getCode() + "' AND " +
                 getLimitWhereCondition();
+        if (Configuration.configuration.recoveryChunkSize > 0) {
+            try {
+                int nb = updateByChunks(session, set, condition,
+                        Configuration.configuration.recoveryChunkSize);
+                logger.debug("Finished transfers changed to Done: " + nb);
+            } catch (WaarpDatabaseNoConnectionException e) {
+                logger.error("Database No Connection Error: Cannot execute Commander", e);
+            } catch (WaarpDatabaseSqlException e) {
+                logger.error("Database SQL Error: Cannot execute Commander", e);
+            }
+            return;
+        }
+        String request = "UPDATE " + table + " SET " + set + " WHERE " + condition;
         DbPreparedStatement initial = new DbPreparedStatement(session);
         try {
             initial.createPrepareStatement(request);
@@ -3032,14 +4036,14 @@ public class DbTaskRunner extends AbstractDbData {
      * @throws OpenR66RunnerEndTasksException
      * @throws OpenR66RunnerErrorException
      */
-    private R66Future runNextTask(String[][] tasks)
+    private R66Future runNextTask(TaskPlan tasks)
             throws OpenR66RunnerEndTasksException, OpenR66RunnerErrorException {
         logger.debug((session == null) + ":"
                 + (session == null ? "norunner" : (this.session.getRunner() == null)) + ":"
-                + this.toLogRunStep() + ":" + step + ":" + (tasks == null ? "null" : tasks.length)
+                + this.toLogRunStep() + ":" + step + ":" + (tasks.isEmpty() ? "null" : tasks.size())
                 + " Sender: " + this.isSender + " " + this.rule.printTasks(isSender,
                         TASKSTEP.values()[globalstep]));
-        if (tasks == null) {
+        if (tasks.isEmpty()) {
             throw new OpenR66RunnerEndTasksException("No tasks!");
         }
         R66Session tempSession = this.session;
@@ -3058,10 +4062,10 @@ public class DbTaskRunner extends AbstractDbData {
             this.session.getLocalChannelReference().setErrorMessage(this.infostatus.mesg,
                     this.infostatus);
         }
-        if (tasks.length <= step) {
+        if (tasks.size() <= step) {
             throw new OpenR66RunnerEndTasksException();
         }
-        AbstractTask task = getTask(tasks[step], tempSession);
+        AbstractTask task = tasks.getTask(step, tempSession);
         logger.debug(this.toLogRunStep() + " Task: " + task.getClass().getName());
         task.run();
         try {
@@ -3125,9 +4129,9 @@ public class DbTaskRunner extends AbstractDbData {
             case PRETASK:
                 try {
                     if (this.isSender) {
-                        return runNextTask(rule.spreTasksArray);
+                        return runNextTask(rule.getTaskPlan(true, TASKSTEP.PRETASK));
                     } else {
-                        return runNextTask(rule.rpreTasksArray);
+                        return runNextTask(rule.getTaskPlan(false, TASKSTEP.PRETASK));
                     }
                 } catch (OpenR66RunnerEndTasksException e) {
                     if (status == ErrorCode.Running) {
@@ -3138,9 +4142,9 @@ public class DbTaskRunner extends AbstractDbData {
             case POSTTASK:
                 try {
                     if (this.isSender) {
-                        return runNextTask(rule.spostTasksArray);
+                        return runNextTask(rule.getTaskPlan(true, TASKSTEP.POSTTASK));
                     } else {
-                        return runNextTask(rule.rpostTasksArray);
+                        return runNextTask(rule.getTaskPlan(false, TASKSTEP.POSTTASK));
                     }
                 } catch (OpenR66RunnerEndTasksException e) {
                     if (status == ErrorCode.Running) {
@@ -3151,9 +4155,9 @@ public class DbTaskRunner extends AbstractDbData {
             case ERRORTASK:
                 try {
                     if (this.isSender) {
-                        return runNextTask(rule.serrorTasksArray);
+                        return runNextTask(rule.getTaskPlan(true, TASKSTEP.ERRORTASK));
                     } else {
-                        return runNextTask(rule.rerrorTasksArray);
+                        return runNextTask(rule.getTaskPlan(false, TASKSTEP.ERRORTASK));
                     }
                 } catch (OpenR66RunnerEndTasksException e) {
                     if (status == ErrorCode.Running) {
@@ -3511,12 +4515,8 @@ public class DbTaskRunner extends AbstractDbData {
             modulo = 100; // Bug in JDBC MariaDB/MySQL which tends to consume more memory
         }
         if (rank % modulo == 0) {
-            // Save each 10 blocks
-            try {
-                update();
-            } catch (WaarpDatabaseException e) {
-                logger.warn("Cannot update Runner: {}", e.getMessage());
-            }
+            // Save each 10 blocks, out of the handler thread
+            DbTaskRunnerExecutor.saveStatus(this);
         }
     }
 
@@ -3526,6 +4526,7 @@ public class DbTaskRunner extends AbstractDbData {
      * @throws OpenR66RunnerErrorException
      */
     public void saveStatus() throws OpenR66RunnerErrorException {
+        DbTaskRunnerExecutor.awaitPending(this);
         try {
             update();
         } catch (WaarpDatabaseException e) {
@@ -3533,6 +4534,16 @@ public class DbTaskRunner extends AbstractDbData {
         }
     }
 
+    /**
+     * This method is to be called each time an operation is happening on Runner when the caller does
+     * not need to wait for the update (as the network and local handlers)
+     * 
+     * @return the future of the update, done in order with the other updates of this Runner
+     */
+    public R66Future saveStatusAsync() {
+        return DbTaskRunnerExecutor.saveStatus(this);
+    }
+
     /**
      * This method is to be called each time an operation is happening on Runner and it is forced
      * (for SelfRequest handling)
@@ -3998,6 +5009,60 @@ public class DbTaskRunner extends AbstractDbData {
         return root;
     }
 
+    /**
+     * Write this TaskRunner as one XMLRUNNER element, with the same content than
+     * getElementFromRunner but without building any DOM (used by DbTaskRunnerExporter)
+     * 
+     * @param writer
+     * @throws IOException
+     * @throws WaarpDatabaseSqlException
+     */
+    void writeXmlRunner(Writer writer) throws IOException, WaarpDatabaseSqlException {
+        writer.write("<" + XMLRUNNER + ">");
+        for (DbValue value : allFields) {
+            if (value.column.equals(Columns.UPDATEDINFO.name()) ||
+                    value.column.equals(Columns.TRANSFERINFO.name())) {
+                continue;
+            }
+            String name = value.column.toLowerCase();
+            String text = value.getValueAsString();
+            writer.write('<');
+            writer.write(name);
+            writer.write('>');
+            if (text != null) {
+                writeXmlEscaped(writer, text);
+            }
+            writer.write("</");
+            writer.write(name);
+            writer.write('>');
+        }
+        writer.write("</" + XMLRUNNER + ">\n");
+    }
+
+    private static void writeXmlEscaped(Writer writer, String text) throws IOException {
+        int len = text.length();
+        for (int i = 0; i < len; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                default:
+                    if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                        // not allowed in XML 1.0
+                        continue;
+                    }
+                    writer.write(c);
+            }
+        }
+    }
+
     /**
      * Set the given runner from the root element of the runner itself (XMLRUNNER but not
      * XMLRUNNERS). Need to call 'setFromArray' after.
@@ -4409,20 +5474,44 @@ public class DbTaskRunner extends AbstractDbData {
      * Method to load several DbTaskRunner from File logs.
      * 
      * @param logsFile
-     *            File containing logs from export function
+     *            File containing logs from export function (XML or JSON Lines, possibly gzipped)
      * @throws OpenR66ProtocolBusinessException
      */
     public static void loadXml(File logsFile) throws OpenR66ProtocolBusinessException {
         if (!logsFile.canRead()) {
             throw new OpenR66ProtocolBusinessException("XML file cannot be read");
         }
+        String name = logsFile.getName();
+        boolean gzip = name.endsWith(DbTaskRunnerExporter.GZIPEXTENSION);
+        if (gzip) {
+            name = name.substring(0, name.length() - DbTaskRunnerExporter.GZIPEXTENSION.length());
+        }
+        if (name.endsWith(DbTaskRunnerExporter.FORMAT.JSONL.extension)) {
+            loadJsonLines(logsFile, gzip);
+            return;
+        }
         SAXReader reader = new SAXReader();
         Document document;
+        InputStream inputStream = null;
         try {
-            document = reader.read(logsFile);
+            inputStream = new FileInputStream(logsFile);
+            if (gzip) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            document = reader.read(inputStream);
+        } catch (IOException e) {
+            throw new OpenR66ProtocolBusinessException(
+                    "XML file cannot be read", e);
         } catch (DocumentException e) {
             throw new OpenR66ProtocolBusinessException(
                     "XML file cannot be read as an XML file", e);
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                }
+            }
         }
         @SuppressWarnings("unchecked")
         List<Element> elts = document.selectNodes("/" + XMLRUNNERS + "/" + XMLRUNNER);
@@ -4448,6 +5537,58 @@ public class DbTaskRunner extends AbstractDbData {
         }
     }
 
+    /**
+     * Load several DbTaskRunner from JSON Lines logs (one TaskRunner as JSON per line)
+     * 
+     * @param logsFile
+     * @param gzip
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private static void loadJsonLines(File logsFile, boolean gzip)
+            throws OpenR66ProtocolBusinessException {
+        BufferedReader reader = null;
+        boolean error = false;
+        Exception one = null;
+        try {
+            InputStream inputStream = new FileInputStream(logsFile);
+            if (gzip) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            reader = new BufferedReader(new InputStreamReader(inputStream, WaarpStringUtils.UTF8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                ObjectNode node = JsonHandler.getFromString(line);
+                if (node == null) {
+                    error = true;
+                    continue;
+                }
+                try {
+                    DbTaskRunner runnerlog = new DbTaskRunner(DbConstant.admin.session, node);
+                    runnerlog.insertOrUpdateForLogsImport();
+                } catch (WaarpDatabaseException e) {
+                    error = true;
+                    one = e;
+                }
+            }
+        } catch (IOException e) {
+            throw new OpenR66ProtocolBusinessException("JSON file cannot be read", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        if (error) {
+            throw new OpenR66ProtocolBusinessException(
+                    "Backend JSON file is not conform to the model", one);
+        }
+    }
+
     /**
      * 
      * @return True if the backend XML for NoDb client is available for this TaskRunner
@@ -4466,6 +5607,226 @@ public class DbTaskRunner extends AbstractDbData {
         file.delete();
     }
 
+    /**
+     *
+     * @return the backend Journal filename for TaskRunners in NoDb Client mode
+     */
+    public static String backendJournalFilename() {
+        return Configuration.configuration.baseDirectory +
+                Configuration.configuration.archivePath + R66Dir.SEPARATOR +
+                Configuration.configuration.HOST_ID + DbTaskRunnerJournal.JOURNALEXTENSION;
+    }
+
+    /**
+     *
+     * @return the Journal for NoDb client, opening (and replaying) it if necessary
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private static synchronized DbTaskRunnerJournal getNoDbJournal()
+            throws OpenR66ProtocolBusinessException {
+        if (noDbJournal == null) {
+            try {
+                noDbJournal = new DbTaskRunnerJournal(new File(backendJournalFilename()),
+                        Configuration.configuration.journalCompactionThreshold);
+            } catch (IOException e) {
+                logger.error("Cannot open Journal file", e);
+                throw new OpenR66ProtocolBusinessException("Cannot open Journal file: "
+                        + e.getMessage());
+            }
+        }
+        return noDbJournal;
+    }
+
+    /**
+     * Close the Journal for NoDb client if any
+     */
+    public static synchronized void closeNoDbJournal() {
+        if (noDbJournal != null) {
+            noDbJournal.close();
+            noDbJournal = null;
+        }
+    }
+
+    /**
+     * Method to write the current DbTaskRunner for NoDb client into the Journal instead of
+     * updating DB. 'setToArray' must be called priorly to be able to store the values.
+     *
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public void writeJournalWorkNoDb() throws OpenR66ProtocolBusinessException {
+        String[] values = new String[allFields.length];
+        try {
+            for (int i = 0; i < allFields.length; i++) {
+                if (allFields[i].getValue() != null) {
+                    values[i] = allFields[i].getValueAsString();
+                }
+            }
+        } catch (WaarpDatabaseSqlException e) {
+            logger.error("Cannot write Data", e);
+            throw new OpenR66ProtocolBusinessException("Cannot write Data: " + e.getMessage());
+        }
+        try {
+            getNoDbJournal().put(getKey(), values);
+        } catch (IOException e) {
+            logger.error("Cannot write Journal file", e);
+            throw new OpenR66ProtocolBusinessException("Cannot write Journal file: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Method to load a previous existing DbTaskRunner for NoDb client from the Journal instead of
+     * from DB. 'setFromArray' must be called after.
+     *
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public void loadJournalWorkNoDb() throws OpenR66ProtocolBusinessException {
+        String[] values;
+        try {
+            values = getNoDbJournal().get(getKey());
+        } catch (IOException e) {
+            throw new OpenR66ProtocolBusinessException(
+                    "Backend Journal file cannot be read", e);
+        }
+        if (values == null) {
+            throw new OpenR66ProtocolBusinessException("Backend Journal entry not found");
+        }
+        setRunnerFromValues(this, values);
+    }
+
+    /**
+     * Set the given runner from the values stored in the Journal. Need to call 'setFromArray'
+     * after.
+     *
+     * @param runner
+     * @param values
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private static void setRunnerFromValues(DbTaskRunner runner, String[] values)
+            throws OpenR66ProtocolBusinessException {
+        if (values.length != runner.allFields.length) {
+            throw new OpenR66ProtocolBusinessException(
+                    "Backend Journal entry is not conform to the model");
+        }
+        try {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    runner.allFields[i].setValueFromString(values[i]);
+                }
+            }
+        } catch (WaarpDatabaseSqlException e) {
+            throw new OpenR66ProtocolBusinessException(
+                    "Backend Journal entry is not conform to the model", e);
+        }
+    }
+
+    /**
+     *
+     * @return True if the backend Journal for NoDb client contains this TaskRunner
+     */
+    public boolean existJournalWorkNoDb() {
+        try {
+            return getNoDbJournal().contains(getKey());
+        } catch (OpenR66ProtocolBusinessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Delete the current TaskRunner from the backend Journal for NoDb Client
+     */
+    public void deleteJournalWorkNoDb() {
+        try {
+            getNoDbJournal().remove(getKey());
+        } catch (OpenR66ProtocolBusinessException e) {
+            // Ignore
+        } catch (IOException e) {
+            logger.warn("Cannot write Journal file", e);
+        }
+    }
+
+    /**
+     * Reload all TaskRunners from the backend Journal for NoDb Client
+     *
+     * @return the list of TaskRunners stored in the Journal
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public static List<DbTaskRunner> loadAllJournalWorkNoDb()
+            throws OpenR66ProtocolBusinessException {
+        DbTaskRunnerJournal journal = getNoDbJournal();
+        List<DbTaskRunner> runners = new ArrayList<DbTaskRunner>(journal.size());
+        for (String key : journal.keys()) {
+            try {
+                String[] values = journal.get(key);
+                if (values == null) {
+                    continue;
+                }
+                DbTaskRunner runner = new DbTaskRunner(null);
+                setRunnerFromValues(runner, values);
+                runner.setFromArray();
+                runner.rule = new DbRule(null, runner.ruleId);
+                runner.isSaved = true;
+                runner.checkThroughMode();
+                runners.add(runner);
+            } catch (IOException e) {
+                logger.warn("Cannot reload the task: " + key, e);
+            } catch (OpenR66ProtocolBusinessException e) {
+                logger.warn("Cannot reload the task: " + key, e);
+            } catch (WaarpDatabaseException e) {
+                logger.warn("Cannot reload the task: " + key, e);
+            }
+        }
+        return runners;
+    }
+
+    /**
+     * Write the current TaskRunner to the NoDb backend (Journal or XML)
+     *
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private void writeWorkNoDb() throws OpenR66ProtocolBusinessException {
+        if (Configuration.configuration.journalTaskRunnerWithNoDb) {
+            writeJournalWorkNoDb();
+        } else {
+            writeXmlWorkNoDb();
+        }
+    }
+
+    /**
+     * Load the current TaskRunner from the NoDb backend (Journal or XML)
+     *
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private void loadWorkNoDb() throws OpenR66ProtocolBusinessException {
+        if (Configuration.configuration.journalTaskRunnerWithNoDb) {
+            loadJournalWorkNoDb();
+        } else {
+            loadXmlWorkNoDb();
+        }
+    }
+
+    /**
+     *
+     * @return True if the current TaskRunner is in the NoDb backend (Journal or XML)
+     */
+    private boolean existWorkNoDb() {
+        if (Configuration.configuration.journalTaskRunnerWithNoDb) {
+            return existJournalWorkNoDb();
+        }
+        return existXmlWorkNoDb();
+    }
+
+    /**
+     * Delete the current TaskRunner from the NoDb backend (Journal or XML)
+     */
+    private void deleteWorkNoDb() {
+        if (Configuration.configuration.journalTaskRunnerWithNoDb) {
+            deleteJournalWorkNoDb();
+        } else {
+            deleteXmlWorkNoDb();
+        }
+    }
+
     /**
      * Utility for "self request" mode only
      * 
@@ -0,0 +1,285 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.data;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.data.DbValue;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbSessionPool;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.utils.R66Future;
+
+/**
+ * Executor of DbTaskRunner updates out of the network and local handler threads, such that a slow
+ * database does not freeze all the channels sharing the same event loop.<br>
+ * <br>
+ * Updates are dispatched on single threaded lanes according to the SpecialId of the transfer, such
+ * that the updates of one transfer are done in the order of their submission. The values are taken
+ * at submission and each lane uses its own connection, taken from the TRANSFER DbSessionPool, so
+ * the runner and its DbSession can go on being used by the caller. A synchronous saveStatus on a
+ * DbTaskRunner first waits for its pending asynchronous updates.<br>
+ * If dbAsyncThreads is 0, or once the executor is shut down, updates are done directly by the
+ * caller.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DbTaskRunnerExecutor {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DbTaskRunnerExecutor.class);
+
+    private static ExecutorService[] lanes = null;
+    private static boolean stopped = false;
+
+    private static final AtomicLong nbSubmitted = new AtomicLong();
+    private static final AtomicLong nbFailed = new AtomicLong();
+    private static final AtomicLong nbPending = new AtomicLong();
+
+    /**
+     * Connection and update statement owned by one lane
+     */
+    private static class LaneConnection {
+        private DbSession session;
+        private DbPreparedStatement update;
+    }
+
+    private static final ThreadLocal<LaneConnection> laneConnection =
+            new ThreadLocal<LaneConnection>() {
+                @Override
+                protected LaneConnection initialValue() {
+                    return new LaneConnection();
+                }
+            };
+
+    private DbTaskRunnerExecutor() {
+    }
+
+    private static synchronized ExecutorService getLane(DbTaskRunner runner) {
+        if (stopped) {
+            return null;
+        }
+        if (lanes == null) {
+            int nb = Configuration.configuration.dbAsyncThreads;
+            if (nb <= 0) {
+                return null;
+            }
+            lanes = new ExecutorService[nb];
+            for (int i = 0; i < nb; i++) {
+                lanes[i] = Executors.newSingleThreadExecutor(new WaarpThreadFactory("DbRunner" + i));
+            }
+        }
+        long id = runner.getSpecialId();
+        int hash = (int) (id ^ (id >>> 32)) & Integer.MAX_VALUE;
+        return lanes[hash % lanes.length];
+    }
+
+    /**
+     * Update the runner asynchronously
+     * 
+     * @param runner
+     * @return the future of the update
+     */
+    public static R66Future saveStatus(final DbTaskRunner runner) {
+        final R66Future future = new R66Future(false);
+        ExecutorService lane = getLane(runner);
+        final DbValue[] values = lane == null ? null : runner.prepareAsyncUpdate();
+        if (values != null) {
+            runner.pendingAsync.incrementAndGet();
+            nbPending.incrementAndGet();
+            try {
+                lane.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            update(runner, values, future);
+                        } finally {
+                            runner.pendingAsync.decrementAndGet();
+                            nbPending.decrementAndGet();
+                        }
+                    }
+                });
+                nbSubmitted.incrementAndGet();
+                return future;
+            } catch (RejectedExecutionException e) {
+                // shutting down so do it directly
+                runner.pendingAsync.decrementAndGet();
+                nbPending.decrementAndGet();
+                runner.cancelAsyncUpdate();
+            }
+        }
+        update(runner, future);
+        return future;
+    }
+
+    /**
+     * Update from a lane with its own connection
+     * 
+     * @param runner
+     * @param values
+     * @param future
+     */
+    private static void update(DbTaskRunner runner, DbValue[] values, R66Future future) {
+        LaneConnection connection = laneConnection.get();
+        try {
+            if (connection.session == null || connection.session.isDisActive) {
+                closeConnection(connection);
+                connection.session = DbSessionPool.TRANSFER.acquire();
+                if (connection.session == null) {
+                    throw new WaarpDatabaseNoConnectionException("No database connection");
+                }
+            }
+            if (connection.update == null) {
+                connection.update = new DbPreparedStatement(connection.session,
+                        DbTaskRunner.getAsyncUpdateRequest());
+            }
+            runner.executeAsyncUpdate(connection.session, connection.update, values);
+            future.setSuccess();
+            if (connection.session == DbConstant.admin.session) {
+                // pool exhausted: do not keep the shared connection, try the pool at next update
+                closeConnection(connection);
+            }
+        } catch (WaarpDatabaseNoConnectionException e) {
+            nbFailed.incrementAndGet();
+            logger.warn("Cannot update Runner: {}", e.getMessage());
+            runner.cancelAsyncUpdate();
+            // reconnect at next update
+            closeConnection(connection);
+            future.setFailure(e);
+        } catch (WaarpDatabaseSqlException e) {
+            nbFailed.incrementAndGet();
+            logger.warn("Cannot update Runner: {}", e.getMessage());
+            runner.cancelAsyncUpdate();
+            closeConnection(connection);
+            future.setFailure(e);
+        } catch (WaarpDatabaseException e) {
+            nbFailed.incrementAndGet();
+            logger.warn("Cannot update Runner: {}", e.getMessage());
+            future.setFailure(e);
+        }
+    }
+
+    private static void closeConnection(LaneConnection connection) {
+        if (connection.update != null) {
+            connection.update.realClose();
+            connection.update = null;
+        }
+        if (connection.session != null) {
+            DbSessionPool.TRANSFER.release(connection.session);
+            connection.session = null;
+        }
+    }
+
+    private static void update(DbTaskRunner runner, R66Future future) {
+        try {
+            runner.update();
+            future.setSuccess();
+        } catch (WaarpDatabaseException e) {
+            nbFailed.incrementAndGet();
+            logger.warn("Cannot update Runner: {}", e.getMessage());
+            future.setFailure(e);
+        }
+    }
+
+    /**
+     * Wait for the pending asynchronous updates of this runner, if any
+     * 
+     * @param runner
+     */
+    public static void awaitPending(DbTaskRunner runner) {
+        if (runner.pendingAsync.get() <= 0) {
+            return;
+        }
+        ExecutorService lane = getLane(runner);
+        if (lane == null) {
+            return;
+        }
+        final R66Future future = new R66Future(false);
+        try {
+            lane.execute(new Runnable() {
+                public void run() {
+                    future.setSuccess();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        future.awaitUninterruptibly();
+    }
+
+    /**
+     * Stop the lanes after having done the pending updates, next updates being done directly by
+     * the caller
+     */
+    public static void shutdown() {
+        ExecutorService[] current;
+        synchronized (DbTaskRunnerExecutor.class) {
+            current = lanes;
+            lanes = null;
+            stopped = true;
+        }
+        if (current == null) {
+            return;
+        }
+        for (ExecutorService lane : current) {
+            try {
+                lane.execute(new Runnable() {
+                    public void run() {
+                        closeConnection(laneConnection.get());
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // already stopped
+            }
+            lane.shutdown();
+        }
+        for (ExecutorService lane : current) {
+            try {
+                if (!lane.awaitTermination(Configuration.configuration.TIMEOUTCON,
+                        TimeUnit.MILLISECONDS)) {
+                    lane.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                lane.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return the status of the executor
+     */
+    public static String hashStatus() {
+        return "DbTaskRunnerExecutor: [submitted: " + nbSubmitted.get() + " pending: " +
+                nbPending.get() + " failed: " + nbFailed.get() + "] ";
+    }
+}
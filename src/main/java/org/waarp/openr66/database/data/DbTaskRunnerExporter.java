@@ -0,0 +1,450 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.data;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.json.JsonHandler;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpStringUtils;
+import org.waarp.common.utility.WaarpThreadFactory;
+import org.waarp.openr66.context.filesystem.R66Dir;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
+import org.waarp.openr66.protocol.utils.NbAndSpecialId;
+
+/**
+ * Streaming exporter of TaskRunners (logs), used instead of building the export through dom4j.<br>
+ * <br>
+ * Each TaskRunner is written as soon as it is read, either as XML (same content than the previous
+ * export, so readable by DbTaskRunner.loadXml) or as JSON Lines (one JSON object per line), and
+ * optionally gzipped on the fly.<br>
+ * When both start and stop are specified and the parallelism is greater than 1, the time range is
+ * split into partitions exported in parallel, each one using its own database connection into its
+ * own part file. Parts are then concatenated in order (gzip allowing concatenation of members).
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DbTaskRunnerExporter {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DbTaskRunnerExporter.class);
+
+    public static enum FORMAT {
+        XML(".xml"), JSONL(".jsonl");
+
+        public final String extension;
+
+        private FORMAT(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * 
+         * @param name
+         * @return the FORMAT from its name (case insensitive), XML by default
+         */
+        public static FORMAT getFormat(String name) {
+            if (name != null) {
+                for (FORMAT format : values()) {
+                    if (format.name().equalsIgnoreCase(name.trim())) {
+                        return format;
+                    }
+                }
+            }
+            return XML;
+        }
+    }
+
+    public static final String GZIPEXTENSION = ".gz";
+    private static final String PARTEXTENSION = ".part";
+    /**
+     * Minimal duration of one partition
+     */
+    private static final long MINIMAL_PARTITION = 60000;
+    private static final int BUFFER_SIZE = 65536;
+
+    private final FORMAT format;
+    private final boolean compress;
+    private final int parallelism;
+
+    /**
+     * 
+     * @param format
+     * @param compress
+     *            True to gzip the export
+     * @param parallelism
+     *            number of partitions exported in parallel when the time range is known
+     */
+    public DbTaskRunnerExporter(FORMAT format, boolean compress, int parallelism) {
+        this.format = format == null ? FORMAT.XML : format;
+        this.compress = compress;
+        this.parallelism = parallelism < 1 ? 1 : parallelism;
+    }
+
+    /**
+     * 
+     * @return the exporter according to the current configuration
+     */
+    public static DbTaskRunnerExporter getDefault() {
+        return new DbTaskRunnerExporter(Configuration.configuration.logExportFormat,
+                Configuration.configuration.logExportCompress,
+                Configuration.configuration.logExportParallelism);
+    }
+
+    /**
+     * 
+     * @return the default export filename (full path) for this exporter
+     */
+    public String getExportFilename() {
+        return Configuration.configuration.baseDirectory +
+                Configuration.configuration.archivePath + R66Dir.SEPARATOR +
+                Configuration.configuration.HOST_ID + "_" + System.currentTimeMillis() +
+                "_runners" + format.extension + (compress ? GZIPEXTENSION : "");
+    }
+
+    /**
+     * Export all TaskRunners selected by the filter (same arguments than
+     * DbTaskRunner.getFilterPrepareStatement) into filename
+     * 
+     * @param session
+     * @param filename
+     * @param startid
+     * @param stopid
+     * @param start
+     * @param stop
+     * @param rule
+     * @param req
+     * @param pending
+     * @param transfer
+     * @param error
+     * @param done
+     * @param all
+     * @param owner
+     * @return the NbAndSpecialId for the number of transfer and higher rank found
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public NbAndSpecialId export(DbSession session, String filename, String startid,
+            String stopid, Timestamp start, Timestamp stop, String rule, String req,
+            boolean pending, boolean transfer, boolean error, boolean done, boolean all,
+            String owner) throws OpenR66ProtocolBusinessException {
+        List<Timestamp[]> partitions = getPartitions(start, stop);
+        File file = new File(filename);
+        if (partitions.size() <= 1) {
+            OutputStream outputStream = null;
+            boolean isOk = false;
+            try {
+                outputStream = new FileOutputStream(file);
+                writeHeader(outputStream);
+                NbAndSpecialId nbAndSpecialId = exportPart(session, outputStream, startid, stopid,
+                        start, stop, false, rule, req, pending, transfer, error, done, all, owner);
+                writeFooter(outputStream);
+                isOk = true;
+                return nbAndSpecialId;
+            } catch (IOException e) {
+                logger.error("Cannot write export file", e);
+                throw new OpenR66ProtocolBusinessException("Cannot write file: " + e.getMessage());
+            } finally {
+                close(outputStream);
+                if (!isOk) {
+                    file.delete();
+                }
+            }
+        }
+        return exportParallel(file, partitions, startid, stopid, rule, req, pending, transfer,
+                error, done, all, owner);
+    }
+
+    /**
+     * 
+     * @param start
+     * @param stop
+     * @return the list of [start, stop[ partitions (the last one being [start, stop]), only one if
+     *         not splittable
+     */
+    private List<Timestamp[]> getPartitions(Timestamp start, Timestamp stop) {
+        List<Timestamp[]> partitions = new ArrayList<Timestamp[]>();
+        if (parallelism <= 1 || start == null || stop == null || !DbConstant.admin.isActive ||
+                stop.getTime() - start.getTime() < 2 * MINIMAL_PARTITION) {
+            partitions.add(new Timestamp[] { start, stop });
+            return partitions;
+        }
+        long begin = start.getTime();
+        long end = stop.getTime();
+        int nb = (int) Math.min(parallelism, (end - begin) / MINIMAL_PARTITION);
+        long step = (end - begin) / nb;
+        for (int i = 0; i < nb; i++) {
+            long from = begin + i * step;
+            // next partition starts where this one ends (excluded) to not lose any row
+            long to = (i == nb - 1) ? end : from + step;
+            partitions.add(new Timestamp[] { new Timestamp(from), new Timestamp(to) });
+        }
+        return partitions;
+    }
+
+    private NbAndSpecialId exportParallel(final File file, List<Timestamp[]> partitions,
+            final String startid, final String stopid, final String rule, final String req,
+            final boolean pending, final boolean transfer, final boolean error, final boolean done,
+            final boolean all, final String owner) throws OpenR66ProtocolBusinessException {
+        int nb = partitions.size();
+        final File[] parts = new File[nb];
+        List<Future<NbAndSpecialId>> results = new ArrayList<Future<NbAndSpecialId>>(nb);
+        ExecutorService executorService = Executors.newFixedThreadPool(nb,
+                new WaarpThreadFactory("LogExport"));
+        NbAndSpecialId total = new NbAndSpecialId();
+        boolean isOk = false;
+        try {
+            for (int i = 0; i < nb; i++) {
+                final File part = new File(file.getPath() + PARTEXTENSION + i);
+                parts[i] = part;
+                final Timestamp[] partition = partitions.get(i);
+                final boolean isLast = i == nb - 1;
+                results.add(executorService.submit(new Callable<NbAndSpecialId>() {
+                    public NbAndSpecialId call() throws Exception {
+                        DbSession partSession = new DbSession(DbConstant.admin, true);
+                        OutputStream outputStream = null;
+                        try {
+                            outputStream = new FileOutputStream(part);
+                            return exportPart(partSession, outputStream, startid, stopid,
+                                    partition[0], partition[1], !isLast, rule, req, pending, transfer,
+                                    error, done, all, owner);
+                        } finally {
+                            close(outputStream);
+                            partSession.forceDisconnect();
+                        }
+                    }
+                }));
+            }
+            for (Future<NbAndSpecialId> result : results) {
+                NbAndSpecialId nbAndSpecialId = result.get();
+                total.nb += nbAndSpecialId.nb;
+                if (total.higherSpecialId < nbAndSpecialId.higherSpecialId) {
+                    total.higherSpecialId = nbAndSpecialId.higherSpecialId;
+                }
+            }
+            concatenate(file, parts);
+            isOk = true;
+        } catch (InterruptedException e) {
+            throw new OpenR66ProtocolBusinessException("Export interrupted");
+        } catch (ExecutionException e) {
+            logger.error("Cannot export logs", e.getCause());
+            throw new OpenR66ProtocolBusinessException("Cannot export logs: " +
+                    e.getCause().getMessage());
+        } catch (IOException e) {
+            logger.error("Cannot write export file", e);
+            throw new OpenR66ProtocolBusinessException("Cannot write file: " + e.getMessage());
+        } finally {
+            executorService.shutdownNow();
+            for (File part : parts) {
+                if (part != null) {
+                    part.delete();
+                }
+            }
+            if (!isOk) {
+                file.delete();
+            }
+        }
+        logger.info("Export of " + total.nb + " logs done in " + nb + " partitions");
+        return total;
+    }
+
+    /**
+     * Write the final file as header, then all parts in order, then footer
+     * 
+     * @param file
+     * @param parts
+     * @throws IOException
+     */
+    private void concatenate(File file, File[] parts) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            writeHeader(outputStream);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (File part : parts) {
+                InputStream inputStream = new FileInputStream(part);
+                try {
+                    int read;
+                    while ((read = inputStream.read(buffer)) > 0) {
+                        outputStream.write(buffer, 0, read);
+                    }
+                } finally {
+                    inputStream.close();
+                }
+            }
+            writeFooter(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Export one partition into outputStream (as one gzip member if compressed)
+     * 
+     * @param stopExcluded
+     *            True if STARTTRANS must be strictly lower than stop
+     * @return the NbAndSpecialId for this partition
+     * @throws IOException
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private NbAndSpecialId exportPart(DbSession session, OutputStream outputStream,
+            String startid, String stopid, Timestamp start, Timestamp stop, boolean stopExcluded,
+            String rule, String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all, String owner)
+            throws IOException, OpenR66ProtocolBusinessException {
+        DbPreparedStatement preparedStatement = null;
+        NbAndSpecialId nbAndSpecialId = new NbAndSpecialId();
+        try {
+            if (stopExcluded) {
+                preparedStatement = DbTaskRunner.getFilterPartitionPrepareStatement(session, 0,
+                        true, startid, stopid, start, stop, rule, req,
+                        pending, transfer, error, done, all, owner);
+            } else {
+                preparedStatement = DbTaskRunner.getFilterPrepareStatement(session, 0,
+                        true, startid, stopid, start, stop, rule, req,
+                        pending, transfer, error, done, all, owner);
+            }
+            preparedStatement.executeQuery();
+            Writer writer = openWriter(outputStream);
+            while (preparedStatement.getNext()) {
+                DbTaskRunner runner = DbTaskRunner.getFromStatementNoDbRule(preparedStatement);
+                if (nbAndSpecialId.higherSpecialId < runner.getSpecialId()) {
+                    nbAndSpecialId.higherSpecialId = runner.getSpecialId();
+                }
+                if (format == FORMAT.XML) {
+                    runner.writeXmlRunner(writer);
+                } else {
+                    writer.write(JsonHandler.writeAsString(runner.getJson()));
+                    writer.write('\n');
+                }
+                nbAndSpecialId.nb++;
+            }
+            // finish the gzip member if any, the file itself is not closed
+            writer.close();
+        } catch (WaarpDatabaseNoConnectionException e) {
+            throw new OpenR66ProtocolBusinessException(e);
+        } catch (WaarpDatabaseSqlException e) {
+            throw new OpenR66ProtocolBusinessException(e);
+        } finally {
+            if (preparedStatement != null) {
+                preparedStatement.realClose();
+            }
+        }
+        return nbAndSpecialId;
+    }
+
+    private void writeHeader(OutputStream outputStream) throws IOException {
+        if (format == FORMAT.XML) {
+            Writer writer = openWriter(outputStream);
+            writer.write("<?xml version=\"1.0\" encoding=\"" + WaarpStringUtils.UTF_8 + "\"?>\n<" +
+                    DbTaskRunner.XMLRUNNERS + ">\n");
+            writer.close();
+        }
+    }
+
+    private void writeFooter(OutputStream outputStream) throws IOException {
+        if (format == FORMAT.XML) {
+            Writer writer = openWriter(outputStream);
+            writer.write("</" + DbTaskRunner.XMLRUNNERS + ">\n");
+            writer.close();
+        }
+    }
+
+    /**
+     * 
+     * @param outputStream
+     * @return a buffered Writer on outputStream, as a new gzip member if compressed
+     * @throws IOException
+     */
+    private Writer openWriter(OutputStream outputStream) throws IOException {
+        OutputStream out;
+        if (compress) {
+            out = new GZIPOutputStream(new NonClosingOutputStream(outputStream), BUFFER_SIZE);
+        } else {
+            out = new NonClosingOutputStream(outputStream);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, WaarpStringUtils.UTF8),
+                BUFFER_SIZE);
+    }
+
+    private static void close(OutputStream outputStream) {
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                // nothing
+            }
+        }
+    }
+
+    /**
+     * Allow to finish a gzip member without closing the file
+     */
+    private static class NonClosingOutputStream extends OutputStream {
+        private final OutputStream outputStream;
+
+        private NonClosingOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            outputStream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            outputStream.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.flush();
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpStringUtils;
+
+/**
+ * Append-only binary journal used as backend for DbTaskRunner in NoDb mode (instead of one XML
+ * file per TaskRunner rewritten at each update).<br>
+ * <br>
+ * Each record is: length (int), CRC32 of the payload (int), payload. The payload is the operation
+ * (PUT or DELETE), the key of the TaskRunner and, for PUT, the values of all fields as String.<br>
+ * Only the position of the last record of each key is kept in memory. When the number of obsolete
+ * records becomes too high, the journal is compacted by rewriting only the live records. At
+ * startup, the journal is replayed to rebuild the index, ignoring a truncated last record.
+ *
+ * @author Frederic Bregier
+ *
+ */
+public class DbTaskRunnerJournal {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DbTaskRunnerJournal.class);
+
+    public static final String JOURNALEXTENSION = "_taskrunners.journal";
+
+    private static final String COMPACTEXTENSION = ".compact";
+
+    private static final String BACKUPEXTENSION = ".backup";
+
+    /**
+     * Default number of obsolete records allowed before compaction
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    private static final int HEADER_SIZE = 8;
+    /**
+     * Sanity limit for one record
+     */
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName(WaarpStringUtils.UTF_8);
+
+    private final File file;
+    private final int compactionThreshold;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private long position = 0;
+    /**
+     * Key to position of the last PUT record
+     */
+    private final Map<String, Long> index = new HashMap<String, Long>();
+    private long obsoleteRecords = 0;
+
+    /**
+     * Open (creating it if necessary) the journal and replay it
+     *
+     * @param file
+     * @param compactionThreshold
+     *            number of obsolete records before compaction
+     * @throws IOException
+     */
+    public DbTaskRunnerJournal(File file, int compactionThreshold) throws IOException {
+        this.file = file;
+        this.compactionThreshold = compactionThreshold > 0 ? compactionThreshold
+                : DEFAULT_COMPACTION_THRESHOLD;
+        File compact = new File(file.getPath() + COMPACTEXTENSION);
+        File backup = new File(file.getPath() + BACKUPEXTENSION);
+        if (!file.exists() && backup.exists()) {
+            // interrupted while replacing the journal: the backup is the last valid one
+            if (!backup.renameTo(file)) {
+                throw new IOException("Cannot restore journal " + file.getPath() +
+                        " from " + backup.getPath());
+            }
+        }
+        if (compact.exists()) {
+            // interrupted compaction: the original journal is still valid
+            compact.delete();
+        }
+        if (backup.exists()) {
+            // the journal was replaced before the interruption
+            backup.delete();
+        }
+        open();
+        replay();
+        if (obsoleteRecords > index.size()) {
+            compact();
+        }
+    }
+
+    private void open() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Rebuild the index from the journal, truncating a partial last record if any
+     *
+     * @throws IOException
+     */
+    private void replay() throws IOException {
+        long size = channel.size();
+        long pos = 0;
+        int nb = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (pos + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, pos);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || pos + HEADER_SIZE + length > size) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            readFully(ByteBuffer.wrap(payload), pos + HEADER_SIZE);
+            if (crc(payload) != crc) {
+                break;
+            }
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+            byte op = input.readByte();
+            String key = readString(input);
+            Long previous;
+            if (op == OP_PUT) {
+                previous = index.put(key, pos);
+            } else {
+                previous = index.remove(key);
+                obsoleteRecords++;
+            }
+            if (previous != null) {
+                obsoleteRecords++;
+            }
+            nb++;
+            pos += HEADER_SIZE + length;
+        }
+        if (pos < size) {
+            logger.warn("Journal " + file.getPath() + " truncated from " + size + " to " + pos +
+                    " since last record is not complete");
+            channel.truncate(pos);
+        }
+        position = pos;
+        logger.debug("Journal replayed: " + nb + " records, " + index.size() + " live entries");
+    }
+
+    private void readFully(ByteBuffer buffer, long pos) throws IOException {
+        long current = pos;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, current);
+            if (read < 0) {
+                throw new IOException("Unexpected end of journal");
+            }
+            current += read;
+        }
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        return (int) crc32.getValue();
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private long append(byte[] payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt(crc(payload));
+        buffer.put(payload);
+        buffer.flip();
+        long pos = position;
+        long current = pos;
+        while (buffer.hasRemaining()) {
+            current += channel.write(buffer, current);
+        }
+        position = current;
+        return pos;
+    }
+
+    /**
+     * Append the new values for this key
+     *
+     * @param key
+     * @param values
+     *            values as String (null allowed)
+     * @throws IOException
+     */
+    public synchronized void put(String key, String[] values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(OP_PUT);
+        writeString(output, key);
+        output.writeInt(values.length);
+        for (String value : values) {
+            if (value == null) {
+                output.writeBoolean(false);
+            } else {
+                output.writeBoolean(true);
+                writeString(output, value);
+            }
+        }
+        output.flush();
+        Long previous = index.put(key, append(bytes.toByteArray()));
+        if (previous != null) {
+            obsoleteRecords++;
+            checkCompaction();
+        }
+    }
+
+    /**
+     * Append a deletion for this key
+     *
+     * @param key
+     * @throws IOException
+     */
+    public synchronized void remove(String key) throws IOException {
+        if (!index.containsKey(key)) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(OP_DELETE);
+        writeString(output, key);
+        output.flush();
+        append(bytes.toByteArray());
+        index.remove(key);
+        obsoleteRecords += 2;
+        checkCompaction();
+    }
+
+    /**
+     *
+     * @param key
+     * @return True if this key has a live entry
+     */
+    public synchronized boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     *
+     * @param key
+     * @return the last values for this key or null if none
+     * @throws IOException
+     */
+    public synchronized String[] get(String key) throws IOException {
+        Long pos = index.get(key);
+        if (pos == null) {
+            return null;
+        }
+        byte[] payload = readPayload(pos);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        input.readByte();
+        readString(input);
+        int nb = input.readInt();
+        String[] values = new String[nb];
+        for (int i = 0; i < nb; i++) {
+            if (input.readBoolean()) {
+                values[i] = readString(input);
+            }
+        }
+        return values;
+    }
+
+    private byte[] readPayload(long pos) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, pos);
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+        if (length <= 0 || length > MAX_RECORD_SIZE) {
+            throw new IOException("Journal record corrupted at " + pos);
+        }
+        byte[] payload = new byte[length];
+        readFully(ByteBuffer.wrap(payload), pos + HEADER_SIZE);
+        if (crc(payload) != crc) {
+            throw new IOException("Journal record corrupted at " + pos);
+        }
+        return payload;
+    }
+
+    /**
+     *
+     * @return the list of all live keys
+     */
+    public synchronized List<String> keys() {
+        return new ArrayList<String>(index.keySet());
+    }
+
+    /**
+     *
+     * @return the number of live entries
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    private void checkCompaction() throws IOException {
+        if (obsoleteRecords > compactionThreshold && obsoleteRecords > index.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the live records
+     *
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        File compact = new File(file.getPath() + COMPACTEXTENSION);
+        Map<String, Long> newIndex = new HashMap<String, Long>(index.size() * 2 + 16);
+        RandomAccessFile compactFile = new RandomAccessFile(compact, "rw");
+        boolean isOk = false;
+        try {
+            compactFile.setLength(0);
+            FileChannel compactChannel = compactFile.getChannel();
+            long pos = 0;
+            for (Entry<String, Long> entry : index.entrySet()) {
+                byte[] payload = readPayload(entry.getValue());
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+                buffer.putInt(payload.length);
+                buffer.putInt(crc(payload));
+                buffer.put(payload);
+                buffer.flip();
+                newIndex.put(entry.getKey(), pos);
+                while (buffer.hasRemaining()) {
+                    pos += compactChannel.write(buffer, pos);
+                }
+            }
+            compactChannel.force(true);
+            isOk = true;
+        } finally {
+            compactFile.close();
+            if (!isOk) {
+                compact.delete();
+            }
+        }
+        channel.close();
+        randomAccessFile.close();
+        if (!compact.renameTo(file)) {
+            // some OS do not allow rename on an existing file: keep the old one as backup
+            // until the new one is in place
+            File backup = new File(file.getPath() + BACKUPEXTENSION);
+            backup.delete();
+            if (!file.renameTo(backup)) {
+                compact.delete();
+                open();
+                throw new IOException("Cannot replace journal " + file.getPath());
+            }
+            if (!compact.renameTo(file)) {
+                compact.delete();
+                if (!backup.renameTo(file)) {
+                    throw new IOException("Cannot restore journal " + file.getPath() +
+                            " from " + backup.getPath());
+                }
+                open();
+                throw new IOException("Cannot replace journal " + file.getPath());
+            }
+            backup.delete();
+        }
+        open();
+        index.clear();
+        index.putAll(newIndex);
+        position = channel.size();
+        logger.debug("Journal compacted: " + obsoleteRecords + " obsolete records removed, " +
+                index.size() + " live entries");
+        obsoleteRecords = 0;
+    }
+
+    /**
+     * Force the journal to the storage and close it
+     */
+    public synchronized void close() {
+        try {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.warn("Cannot force journal " + file.getPath(), e);
+        }
+        try {
+            channel.close();
+            randomAccessFile.close();
+        } catch (IOException e) {
+            logger.warn("Cannot close journal " + file.getPath(), e);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.model;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.waarp.common.database.DbRequest;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.data.DbTaskRunner.Columns;
+import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Creation and check of the composite indexes tuned for the most frequent requests on the Runner
+ * table, shared by all Database Models.<br>
+ * <br>
+ * The check reports the missing indexes from the database metadata and the execution plan (EXPLAIN)
+ * of the most frequent requests (Commander, Monitoring and Listing).
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DbIndexAdvisor {
+
+    private DbIndexAdvisor() {
+    }
+
+    /**
+     * Create the tuned indexes on Runner table, ignoring already existing ones
+     * 
+     * @param session
+     * @param createIndex
+     *            the command to use ("CREATE INDEX " or "CREATE INDEX IF NOT EXISTS ")
+     * @return True if the connection was kept
+     */
+    public static boolean createIndexes(DbSession session, String createIndex) {
+        for (int i = 0; i < DbTaskRunner.tunedIndexNames.length; i++) {
+            String action = createIndex + DbTaskRunner.tunedIndexNames[i] + " ON " +
+                    DbTaskRunner.table + "(";
+            Columns[] icolumns = DbTaskRunner.tunedIndexes[i];
+            for (int j = 0; j < icolumns.length - 1; j++) {
+                action += icolumns[j].name() + ", ";
+            }
+            action += icolumns[icolumns.length - 1].name() + ")";
+            System.out.println(action);
+            DbRequest request = null;
+            try {
+                request = new DbRequest(session);
+                request.query(action);
+            } catch (WaarpDatabaseNoConnectionException e) {
+                e.printStackTrace();
+                return false;
+            } catch (WaarpDatabaseSqlException e) {
+                // already existing index
+            } finally {
+                if (request != null) {
+                    request.close();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 
+     * @param session
+     * @return the names of the tuned indexes not found in the database
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    public static List<String> getMissingIndexes(DbSession session)
+            throws WaarpDatabaseNoConnectionException {
+        Set<String> found = new HashSet<String>();
+        String tableName = DbTaskRunner.table.trim();
+        try {
+            DatabaseMetaData metaData = session.conn.getMetaData();
+            // depending on the database, the name is stored in upper or lower case
+            String[] names = { tableName.toUpperCase(), tableName.toLowerCase() };
+            for (String name : names) {
+                ResultSet resultSet = metaData.getIndexInfo(null, null, name, false, true);
+                try {
+                    while (resultSet.next()) {
+                        String index = resultSet.getString("INDEX_NAME");
+                        if (index != null) {
+                            found.add(index.toUpperCase());
+                        }
+                    }
+                } finally {
+                    resultSet.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new WaarpDatabaseNoConnectionException("Cannot get Metadata", e);
+        }
+        List<String> missing = new ArrayList<String>();
+        for (String index : DbTaskRunner.tunedIndexNames) {
+            if (!found.contains(index)) {
+                missing.add(index);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 
+     * @return the most frequent requests on Runner table, with constant values in place of
+     *         parameters
+     */
+    private static String[][] getHotRequests() {
+        String owner = Columns.OWNERREQ.name() + " = '" + Configuration.configuration.HOST_ID + "' ";
+        String since = Columns.STARTTRANS.name() + " >= CURRENT_TIMESTAMP ";
+        String count = "SELECT COUNT(" + Columns.SPECIALID.name() + ") FROM " + DbTaskRunner.table;
+        return new String[][] {
+                { "Commander",
+                        "SELECT " + Columns.SPECIALID.name() + " FROM " + DbTaskRunner.table +
+                                " WHERE " + Columns.UPDATEDINFO.name() + " = " +
+                                UpdatedInfo.TOSUBMIT.ordinal() + " AND " +
+                                Columns.STARTTRANS.name() + " <= CURRENT_TIMESTAMP AND " + owner +
+                                " ORDER BY " + Columns.STARTTRANS.name() + " DESC " },
+                { "Monitoring by UpdatedInfo",
+                        count + " WHERE " + since + " AND " + owner + " AND " +
+                                Columns.UPDATEDINFO.name() + " = " + UpdatedInfo.RUNNING.ordinal() },
+                { "Monitoring by GlobalStep",
+                        count + " WHERE " + Columns.GLOBALSTEP.name() + " = " +
+                                TASKSTEP.TRANSFERTASK.ordinal() + " AND " + since + " AND " + owner },
+                { "Monitoring by InfoStatus",
+                        count + " WHERE " + since + " AND " + Columns.INFOSTATUS.name() + " = '" +
+                                ErrorCode.InitOk.getCode() + "' AND " + owner },
+                { "Listing by time",
+                        "SELECT " + Columns.SPECIALID.name() + " FROM " + DbTaskRunner.table +
+                                " WHERE " + since + " AND " + owner + " ORDER BY " +
+                                Columns.STARTTRANS.name() + " DESC, " +
+                                Columns.SPECIALID.name() + " DESC " }
+        };
+    }
+
+    /**
+     * Run EXPLAIN on the most frequent requests and check the tuned indexes
+     * 
+     * @param session
+     * @return the report
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    public static String explain(DbSession session) throws WaarpDatabaseNoConnectionException {
+        StringBuilder builder = new StringBuilder();
+        List<String> missing = getMissingIndexes(session);
+        if (missing.isEmpty()) {
+            builder.append("All tuned indexes are present\n");
+        } else {
+            builder.append("Missing indexes (use -upgradeDb to create them): ").append(missing)
+                    .append('\n');
+        }
+        boolean oracle = DbModelFactory.dbModel instanceof DbModelOracle;
+        for (String[] hot : getHotRequests()) {
+            builder.append("\n").append(hot[0]).append(": ").append(hot[1]).append('\n');
+            if (oracle) {
+                DbRequest request = new DbRequest(session);
+                try {
+                    request.query("EXPLAIN PLAN FOR " + hot[1]);
+                } catch (WaarpDatabaseSqlException e) {
+                    builder.append("  Cannot explain: ").append(e.getMessage()).append('\n');
+                    continue;
+                } finally {
+                    request.close();
+                }
+                appendPlan(session, "SELECT PLAN_TABLE_OUTPUT FROM TABLE(DBMS_XPLAN.DISPLAY())",
+                        builder);
+            } else {
+                appendPlan(session, "EXPLAIN " + hot[1], builder);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void appendPlan(DbSession session, String command, StringBuilder builder)
+            throws WaarpDatabaseNoConnectionException {
+        DbRequest request = new DbRequest(session);
+        try {
+            request.select(command);
+            while (request.getNext()) {
+                ResultSet resultSet = request.getResultSet();
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                builder.append(' ');
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    builder.append(' ').append(resultSet.getString(i));
+                }
+                builder.append('\n');
+            }
+        } catch (WaarpDatabaseSqlException e) {
+            builder.append("  Cannot explain: ").append(e.getMessage()).append('\n');
+        } catch (SQLException e) {
+            builder.append("  Cannot explain: ").append(e.getMessage()).append('\n');
+        } finally {
+            request.close();
+        }
+    }
+}
@@ -67,4 +67,21 @@ public class DbModelFactory extends org.waarp.common.database.model.DbModelFacto
                 write);
     }
 
+    /**
+     * Connect to a read only replica of the main database, without changing the current DbModel
+     * 
+     * @param dbdriver
+     * @param dbserver
+     * @param dbuser
+     * @param dbpasswd
+     * @return the DbAdmin in read only mode
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    public static DbAdmin initializeReadReplica(String dbdriver, String dbserver,
+            String dbuser, String dbpasswd)
+            throws WaarpDatabaseNoConnectionException {
+        DbType type = DbType.getFromDriver(dbdriver);
+        return new DbAdmin(type, dbserver, dbuser, dbpasswd, false);
+    }
+
 }
@@ -27,6 +27,7 @@ import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.database.exception.WaarpDatabaseNoDataException;
 import org.waarp.common.database.exception.WaarpDatabaseSqlException;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbChangeVersion;
 import org.waarp.openr66.database.data.DbConfiguration;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbHostConfiguration;
@@ -98,6 +99,9 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
             e1.printStackTrace();
         }
 
+        // Change Version
+        createChangeVersionTable(session, createTableH2);
+
         // Configuration
         action = createTableH2 + DbConfiguration.table + "(";
         DbConfiguration.Columns[] ccolumns = DbConfiguration.Columns
@@ -239,6 +243,11 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
             request.close();
         }
 
+        // Tuned indexes Runner
+        if (!DbIndexAdvisor.createIndexes(session, "CREATE INDEX IF NOT EXISTS ")) {
+            return;
+        }
+
         // cptrunner
         action = "CREATE SEQUENCE IF NOT EXISTS " + DbTaskRunner.fieldseq +
                 " START WITH " + (DbConstant.ILLEGALVALUE + 1) +
@@ -439,8 +448,20 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
                 request.close();
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V2_4_26.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V2_4_26.getVersion() + "? " + true);
+            if (!DbIndexAdvisor.createIndexes(session, "CREATE INDEX IF NOT EXISTS ")) {
+                return false;
+            }
+        }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V2_4_27.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V2_4_27.getVersion() + "? " + true);
+            if (!createChangeVersionTable(session, "CREATE TABLE IF NOT EXISTS ")) {
+                return false;
+            }
+        }
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.HOST_ID,
-                R66Versions.V2_4_25.getVersion());
+                R66Versions.V2_4_27.getVersion());
         return true;
     }
 
@@ -512,7 +533,56 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
             } finally {
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V2_4_26.getVersion())) {
+            if (DbIndexAdvisor.createIndexes(session, "CREATE INDEX IF NOT EXISTS ")) {
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.HOST_ID,
+                        R66Versions.V2_4_26.getVersion());
+            } else {
+                return true;
+            }
+        }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V2_4_27.getVersion())) {
+            if (createChangeVersionTable(session, "CREATE TABLE IF NOT EXISTS ")) {
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.HOST_ID,
+                        R66Versions.V2_4_27.getVersion());
+            } else {
+                return true;
+            }
+        }
         return false;
     }
 
+    /**
+     * Create the Change Version table if needed
+     * 
+     * @param session
+     * @param createTable
+     *            the CREATE TABLE command to use
+     * @return True if the table exists
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    private boolean createChangeVersionTable(DbSession session, String createTable)
+            throws WaarpDatabaseNoConnectionException {
+        String action = createTable + DbChangeVersion.table + "(" +
+                DbChangeVersion.Columns.VERSIONID.name() +
+                DBType.getType(DbChangeVersion.dbTypes[0]) + " NOT NULL, " +
+                DbChangeVersion.Columns.HOSTID.name() +
+                DBType.getType(DbChangeVersion.dbTypes[1]) + " PRIMARY KEY )";
+        System.out.println(action);
+        DbRequest request = new DbRequest(session);
+        try {
+            request.query(action);
+        } catch (WaarpDatabaseSqlException e) {
+            // might already exist
+            if (DbChangeVersion.getVersion(session, Configuration.configuration.HOST_ID)
+                    == DbChangeVersion.UNKNOWN) {
+                e.printStackTrace();
+                return false;
+            }
+        } finally {
+            request.close();
+        }
+        return true;
+    }
+
 }
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -65,15 +66,23 @@ import org.waarp.common.utility.WaarpShutdownHook.ShutdownConfiguration;
 import org.waarp.common.utility.WaarpThreadFactory;
 import org.waarp.gateway.kernel.rest.RestConfiguration;
 import org.waarp.openr66.commander.ClientRunner;
+import org.waarp.openr66.commander.ClientRunnerExecutor;
 import org.waarp.openr66.commander.InternalRunner;
+import org.waarp.openr66.commander.RetryScheduler;
+import org.waarp.openr66.commander.TransferScheduler.PRIORITY;
 import org.waarp.openr66.configuration.FileBasedConfiguration;
 import org.waarp.openr66.context.R66BusinessFactoryInterface;
 import org.waarp.openr66.context.R66DefaultBusinessFactory;
 import org.waarp.openr66.context.R66FiniteDualStates;
 import org.waarp.openr66.context.task.localexec.LocalExecClient;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbReadReplica;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.data.DbTaskRunnerExecutor;
+import org.waarp.openr66.database.data.DbTaskRunnerExporter;
+import org.waarp.openr66.database.data.DbTaskRunnerJournal;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoDataException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoSslException;
 import org.waarp.openr66.protocol.http.HttpInitializer;
@@ -82,10 +91,12 @@ import org.waarp.openr66.protocol.http.adminssl.HttpSslInitializer;
 import org.waarp.openr66.protocol.http.rest.HttpRestR66Handler;
 import org.waarp.openr66.protocol.localhandler.LocalTransaction;
 import org.waarp.openr66.protocol.localhandler.Monitoring;
+import org.waarp.openr66.protocol.localhandler.TransferStatistics;
 import org.waarp.openr66.protocol.networkhandler.ChannelTrafficHandler;
 import org.waarp.openr66.protocol.networkhandler.GlobalTrafficHandler;
 import org.waarp.openr66.protocol.networkhandler.NetworkServerInitializer;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.networkhandler.PartnerCircuitBreaker;
 import org.waarp.openr66.protocol.networkhandler.R66ConstraintLimitHandler;
 import org.waarp.openr66.protocol.networkhandler.ssl.NetworkSslServerInitializer;
 import org.waarp.openr66.protocol.snmp.R66PrivateMib;
@@ -487,14 +498,83 @@ public class Configuration {
      * Delay in ms between two steps of Commander
      */
     public long delayCommander = 5000;
+    /**
+     * Delay in ms between two steps of Commander while submitted transfers remain
+     */
+    public long delayCommanderBacklog = 500;
+    /**
+     * Maximal delay in ms between two full scans of Commander while the change version does not
+     * move (0 to scan at each step)
+     */
+    public long delayCommanderFullScan = 60000;
+    /**
+     * Number of rows by chunk for the paced recovery of the interrupted transfers at startup (0 to
+     * submit again all of them at once)
+     */
+    public int recoveryChunkSize = 0;
+    /**
+     * Initial number of concurrent transfers during the recovery at startup
+     */
+    public int recoveryStart = 10;
+    /**
+     * Delay in ms between two steps of the recovery at startup
+     */
+    public long recoveryStepDelay = 1000;
+    /**
+     * Number of threads running the steps of the transfers launched by submission (not one
+     * thread per transfer)
+     */
+    public int clientRunnerThreads = 50;
+    /**
+     * Transfer scheduler: priority class by rule (default is NORMAL)
+     */
+    public Map<String, PRIORITY> schedulerRulePriorities = null;
+    /**
+     * Transfer scheduler: default limit of running transfers by partner (0 for no limit)
+     */
+    public int schedulerPartnerLimit = 0;
+    /**
+     * Transfer scheduler: limit of running transfers for specific partners
+     */
+    public Map<String, Integer> schedulerPartnerLimits = null;
+    /**
+     * Transfer scheduler: weight of specific partners for the fair share (default is 1)
+     */
+    public Map<String, Integer> schedulerPartnerWeights = null;
+    /**
+     * Transfer scheduler: maximum number of transfers waiting in memory
+     */
+    public int schedulerMaxWaiting = 1000;
     /**
      * Delay in ms between two retries
      */
     public long delayRetry = 30000;
+    /**
+     * Maximum delay in ms between two attempts with the same partner (exponential backoff from
+     * delayRetry)
+     */
+    public long delayRetryMax = 600000;
+    /**
+     * Number of consecutive connection failures with a partner before its circuit breaker opens
+     * (0 to disable)
+     */
+    public int circuitBreakerThreshold = 5;
+    /**
+     * Delay in ms before probing again a partner whose circuit breaker opened
+     */
+    public long circuitBreakerDelay = 60000;
     /**
      * Constraint Limit Handler on CPU usage and Connection limitation
      */
     public R66ConstraintLimitHandler constraintLimitHandler = new R66ConstraintLimitHandler();
+    /**
+     * Use an adaptive limit of concurrent accepted transfers, based on the measured latencies
+     */
+    public boolean adaptiveLimit = false;
+    /**
+     * Minimum value of the adaptive limit of concurrent accepted transfers
+     */
+    public int adaptiveLimitMin = 10;
     /**
      * Do we check Remote Address from DbHost
      */
@@ -507,10 +587,84 @@ public class Configuration {
      * For No Db client, do we saved TaskRunner in a XML
      */
     public boolean saveTaskRunnerWithNoDb = false;
+    /**
+     * For No Db client, do we saved TaskRunner in an append-only Journal instead of XML files
+     */
+    public boolean journalTaskRunnerWithNoDb = false;
+    /**
+     * For No Db client using Journal, number of obsolete records before compaction
+     */
+    public int journalCompactionThreshold = DbTaskRunnerJournal.DEFAULT_COMPACTION_THRESHOLD;
+    /**
+     * Log export: format of the exported logs (XML or JSONL)
+     */
+    public DbTaskRunnerExporter.FORMAT logExportFormat = DbTaskRunnerExporter.FORMAT.XML;
+    /**
+     * Log export: do we gzip the exported logs
+     */
+    public boolean logExportCompress = false;
+    /**
+     * Log export: number of time partitions exported in parallel (each with its own connection)
+     */
+    public int logExportParallelism = 1;
+    /**
+     * Log purge: number of transfers deleted per chunk (0 for one single DELETE)
+     */
+    public int purgeChunkSize = 1000;
+    /**
+     * Log purge: delay in ms between two chunks
+     */
+    public long purgeChunkDelay = 10;
+    /**
+     * Database connection pools: size of the pool for transfers (0 for one connection per use)
+     */
+    public int dbPoolTransfer = 0;
+    /**
+     * Database connection pools: size of the pool for the Commander
+     */
+    public int dbPoolScheduler = 2;
+    /**
+     * Database connection pools: size of the pool for the Monitoring
+     */
+    public int dbPoolMonitoring = 2;
+    /**
+     * Database connection pools: size of the pool for HTTP, HTTPS and REST interfaces (0 for one
+     * connection per use)
+     */
+    public int dbPoolAdmin = 0;
+    /**
+     * Database connection pools: maximum wait in ms for a connection before using the shared one
+     */
+    public long dbPoolWaitTimeout = 10000;
+    /**
+     * Number of threads updating the transfers out of the network handlers (0 to update directly)
+     */
+    public int dbAsyncThreads = 4;
+    /**
+     * Optional read only replica of the database (JDBC url) used for listing, export and
+     * information requests
+     */
+    public String dbReplicaServer = null;
+    /**
+     * Delay in ms before using again the read only replica after an error
+     */
+    public long dbReplicaRetryDelay = DbReadReplica.DEFAULT_RETRY_DELAY;
     /**
      * In case of Multiple OpenR66 monitor servers behing a load balancer (HA solution)
      */
     public int multipleMonitors = 1;
+    /**
+     * In HA mode, index (from 0 to multipleMonitors - 1) of this monitor, used to share between
+     * the monitors the runners to submit. -1 (default) means no sharing: each monitor may claim
+     * any runner.
+     */
+    public int multipleMonitorIndex = -1;
+    /**
+     * In HA mode, delay in ms after which a runner to submit not taken by its monitor, or a running
+     * runner no more updated (dead monitor), can be taken by any monitor (INTERRUPTED runners only
+     * at startup of a monitor)
+     */
+    public long multipleMonitorLease = 1800000;
     /**
      * Monitoring object
      */
@@ -523,6 +677,15 @@ public class Configuration {
      * Monitoring: minimal interval in ms before redo real monitoring
      */
     public long minimalDelay = 5000; // 5 seconds
+    /**
+     * Monitoring: interval in ms between 2 reconciliations of in memory transfer statistics with
+     * the database (0 means always count from the database)
+     */
+    public long monitoringReconcileDelay = 600000; // 10 minutes
+    /**
+     * In memory statistics on transfers used by Monitoring
+     */
+    private final TransferStatistics transferStatistics = new TransferStatistics();
     /**
      * Monitoring: snmp configuration file (empty means no snmp support)
      */
@@ -535,6 +698,18 @@ public class Configuration {
      * Associated MIB
      */
     public R66PrivateMib r66Mib = null;
+    /**
+     * SNMP: interval in ms between 2 sendings of pending transfer notifications
+     */
+    public long snmpNotificationInterval = 1000;
+    /**
+     * SNMP: maximum number of transfer notifications sent per interval
+     */
+    public int snmpNotificationMaxPerInterval = 100;
+    /**
+     * SNMP: maximum number of transfers with pending notifications (others are dropped)
+     */
+    public int snmpNotificationQueueSize = 10000;
 
     protected volatile boolean configured = false;
 
@@ -602,6 +777,7 @@ public class Configuration {
             timeLimitCache = 1000;
         }
         DbTaskRunner.createLruCache(limitCache, timeLimitCache);
+        DbHostAuth.createLruCache(limitCache, timeLimitCache);
         if (limitCache > 0 && timeLimitCache > 1000) {
             launchInFixedDelay(new CleanLruCache(), timeLimitCache, TimeUnit.MILLISECONDS);
         }
@@ -682,6 +858,7 @@ public class Configuration {
         if (timeLimitCache < TIMEOUTCON * 10) {
             timeLimitCache = TIMEOUTCON * 10;
             DbTaskRunner.updateLruCacheTimeout(timeLimitCache);
+            DbHostAuth.updateLruCacheTimeout(timeLimitCache);
         }
         R66ShutdownHook.addShutdownHook();
         logger.debug("Use NoSSL: " + useNOSSL + " Use SSL: " + useSSL);
@@ -836,6 +1013,13 @@ public class Configuration {
         return internalRunner;
     }
 
+    /**
+     * @return the in memory statistics on transfers
+     */
+    public TransferStatistics getTransferStatistics() {
+        return transferStatistics;
+    }
+
     /**
      * Prepare the server to stop
      * 
@@ -937,6 +1121,9 @@ public class Configuration {
         if (scheduledExecutorService != null) {
             scheduledExecutorService.shutdown();
         }
+        if (r66Mib != null) {
+            r66Mib.stopNotifier();
+        }
         if (agentSnmp != null) {
             agentSnmp.stop();
         } else if (monitoring != null) {
@@ -950,6 +1137,7 @@ public class Configuration {
         if (timerCloseOperations != null) {
             timerCloseOperations.stop();
         }
+        DbTaskRunner.closeNoDbJournal();
     }
 
     /**
@@ -985,6 +1173,7 @@ public class Configuration {
         if (timerCloseOperations != null) {
             timerCloseOperations.stop();
         }
+        DbTaskRunner.closeNoDbJournal();
         r66BusinessFactory.releaseResources();
     }
 
@@ -1275,11 +1464,67 @@ public class Configuration {
         } catch (Exception e) {
             logger.warn("Issue while debugging", e);
         }
+        try {
+            result += ClientRunnerExecutor.hashStatus() + "\n";
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
+        try {
+            result += RetryScheduler.hashStatus() + "\n";
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
+        try {
+            result += PartnerCircuitBreaker.hashStatus() + "\n";
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
+        try {
+            if (configuration.constraintLimitHandler.getAdaptiveLimiter() != null) {
+                result += configuration.constraintLimitHandler.getAdaptiveLimiter().toString() + "\n";
+            }
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
         try {
             result += DbTaskRunner.hashStatus() + "\n";
         } catch (Exception e) {
             logger.warn("Issue while debugging", e);
         }
+        try {
+            result += DbSessionPool.hashStatus() + "\n";
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
+        try {
+            result += DbTaskRunnerExecutor.hashStatus() + "\n";
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
+        try {
+            if (internalRunner != null) {
+                result += internalRunner.getScheduler().hashStatus() + "\n";
+            }
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
+        try {
+            result += DbReadReplica.hashStatus() + "\n";
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
+        try {
+            result += DbHostAuth.hashStatus() + "\n";
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
+        try {
+            if (configuration.r66Mib != null) {
+                result += configuration.r66Mib.getTaskNotifier().status() + "\n";
+            }
+        } catch (Exception e) {
+            logger.warn("Issue while debugging", e);
+        }
         try {
             result += HttpSslHandler.hashStatus() + "\n";
         } catch (Exception e) {
@@ -1298,6 +1543,7 @@ public class Configuration {
         @Override
         public void run() {
             int nb = DbTaskRunner.clearCache();
+            nb += DbHostAuth.clearCache();
             logger.info("Clear Cache: " + nb);
             Configuration.configuration.launchInFixedDelay(this, Configuration.configuration.timeLimitCache,
                     TimeUnit.MILLISECONDS);
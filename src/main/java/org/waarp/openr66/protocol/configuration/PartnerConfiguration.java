@@ -66,7 +66,7 @@ public class PartnerConfiguration {
     public static enum FIELDS {
         HOSTID("nohostid"), VERSION(R66Versions.V2_4_12.getVersion()),
         DIGESTALGO(DigestAlgo.MD5.name), FILESIZE(false), FINALHASH(false),
-        PROXIFIED(false), SEPARATOR(BLANK_SEPARATOR_FIELD);
+        PROXIFIED(false), SEPARATOR(BLANK_SEPARATOR_FIELD), BACKOFFHINT(false);
 
         String name;
         Object defaultValue;
@@ -108,6 +108,7 @@ public class PartnerConfiguration {
         }
         JsonHandler.setValue(root, FIELDS.DIGESTALGO, Configuration.configuration.digest.name);
         JsonHandler.setValue(root, FIELDS.PROXIFIED, (Boolean) FIELDS.PROXIFIED.defaultValue);
+        JsonHandler.setValue(root, FIELDS.BACKOFFHINT, (Boolean) FIELDS.BACKOFFHINT.defaultValue);
         String sep = SEPARATOR_FIELD;
         if (!isVersion2GEQVersion1(R66Versions.V2_4_13.getVersion(), version)) {
             sep = BLANK_SEPARATOR_FIELD;
@@ -148,6 +149,7 @@ public class PartnerConfiguration {
         JsonHandler.setValue(root, FIELDS.DIGESTALGO, Configuration.configuration.digest.name);
         JsonHandler.setValue(root, FIELDS.PROXIFIED, Configuration.configuration.isHostProxyfied);
         JsonHandler.setValue(root, FIELDS.SEPARATOR, SEPARATOR_FIELD);
+        JsonHandler.setValue(root, FIELDS.BACKOFFHINT, true);
         useJson = true;
         logger.debug("Info HostId: " + root.toString());
     }
@@ -209,6 +211,15 @@ public class PartnerConfiguration {
         return root.path(FIELDS.SEPARATOR.name).asText();
     }
 
+    /**
+     * 
+     * @return True if this Host sends and understands the retry-after hint of ServerOverloaded
+     */
+    public boolean useBackoffHint() {
+        return useJson && root.path(FIELDS.BACKOFFHINT.name).asBoolean(
+                (Boolean) FIELDS.BACKOFFHINT.defaultValue);
+    }
+
     /**
      * @return the useJson
      */
@@ -74,10 +74,13 @@ import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.context.filesystem.R66Dir;
 import org.waarp.openr66.context.task.SpooledInformTask;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbReadReplica;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbHostConfiguration;
 import org.waarp.openr66.database.data.DbRule;
 import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.data.DbTaskRunnerExporter;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
 import org.waarp.openr66.protocol.exception.OpenR66Exception;
@@ -353,6 +356,7 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
         WaarpStringUtils.replace(builder, "XXXERRXXX", error ? "checked" : "");
         WaarpStringUtils.replace(builder, "XXXDONEXXX", done ? "checked" : "");
         WaarpStringUtils.replace(builder, "XXXALLXXX", all ? "checked" : "");
+        WaarpStringUtils.replace(builder, "XXXCURSORXXX", "");
         return builder.toString();
     }
 
@@ -390,7 +394,9 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
         if (parms != null) {
             body0 = REQUEST.Listing.readBodyHeader();
             String parm = parms.get(0);
-            boolean isNotReload = ! "Reload".equalsIgnoreCase(parm);
+            // Next keeps the current filter and goes to the page after the cursor
+            boolean isNext = "Next".equalsIgnoreCase(parm);
+            boolean isNotReload = ! "Reload".equalsIgnoreCase(parm) && ! isNext;
             if ("Filter".equalsIgnoreCase(parm) || ! isNotReload) {
                 String startid = getTrimValue("startid");
                 String stopid = getTrimValue("stopid");
@@ -425,14 +431,28 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                 }
                 Long idstart = null;
                 body = REQUEST.Listing.readBody();
-                String seeAll = checkAuthorizedToSeeAll();
+                final String seeAll = checkAuthorizedToSeeAll();
                 DbPreparedStatement preparedStatement = null;
+                String cursor = null;
                 try {
-                    preparedStatement =
-                            DbTaskRunner.getFilterPrepareStatement(dbSession, LIMITROW, false,
-                                    startid, stopid, tstart, tstop, rule, req,
-                                    pending, transfer, error, done, all, seeAll);
-                    preparedStatement.executeQuery();
+                    // pure read: use the read replica if any
+                    final String fstartid = startid, fstopid = stopid, frule = rule, freq = req;
+                    final Timestamp ftstart = tstart, ftstop = tstop;
+                    final boolean fpending = pending, ftransfer = transfer, ferror = error,
+                            fdone = done, fall = all;
+                    final String fcursor = isNext ? getTrimValue("cursor") : null;
+                    preparedStatement = DbReadReplica.executeQuery(dbSession,
+                            new DbReadReplica.ReadStatement() {
+                                @Override
+                                public DbPreparedStatement prepare(DbSession session)
+                                        throws WaarpDatabaseNoConnectionException,
+                                        WaarpDatabaseSqlException {
+                                    return DbTaskRunner.getFilterPrepareStatement(session,
+                                            LIMITROW, false, fstartid, fstopid, ftstart, ftstop,
+                                            frule, freq, fpending, ftransfer, ferror, fdone, fall,
+                                            seeAll, fcursor);
+                                }
+                            });
                     StringBuilder builder = new StringBuilder();
                     int i = 0;
                     while (preparedStatement.getNext()) {
@@ -440,6 +460,7 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                             i++;
                             DbTaskRunner taskRunner = DbTaskRunner
                                     .getFromStatement(preparedStatement);
+                            cursor = DbTaskRunner.getFilterCursor(taskRunner);
                             if (isNotReload) {
                                 long specid = taskRunner.getSpecialId();
                                 if (idstart == null || idstart > specid) {
@@ -473,6 +494,7 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                     }
                     logger.warn("OpenR66 Web Error {}", e.getMessage());
                 }
+                head = head.replace("XXXCURSORXXX", cursor == null ? "" : cursor);
                 head = resetOptionTransfer(head, startid == null ? (idstart != null ? idstart.toString() : "")
                         : startid,
                         stopid == null ? "" : stopid, start, stop,
@@ -509,7 +531,9 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
         if (parms != null) {
             body0 = REQUEST.CancelRestart.readBodyHeader();
             String parm = parms.get(0);
-            boolean isNotReload = ! "Reload".equalsIgnoreCase(parm);
+            // Next keeps the current filter and goes to the page after the cursor
+            boolean isNext = "Next".equalsIgnoreCase(parm);
+            boolean isNotReload = ! "Reload".equalsIgnoreCase(parm) && ! isNext;
             if ("Filter".equalsIgnoreCase(parm) || ! isNotReload) {
                 String startid = getTrimValue("startid");
                 String stopid = getTrimValue("stopid");
@@ -545,11 +569,13 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                 body = REQUEST.CancelRestart.readBody();
                 Long idstart = null;
                 DbPreparedStatement preparedStatement = null;
+                String cursor = null;
                 try {
                     preparedStatement =
                             DbTaskRunner.getFilterPrepareStatement(dbSession, LIMITROW, false,
                                     startid, stopid, tstart, tstop, rule, req,
-                                    pending, transfer, error, done, all, seeAll);
+                                    pending, transfer, error, done, all, seeAll,
+                                    isNext ? getTrimValue("cursor") : null);
                     preparedStatement.executeQuery();
                     StringBuilder builder = new StringBuilder();
                     int i = 0;
@@ -558,6 +584,7 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                             i++;
                             DbTaskRunner taskRunner = DbTaskRunner
                                     .getFromStatement(preparedStatement);
+                            cursor = DbTaskRunner.getFilterCursor(taskRunner);
                             if (isNotReload) {
                                 long specid = taskRunner.getSpecialId();
                                 if (idstart == null || idstart > specid) {
@@ -590,6 +617,7 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                     }
                     logger.warn("OpenR66 Web Error {}", e.getMessage());
                 }
+                head = head.replace("XXXCURSORXXX", cursor == null ? "" : cursor);
                 head = resetOptionTransfer(head, startid == null ? (idstart != null ? idstart.toString() : "")
                         : startid,
                         stopid == null ? "" : stopid, start, stop,
@@ -885,39 +913,20 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
             // should not be
         }
         // create export of log and optionally purge them from database
-        DbPreparedStatement getValid = null;
         NbAndSpecialId nbAndSpecialId = null;
-        String filename = Configuration.configuration.baseDirectory +
-                Configuration.configuration.archivePath + R66Dir.SEPARATOR +
-                Configuration.configuration.HOST_ID + "_" + System.currentTimeMillis() +
-                "_runners.xml";
+        DbTaskRunnerExporter exporter = DbTaskRunnerExporter.getDefault();
+        String filename = exporter.getExportFilename();
         String errorMsg = "";
         String seeAll = checkAuthorizedToSeeAll();
         try {
-            getValid =
-                    DbTaskRunner.getFilterPrepareStatement(dbSession, 0,// 0 means no limit
-                            true, null, null, tstart, tstop, rule, req,
-                            pending, transfer, error, done, all, seeAll);
-            nbAndSpecialId = DbTaskRunner.writeXMLWriter(getValid, filename);
-        } catch (WaarpDatabaseNoConnectionException e1) {
-            isexported = false;
-            toPurge = false;
-            logger.warn("Export error: {}", e1.getMessage());
-            errorMsg = e1.getMessage();
-        } catch (WaarpDatabaseSqlException e1) {
-            isexported = false;
-            toPurge = false;
-            logger.warn("Export error: {}", e1.getMessage());
-            errorMsg = e1.getMessage();
+            nbAndSpecialId = exporter.export(dbSession, filename,
+                    null, null, tstart, tstop, rule, req,
+                    pending, transfer, error, done, all, seeAll);
         } catch (OpenR66ProtocolBusinessException e) {
             isexported = false;
             toPurge = false;
             logger.warn("Export error: {}", e.getMessage());
             errorMsg = e.getMessage();
-        } finally {
-            if (getValid != null) {
-                getValid.realClose();
-            }
         }
         int purge = 0;
         if (isexported && nbAndSpecialId != null) {
@@ -1934,7 +1943,7 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                 lsession.clear();
             }
             if (ldbsession != null) {
-                ldbsession.forceDisconnect();
+                DbSessionPool.ADMIN.release(ldbsession);
                 DbAdmin.nbHttpSession--;
             }
         }
@@ -2044,16 +2053,12 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                 this.dbSession = null;
             }
             if (this.dbSession == null) {
-                try {
-                    if (DbConstant.admin.isActive) {
-                        this.dbSession = new DbSession(DbConstant.admin, false);
+                if (DbConstant.admin.isActive) {
+                    this.dbSession = DbSessionPool.ADMIN.acquireNoWait();
+                    if (this.dbSession != DbConstant.admin.session) {
                         DbAdmin.nbHttpSession++;
                         this.isPrivateDbSession = true;
                     }
-                } catch (WaarpDatabaseNoConnectionException e1) {
-                    // Cannot connect so use default connection
-                    logger.warn("Use default database connection");
-                    this.dbSession = DbConstant.admin.session;
                 }
             }
             String index = index();
@@ -21,7 +21,6 @@ package org.waarp.openr66.protocol.http.rest;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 import io.netty.bootstrap.ServerBootstrap;
@@ -31,9 +30,7 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 
 import org.waarp.common.command.exception.Reply421Exception;
 import org.waarp.common.command.exception.Reply530Exception;
-import org.waarp.common.database.DbSession;
 import org.waarp.common.database.exception.WaarpDatabaseException;
-import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
@@ -44,6 +41,7 @@ import org.waarp.gateway.kernel.rest.HttpRestHandler;
 import org.waarp.gateway.kernel.rest.RestConfiguration;
 import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.http.rest.handler.DbConfigurationR66RestMethodHandler;
@@ -73,8 +71,6 @@ public class HttpRestR66Handler extends HttpRestHandler {
      */
     private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(HttpRestR66Handler.class);
 
-    public static HashMap<String, DbSession> dbSessionFromUser = new HashMap<String, DbSession>();
-
     public static enum RESTHANDLERS {
         DbHostAuth(DbHostAuthR66RestMethodHandler.BASEURI, org.waarp.openr66.database.data.DbHostAuth.class),
         DbRule(DbRuleR66RestMethodHandler.BASEURI, org.waarp.openr66.database.data.DbRule.class),
@@ -300,18 +296,9 @@ public class HttpRestR66Handler extends HttpRestHandler {
             // Default is Admin
             session.getAuth().specialNoSessionAuth(true, Configuration.configuration.HOST_SSLID);
         } else {
-            // we have one DbSession per connection, only after authentication
-            DbSession temp = dbSessionFromUser.get(user);
-            if (temp == null) {
-                try {
-                    temp = new DbSession(DbConstant.admin, false);
-                    dbSessionFromUser.put(user, temp);
-                } catch (WaarpDatabaseNoConnectionException e) {
-                }
-            }
-            if (temp != null) {
-                temp.useConnection();
-                this.dbSession = temp;
+            // we have one pooled DbSession per connection, only after authentication
+            if (this.dbSession == null) {
+                this.dbSession = DbSessionPool.ADMIN.acquireNoWait();
             }
             try {
                 session.getAuth().connectionHttps(getDbSession(), user,
@@ -333,6 +320,10 @@ public class HttpRestR66Handler extends HttpRestHandler {
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         super.channelInactive(ctx);
         serverHandler.channelClosed(ctx);
+        if (this.dbSession != null) {
+            DbSessionPool.ADMIN.release(this.dbSession);
+            this.dbSession = null;
+        }
     }
 
     /**
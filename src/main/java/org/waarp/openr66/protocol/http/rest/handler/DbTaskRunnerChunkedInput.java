@@ -0,0 +1,367 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.http.rest.handler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.json.JsonHandler;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+import org.waarp.gateway.kernel.rest.RestArgument;
+import org.waarp.gateway.kernel.rest.RestArgument.REST_ROOT_FIELD;
+import org.waarp.openr66.database.data.DbTaskRunner;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * ChunkedInput writing the result of a MULTIGET on transfers as JSON while iterating the
+ * DbPreparedStatement, instead of building the full answer in memory.<br>
+ * <br>
+ * The answer has the same fields than the RestArgument result, the transfers being written in the
+ * "results" array of the answer, followed by their count and the CURSOR for the next page.<br>
+ * <br>
+ * The rows are fetched by batches of FETCH_SIZE out of the event loop, one batch being fetched only
+ * when the previous one is written. Since the ChunkedWriteHandler only asks for a new chunk when the
+ * channel is writable, the database is read at the pace of the client.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DbTaskRunnerChunkedInput implements ChunkedInput<ByteBuf> {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DbTaskRunnerChunkedInput.class);
+
+    private static final MappingJsonFactory factory = new MappingJsonFactory();
+
+    /**
+     * Size above which a chunk is sent
+     */
+    public static final int CHUNK_SIZE = 8192;
+
+    /**
+     * Number of rows fetched at once out of the event loop
+     */
+    public static final int FETCH_SIZE = 100;
+    /**
+     * Number of threads fetching the rows of all streamed answers
+     */
+    private static final int FETCH_THREADS = 4;
+
+    public static final String JSON_RESULTS = "results";
+    public static final String JSON_COUNT = "count";
+
+    private static ExecutorService fetchExecutor = null;
+
+    private static synchronized ExecutorService getFetchExecutor() {
+        if (fetchExecutor == null) {
+            fetchExecutor = Executors.newFixedThreadPool(FETCH_THREADS,
+                    new WaarpThreadFactory("RestStreamFetch"));
+        }
+        return fetchExecutor;
+    }
+
+    /**
+     * Stop the threads fetching the streamed answers
+     */
+    public static synchronized void shutdown() {
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdownNow();
+            fetchExecutor = null;
+        }
+    }
+
+    /**
+     * OutputStream writing into the current chunk
+     */
+    private static class ChunkOutputStream extends OutputStream {
+        private ByteBuf buffer;
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer.writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            buffer.writeBytes(b, off, len);
+        }
+    }
+
+    private final DbPreparedStatement statement;
+    private final RestArgument result;
+    private final ChunkOutputStream output = new ChunkOutputStream();
+    /**
+     * Rows fetched and not yet written
+     */
+    private final ConcurrentLinkedQueue<JsonNode> fetched = new ConcurrentLinkedQueue<JsonNode>();
+    private volatile ChunkedWriteHandler writer = null;
+    private JsonGenerator generator;
+    private boolean inAnswer = false;
+    private boolean endOfInput = false;
+    private long count = 0;
+    // following are shared with the fetching thread
+    private boolean fetching = false;
+    private boolean closed = false;
+    private volatile boolean noMoreRow = false;
+    private volatile String cursor = null;
+
+    /**
+     * 
+     * @param statement
+     *            the DbPreparedStatement already executed
+     * @param result
+     *            the RestArgument result, giving the other fields of the answer
+     */
+    public DbTaskRunnerChunkedInput(DbPreparedStatement statement, RestArgument result) {
+        this.statement = statement;
+        this.result = result;
+    }
+
+    @Override
+    public boolean isEndOfInput() throws Exception {
+        return endOfInput;
+    }
+
+    /**
+     * Start to fetch the first rows
+     * 
+     * @param writer
+     *            the ChunkedWriteHandler to resume when rows are fetched
+     */
+    public void start(ChunkedWriteHandler writer) {
+        this.writer = writer;
+        fetch();
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (fetching) {
+                // closed at the end of the current fetch
+                return;
+            }
+        }
+        statement.realClose();
+    }
+
+    /**
+     * Fetch the next batch of rows out of the event loop, if not already fetching
+     */
+    private void fetch() {
+        synchronized (this) {
+            if (fetching || closed || noMoreRow) {
+                return;
+            }
+            fetching = true;
+        }
+        try {
+            getFetchExecutor().execute(new Runnable() {
+                public void run() {
+                    fetchBatch();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            noMoreRow = true;
+            endFetch();
+        }
+    }
+
+    private void fetchBatch() {
+        boolean completed = false;
+        try {
+            for (int i = 0; i < FETCH_SIZE; i++) {
+                if (!statement.getNext()) {
+                    noMoreRow = true;
+                    break;
+                }
+                DbTaskRunner runner = DbTaskRunner.getFromStatementNoDbRule(statement);
+                fetched.add(runner.getJson());
+                cursor = DbTaskRunner.getFilterCursor(runner);
+            }
+            completed = true;
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Streamed transfers stopped at " + (count + fetched.size()) +
+                    " items: " + e.getMessage());
+            noMoreRow = true;
+            completed = true;
+        } finally {
+            if (!completed) {
+                // unexpected error: end the answer such that the statement is closed
+                noMoreRow = true;
+            }
+            endFetch();
+        }
+    }
+
+    private void endFetch() {
+        boolean toClose;
+        synchronized (this) {
+            fetching = false;
+            toClose = closed;
+        }
+        if (toClose) {
+            statement.realClose();
+            return;
+        }
+        ChunkedWriteHandler current = writer;
+        if (current != null) {
+            // new rows available or end of rows: ask for the next chunk
+            current.resumeTransfer();
+        }
+    }
+
+    @Override
+    public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+        return readChunk(ctx.alloc());
+    }
+
+    public ByteBuf readChunk(ByteBufAllocator allocator) throws Exception {
+        if (endOfInput) {
+            return null;
+        }
+        ByteBuf buffer = allocator.buffer(CHUNK_SIZE);
+        output.buffer = buffer;
+        try {
+            if (generator == null) {
+                writeHeader();
+            }
+            while (buffer.readableBytes() < CHUNK_SIZE) {
+                boolean isEnd = noMoreRow;
+                JsonNode node = fetched.poll();
+                if (node != null) {
+                    generator.writeTree(node);
+                    count++;
+                } else if (isEnd) {
+                    // the generator is flushed while closed
+                    writeFooter();
+                    return buffer;
+                } else {
+                    // wait for the next batch, resuming the transfer once fetched
+                    fetch();
+                    break;
+                }
+            }
+            generator.flush();
+            if (buffer.readableBytes() == 0) {
+                buffer.release();
+                return null;
+            }
+        } catch (Exception e) {
+            buffer.release();
+            endOfInput = true;
+            close();
+            throw e;
+        }
+        return buffer;
+    }
+
+    public long length() {
+        return -1;
+    }
+
+    public long progress() {
+        return count;
+    }
+
+    /**
+     * Write all fields of the result but the answer, then the fields of the answer, then open the
+     * results array
+     * 
+     * @throws IOException
+     */
+    private void writeHeader() throws IOException {
+        generator = factory.createGenerator(output, JsonEncoding.UTF8);
+        ObjectNode root = JsonHandler.getFromString(result.toString());
+        ObjectNode answer = result.getAnswer();
+        String answerField = REST_ROOT_FIELD.ARGS_ANSWER.field;
+        generator.writeStartObject();
+        Iterator<Entry<String, JsonNode>> iterator = root.fields();
+        while (iterator.hasNext()) {
+            Entry<String, JsonNode> entry = iterator.next();
+            if (entry.getKey().equals(answerField)) {
+                continue;
+            }
+            generator.writeFieldName(entry.getKey());
+            generator.writeTree(entry.getValue());
+        }
+        if (answer != null) {
+            generator.writeObjectFieldStart(answerField);
+            inAnswer = true;
+            iterator = answer.fields();
+            while (iterator.hasNext()) {
+                Entry<String, JsonNode> entry = iterator.next();
+                generator.writeFieldName(entry.getKey());
+                generator.writeTree(entry.getValue());
+            }
+        }
+        generator.writeArrayFieldStart(JSON_RESULTS);
+    }
+
+    /**
+     * Close the results array with the count and the cursor for the next page
+     * 
+     * @throws IOException
+     */
+    private void writeFooter() throws IOException {
+        generator.writeEndArray();
+        generator.writeNumberField(JSON_COUNT, count);
+        if (cursor != null) {
+            generator.writeStringField(DbTaskRunnerR66RestMethodHandler.FILTER_ARGS.CURSOR.name(),
+                    cursor);
+        }
+        if (inAnswer) {
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        generator.close();
+        endOfInput = true;
+        try {
+            close();
+        } catch (Exception e) {
+            // nothing
+        }
+    }
+}
@@ -21,9 +21,22 @@
 package org.waarp.openr66.protocol.http.rest.handler;
 
 import java.sql.Timestamp;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
 import org.joda.time.DateTime;
 import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
 import org.waarp.common.database.data.DbValue;
 import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
@@ -40,6 +53,7 @@ import org.waarp.gateway.kernel.rest.RestArgument;
 import org.waarp.gateway.kernel.rest.HttpRestHandler.METHOD;
 import org.waarp.gateway.kernel.rest.RestConfiguration;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.database.DbReadReplica;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.database.data.DbTaskRunner.Columns;
 import org.waarp.openr66.protocol.http.rest.HttpRestR66Handler;
@@ -70,7 +84,8 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
         DONE("boolean"),
         ALLSTATUS("boolean"),
         STARTTRANS("Date in ISO 8601 format or ms"),
-        STOPTRANS("Date in ISO 8601 format or ms");
+        STOPTRANS("Date in ISO 8601 format or ms"),
+        CURSOR("next page token as STARTTRANS in ms_SPECIALID of the last transfer of previous page");
 
         public String type;
 
@@ -87,6 +102,116 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
         super(BASEURI, config, method);
     }
 
+    /**
+     * Executed MULTIGET waiting for their response to be streamed, by handler (one request at a
+     * time per connection)
+     */
+    private final ConcurrentHashMap<HttpRestHandler, DbTaskRunnerChunkedInput> streamedResults =
+            new ConcurrentHashMap<HttpRestHandler, DbTaskRunnerChunkedInput>();
+
+    @Override
+    public void endParsingRequest(HttpRestHandler handler, RestArgument arguments, RestArgument result,
+            Object body) throws HttpIncorrectRequestException, HttpInvalidAuthenticationException,
+            HttpNotFoundRequestException {
+        DbTaskRunnerChunkedInput previous = streamedResults.remove(handler);
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (Exception e) {
+                // nothing
+            }
+        }
+        if (arguments.getMethod() != METHOD.GET || !this.methods.contains(METHOD.GET) ||
+                !RestArgument.getId(arguments.getUriArgs()).isMissingNode()) {
+            super.endParsingRequest(handler, arguments, result, body);
+            return;
+        }
+        // MULTIGET: the statement is only executed here, transfers being streamed by sendResponse
+        try {
+            checkAuthorization(handler, arguments, result, METHOD.GET);
+        } catch (HttpForbiddenRequestException e) {
+            throw new HttpInvalidAuthenticationException(e);
+        }
+        final ObjectNode arg = arguments.getUriArgs().deepCopy();
+        arg.setAll(arguments.getBody());
+        DbPreparedStatement statement;
+        try {
+            // pure read: use the read replica if any
+            statement = DbReadReplica.executeQuery(handler.getDbSession(),
+                    new DbReadReplica.ReadStatement() {
+                        @Override
+                        public DbPreparedStatement prepare(DbSession session)
+                                throws WaarpDatabaseNoConnectionException,
+                                WaarpDatabaseSqlException {
+                            return getFilterPrepareStatement(session, arg);
+                        }
+                    });
+        } catch (WaarpDatabaseNoConnectionException e) {
+            throw new HttpIncorrectRequestException("Issue while reading from database", e);
+        } catch (WaarpDatabaseSqlException e) {
+            throw new HttpNotFoundRequestException("Issue while reading from database", e);
+        }
+        boolean streamed = false;
+        try {
+            result.setCommand(COMMAND_TYPE.MULTIGET.name());
+            result.setResult(HttpResponseStatus.OK);
+            handler.setStatus(HttpResponseStatus.OK);
+            streamedResults.put(handler, new DbTaskRunnerChunkedInput(statement, result));
+            streamed = true;
+        } finally {
+            if (!streamed) {
+                statement.realClose();
+            }
+        }
+    }
+
+    @Override
+    public ChannelFuture sendResponse(HttpRestHandler handler, ChannelHandlerContext ctx, RestArgument arguments,
+            RestArgument result, Object body, HttpResponseStatus status) {
+        DbTaskRunnerChunkedInput input = streamedResults.remove(handler);
+        if (input == null) {
+            return super.sendResponse(handler, ctx, arguments, result, body, status);
+        }
+        if (status != HttpResponseStatus.OK) {
+            try {
+                input.close();
+            } catch (Exception e) {
+                // nothing
+            }
+            return super.sendResponse(handler, ctx, arguments, result, body, status);
+        }
+        boolean started = false;
+        try {
+            // same headers (status, cookies, connection) as the common response, but chunked
+            FullHttpResponse full = handler.getResponse(Unpooled.EMPTY_BUFFER);
+            HttpResponse response = new DefaultHttpResponse(full.protocolVersion(), full.status());
+            response.headers().set(full.headers());
+            full.release();
+            response.headers().remove(HttpHeaders.Names.CONTENT_LENGTH);
+            HttpHeaders.setTransferEncodingChunked(response);
+            response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json");
+            response.headers().add(HttpHeaders.Names.REFERER, handler.getRequest().uri());
+            ctx.write(response);
+            // rows are fetched out of the event loop, the ChunkedWriteHandler being resumed once
+            // fetched
+            input.start(ctx.pipeline().get(ChunkedWriteHandler.class));
+            ChannelFuture future = ctx.writeAndFlush(new HttpChunkedInput(input));
+            started = true;
+            if (handler.isWillClose()) {
+                return future;
+            }
+            return null;
+        } finally {
+            if (!started) {
+                try {
+                    input.close();
+                } catch (Exception e) {
+                    // nothing
+                }
+            }
+        }
+    }
+
     protected DbTaskRunner getItem(HttpRestHandler handler, RestArgument arguments,
             RestArgument result, Object body) throws HttpIncorrectRequestException,
             HttpInvalidAuthenticationException, HttpNotFoundRequestException {
@@ -129,6 +254,26 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
             throws HttpIncorrectRequestException, HttpInvalidAuthenticationException {
         ObjectNode arg = arguments.getUriArgs().deepCopy();
         arg.setAll(arguments.getBody());
+        try {
+            return getFilterPrepareStatement(handler.getDbSession(), arg);
+        } catch (WaarpDatabaseNoConnectionException e) {
+            throw new HttpIncorrectRequestException("Issue while reading from database", e);
+        } catch (WaarpDatabaseSqlException e) {
+            throw new HttpIncorrectRequestException("Issue while reading from database", e);
+        }
+    }
+
+    /**
+     * 
+     * @param session
+     * @param arg
+     *            the filter arguments
+     * @return the filter DbPreparedStatement on this session
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    private DbPreparedStatement getFilterPrepareStatement(DbSession session, ObjectNode arg)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
         int limit = arg.path(FILTER_ARGS.LIMIT.name()).asInt(0);
         boolean orderBySpecialId = arg.path(FILTER_ARGS.ORDERBYID.name()).asBoolean(false);
         JsonNode node = arg.path(FILTER_ARGS.STARTID.name());
@@ -184,15 +329,13 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
             }
             stop = new Timestamp(val);
         }
-        try {
-            return DbTaskRunner.getFilterPrepareStatement(handler.getDbSession(),
-                    limit, orderBySpecialId, startid, stopid, start, stop, rule, req, pending, transfer, error, done,
-                    all, owner);
-        } catch (WaarpDatabaseNoConnectionException e) {
-            throw new HttpIncorrectRequestException("Issue while reading from database", e);
-        } catch (WaarpDatabaseSqlException e) {
-            throw new HttpIncorrectRequestException("Issue while reading from database", e);
+        String cursor = arg.path(FILTER_ARGS.CURSOR.name()).asText();
+        if (cursor == null || cursor.isEmpty()) {
+            cursor = null;
         }
+        return DbTaskRunner.getFilterPrepareStatement(session,
+                limit, orderBySpecialId, startid, stopid, start, stop, rule, req, pending, transfer, error, done,
+                all, owner, cursor);
     }
 
     @Override
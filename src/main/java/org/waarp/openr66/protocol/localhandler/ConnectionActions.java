@@ -62,6 +62,7 @@ import org.waarp.openr66.protocol.localhandler.packet.AuthentPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ConnectionErrorPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ErrorPacket;
 import org.waarp.openr66.protocol.localhandler.packet.StartupPacket;
+import org.waarp.openr66.protocol.networkhandler.NetworkChannelReference;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.utils.ChannelCloseTimer;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
@@ -366,9 +367,16 @@ public abstract class ConnectionActions {
             session.setStatus(43);
             return;
         }
+        NetworkChannelReference networkChannelReference =
+                localChannelReference.getNetworkChannelObject();
+        // Reuse the authentication already done on this network connection if any
+        boolean alreadyAuthenticated = false;
         try {
             session.getAuth().connection(localChannelReference.getDbSession(),
-                    packet.getHostId(), packet.getKey());
+                    packet.getHostId(), packet.getKey(), networkChannelReference);
+            alreadyAuthenticated = networkChannelReference != null &&
+                    networkChannelReference.isAuthenticated(packet.getHostId(),
+                            packet.getKey(), session.getAuth().getCurrentAuth());
         } catch (Reply530Exception e1) {
             refusedConnection(channel, packet, e1);
             session.setStatus(42);
@@ -391,8 +399,9 @@ public abstract class ConnectionActions {
             return;
         }
         localChannelReference.setPartner(packet.getHostId());
-        // Now if configuration say to do so: check remote ip address
-        if (Configuration.configuration.checkRemoteAddress && !localChannelReference.getPartner().isProxified()) {
+        // Now if configuration say to do so: check remote ip address (already done if already authenticated)
+        if (!alreadyAuthenticated && Configuration.configuration.checkRemoteAddress
+                && !localChannelReference.getPartner().isProxified()) {
             DbHostAuth host = R66Auth.getServerAuth(localChannelReference.getDbSession(),
                     packet.getHostId());
             boolean toTest = false;
@@ -442,6 +451,10 @@ public abstract class ConnectionActions {
                 }
             }
         }
+        if (!alreadyAuthenticated && networkChannelReference != null) {
+            networkChannelReference.setAuthenticated(packet.getHostId(), packet.getKey(),
+                    session.getAuth().getCurrentAuth());
+        }
         R66Result result = new R66Result(session, true, ErrorCode.InitOk, null);
         session.newState(AUTHENTD);
         localChannelReference.validateConnection(true, result);
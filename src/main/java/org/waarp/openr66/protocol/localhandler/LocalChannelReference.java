@@ -22,7 +22,6 @@ import io.netty.channel.local.LocalChannel;
 import io.netty.handler.traffic.ChannelTrafficShapingHandler;
 
 import org.waarp.common.database.DbSession;
-import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.client.RecvThroughHandler;
@@ -33,6 +32,7 @@ import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
@@ -155,6 +155,14 @@ public class LocalChannelReference {
      * PartnerConfiguration
      */
     private volatile PartnerConfiguration partner;
+    /**
+     * Delay in ms advised by the partner when it answered ServerOverloaded (-1 if none)
+     */
+    private volatile long retryAfter = -1;
+    /**
+     * Load level in percent given by the partner when it answered ServerOverloaded (-1 if none)
+     */
+    private volatile int remoteLoadLevel = -1;
     /**
      * DbSession for Database that do not support concurrency in access
      */
@@ -186,11 +194,9 @@ public class LocalChannelReference {
         cts = (ChannelTrafficShapingHandler) networkChannelRef.channel().pipeline()
                 .get(NetworkServerInitializer.LIMITCHANNEL);
         if (DbConstant.admin.isActive && !DbConstant.admin.isCompatibleWithThreadSharedConnexion()) {
-            try {
-                this.noconcurrencyDbSession = new DbSession(DbConstant.admin, false);
-            } catch (WaarpDatabaseNoConnectionException e) {
-                // Cannot connect so use default connection
-                logger.warn("Use default database connection");
+            this.noconcurrencyDbSession = DbSessionPool.TRANSFER.acquireNoWait();
+            if (this.noconcurrencyDbSession == DbConstant.admin.session) {
+                // Cannot get one so use default connection
                 this.noconcurrencyDbSession = null;
             }
         } else {
@@ -216,10 +222,10 @@ public class LocalChannelReference {
      */
     public void close() {
         Configuration.configuration.getLocalTransaction().remove(this);
-        // Now force the close of the database after a wait
+        // Now give back the database connection to the pool
         if (noconcurrencyDbSession != null && DbConstant.admin != null && DbConstant.admin.session != null
                 && !noconcurrencyDbSession.equals(DbConstant.admin.session)) {
-            noconcurrencyDbSession.forceDisconnect();
+            DbSessionPool.TRANSFER.release(noconcurrencyDbSession);
             noconcurrencyDbSession = null;
         }
     }
@@ -726,6 +732,33 @@ public class LocalChannelReference {
         }
     }
 
+    /**
+     * @return the delay in ms advised by the partner when it answered ServerOverloaded (-1 if
+     *         none)
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return the load level in percent given by the partner when it answered ServerOverloaded
+     *         (-1 if none)
+     */
+    public int getRemoteLoadLevel() {
+        return remoteLoadLevel;
+    }
+
+    /**
+     * @param retryAfter
+     *            the delay in ms advised by the partner
+     * @param loadLevel
+     *            the load level in percent of the partner
+     */
+    public void setBackoffHint(long retryAfter, int loadLevel) {
+        this.retryAfter = retryAfter;
+        this.remoteLoadLevel = loadLevel;
+    }
+
     /**
      * @return the requestId
      */
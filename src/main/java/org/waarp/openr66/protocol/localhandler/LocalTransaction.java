@@ -18,8 +18,10 @@
 package org.waarp.openr66.protocol.localhandler;
 
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -365,6 +367,21 @@ public class LocalTransaction {
         return localChannelHashMapIdBased.get(key);
     }
 
+    /**
+     * 
+     * @return the runners of the active local channels
+     */
+    public List<DbTaskRunner> getRunners() {
+        List<DbTaskRunner> list = new ArrayList<DbTaskRunner>();
+        for (LocalChannelReference localChannelReference : localChannelHashMap.values()) {
+            R66Session session = localChannelReference.getSession();
+            if (session != null && session.getRunner() != null) {
+                list.add(session.getRunner());
+            }
+        }
+        return list;
+    }
+
     /**
      * 
      * @return the number of active local channels
@@ -17,6 +17,10 @@
  */
 package org.waarp.openr66.protocol.localhandler;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
 import io.netty.handler.traffic.TrafficCounter;
 import org.joda.time.DateTime;
 import org.waarp.common.database.DbAdmin;
@@ -32,9 +36,11 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.commander.CommanderNoDb;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
 import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.networkhandler.PartnerCircuitBreaker;
 import org.waarp.openr66.protocol.snmp.R66PrivateMib;
 import org.waarp.snmp.WaarpSnmpAgent;
 import org.waarp.snmp.interf.WaarpInterfaceMonitor;
@@ -74,6 +80,7 @@ public class Monitoring implements WaarpInterfaceMonitor {
     private long minimalDelay = 0;
     private long lastTry = 0;
     private DbSession dbSession = null;
+    private boolean isPooledDbSession = false;
     private final TrafficCounter trafficCounter =
             Configuration.configuration
                     .getGlobalTrafficShapingHandler()
@@ -109,6 +116,10 @@ public class Monitoring implements WaarpInterfaceMonitor {
     // Error Status on all transfers
     private DbPreparedStatement countStatus = null;
 
+    // Reconciliation of in memory statistics with the database, one per window (start bucket)
+    private final Map<Long, long[]> reconcileDeltas = new HashMap<Long, long[]>();
+    private final Map<Long, Long> lastReconciles = new HashMap<Long, Long>();
+
     // Overall status including past, future and current transfers
     public long nbCountInfoUnknown = 0;
     public long nbCountInfoNotUpdated = 0;
@@ -182,15 +193,8 @@ public class Monitoring implements WaarpInterfaceMonitor {
         if (session != null) {
             dbSession = session;
         } else {
-            if (DbConstant.admin.isActive) {
-                try {
-                    dbSession = new DbSession(DbConstant.admin, false);
-                } catch (WaarpDatabaseNoConnectionException e) {
-                    dbSession = DbConstant.admin.session;
-                }
-            } else {
-                dbSession = DbConstant.admin.session;
-            }
+            dbSession = DbSessionPool.MONITORING.acquire();
+            isPooledDbSession = true;
         }
         this.initialize();
     }
@@ -304,7 +308,11 @@ public class Monitoring implements WaarpInterfaceMonitor {
         } catch (Exception e) {
         }
         if (!dbSession.equals(DbConstant.admin.session)) {
-            dbSession.forceDisconnect();
+            if (isPooledDbSession) {
+                DbSessionPool.MONITORING.release(dbSession);
+            } else {
+                dbSession.forceDisconnect();
+            }
             dbSession = null;
         }
     }
@@ -416,182 +424,377 @@ public class Monitoring implements WaarpInterfaceMonitor {
                 limitDate -= nbMs;
                 currentLimit = limitDate;
                 // Update value
-                try {
-                    // Overall status including past, future and current transfers
-                    nbCountInfoUnknown = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.UNKNOWN, limitDate);
-                    nbCountInfoNotUpdated = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.NOTUPDATED, limitDate);
-                    nbCountInfoInterrupted = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.INTERRUPTED, limitDate);
-                    nbCountInfoToSubmit = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.TOSUBMIT, limitDate);
-                    nbCountInfoError = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.INERROR, limitDate);
-                    nbCountInfoRunning = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.RUNNING, limitDate);
-                    nbCountInfoDone = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.DONE, limitDate);
-
-                    // Current situation of all transfers, running or not
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countInActiveTransfer,
-                            limitDate);
-                    nbInActiveTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countInActiveTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countOutActiveTransfer,
-                            limitDate);
-                    nbOutActiveTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countOutActiveTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countInTotalTransfer,
-                            limitDate);
-                    nbInTotalTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countInTotalTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countOutTotalTransfer,
-                            limitDate);
-                    nbOutTotalTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countOutTotalTransfer);
-
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countOutErrorTransfer,
-                            limitDate);
-                    nbOutErrorTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countOutErrorTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countInErrorTransfer,
-                            limitDate);
-                    nbInErrorTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countInErrorTransfer);
-
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllTransfer,
-                            limitDate);
-                    nbCountStepAllTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepAllTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepNotask, limitDate);
-                    nbCountStepNotask = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepNotask);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPretask, limitDate);
-                    nbCountStepPretask = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepPretask);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepTransfer, limitDate);
-                    nbCountStepTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPosttask, limitDate);
-                    nbCountStepPosttask = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepPosttask);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllDone, limitDate);
-                    nbCountStepAllDone = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepAllDone);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepError, limitDate);
-                    nbCountStepError = DbTaskRunner.getResultCountPrepareStatement(countStepError);
-
-                    DbTaskRunner
-                            .finishSelectOrCountPrepareStatement(countAllRunningStep, limitDate);
-                    nbCountAllRunningStep = DbTaskRunner
-                            .getResultCountPrepareStatement(countAllRunningStep);
-
-                    if (detail) {
-                        // First on Running Transfers only
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countRunningStep,
-                                limitDate);
-                        nbCountRunningStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countRunningStep);
-                        DbTaskRunner
-                                .finishSelectOrCountPrepareStatement(countInitOkStep, limitDate);
-                        nbCountInitOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countInitOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countPreProcessingOkStep,
-                                limitDate);
-                        nbCountPreProcessingOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countPreProcessingOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countTransferOkStep,
-                                limitDate);
-                        nbCountTransferOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countTransferOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countPostProcessingOkStep,
-                                limitDate);
-                        nbCountPostProcessingOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countPostProcessingOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countCompleteOkStep,
-                                limitDate);
-                        nbCountCompleteOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countCompleteOkStep);
+                if (!useStatistics(limitDate)) {
+                    loadFromDatabase(limitDate, detail);
+                }
+            }
+        }
+    }
 
-                        // Error Status on all transfers
-                        nbCountStatusConnectionImpossible = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.ConnectionImpossible, limitDate);
-                        nbCountStatusServerOverloaded = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.ServerOverloaded, limitDate);
-                        nbCountStatusBadAuthent = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.BadAuthent, limitDate);
-                        nbCountStatusExternalOp = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.ExternalOp, limitDate);
-                        nbCountStatusTransferError = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.TransferError, limitDate);
-                        nbCountStatusMD5Error = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.MD5Error, limitDate);
-                        nbCountStatusDisconnection = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Disconnection, limitDate);
-                        nbCountStatusFinalOp = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.FinalOp, limitDate);
-                        nbCountStatusUnimplemented = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Unimplemented, limitDate);
-                        nbCountStatusInternal = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Internal, limitDate);
-                        nbCountStatusWarning = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Warning, limitDate);
-                        nbCountStatusQueryAlreadyFinished = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.QueryAlreadyFinished, limitDate);
-                        nbCountStatusQueryStillRunning = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.QueryStillRunning, limitDate);
-                        nbCountStatusNotKnownHost = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.NotKnownHost, limitDate);
-                        nbCountStatusQueryRemotelyUnknown = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.QueryRemotelyUnknown, limitDate);
-                        nbCountStatusCommandNotFound = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.CommandNotFound, limitDate);
-                        nbCountStatusPassThroughMode = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.PassThroughMode, limitDate);
-                        nbCountStatusRemoteShutdown = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.RemoteShutdown, limitDate);
-                        nbCountStatusShutdown = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Shutdown, limitDate);
-                        nbCountStatusRemoteError = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.RemoteError, limitDate);
-                        nbCountStatusStopped = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.StoppedTransfer, limitDate);
-                        nbCountStatusCanceled = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.CanceledTransfer, limitDate);
-                        nbCountStatusFileNotFound = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.FileNotFound, limitDate);
-                        nbCountStatusUnknown = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Unknown, limitDate);
-                    }
-                } catch (WaarpDatabaseNoConnectionException e) {
-                } catch (WaarpDatabaseSqlException e) {
+    /**
+     * Use the in memory statistics if allowed, reconciling them with the database if needed
+     * 
+     * @param limitDate
+     * @return True if values were loaded (from statistics or from database during reconciliation),
+     *         False if the database must be used directly
+     */
+    private boolean useStatistics(long limitDate) {
+        long reconcileDelay = Configuration.configuration.monitoringReconcileDelay;
+        if (reconcileDelay <= 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        TransferStatistics statistics = Configuration.configuration.getTransferStatistics();
+        // HTTP, REST and SNMP use different windows, so each one has its own delta
+        Long window = limitDate / TransferStatistics.BUCKETSIZE;
+        long[] reconcileDelta = reconcileDeltas.get(window);
+        Long lastReconcile = lastReconciles.get(window);
+        if (reconcileDelta != null && now < lastReconcile + reconcileDelay) {
+            long[] values = statistics.snapshot(limitDate);
+            boolean valid = true;
+            for (int i = 0; i < values.length; i++) {
+                values[i] += reconcileDelta[i];
+                if (values[i] < 0) {
+                    valid = false;
+                    break;
                 }
             }
+            if (valid) {
+                setFromStatistics(values);
+                return true;
+            }
+            logger.debug("Monitoring statistics diverged from database, reconcile again");
+        }
+        // Reconciliation: real counts from database, keeping the difference with statistics
+        long[] values = statistics.snapshot(limitDate);
+        loadFromDatabase(limitDate, true);
+        long[] delta = getAsStatistics();
+        for (int i = 0; i < delta.length; i++) {
+            delta[i] -= values[i];
+        }
+        removeOldReconciles(now - reconcileDelay);
+        reconcileDeltas.put(window, delta);
+        lastReconciles.put(window, now);
+        logger.debug("Monitoring reconciled with database");
+        return true;
+    }
+
+    /**
+     * Forget the reconciliations done before this date
+     * 
+     * @param limit
+     */
+    private void removeOldReconciles(long limit) {
+        Iterator<Map.Entry<Long, Long>> iterator = lastReconciles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Long> entry = iterator.next();
+            if (entry.getValue() < limit) {
+                reconcileDeltas.remove(entry.getKey());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Set values from in memory statistics
+     * 
+     * @param values
+     */
+    private void setFromStatistics(long[] values) {
+        nbCountInfoUnknown = values[TransferStatistics.infoIndex(UpdatedInfo.UNKNOWN)];
+        nbCountInfoNotUpdated = values[TransferStatistics.infoIndex(UpdatedInfo.NOTUPDATED)];
+        nbCountInfoInterrupted = values[TransferStatistics.infoIndex(UpdatedInfo.INTERRUPTED)];
+        nbCountInfoToSubmit = values[TransferStatistics.infoIndex(UpdatedInfo.TOSUBMIT)];
+        nbCountInfoError = values[TransferStatistics.infoIndex(UpdatedInfo.INERROR)];
+        nbCountInfoRunning = values[TransferStatistics.infoIndex(UpdatedInfo.RUNNING)];
+        nbCountInfoDone = values[TransferStatistics.infoIndex(UpdatedInfo.DONE)];
+        nbInActiveTransfer = values[TransferStatistics.INRUNNING];
+        nbOutActiveTransfer = values[TransferStatistics.OUTRUNNING];
+        nbInTotalTransfer = values[TransferStatistics.INTOTAL];
+        nbOutTotalTransfer = values[TransferStatistics.OUTTOTAL];
+        nbInErrorTransfer = values[TransferStatistics.INERROR];
+        nbOutErrorTransfer = values[TransferStatistics.OUTERROR];
+        nbCountStepAllTransfer = values[TransferStatistics.ALL];
+        nbCountStepNotask = values[TransferStatistics.stepIndex(TASKSTEP.NOTASK)];
+        nbCountStepPretask = values[TransferStatistics.stepIndex(TASKSTEP.PRETASK)];
+        nbCountStepTransfer = values[TransferStatistics.stepIndex(TASKSTEP.TRANSFERTASK)];
+        nbCountStepPosttask = values[TransferStatistics.stepIndex(TASKSTEP.POSTTASK)];
+        nbCountStepAllDone = values[TransferStatistics.stepIndex(TASKSTEP.ALLDONETASK)];
+        nbCountStepError = values[TransferStatistics.stepIndex(TASKSTEP.ERRORTASK)];
+        nbCountAllRunningStep = values[TransferStatistics.ALLRUNNING];
+        nbCountRunningStep = values[TransferStatistics.runningStatusIndex(ErrorCode.Running)];
+        nbCountInitOkStep = values[TransferStatistics.runningStatusIndex(ErrorCode.InitOk)];
+        nbCountPreProcessingOkStep = values[TransferStatistics.runningStatusIndex(ErrorCode.PreProcessingOk)];
+        nbCountTransferOkStep = values[TransferStatistics.runningStatusIndex(ErrorCode.TransferOk)];
+        nbCountPostProcessingOkStep = values[TransferStatistics.runningStatusIndex(ErrorCode.PostProcessingOk)];
+        nbCountCompleteOkStep = values[TransferStatistics.runningStatusIndex(ErrorCode.CompleteOk)];
+        nbCountStatusConnectionImpossible = values[TransferStatistics.statusIndex(ErrorCode.ConnectionImpossible)];
+        nbCountStatusServerOverloaded = values[TransferStatistics.statusIndex(ErrorCode.ServerOverloaded)];
+        nbCountStatusBadAuthent = values[TransferStatistics.statusIndex(ErrorCode.BadAuthent)];
+        nbCountStatusExternalOp = values[TransferStatistics.statusIndex(ErrorCode.ExternalOp)];
+        nbCountStatusTransferError = values[TransferStatistics.statusIndex(ErrorCode.TransferError)];
+        nbCountStatusMD5Error = values[TransferStatistics.statusIndex(ErrorCode.MD5Error)];
+        nbCountStatusDisconnection = values[TransferStatistics.statusIndex(ErrorCode.Disconnection)];
+        nbCountStatusFinalOp = values[TransferStatistics.statusIndex(ErrorCode.FinalOp)];
+        nbCountStatusUnimplemented = values[TransferStatistics.statusIndex(ErrorCode.Unimplemented)];
+        nbCountStatusInternal = values[TransferStatistics.statusIndex(ErrorCode.Internal)];
+        nbCountStatusWarning = values[TransferStatistics.statusIndex(ErrorCode.Warning)];
+        nbCountStatusQueryAlreadyFinished = values[TransferStatistics.statusIndex(ErrorCode.QueryAlreadyFinished)];
+        nbCountStatusQueryStillRunning = values[TransferStatistics.statusIndex(ErrorCode.QueryStillRunning)];
+        nbCountStatusNotKnownHost = values[TransferStatistics.statusIndex(ErrorCode.NotKnownHost)];
+        nbCountStatusQueryRemotelyUnknown = values[TransferStatistics.statusIndex(ErrorCode.QueryRemotelyUnknown)];
+        nbCountStatusCommandNotFound = values[TransferStatistics.statusIndex(ErrorCode.CommandNotFound)];
+        nbCountStatusPassThroughMode = values[TransferStatistics.statusIndex(ErrorCode.PassThroughMode)];
+        nbCountStatusRemoteShutdown = values[TransferStatistics.statusIndex(ErrorCode.RemoteShutdown)];
+        nbCountStatusShutdown = values[TransferStatistics.statusIndex(ErrorCode.Shutdown)];
+        nbCountStatusRemoteError = values[TransferStatistics.statusIndex(ErrorCode.RemoteError)];
+        nbCountStatusStopped = values[TransferStatistics.statusIndex(ErrorCode.StoppedTransfer)];
+        nbCountStatusCanceled = values[TransferStatistics.statusIndex(ErrorCode.CanceledTransfer)];
+        nbCountStatusFileNotFound = values[TransferStatistics.statusIndex(ErrorCode.FileNotFound)];
+        nbCountStatusUnknown = values[TransferStatistics.statusIndex(ErrorCode.Unknown)];
+    }
+
+    /**
+     * 
+     * @return the current values as in memory statistics
+     */
+    private long[] getAsStatistics() {
+        long[] values = new long[TransferStatistics.NBCOUNTERS];
+        values[TransferStatistics.infoIndex(UpdatedInfo.UNKNOWN)] = nbCountInfoUnknown;
+        values[TransferStatistics.infoIndex(UpdatedInfo.NOTUPDATED)] = nbCountInfoNotUpdated;
+        values[TransferStatistics.infoIndex(UpdatedInfo.INTERRUPTED)] = nbCountInfoInterrupted;
+        values[TransferStatistics.infoIndex(UpdatedInfo.TOSUBMIT)] = nbCountInfoToSubmit;
+        values[TransferStatistics.infoIndex(UpdatedInfo.INERROR)] = nbCountInfoError;
+        values[TransferStatistics.infoIndex(UpdatedInfo.RUNNING)] = nbCountInfoRunning;
+        values[TransferStatistics.infoIndex(UpdatedInfo.DONE)] = nbCountInfoDone;
+        values[TransferStatistics.INRUNNING] = nbInActiveTransfer;
+        values[TransferStatistics.OUTRUNNING] = nbOutActiveTransfer;
+        values[TransferStatistics.INTOTAL] = nbInTotalTransfer;
+        values[TransferStatistics.OUTTOTAL] = nbOutTotalTransfer;
+        values[TransferStatistics.INERROR] = nbInErrorTransfer;
+        values[TransferStatistics.OUTERROR] = nbOutErrorTransfer;
+        values[TransferStatistics.ALL] = nbCountStepAllTransfer;
+        values[TransferStatistics.stepIndex(TASKSTEP.NOTASK)] = nbCountStepNotask;
+        values[TransferStatistics.stepIndex(TASKSTEP.PRETASK)] = nbCountStepPretask;
+        values[TransferStatistics.stepIndex(TASKSTEP.TRANSFERTASK)] = nbCountStepTransfer;
+        values[TransferStatistics.stepIndex(TASKSTEP.POSTTASK)] = nbCountStepPosttask;
+        values[TransferStatistics.stepIndex(TASKSTEP.ALLDONETASK)] = nbCountStepAllDone;
+        values[TransferStatistics.stepIndex(TASKSTEP.ERRORTASK)] = nbCountStepError;
+        values[TransferStatistics.ALLRUNNING] = nbCountAllRunningStep;
+        values[TransferStatistics.runningStatusIndex(ErrorCode.Running)] = nbCountRunningStep;
+        values[TransferStatistics.runningStatusIndex(ErrorCode.InitOk)] = nbCountInitOkStep;
+        values[TransferStatistics.runningStatusIndex(ErrorCode.PreProcessingOk)] = nbCountPreProcessingOkStep;
+        values[TransferStatistics.runningStatusIndex(ErrorCode.TransferOk)] = nbCountTransferOkStep;
+        values[TransferStatistics.runningStatusIndex(ErrorCode.PostProcessingOk)] = nbCountPostProcessingOkStep;
+        values[TransferStatistics.runningStatusIndex(ErrorCode.CompleteOk)] = nbCountCompleteOkStep;
+        values[TransferStatistics.statusIndex(ErrorCode.ConnectionImpossible)] = nbCountStatusConnectionImpossible;
+        values[TransferStatistics.statusIndex(ErrorCode.ServerOverloaded)] = nbCountStatusServerOverloaded;
+        values[TransferStatistics.statusIndex(ErrorCode.BadAuthent)] = nbCountStatusBadAuthent;
+        values[TransferStatistics.statusIndex(ErrorCode.ExternalOp)] = nbCountStatusExternalOp;
+        values[TransferStatistics.statusIndex(ErrorCode.TransferError)] = nbCountStatusTransferError;
+        values[TransferStatistics.statusIndex(ErrorCode.MD5Error)] = nbCountStatusMD5Error;
+        values[TransferStatistics.statusIndex(ErrorCode.Disconnection)] = nbCountStatusDisconnection;
+        values[TransferStatistics.statusIndex(ErrorCode.FinalOp)] = nbCountStatusFinalOp;
+        values[TransferStatistics.statusIndex(ErrorCode.Unimplemented)] = nbCountStatusUnimplemented;
+        values[TransferStatistics.statusIndex(ErrorCode.Internal)] = nbCountStatusInternal;
+        values[TransferStatistics.statusIndex(ErrorCode.Warning)] = nbCountStatusWarning;
+        values[TransferStatistics.statusIndex(ErrorCode.QueryAlreadyFinished)] = nbCountStatusQueryAlreadyFinished;
+        values[TransferStatistics.statusIndex(ErrorCode.QueryStillRunning)] = nbCountStatusQueryStillRunning;
+        values[TransferStatistics.statusIndex(ErrorCode.NotKnownHost)] = nbCountStatusNotKnownHost;
+        values[TransferStatistics.statusIndex(ErrorCode.QueryRemotelyUnknown)] = nbCountStatusQueryRemotelyUnknown;
+        values[TransferStatistics.statusIndex(ErrorCode.CommandNotFound)] = nbCountStatusCommandNotFound;
+        values[TransferStatistics.statusIndex(ErrorCode.PassThroughMode)] = nbCountStatusPassThroughMode;
+        values[TransferStatistics.statusIndex(ErrorCode.RemoteShutdown)] = nbCountStatusRemoteShutdown;
+        values[TransferStatistics.statusIndex(ErrorCode.Shutdown)] = nbCountStatusShutdown;
+        values[TransferStatistics.statusIndex(ErrorCode.RemoteError)] = nbCountStatusRemoteError;
+        values[TransferStatistics.statusIndex(ErrorCode.StoppedTransfer)] = nbCountStatusStopped;
+        values[TransferStatistics.statusIndex(ErrorCode.CanceledTransfer)] = nbCountStatusCanceled;
+        values[TransferStatistics.statusIndex(ErrorCode.FileNotFound)] = nbCountStatusFileNotFound;
+        values[TransferStatistics.statusIndex(ErrorCode.Unknown)] = nbCountStatusUnknown;
+        return values;
+    }
+
+    /**
+     * Load all values from the database
+     * 
+     * @param limitDate
+     * @param detail
+     */
+    private void loadFromDatabase(long limitDate, boolean detail) {
+        try {
+            // Overall status including past, future and current transfers
+            nbCountInfoUnknown = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.UNKNOWN, limitDate);
+            nbCountInfoNotUpdated = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.NOTUPDATED, limitDate);
+            nbCountInfoInterrupted = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.INTERRUPTED, limitDate);
+            nbCountInfoToSubmit = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.TOSUBMIT, limitDate);
+            nbCountInfoError = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.INERROR, limitDate);
+            nbCountInfoRunning = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.RUNNING, limitDate);
+            nbCountInfoDone = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.DONE, limitDate);
+
+            // Current situation of all transfers, running or not
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countInActiveTransfer,
+                    limitDate);
+            nbInActiveTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countInActiveTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countOutActiveTransfer,
+                    limitDate);
+            nbOutActiveTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countOutActiveTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countInTotalTransfer,
+                    limitDate);
+            nbInTotalTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countInTotalTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countOutTotalTransfer,
+                    limitDate);
+            nbOutTotalTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countOutTotalTransfer);
+
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countOutErrorTransfer,
+                    limitDate);
+            nbOutErrorTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countOutErrorTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countInErrorTransfer,
+                    limitDate);
+            nbInErrorTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countInErrorTransfer);
+
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllTransfer,
+                    limitDate);
+            nbCountStepAllTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepAllTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepNotask, limitDate);
+            nbCountStepNotask = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepNotask);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPretask, limitDate);
+            nbCountStepPretask = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepPretask);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepTransfer, limitDate);
+            nbCountStepTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPosttask, limitDate);
+            nbCountStepPosttask = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepPosttask);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllDone, limitDate);
+            nbCountStepAllDone = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepAllDone);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepError, limitDate);
+            nbCountStepError = DbTaskRunner.getResultCountPrepareStatement(countStepError);
+
+            DbTaskRunner
+                    .finishSelectOrCountPrepareStatement(countAllRunningStep, limitDate);
+            nbCountAllRunningStep = DbTaskRunner
+                    .getResultCountPrepareStatement(countAllRunningStep);
+
+            if (detail) {
+                // First on Running Transfers only
+                DbTaskRunner.finishSelectOrCountPrepareStatement(countRunningStep,
+                        limitDate);
+                nbCountRunningStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countRunningStep);
+                DbTaskRunner
+                        .finishSelectOrCountPrepareStatement(countInitOkStep, limitDate);
+                nbCountInitOkStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countInitOkStep);
+                DbTaskRunner.finishSelectOrCountPrepareStatement(countPreProcessingOkStep,
+                        limitDate);
+                nbCountPreProcessingOkStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countPreProcessingOkStep);
+                DbTaskRunner.finishSelectOrCountPrepareStatement(countTransferOkStep,
+                        limitDate);
+                nbCountTransferOkStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countTransferOkStep);
+                DbTaskRunner.finishSelectOrCountPrepareStatement(countPostProcessingOkStep,
+                        limitDate);
+                nbCountPostProcessingOkStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countPostProcessingOkStep);
+                DbTaskRunner.finishSelectOrCountPrepareStatement(countCompleteOkStep,
+                        limitDate);
+                nbCountCompleteOkStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countCompleteOkStep);
+
+                // Error Status on all transfers
+                nbCountStatusConnectionImpossible = DbTaskRunner
+                        .getResultCountPrepareStatement(countStatus,
+                                ErrorCode.ConnectionImpossible, limitDate);
+                nbCountStatusServerOverloaded = DbTaskRunner
+                        .getResultCountPrepareStatement(countStatus,
+                                ErrorCode.ServerOverloaded, limitDate);
+                nbCountStatusBadAuthent = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.BadAuthent, limitDate);
+                nbCountStatusExternalOp = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.ExternalOp, limitDate);
+                nbCountStatusTransferError = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.TransferError, limitDate);
+                nbCountStatusMD5Error = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.MD5Error, limitDate);
+                nbCountStatusDisconnection = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Disconnection, limitDate);
+                nbCountStatusFinalOp = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.FinalOp, limitDate);
+                nbCountStatusUnimplemented = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Unimplemented, limitDate);
+                nbCountStatusInternal = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Internal, limitDate);
+                nbCountStatusWarning = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Warning, limitDate);
+                nbCountStatusQueryAlreadyFinished = DbTaskRunner
+                        .getResultCountPrepareStatement(countStatus,
+                                ErrorCode.QueryAlreadyFinished, limitDate);
+                nbCountStatusQueryStillRunning = DbTaskRunner
+                        .getResultCountPrepareStatement(countStatus,
+                                ErrorCode.QueryStillRunning, limitDate);
+                nbCountStatusNotKnownHost = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.NotKnownHost, limitDate);
+                nbCountStatusQueryRemotelyUnknown = DbTaskRunner
+                        .getResultCountPrepareStatement(countStatus,
+                                ErrorCode.QueryRemotelyUnknown, limitDate);
+                nbCountStatusCommandNotFound = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.CommandNotFound, limitDate);
+                nbCountStatusPassThroughMode = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.PassThroughMode, limitDate);
+                nbCountStatusRemoteShutdown = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.RemoteShutdown, limitDate);
+                nbCountStatusShutdown = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Shutdown, limitDate);
+                nbCountStatusRemoteError = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.RemoteError, limitDate);
+                nbCountStatusStopped = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.StoppedTransfer, limitDate);
+                nbCountStatusCanceled = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.CanceledTransfer, limitDate);
+                nbCountStatusFileNotFound = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.FileNotFound, limitDate);
+                nbCountStatusUnknown = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Unknown, limitDate);
+            }
+        } catch (WaarpDatabaseNoConnectionException e) {
+        } catch (WaarpDatabaseSqlException e) {
         }
     }
 
@@ -907,6 +1110,31 @@ public class Monitoring implements WaarpInterfaceMonitor {
             node2.put("FileNotFound", nbCountStatusFileNotFound);
             node2.put("Unknown", nbCountStatusUnknown);
         }
+        // Progress of the current or last log purge
+        node2 = node.putObject("PURGE");
+        DbTaskRunner.getPurgeStatus(node2);
+        // Usage of the database connection pools
+        node2 = node.putObject("DBPOOLS");
+        DbSessionPool.getStatus(node2);
+        // Queue depth and wait time of the transfer scheduler by priority class
+        if (Configuration.configuration.getInternalRunner() != null) {
+            node2 = node.putObject("SCHEDULER");
+            Configuration.configuration.getInternalRunner().getScheduler().getStatus(node2);
+        }
+        // Progress of the paced recovery of the interrupted transfers at startup
+        if (Configuration.configuration.getInternalRunner() != null &&
+                Configuration.configuration.getInternalRunner().getRecovery() != null) {
+            node2 = node.putObject("RECOVERY");
+            Configuration.configuration.getInternalRunner().getRecovery().getStatus(node2);
+        }
+        // Partners with connection failures or an open circuit breaker
+        node2 = node.putObject("CIRCUITBREAKERS");
+        PartnerCircuitBreaker.getStatus(node2);
+        // Current adaptive limit of concurrent transfers and its rejections
+        if (Configuration.configuration.constraintLimitHandler.getAdaptiveLimiter() != null) {
+            node2 = node.putObject("ADAPTIVELIMIT");
+            Configuration.configuration.constraintLimitHandler.getAdaptiveLimiter().getStatus(node2);
+        }
         return node;
     }
 
@@ -987,7 +1215,8 @@ public class Monitoring implements WaarpInterfaceMonitor {
         synchronized (trafficCounter) {
             long val = 0;
             long limitDate = System.currentTimeMillis() - nbMs;
-            if (dbSession == null || dbSession.isDisActive) {
+            boolean noDb = dbSession == null || dbSession.isDisActive;
+            if (noDb || useStatistics(limitDate)) {
                 switch (entry) {
                     case applUptime:
                         return;
@@ -1045,15 +1274,19 @@ public class Monitoring implements WaarpInterfaceMonitor {
                         updateGlobalValue(entry.ordinal(), nbCountInfoInterrupted);
                         return;
                     case nbInfoToSubmit:
-                        nbCountInfoToSubmit = CommanderNoDb.todoList.size();
+                        if (noDb) {
+                            nbCountInfoToSubmit = CommanderNoDb.todoList.size();
+                        }
                         updateGlobalValue(entry.ordinal(), nbCountInfoToSubmit);
                         return;
                     case nbInfoError:
                         updateGlobalValue(entry.ordinal(), nbCountInfoError);
                         return;
                     case nbInfoRunning:
-                        nbCountInfoRunning = Configuration.configuration.getInternalRunner()
-                                .nbInternalRunner();
+                        if (noDb) {
+                            nbCountInfoRunning = Configuration.configuration.getInternalRunner()
+                                    .nbInternalRunner();
+                        }
                         updateGlobalValue(entry.ordinal(), nbCountInfoRunning);
                         return;
                     case nbInfoDone:
@@ -1073,9 +1306,13 @@ public class Monitoring implements WaarpInterfaceMonitor {
                         updateGlobalValue(entry.ordinal(), nbThread);
                         return;
                     case nbNetworkConnection:
-                        nbNetworkConnection =
-                                Configuration.configuration.getHttpChannelGroup().size() +
-                                        Configuration.configuration.getServerChannelGroup().size();
+                        if (noDb) {
+                            nbNetworkConnection =
+                                    Configuration.configuration.getHttpChannelGroup().size() +
+                                            Configuration.configuration.getServerChannelGroup().size();
+                        } else {
+                            nbNetworkConnection = DbAdmin.getNbConnection();
+                        }
                         updateGlobalValue(entry.ordinal(), nbNetworkConnection);
                         return;
                 }
@@ -1229,7 +1466,8 @@ public class Monitoring implements WaarpInterfaceMonitor {
     protected void run(long nbMs, WaarpDetailedValuesIndex entry) {
         synchronized (trafficCounter) {
             long limitDate = System.currentTimeMillis() - nbMs;
-            if (dbSession == null || dbSession.isDisActive) {
+            boolean noDb = dbSession == null || dbSession.isDisActive;
+            if (noDb || useStatistics(limitDate)) {
                 switch (entry) {
                     case nbStepNotask:
                         updateDetailedValue(entry.ordinal(), nbCountStepNotask);
@@ -1250,8 +1488,10 @@ public class Monitoring implements WaarpInterfaceMonitor {
                         updateDetailedValue(entry.ordinal(), nbCountStepError);
                         return;
                     case nbAllRunningStep:
-                        nbCountAllRunningStep = Configuration.configuration.getInternalRunner()
-                                .nbInternalRunner();
+                        if (noDb) {
+                            nbCountAllRunningStep = Configuration.configuration.getInternalRunner()
+                                    .nbInternalRunner();
+                        }
                         updateDetailedValue(entry.ordinal(), nbCountAllRunningStep);
                         return;
                     case nbRunningStep:
@@ -1397,6 +1637,83 @@ public class Monitoring implements WaarpInterfaceMonitor {
             if (dbSession == null || dbSession.isDisActive) {
                 return;
             }
+            if (useStatistics(limitDate)) {
+                switch (entry) {
+                    case nbStatusConnectionImpossible:
+                        updateErrorValue(entry.ordinal(), nbCountStatusConnectionImpossible);
+                        return;
+                    case nbStatusServerOverloaded:
+                        updateErrorValue(entry.ordinal(), nbCountStatusServerOverloaded);
+                        return;
+                    case nbStatusBadAuthent:
+                        updateErrorValue(entry.ordinal(), nbCountStatusBadAuthent);
+                        return;
+                    case nbStatusExternalOp:
+                        updateErrorValue(entry.ordinal(), nbCountStatusExternalOp);
+                        return;
+                    case nbStatusTransferError:
+                        updateErrorValue(entry.ordinal(), nbCountStatusTransferError);
+                        return;
+                    case nbStatusMD5Error:
+                        updateErrorValue(entry.ordinal(), nbCountStatusMD5Error);
+                        return;
+                    case nbStatusDisconnection:
+                        updateErrorValue(entry.ordinal(), nbCountStatusDisconnection);
+                        return;
+                    case nbStatusFinalOp:
+                        updateErrorValue(entry.ordinal(), nbCountStatusFinalOp);
+                        return;
+                    case nbStatusUnimplemented:
+                        updateErrorValue(entry.ordinal(), nbCountStatusUnimplemented);
+                        return;
+                    case nbStatusInternal:
+                        updateErrorValue(entry.ordinal(), nbCountStatusInternal);
+                        return;
+                    case nbStatusWarning:
+                        updateErrorValue(entry.ordinal(), nbCountStatusWarning);
+                        return;
+                    case nbStatusQueryAlreadyFinished:
+                        updateErrorValue(entry.ordinal(), nbCountStatusQueryAlreadyFinished);
+                        return;
+                    case nbStatusQueryStillRunning:
+                        updateErrorValue(entry.ordinal(), nbCountStatusQueryStillRunning);
+                        return;
+                    case nbStatusNotKnownHost:
+                        updateErrorValue(entry.ordinal(), nbCountStatusNotKnownHost);
+                        return;
+                    case nbStatusQueryRemotelyUnknown:
+                        updateErrorValue(entry.ordinal(), nbCountStatusQueryRemotelyUnknown);
+                        return;
+                    case nbStatusCommandNotFound:
+                        updateErrorValue(entry.ordinal(), nbCountStatusCommandNotFound);
+                        return;
+                    case nbStatusPassThroughMode:
+                        updateErrorValue(entry.ordinal(), nbCountStatusPassThroughMode);
+                        return;
+                    case nbStatusRemoteShutdown:
+                        updateErrorValue(entry.ordinal(), nbCountStatusRemoteShutdown);
+                        return;
+                    case nbStatusShutdown:
+                        updateErrorValue(entry.ordinal(), nbCountStatusShutdown);
+                        return;
+                    case nbStatusRemoteError:
+                        updateErrorValue(entry.ordinal(), nbCountStatusRemoteError);
+                        return;
+                    case nbStatusStopped:
+                        updateErrorValue(entry.ordinal(), nbCountStatusStopped);
+                        return;
+                    case nbStatusCanceled:
+                        updateErrorValue(entry.ordinal(), nbCountStatusCanceled);
+                        return;
+                    case nbStatusFileNotFound:
+                        updateErrorValue(entry.ordinal(), nbCountStatusFileNotFound);
+                        return;
+                    case nbStatusUnknown:
+                        updateErrorValue(entry.ordinal(), nbCountStatusUnknown);
+                        return;
+                }
+                return;
+            }
             // Error
             switch (entry) {
                 case nbStatusConnectionImpossible:
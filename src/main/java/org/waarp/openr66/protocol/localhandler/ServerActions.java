@@ -33,7 +33,6 @@ import java.util.List;
 
 import io.netty.channel.Channel;
 import org.waarp.common.command.exception.CommandAbstractException;
-import org.waarp.common.database.DbPreparedStatement;
 import org.waarp.common.database.DbSession;
 import org.waarp.common.database.data.AbstractDbData;
 import org.waarp.common.database.exception.WaarpDatabaseException;
@@ -47,19 +46,21 @@ import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.role.RoleDefault.ROLE;
 import org.waarp.common.utility.WaarpStringUtils;
+import org.waarp.openr66.commander.InternalRunner;
 import org.waarp.openr66.configuration.AuthenticationFileBasedConfiguration;
 import org.waarp.openr66.configuration.RuleFileBasedConfiguration;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
-import org.waarp.openr66.context.filesystem.R66Dir;
 import org.waarp.openr66.context.filesystem.R66File;
 import org.waarp.openr66.context.task.ExecJavaTask;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbReadReplica;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbHostConfiguration;
 import org.waarp.openr66.database.data.DbRule;
 import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.data.DbTaskRunnerExporter;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
 import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
@@ -386,26 +387,12 @@ public class ServerActions extends ConnectionActions {
                         Timestamp.valueOf(sstop);
                 packet.clear();
                 // create export of log and optionally purge them from database
-                DbPreparedStatement getValid = null;
-                String filename = Configuration.configuration.baseDirectory +
-                        Configuration.configuration.archivePath + R66Dir.SEPARATOR +
-                        Configuration.configuration.HOST_ID + "_" + System.currentTimeMillis() +
-                        "_runners.xml";
-                try {
-                    getValid =
-                            DbTaskRunner.getLogPrepareStatement(
-                                    localChannelReference.getDbSession(),
-                                    start, stop);
-                    DbTaskRunner.writeXMLWriter(getValid, filename);
-                } catch (WaarpDatabaseNoConnectionException e1) {
-                    throw new OpenR66ProtocolBusinessException(e1);
-                } catch (WaarpDatabaseSqlException e1) {
-                    throw new OpenR66ProtocolBusinessException(e1);
-                } finally {
-                    if (getValid != null) {
-                        getValid.realClose();
-                    }
-                }
+                DbTaskRunnerExporter exporter = DbTaskRunnerExporter.getDefault();
+                String filename = exporter.getExportFilename();
+                // same selection than getLogPrepareStatement
+                exporter.export(localChannelReference.getDbSession(), filename,
+                        null, null, start, stop, null, null,
+                        false, false, false, false, true, null);
                 // in case of purge
                 int nb = 0;
                 if (isPurge) {
@@ -1083,10 +1070,7 @@ public class ServerActions extends ConnectionActions {
             } else if (!runner.isSender()) {
                 // is receiver so informs back for the rank to use next time
                 int newrank = runner.getRank();
-                try {
-                    runner.saveStatus();
-                } catch (OpenR66RunnerErrorException e) {
-                }
+                runner.saveStatusAsync();
                 session.setFinalizeTransfer(false, result);
                 return newrank;
             } else {
@@ -1789,27 +1773,11 @@ public class ServerActions extends ConnectionActions {
             }
         }
         // create export of log and optionally purge them from database
-        DbPreparedStatement getValid = null;
-        String filename = Configuration.configuration.baseDirectory +
-                Configuration.configuration.archivePath + R66Dir.SEPARATOR +
-                Configuration.configuration.HOST_ID + "_" + System.currentTimeMillis() +
-                "_runners.xml";
-        NbAndSpecialId nb = null;
-        try {
-            getValid =
-                    DbTaskRunner.getFilterPrepareStatement(dbSession, 0,// 0 means no limit
-                            true, startid, stopid, start, stop, rule, request,
-                            pending, transfer, error, done, false);
-            nb = DbTaskRunner.writeXMLWriter(getValid, filename);
-        } catch (WaarpDatabaseNoConnectionException e1) {
-            throw new OpenR66ProtocolBusinessException(e1);
-        } catch (WaarpDatabaseSqlException e1) {
-            throw new OpenR66ProtocolBusinessException(e1);
-        } finally {
-            if (getValid != null) {
-                getValid.realClose();
-            }
-        }
+        DbTaskRunnerExporter exporter = DbTaskRunnerExporter.getDefault();
+        String filename = exporter.getExportFilename();
+        NbAndSpecialId nb = exporter.export(dbSession, filename,
+                startid, stopid, start, stop, rule, request,
+                pending, transfer, error, done, false, null);
         // in case of purge
         int npurge = 0;
         if (nb != null && nb.nb > 0 && isPurge) {
@@ -2300,11 +2268,22 @@ public class ServerActions extends ConnectionActions {
             throw new OpenR66ProtocolNoDataException("Remote Host is unknown", e1);
         }
         DbTaskRunner runner = null;
+        // pure read: use the read replica if any
+        final long fid = id;
+        final String requester = isTo ? remote : local;
+        final String requested = isTo ? local : remote;
+        DbReadReplica.ReadOperation<DbTaskRunner> operation =
+                new DbReadReplica.ReadOperation<DbTaskRunner>() {
+                    @Override
+                    public DbTaskRunner read(DbSession readSession)
+                            throws WaarpDatabaseException {
+                        return new DbTaskRunner(readSession, session, null, fid, requester,
+                                requested);
+                    }
+                };
         if (isTo) {
             try {
-                runner = new DbTaskRunner(dbSession,
-                        session, null,
-                        id, remote, local);
+                runner = DbReadReplica.read(dbSession, operation);
             } catch (WaarpDatabaseException e) {
                 logger.error(Messages.getString("LocalServerHandler.21") + id); //$NON-NLS-1$
                 logger.debug("RunnerTask is not found: " + id + ":" + remote + ":" + local, e);
@@ -2312,9 +2291,7 @@ public class ServerActions extends ConnectionActions {
             }
         } else {
             try {
-                runner = new DbTaskRunner(dbSession,
-                        session, null,
-                        id, local, remote);
+                runner = DbReadReplica.read(dbSession, operation);
             } catch (WaarpDatabaseException e) {
                 logger.debug("RunnerTask is not found: " + id + ":" + local + ":" + remote, e);
                 logger.error(Messages.getString("LocalServerHandler.21") + id);
@@ -2359,6 +2336,7 @@ public class ServerActions extends ConnectionActions {
                 return new R66Result(session, false, ErrorCode.CommandNotFound,
                         runner);
             }
+            InternalRunner.submitLocally(runner);
             R66Result result = new R66Result(session, false, ErrorCode.InitOk,
                     runner);
             try {
@@ -39,11 +39,13 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.task.AbstractTask;
+import org.waarp.openr66.context.task.TaskPlan;
 import org.waarp.openr66.context.task.TaskType;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbRule;
 import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
 import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
@@ -66,6 +68,7 @@ import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ValidPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.RequestJsonPacket;
+import org.waarp.openr66.protocol.networkhandler.AdaptiveConcurrencyLimiter.SAMPLE;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.utils.ChannelCloseTimer;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
@@ -154,6 +157,7 @@ public class TransferActions extends ServerActions {
             throws OpenR66ProtocolNoDataException, OpenR66ProtocolPacketException,
             OpenR66RunnerErrorException, OpenR66ProtocolSystemException,
             OpenR66ProtocolBusinessException {
+        long startRequest = System.nanoTime();
         session.setStatus(99);
         if (!session.isAuthenticated()) {
             session.setStatus(48);
@@ -169,6 +173,8 @@ public class TransferActions extends ServerActions {
                 logger.warn(Messages.getString("LocalServerHandler.7") //$NON-NLS-1$
                         + packet.getRulename() + " from " + session.getAuth().toString());
                 session.setStatus(100);
+                // in shutdown: advise the longest delay
+                packet.setBackoffHint(Configuration.configuration.delayRetryMax, 100);
                 endInitRequestInError(channel,
                         ErrorCode.ServerOverloaded, null,
                         new OpenR66ProtocolNotYetConnectionException(
@@ -176,23 +182,26 @@ public class TransferActions extends ServerActions {
                 session.setStatus(100);
                 return;
             }
-            if (Configuration.configuration.constraintLimitHandler.checkConstraints()) {
+            if (Configuration.configuration.constraintLimitHandler.checkConstraintsOrLimit()) {
                 if (Configuration.configuration.r66Mib != null) {
                     Configuration.configuration.r66Mib.
                             notifyOverloaded("Rule: " + packet.getRulename() + " from "
                                     + session.getAuth().toString(),
-                                    Configuration.configuration.constraintLimitHandler.lastAlert);
+                                    Configuration.configuration.constraintLimitHandler.getLastAlert());
                 }
                 logger.warn(Messages.getString("LocalServerHandler.8") //$NON-NLS-1$
                         + packet.getRulename()
                         + " while "
-                        + Configuration.configuration.constraintLimitHandler.lastAlert +
+                        + Configuration.configuration.constraintLimitHandler.getLastAlert() +
                         " from " + session.getAuth().toString());
                 session.setStatus(100);
+                packet.setBackoffHint(
+                        Configuration.configuration.constraintLimitHandler.getRetryAfterHint(),
+                        Configuration.configuration.constraintLimitHandler.getLoadLevel());
                 endInitRequestInError(channel,
                         ErrorCode.ServerOverloaded, null,
                         new OpenR66ProtocolNotYetConnectionException(
-                                "Limit exceeded " + Configuration.configuration.constraintLimitHandler.lastAlert),
+                                "Limit exceeded " + Configuration.configuration.constraintLimitHandler.getLastAlert()),
                         packet);
                 session.setStatus(100);
                 return;
@@ -200,6 +209,11 @@ public class TransferActions extends ServerActions {
         } else if (packet.getCode() == ErrorCode.ServerOverloaded.code) {
             // XXX unvalid limit on requested host received
             logger.info("TaskRunner initialisation in error: " + ErrorCode.ServerOverloaded.mesg);
+            if (packet.getRetryAfter() >= 0) {
+                logger.info("Partner advises to retry after " + packet.getRetryAfter() +
+                        " ms with a load of " + packet.getLoadLevel() + "%");
+                localChannelReference.setBackoffHint(packet.getRetryAfter(), packet.getLoadLevel());
+            }
             localChannelReference.invalidateRequest(new R66Result(
                     null, session, true, ErrorCode.ServerOverloaded, null));
             session.setStatus(101);
@@ -314,11 +328,8 @@ public class TransferActions extends ServerActions {
                 }
                 logger.debug("Runner before any action: {} {}", runner.shallIgnoreSave(), runner);
                 // ok to restart
-                try {
-                    if (runner.restart(false)) {
-                        runner.saveStatus();
-                    }
-                } catch (OpenR66RunnerErrorException e) {
+                if (runner.restart(false)) {
+                    runner.saveStatusAsync();
                 }
                 // Change the SpecialID! => could generate an error ?
                 packet.setSpecialId(runner.getSpecialId());
@@ -359,13 +370,10 @@ public class TransferActions extends ServerActions {
                     runner.setFilename(packet.getFilename());
                 }
                 logger.debug("Runner before any action: {} {}", runner.shallIgnoreSave(), runner);
-                try {
-                    if (runner.restart(false)) {
-                        if (!runner.isSelfRequest()) {
-                            runner.saveStatus();
-                        }
+                if (runner.restart(false)) {
+                    if (!runner.isSelfRequest()) {
+                        runner.saveStatusAsync();
                     }
-                } catch (OpenR66RunnerErrorException e) {
                 }
             }
         } else {
@@ -518,6 +526,8 @@ public class TransferActions extends ServerActions {
                 NetworkTransaction.runRetrieve(session, channel);
             }
         }
+        Configuration.configuration.constraintLimitHandler.sampleLatency(SAMPLE.REQUEST,
+                System.nanoTime() - startRequest);
         session.setStatus(39);
     }
 
@@ -721,9 +731,12 @@ public class TransferActions extends ServerActions {
             }
         }
         DataBlock dataBlock = new DataBlock();
+        long startBlock = System.nanoTime();
         if (session.getRunner().isRecvThrough() && localChannelReference.isRecvThroughMode()) {
             try {
                 localChannelReference.getRecvThroughHandler().writeByteBuf(packet.getData());
+                Configuration.configuration.constraintLimitHandler.sampleLatency(SAMPLE.BLOCK,
+                        System.nanoTime() - startBlock);
                 session.getRunner().incrementRank();
                 if (packet.getPacketRank() % 100 == 1) {
                     logger.debug("Good RANK: " + packet.getPacketRank() + " : " +
@@ -736,6 +749,8 @@ public class TransferActions extends ServerActions {
             dataBlock.setBlock(packet.getData());
             try {
                 session.getFile().writeDataBlock(dataBlock);
+                Configuration.configuration.constraintLimitHandler.sampleLatency(SAMPLE.BLOCK,
+                        System.nanoTime() - startBlock);
                 session.getRunner().incrementRank();
                 if (packet.getPacketRank() % 100 == 1) {
                     logger.debug("Good RANK: " + packet.getPacketRank() + " : " +
@@ -989,6 +1004,7 @@ public class TransferActions extends ServerActions {
         logger.debug("Runner endRequest: " + (session.getRunner() != null));
         if (runner != null) {
             runner.setAllDone();
+            // final status saved synchronously before releasing the runner
             try {
                 runner.saveStatus();
             } catch (OpenR66RunnerErrorException e) {
@@ -1064,51 +1080,49 @@ public class TransferActions extends ServerActions {
             if (newSize > 0) {
                 runner.setOriginalSize(newSize);
                 // Check if a CHKFILE task was supposely needed to run
-                String[][] rpretasks = runner.getRule().rpreTasksArray;
-                if (rpretasks != null) {
-                    for (String[] strings : rpretasks) {
-                        AbstractTask task = runner.getTask(strings, session);
-                        if (task.getType() == TaskType.CHKFILE) {
-                            // re run this in case
-                            task.run();
+                TaskPlan rpretasks = runner.getRule().getTaskPlan(false, TASKSTEP.PRETASK);
+                for (int i = 0; i < rpretasks.size(); i++) {
+                    if (rpretasks.getType(i) == TaskType.CHKFILE) {
+                        AbstractTask task = rpretasks.getTask(i, session);
+                        // re run this in case
+                        task.run();
+                        try {
+                            task.getFutureCompletion().await();
+                        } catch (InterruptedException e) {
+                        }
+                        if (!task.getFutureCompletion().isSuccess()) {
+                            // not valid so create an error from there
+                            ErrorCode code = ErrorCode.SizeNotAllowed;
+                            runner.setErrorExecutionStatus(code);
+                            runner.saveStatus();
+                            session.setBadRunner(runner, code);
+                            session.newState(ERROR);
+                            logger.error("File length is not compatible with Rule or capacity {} {}", newfilename
+                                    + " : " + newSize, session);
+                            ErrorPacket errorPacket = new ErrorPacket(
+                                    "File length is not compatible with Rule or capacity",
+                                    code.getCode(), ErrorPacket.FORWARDCLOSECODE);
                             try {
-                                task.getFutureCompletion().await();
-                            } catch (InterruptedException e) {
+                                ChannelUtils.writeAbstractLocalPacket(localChannelReference,
+                                        errorPacket, true);
+                            } catch (OpenR66ProtocolPacketException e2) {
                             }
-                            if (!task.getFutureCompletion().isSuccess()) {
-                                // not valid so create an error from there
-                                ErrorCode code = ErrorCode.SizeNotAllowed;
-                                runner.setErrorExecutionStatus(code);
-                                runner.saveStatus();
-                                session.setBadRunner(runner, code);
-                                session.newState(ERROR);
-                                logger.error("File length is not compatible with Rule or capacity {} {}", newfilename
-                                        + " : " + newSize, session);
-                                ErrorPacket errorPacket = new ErrorPacket(
-                                        "File length is not compatible with Rule or capacity",
-                                        code.getCode(), ErrorPacket.FORWARDCLOSECODE);
-                                try {
-                                    ChannelUtils.writeAbstractLocalPacket(localChannelReference,
-                                            errorPacket, true);
-                                } catch (OpenR66ProtocolPacketException e2) {
-                                }
-                                try {
-                                    session.setFinalizeTransfer(false, new R66Result(new OpenR66RunnerErrorException(
-                                            errorPacket.getSheader()), session,
-                                            true, runner.getErrorInfo(), runner));
-                                } catch (OpenR66RunnerErrorException e1) {
-                                    localChannelReference.invalidateRequest(new R66Result(
-                                            new OpenR66RunnerErrorException(errorPacket.getSheader()), session,
-                                            true, runner.getErrorInfo(), runner));
-                                } catch (OpenR66ProtocolSystemException e1) {
-                                    localChannelReference.invalidateRequest(new R66Result(
-                                            new OpenR66RunnerErrorException(errorPacket.getSheader()), session,
-                                            true, runner.getErrorInfo(), runner));
-                                }
-                                session.setStatus(97);
-                                ChannelCloseTimer.closeFutureChannel(channel);
-                                return;
+                            try {
+                                session.setFinalizeTransfer(false, new R66Result(new OpenR66RunnerErrorException(
+                                        errorPacket.getSheader()), session,
+                                        true, runner.getErrorInfo(), runner));
+                            } catch (OpenR66RunnerErrorException e1) {
+                                localChannelReference.invalidateRequest(new R66Result(
+                                        new OpenR66RunnerErrorException(errorPacket.getSheader()), session,
+                                        true, runner.getErrorInfo(), runner));
+                            } catch (OpenR66ProtocolSystemException e1) {
+                                localChannelReference.invalidateRequest(new R66Result(
+                                        new OpenR66RunnerErrorException(errorPacket.getSheader()), session,
+                                        true, runner.getErrorInfo(), runner));
                             }
+                            session.setStatus(97);
+                            ChannelCloseTimer.closeFutureChannel(channel);
+                            return;
                         }
                     }
                 }
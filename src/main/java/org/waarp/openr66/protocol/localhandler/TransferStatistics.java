@@ -0,0 +1,355 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
+
+/**
+ * In memory statistics on transfers, updated by DbTaskRunner at each state change saved into the
+ * database, and used by Monitoring instead of counting rows in the database at each refresh.<br>
+ * <br>
+ * Counters are kept per bucket of start time (BUCKETSIZE ms), such that a count "since a date" is
+ * the sum of the buckets after this date. Buckets older than RETENTION are merged in one global
+ * bucket. Since changes done outside this process (purge, other monitors, manual changes) are not
+ * seen, Monitoring reconciles periodically those counters with the database.<br>
+ * <br>
+ * The last accounted state is kept per transfer key, not per DbTaskRunner instance, such that
+ * several instances of the same transfer do not count it twice. Only not finished transfers are
+ * kept, a finished one being forgotten until it is loaded or saved again.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class TransferStatistics {
+    /**
+     * Size of one bucket of start time in ms
+     */
+    public static final long BUCKETSIZE = 600000;
+    /**
+     * Duration in ms after which buckets are merged in the global older bucket
+     */
+    public static final long RETENTION = 7 * 86400000L;
+
+    private static final int NBINFO = UpdatedInfo.values().length;
+    private static final int NBSTEP = TASKSTEP.values().length;
+    private static final int NBCODE = ErrorCode.values().length;
+
+    // Indexes of counters
+    private static final int INFO = 0;
+    private static final int STEP = INFO + NBINFO;
+    public static final int ALL = STEP + NBSTEP;
+    private static final int RUNNINGSTATUS = ALL + 1;
+    public static final int ALLRUNNING = RUNNINGSTATUS + NBCODE;
+    private static final int STATUS = ALLRUNNING + 1;
+    public static final int INTOTAL = STATUS + NBCODE;
+    public static final int OUTTOTAL = INTOTAL + 1;
+    public static final int INRUNNING = OUTTOTAL + 1;
+    public static final int OUTRUNNING = INRUNNING + 1;
+    public static final int INERROR = OUTRUNNING + 1;
+    public static final int OUTERROR = INERROR + 1;
+    /**
+     * Number of counters
+     */
+    public static final int NBCOUNTERS = OUTERROR + 1;
+
+    /**
+     * 
+     * @param info
+     * @return the index of the counter of transfers with this UpdatedInfo
+     */
+    public static int infoIndex(UpdatedInfo info) {
+        return INFO + info.ordinal();
+    }
+
+    /**
+     * 
+     * @param step
+     * @return the index of the counter of transfers in this global step
+     */
+    public static int stepIndex(TASKSTEP step) {
+        return STEP + step.ordinal();
+    }
+
+    /**
+     * 
+     * @param code
+     * @return the index of the counter of running transfers with this step status
+     */
+    public static int runningStatusIndex(ErrorCode code) {
+        return RUNNINGSTATUS + code.ordinal();
+    }
+
+    /**
+     * 
+     * @param code
+     * @return the index of the counter of transfers with this info status
+     */
+    public static int statusIndex(ErrorCode code) {
+        return STATUS + code.ordinal();
+    }
+
+    /**
+     * Saved state of one transfer as seen by the statistics
+     */
+    public static final class State {
+        private final long bucket;
+        private final int info;
+        private final int step;
+        private final int stepStatus;
+        private final int infoStatus;
+        private final boolean in;
+        private final boolean out;
+
+        /**
+         * 
+         * @param start
+         *            start time in ms
+         * @param info
+         *            UpdatedInfo ordinal
+         * @param step
+         *            global step ordinal
+         * @param stepStatus
+         * @param infoStatus
+         * @param in
+         *            True if this host is the requested one
+         * @param out
+         *            True if this host is the requester one
+         */
+        public State(long start, int info, int step, ErrorCode stepStatus,
+                ErrorCode infoStatus, boolean in, boolean out) {
+            this.bucket = start / BUCKETSIZE;
+            this.info = info;
+            this.step = step;
+            this.stepStatus = stepStatus.ordinal();
+            this.infoStatus = infoStatus.ordinal();
+            this.in = in;
+            this.out = out;
+        }
+
+        private boolean isFinished() {
+            return info == UpdatedInfo.DONE.ordinal() || info == UpdatedInfo.INERROR.ordinal();
+        }
+
+        private boolean sameAs(State other) {
+            return bucket == other.bucket && info == other.info && step == other.step &&
+                    stepStatus == other.stepStatus && infoStatus == other.infoStatus &&
+                    in == other.in && out == other.out;
+        }
+    }
+
+    /**
+     * Last accounted state of not finished transfers by transfer key
+     */
+    private final ConcurrentHashMap<String, State> states = new ConcurrentHashMap<String, State>();
+    private final ConcurrentHashMap<Long, AtomicLongArray> buckets =
+            new ConcurrentHashMap<Long, AtomicLongArray>();
+    /**
+     * Merged buckets older than firstBucket
+     */
+    private final AtomicLongArray older = new AtomicLongArray(NBCOUNTERS);
+    private volatile long firstBucket = (System.currentTimeMillis() - RETENTION) / BUCKETSIZE;
+    /**
+     * Counters updates share the read lock, merge of old buckets takes the write lock
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private AtomicLongArray getBucket(long bucket) {
+        if (bucket < firstBucket) {
+            return older;
+        }
+        Long key = bucket;
+        AtomicLongArray array = buckets.get(key);
+        if (array == null) {
+            array = new AtomicLongArray(NBCOUNTERS);
+            AtomicLongArray previous = buckets.putIfAbsent(key, array);
+            if (previous != null) {
+                array = previous;
+            }
+        }
+        return array;
+    }
+
+    private void add(State state, int delta) {
+        AtomicLongArray array = getBucket(state.bucket);
+        array.addAndGet(INFO + state.info, delta);
+        array.addAndGet(STEP + state.step, delta);
+        array.addAndGet(ALL, delta);
+        array.addAndGet(STATUS + state.infoStatus, delta);
+        boolean running = state.info == UpdatedInfo.RUNNING.ordinal();
+        boolean error = state.info == UpdatedInfo.INERROR.ordinal();
+        if (running) {
+            array.addAndGet(RUNNINGSTATUS + state.stepStatus, delta);
+            array.addAndGet(ALLRUNNING, delta);
+        }
+        if (state.in) {
+            array.addAndGet(INTOTAL, delta);
+            if (running) {
+                array.addAndGet(INRUNNING, delta);
+            } else if (error) {
+                array.addAndGet(INERROR, delta);
+            }
+        }
+        if (state.out) {
+            array.addAndGet(OUTTOTAL, delta);
+            if (running) {
+                array.addAndGet(OUTRUNNING, delta);
+            } else if (error) {
+                array.addAndGet(OUTERROR, delta);
+            }
+        }
+    }
+
+    /**
+     * Account the change of state of one transfer
+     * 
+     * @param previous
+     *            previous saved state, null if new transfer
+     * @param next
+     *            new saved state, null if transfer deleted
+     */
+    public void transition(State previous, State next) {
+        if (previous != null && next != null && previous.sameAs(next)) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            if (previous != null) {
+                add(previous, -1);
+            }
+            if (next != null) {
+                add(next, 1);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remember the state of one transfer loaded from the database as already accounted, unless a
+     * state is already known for this transfer
+     * 
+     * @param key
+     *            transfer key
+     * @param state
+     */
+    public void loaded(String key, State state) {
+        if (!state.isFinished()) {
+            states.putIfAbsent(key, state);
+        }
+    }
+
+    /**
+     * Account the state of one transfer just saved into the database
+     * 
+     * @param key
+     *            transfer key
+     * @param next
+     * @param isNew
+     *            True if just inserted
+     */
+    public void saved(String key, State next, boolean isNew) {
+        State previous;
+        if (next.isFinished()) {
+            previous = states.remove(key);
+        } else {
+            previous = states.put(key, next);
+        }
+        if (isNew) {
+            transition(null, next);
+        } else if (previous != null) {
+            transition(previous, next);
+        }
+        // if previous state is unknown, the next reconciliation will fix it
+    }
+
+    /**
+     * Account the deletion of one transfer from the database
+     * 
+     * @param key
+     *            transfer key
+     */
+    public void deleted(String key) {
+        State previous = states.remove(key);
+        if (previous != null) {
+            transition(previous, null);
+        }
+    }
+
+    /**
+     * Merge buckets older than RETENTION in the global older bucket
+     */
+    private void mergeOldBuckets() {
+        long newFirst = (System.currentTimeMillis() - RETENTION) / BUCKETSIZE;
+        if (newFirst <= firstBucket) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (Entry<Long, AtomicLongArray> entry : buckets.entrySet()) {
+                if (entry.getKey() < newFirst) {
+                    AtomicLongArray array = entry.getValue();
+                    for (int i = 0; i < NBCOUNTERS; i++) {
+                        older.addAndGet(i, array.get(i));
+                    }
+                    buckets.remove(entry.getKey());
+                }
+            }
+            firstBucket = newFirst;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 
+     * @param limitDate
+     *            in ms, transfers started since this date are counted (precision of BUCKETSIZE)
+     * @return the counters for all transfers started since limitDate
+     */
+    public long[] snapshot(long limitDate) {
+        mergeOldBuckets();
+        long limit = limitDate / BUCKETSIZE;
+        long[] result = new long[NBCOUNTERS];
+        lock.readLock().lock();
+        try {
+            if (limit < firstBucket) {
+                for (int i = 0; i < NBCOUNTERS; i++) {
+                    result[i] += older.get(i);
+                }
+            }
+            for (Entry<Long, AtomicLongArray> entry : buckets.entrySet()) {
+                if (entry.getKey() >= limit) {
+                    AtomicLongArray array = entry.getValue();
+                    for (int i = 0; i < NBCOUNTERS; i++) {
+                        result[i] += array.get(i);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+}
@@ -57,7 +57,7 @@ public class RequestPacket extends AbstractLocalPacket {
     }
 
     protected static enum FIELDS {
-        rule, mode, filename, block, rank, id, code, length
+        rule, mode, filename, block, rank, id, code, length, retryafter, load
     }
 
     protected static final byte REQVALIDATE = 0;
@@ -84,6 +84,16 @@ public class RequestPacket extends AbstractLocalPacket {
 
     protected final String fileInformation;
 
+    /**
+     * Delay in ms advised by an overloaded requested host before a new attempt (-1 if none)
+     */
+    protected long retryAfter = -1;
+
+    /**
+     * Load level in percent of an overloaded requested host (-1 if none)
+     */
+    protected int loadLevel = -1;
+
     protected String separator = PartnerConfiguration.SEPARATOR_FIELD;
 
     /**
@@ -231,12 +241,16 @@ public class RequestPacket extends AbstractLocalPacket {
             logger.debug("Request is using JSON");
             ObjectNode map = JsonHandler.getFromString(sheader);
             ObjectNode map2 = JsonHandler.getFromString(smiddle);
-            return new RequestPacket(map.path(FIELDS.rule.name()).asText(), map.path(FIELDS.mode.name()).asInt(),
+            RequestPacket packet = new RequestPacket(map.path(FIELDS.rule.name()).asText(),
+                    map.path(FIELDS.mode.name()).asInt(),
                     map2.path(FIELDS.filename.name()).asText(), map2.path(FIELDS.block.name()).asInt(),
                     map2.path(FIELDS.rank.name()).asInt(), map2.path(FIELDS.id.name()).asLong(),
                     valid, send,
                     (char) map2.path(FIELDS.code.name()).asInt(), map2.path(FIELDS.length.name()).asLong(),
                     PartnerConfiguration.BAR_JSON_FIELD);
+            packet.retryAfter = map2.path(FIELDS.retryafter.name()).asLong(-1);
+            packet.loadLevel = map2.path(FIELDS.load.name()).asInt(-1);
+            return packet;
         }
 
         String[] aheader = sheader.split(PartnerConfiguration.BLANK_SEPARATOR_FIELD);
@@ -356,6 +370,10 @@ public class RequestPacket extends AbstractLocalPacket {
             JsonHandler.setValue(node, FIELDS.id, specialId);
             JsonHandler.setValue(node, FIELDS.code, code);
             JsonHandler.setValue(node, FIELDS.length, originalSize);
+            if (retryAfter >= 0 && lcr.getPartner().useBackoffHint()) {
+                JsonHandler.setValue(node, FIELDS.retryafter, retryAfter);
+                JsonHandler.setValue(node, FIELDS.load, loadLevel);
+            }
             middle = Unpooled.wrappedBuffer(away, JsonHandler.writeAsString(node).getBytes());
         } else {
             middle = Unpooled.wrappedBuffer(away, filename.getBytes(),
@@ -511,4 +529,31 @@ public class RequestPacket extends AbstractLocalPacket {
         this.code = code;
     }
 
+    /**
+     * @return the delay in ms advised by an overloaded requested host (-1 if none)
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return the load level in percent of an overloaded requested host (-1 if none)
+     */
+    public int getLoadLevel() {
+        return loadLevel;
+    }
+
+    /**
+     * Set the backoff hint of a ServerOverloaded answer (only sent to partners supporting it)
+     * 
+     * @param retryAfter
+     *            delay in ms before a new attempt
+     * @param loadLevel
+     *            current load level in percent
+     */
+    public void setBackoffHint(long retryAfter, int loadLevel) {
+        this.retryAfter = retryAfter;
+        this.loadLevel = loadLevel;
+    }
+
 }
@@ -0,0 +1,244 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Adaptive limit of the number of concurrent accepted transfers.<br>
+ * <br>
+ * The latencies of the received blocks and of the requests are measured. For each kind, the
+ * average on a short window is compared to a long term average (the latency without
+ * contention). When the short term latency grows, the limit is decreased by the ratio of the
+ * two (gradient, bounded to halve the limit at most), else it grows slowly (by the square root of
+ * the current limit), the result being smoothed. The limit stays between the given minimum and
+ * maximum.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class AdaptiveConcurrencyLimiter {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(AdaptiveConcurrencyLimiter.class);
+
+    /**
+     * Kind of latency sample
+     */
+    public static enum SAMPLE {
+        BLOCK, REQUEST
+    }
+
+    /**
+     * Number of samples of one short window
+     */
+    private static final int WINDOW_SIZE = 100;
+    /**
+     * Maximum duration of one short window (if at least one sample)
+     */
+    private static final long WINDOW_DURATION = 1000000000L;
+    /**
+     * Ratio between short and long term latencies accepted before decreasing the limit
+     */
+    private static final double TOLERANCE = 1.5;
+    /**
+     * Weight of a new limit
+     */
+    private static final double SMOOTHING = 0.2;
+    /**
+     * Weight of a new short window in the long term latency
+     */
+    private static final double LONG_WEIGHT = 0.05;
+    /**
+     * Minimum gradient (at most halve the limit at once)
+     */
+    private static final double MIN_GRADIENT = 0.5;
+
+    /**
+     * Latency tracker for one kind of sample
+     */
+    private static final class Latency {
+        private long sum = 0;
+        private int count = 0;
+        private long windowStart = System.nanoTime();
+        private double shortLatency = 0;
+        private double longLatency = 0;
+
+        /**
+         * 
+         * @param nanos
+         * @return True if a new short window is complete
+         */
+        private synchronized boolean add(long nanos) {
+            sum += nanos;
+            count++;
+            long now = System.nanoTime();
+            if (count < WINDOW_SIZE && now - windowStart < WINDOW_DURATION) {
+                return false;
+            }
+            shortLatency = (double) sum / count;
+            if (longLatency <= 0) {
+                longLatency = shortLatency;
+            } else {
+                longLatency = longLatency * (1 - LONG_WEIGHT) + shortLatency * LONG_WEIGHT;
+            }
+            sum = 0;
+            count = 0;
+            windowStart = now;
+            return true;
+        }
+
+        /**
+         * 
+         * @return the ratio between long and short term latencies, bounded in [MIN_GRADIENT, 1]
+         */
+        private synchronized double gradient() {
+            if (shortLatency <= 0) {
+                return 1.0;
+            }
+            double gradient = TOLERANCE * longLatency / shortLatency;
+            return Math.max(MIN_GRADIENT, Math.min(1.0, gradient));
+        }
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile double limit;
+    private final Latency[] latencies = new Latency[SAMPLE.values().length];
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * 
+     * @param minLimit
+     *            minimum number of concurrent transfers (at least 1)
+     * @param maxLimit
+     *            maximum number of concurrent transfers
+     */
+    public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = this.minLimit;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Latency();
+        }
+    }
+
+    /**
+     * 
+     * @param inflight
+     *            the current number of concurrent transfers
+     * @return True if a new transfer can be accepted
+     */
+    public boolean tryAcquire(int inflight) {
+        if (inflight >= getLimit()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Add a latency sample
+     * 
+     * @param kind
+     * @param nanos
+     */
+    public void sample(SAMPLE kind, long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        if (latencies[kind.ordinal()].add(nanos)) {
+            update();
+        }
+    }
+
+    private synchronized void update() {
+        double gradient = 1.0;
+        for (Latency latency : latencies) {
+            gradient = Math.min(gradient, latency.gradient());
+        }
+        double current = limit;
+        double newLimit = current * gradient + Math.sqrt(current);
+        newLimit = current * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        if ((int) newLimit != (int) current) {
+            logger.debug("Adaptive limit from {} to {} (gradient {})", (int) current,
+                    (int) newLimit, gradient);
+        }
+        limit = newLimit;
+    }
+
+    /**
+     * 
+     * @return the current limit of concurrent transfers
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * 
+     * @return the number of accepted requests
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * 
+     * @return the number of rejected requests
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * 
+     * @param node
+     *            the node to fill with the limit, the counters and the latencies (in ms)
+     */
+    public void getStatus(ObjectNode node) {
+        node.put("limit", getLimit());
+        node.put("minLimit", minLimit);
+        node.put("maxLimit", maxLimit);
+        node.put("accepted", accepted.get());
+        node.put("rejected", rejected.get());
+        for (SAMPLE kind : SAMPLE.values()) {
+            Latency latency = latencies[kind.ordinal()];
+            synchronized (latency) {
+                node.put(kind.name() + "latency", latency.shortLatency / 1000000);
+                node.put(kind.name() + "baseLatency", latency.longLatency / 1000000);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimit: [limit: " + getLimit() + " accepted: " + accepted.get() +
+                " rejected: " + rejected.get() + "] ";
+    }
+}
@@ -19,6 +19,7 @@ package org.waarp.openr66.protocol.networkhandler;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 
 import io.netty.channel.Channel;
@@ -32,6 +33,7 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
+import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolRemoteShutdownException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
@@ -89,6 +91,25 @@ public class NetworkChannelReference {
      * Last Time in ms this channel was used by a LocalChannel
      */
     private long lastTimeUsed = System.currentTimeMillis();
+    /**
+     * Authentication already validated on this network connection, reusable by next LocalChannels
+     */
+    private volatile AuthentToken authentToken = null;
+
+    /**
+     * Host, key and Host definition of a successful authentication
+     */
+    private static final class AuthentToken {
+        private final String hostId;
+        private final byte[] key;
+        private final DbHostAuth auth;
+
+        private AuthentToken(String hostId, byte[] key, DbHostAuth auth) {
+            this.hostId = hostId;
+            this.key = key;
+            this.auth = auth;
+        }
+    }
 
     public NetworkChannelReference(Channel networkChannel, WaarpLock lock) {
         this.channel = networkChannel;
@@ -277,6 +298,39 @@ public class NetworkChannelReference {
         this.hostId = hostId;
     }
 
+    /**
+     * Set the authentication token once a LocalChannel is fully authenticated on this network
+     * connection
+     * 
+     * @param hostId
+     * @param key
+     * @param auth
+     */
+    public void setAuthenticated(String hostId, byte[] key, DbHostAuth auth) {
+        if (hostId == null || key == null || auth == null) {
+            return;
+        }
+        authentToken = new AuthentToken(hostId, key.clone(), auth);
+    }
+
+    /**
+     * 
+     * @param hostId
+     * @param key
+     * @param auth
+     *            the current Host definition
+     * @return True if the very same host and key were already authenticated on this network
+     *         connection and the Host definition is still active with the same key
+     */
+    public boolean isAuthenticated(String hostId, byte[] key, DbHostAuth auth) {
+        AuthentToken token = authentToken;
+        if (token == null || key == null || auth == null || isShuttingDown) {
+            return false;
+        }
+        return token.hostId.equals(hostId) && auth.isActive() &&
+                auth.hasSameHostkey(token.auth) && MessageDigest.isEqual(token.key, key);
+    }
+
     /**
      * @return the lock
      */
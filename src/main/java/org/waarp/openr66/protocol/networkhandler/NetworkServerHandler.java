@@ -29,10 +29,10 @@ import io.netty.handler.timeout.ReadTimeoutException;
 
 import org.waarp.common.crypto.ssl.WaarpSslUtility;
 import org.waarp.common.database.DbSession;
-import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66Exception;
 import org.waarp.openr66.protocol.exception.OpenR66ExceptionTrappedFactory;
@@ -122,10 +122,11 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
             }
             NetworkTransaction.closedNetworkChannel(remoteAddress);
         }
-        // Now force the close of the database after a wait
+        // Now give back the database connection to the pool
         if (dbSession != null && DbConstant.admin != null && DbConstant.admin.session != null
                 && !dbSession.equals(DbConstant.admin.session)) {
-            dbSession.forceDisconnect();
+            dbSession.endUseConnection();
+            DbSessionPool.TRANSFER.release(dbSession);
             dbSession = null;
         }
     }
@@ -156,20 +157,17 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
             WaarpSslUtility.closingSslChannel(netChannel);
             return;
         }
-        try {
-            if (DbConstant.admin.isActive) {
-                if (DbConstant.admin.isCompatibleWithThreadSharedConnexion()) {
-                    this.dbSession = new DbSession(DbConstant.admin, false);
+        if (DbConstant.admin.isActive) {
+            if (DbConstant.admin.isCompatibleWithThreadSharedConnexion()) {
+                // never wait for a connection within the event loop
+                this.dbSession = DbSessionPool.TRANSFER.acquireNoWait();
+                if (this.dbSession != DbConstant.admin.session) {
                     this.dbSession.useConnection();
-                } else {
-                    logger.debug("DbSession will be adjusted on LocalChannelReference");
-                    this.dbSession = DbConstant.admin.session;
                 }
+            } else {
+                logger.debug("DbSession will be adjusted on LocalChannelReference");
+                this.dbSession = DbConstant.admin.session;
             }
-        } catch (WaarpDatabaseNoConnectionException e1) {
-            // Cannot connect so use default connection
-            logger.warn("Use default database connection");
-            this.dbSession = DbConstant.admin.session;
         }
         logger.debug("Network Channel Connected: {} ", ctx.channel().id());
     }
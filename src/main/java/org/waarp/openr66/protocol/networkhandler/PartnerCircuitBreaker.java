@@ -0,0 +1,273 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Circuit breaker by partner for the outbound connections.<br>
+ * <br>
+ * CLOSED: connections are allowed, consecutive connection failures being counted. Once
+ * Configuration.circuitBreakerThreshold is reached, the breaker goes OPEN.<br>
+ * OPEN: no connection is attempted and the transfers are deferred until the open delay is over.
+ * The next transfer is then the probe of the partner (HALF_OPEN).<br>
+ * HALF_OPEN: only the probe tries to connect, the other transfers being deferred. If the probe
+ * connects, the breaker goes back to CLOSED, else OPEN again with a doubled delay (bounded by
+ * Configuration.delayRetryMax).
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class PartnerCircuitBreaker {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(PartnerCircuitBreaker.class);
+
+    public static enum STATE {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final ConcurrentHashMap<String, PartnerCircuitBreaker> breakers = new ConcurrentHashMap<String, PartnerCircuitBreaker>();
+
+    private final String hostId;
+    private STATE state = STATE.CLOSED;
+    private int failures = 0;
+    private long openDelay = 0;
+    private long openUntil = 0;
+    private long probeStart = 0;
+
+    private PartnerCircuitBreaker(String hostId) {
+        this.hostId = hostId;
+    }
+
+    private static boolean isEnabled() {
+        return Configuration.configuration.circuitBreakerThreshold > 0;
+    }
+
+    private static PartnerCircuitBreaker get(String hostId) {
+        PartnerCircuitBreaker breaker = breakers.get(hostId);
+        if (breaker == null) {
+            breaker = new PartnerCircuitBreaker(hostId);
+            PartnerCircuitBreaker previous = breakers.putIfAbsent(hostId, breaker);
+            if (previous != null) {
+                breaker = previous;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * To be called before any connection attempt to this partner
+     * 
+     * @param hostId
+     * @return 0 if the connection can be attempted (the caller being then responsible to call
+     *         onSuccess or onFailure), else the delay in ms after which the transfer should be
+     *         tried again
+     */
+    public static long allowRequest(String hostId) {
+        if (!isEnabled() || hostId == null) {
+            return 0;
+        }
+        PartnerCircuitBreaker breaker = breakers.get(hostId);
+        if (breaker == null) {
+            return 0;
+        }
+        return breaker.allow();
+    }
+
+    /**
+     * A connection to this partner succeeded
+     * 
+     * @param hostId
+     */
+    public static void onSuccess(String hostId) {
+        if (hostId == null) {
+            return;
+        }
+        PartnerCircuitBreaker breaker = breakers.get(hostId);
+        if (breaker != null) {
+            breaker.success();
+        }
+    }
+
+    /**
+     * A connection to this partner failed
+     * 
+     * @param hostId
+     */
+    public static void onFailure(String hostId) {
+        if (!isEnabled() || hostId == null) {
+            return;
+        }
+        get(hostId).failure();
+    }
+
+    /**
+     * 
+     * @param hostId
+     * @return the current state of the breaker for this partner
+     */
+    public static STATE getState(String hostId) {
+        PartnerCircuitBreaker breaker = breakers.get(hostId);
+        if (breaker == null) {
+            return STATE.CLOSED;
+        }
+        synchronized (breaker) {
+            return breaker.state;
+        }
+    }
+
+    private synchronized long allow() {
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case OPEN:
+                if (now < openUntil) {
+                    return openUntil - now;
+                }
+                // this one will be the probe
+                state = STATE.HALF_OPEN;
+                probeStart = now;
+                logger.info("Circuit breaker for " + hostId + " half open: probing");
+                return 0;
+            case HALF_OPEN:
+                long probeTimeout = Configuration.configuration.TIMEOUTCON * 2;
+                if (now - probeStart < probeTimeout) {
+                    return probeTimeout - (now - probeStart);
+                }
+                // the probe gave no answer: new probe
+                probeStart = now;
+                return 0;
+            default:
+                return 0;
+        }
+    }
+
+    private void success() {
+        STATE previous;
+        synchronized (this) {
+            previous = state;
+            state = STATE.CLOSED;
+            failures = 0;
+            openDelay = 0;
+        }
+        if (previous != STATE.CLOSED) {
+            logger.warn("Circuit breaker for " + hostId + " closed: partner is back");
+            sendNotification("Circuit breaker closed", hostId);
+        }
+    }
+
+    private void failure() {
+        boolean opened = false;
+        synchronized (this) {
+            failures++;
+            switch (state) {
+                case CLOSED:
+                    if (failures >= Configuration.configuration.circuitBreakerThreshold) {
+                        openDelay = Configuration.configuration.circuitBreakerDelay;
+                        opened = true;
+                    }
+                    break;
+                case HALF_OPEN:
+                    openDelay = Math.min(openDelay * 2,
+                            Math.max(Configuration.configuration.delayRetryMax,
+                                    Configuration.configuration.circuitBreakerDelay));
+                    break;
+                default:
+                    // already open: failure of a connection started before
+                    return;
+            }
+            if (state == STATE.HALF_OPEN || opened) {
+                state = STATE.OPEN;
+                openUntil = System.currentTimeMillis() + openDelay;
+            }
+        }
+        if (opened) {
+            logger.warn("Circuit breaker for " + hostId + " open after " +
+                    Configuration.configuration.circuitBreakerThreshold +
+                    " connection failures: transfers deferred");
+            sendNotification("Circuit breaker open", hostId);
+        } else {
+            logger.info("Circuit breaker for " + hostId + " still open: probe failed");
+        }
+    }
+
+    private static void sendNotification(String message, String hostId) {
+        if (Configuration.configuration.r66Mib != null) {
+            Configuration.configuration.r66Mib.notifyWarning(message, hostId);
+        }
+    }
+
+    /**
+     * Forget the state of all partners
+     */
+    public static void clear() {
+        breakers.clear();
+    }
+
+    /**
+     * 
+     * @param node
+     *            the node to fill with the state of the breakers not CLOSED
+     */
+    public static void getStatus(ObjectNode node) {
+        long now = System.currentTimeMillis();
+        for (Entry<String, PartnerCircuitBreaker> entry : breakers.entrySet()) {
+            PartnerCircuitBreaker breaker = entry.getValue();
+            synchronized (breaker) {
+                if (breaker.state == STATE.CLOSED && breaker.failures == 0) {
+                    continue;
+                }
+                ObjectNode node2 = node.putObject(entry.getKey());
+                node2.put("state", breaker.state.name());
+                node2.put("failures", breaker.failures);
+                if (breaker.state == STATE.OPEN) {
+                    node2.put("retryIn", Math.max(0, breaker.openUntil - now));
+                }
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return the status of the breakers
+     */
+    public static String hashStatus() {
+        int open = 0;
+        int halfOpen = 0;
+        for (PartnerCircuitBreaker breaker : breakers.values()) {
+            synchronized (breaker) {
+                if (breaker.state == STATE.OPEN) {
+                    open++;
+                } else if (breaker.state == STATE.HALF_OPEN) {
+                    halfOpen++;
+                }
+            }
+        }
+        return "PartnerCircuitBreaker: [partners: " + breakers.size() + " open: " + open +
+                " halfOpen: " + halfOpen + "] ";
+    }
+}
@@ -31,6 +31,23 @@ import org.waarp.openr66.protocol.configuration.Configuration;
  * 
  */
 public class R66ConstraintLimitHandler extends WaarpConstraintLimitHandler {
+    /**
+     * Number of rejected requests for which the advised retry delay is increased by one step
+     */
+    private static final int REJECTIONS_BY_STEP = 10;
+
+    private int rejections = 0;
+    private long lastRejection = 0;
+
+    /**
+     * Adaptive limit of concurrent transfers (null if not used)
+     */
+    private volatile AdaptiveConcurrencyLimiter adaptiveLimiter = null;
+    /**
+     * Alert of the last refusal due to the adaptive limit
+     */
+    private volatile String adaptiveAlert = null;
+
     public R66ConstraintLimitHandler() {
         super();
     }
@@ -121,6 +138,106 @@ public class R66ConstraintLimitHandler extends WaarpConstraintLimitHandler {
                 percentageDecrease, handler, delay, limitLowBandwidth);
     }
 
+    /**
+     * Enable the adaptive limit of concurrent transfers (in addition to the static constraints)
+     * 
+     * @param minLimit
+     * @param maxLimit
+     */
+    public void setAdaptiveLimit(int minLimit, int maxLimit) {
+        adaptiveLimiter = new AdaptiveConcurrencyLimiter(minLimit, maxLimit);
+    }
+
+    /**
+     * 
+     * @return the adaptive limiter or null if not used
+     */
+    public AdaptiveConcurrencyLimiter getAdaptiveLimiter() {
+        return adaptiveLimiter;
+    }
+
+    /**
+     * Check the static constraints, then the adaptive limit if any
+     * 
+     * @return True if a new transfer should be refused
+     */
+    public boolean checkConstraintsOrLimit() {
+        adaptiveAlert = null;
+        if (checkConstraints()) {
+            return true;
+        }
+        AdaptiveConcurrencyLimiter limiter = adaptiveLimiter;
+        if (limiter != null && !limiter.tryAcquire(getNumberLocalChannel())) {
+            adaptiveAlert = "Adaptive limit of " + limiter.getLimit() + " transfers reached";
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 
+     * @return the reason of the last refusal by checkConstraintsOrLimit
+     */
+    public String getLastAlert() {
+        String alert = adaptiveAlert;
+        return alert != null ? alert : lastAlert;
+    }
+
+    /**
+     * Add a latency sample for the adaptive limit if any
+     * 
+     * @param kind
+     * @param nanos
+     */
+    public void sampleLatency(AdaptiveConcurrencyLimiter.SAMPLE kind, long nanos) {
+        AdaptiveConcurrencyLimiter limiter = adaptiveLimiter;
+        if (limiter != null) {
+            limiter.sample(kind, nanos);
+        }
+    }
+
+    /**
+     * Register a rejected request and compute the delay advised to the partner before a new
+     * attempt: the more requests are rejected during a burst, the longer the delay, such that the
+     * partners spread their retries
+     * 
+     * @return the delay in ms to advise
+     */
+    public long getRetryAfterHint() {
+        long sleep = getSleepTime();
+        long now = System.currentTimeMillis();
+        int nb;
+        synchronized (this) {
+            if (now - lastRejection > sleep) {
+                // previous burst is over
+                rejections = 0;
+            }
+            rejections++;
+            lastRejection = now;
+            nb = rejections;
+        }
+        long hint = sleep * (1 + nb / REJECTIONS_BY_STEP);
+        // never below the sleep time, never above the maximum retry delay otherwise
+        return Math.min(hint, Math.max(sleep, Configuration.configuration.delayRetryMax));
+    }
+
+    /**
+     * 
+     * @return the current load level in percent, as the number of local channels compared to the
+     *         maximum number of concurrent transfers (or the adaptive limit if any)
+     */
+    public int getLoadLevel() {
+        int max = Configuration.configuration.RUNNER_THREAD;
+        AdaptiveConcurrencyLimiter limiter = adaptiveLimiter;
+        if (limiter != null) {
+            max = limiter.getLimit();
+        }
+        if (max <= 0) {
+            return 0;
+        }
+        return (int) Math.min(100, getNumberLocalChannel() * 100L / max);
+    }
+
     /*
      * (non-Javadoc)
      * @see org.waarp.common.cpu.WaarpConstraintLimitHandler#getNumberLocalChannel()
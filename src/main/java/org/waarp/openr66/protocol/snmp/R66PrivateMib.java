@@ -28,7 +28,6 @@ import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
-import org.waarp.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
 import org.waarp.openr66.protocol.utils.Version;
 import org.waarp.snmp.r66.WaarpPrivateMib;
 import org.waarp.snmp.utils.MemoryGauge32;
@@ -50,6 +49,11 @@ public class R66PrivateMib extends WaarpPrivateMib {
     private static WaarpLogger logger = WaarpLoggerFactory
             .getLogger(R66PrivateMib.class);
 
+    /**
+     * Asynchronous sender of transfer notifications
+     */
+    private final R66TaskNotifier taskNotifier = new R66TaskNotifier(this);
+
     /**
      * @param sysdesc
      * @param port
@@ -173,7 +177,19 @@ public class R66PrivateMib extends WaarpPrivateMib {
      */
     public void notifyInternalTask(String message, DbTaskRunner runner) {
         try {
-            long delay = (runner.getStart().getTime() -
+            sendTaskNotification(new R66TaskNotifier.TaskNotification(message, runner));
+        } catch (NullPointerException e) {
+        }
+    }
+
+    /**
+     * Send a notification (trap or inform) from a copy of a Transfer Task
+     * 
+     * @param notification
+     */
+    void sendTaskNotification(R66TaskNotifier.TaskNotification notification) {
+        try {
+            long delay = (notification.start -
                     agent.getUptimeSystemTime()) / 10;
             if (delay < 0)
                 delay = 0;
@@ -191,63 +207,62 @@ public class R66PrivateMib extends WaarpPrivateMib {
                                     new VariableBinding(
                                             NotificationElements.InfoTask.getOID(
                                                     rootOIDWaarpNotif, 1),
-                                            new OctetString(message)),
+                                            new OctetString(notification.message)),
                                     // Start of Task
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.globalStepInfo
                                                                     .getOID()),
-                                            new Gauge32(runner.getGloballaststep())),
+                                            new Gauge32(notification.globalLastStep)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.stepInfo
                                                                     .getOID()),
-                                            new Gauge32(runner.getStep() + 1)),
+                                            new Gauge32(notification.step + 1)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.rankFileInfo
                                                                     .getOID()),
-                                            new Gauge32(runner.getRank())),
+                                            new Gauge32(notification.rank)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.stepStatusInfo
                                                                     .getOID()),
-                                            new OctetString(runner.getStatus().mesg)),
+                                            new OctetString(notification.stepStatus)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.filenameInfo
                                                                     .getOID()),
-                                            new OctetString(runner.getFilename())),
+                                            new OctetString(notification.filename)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.originalNameInfo
                                                                     .getOID()),
-                                            new OctetString(runner.getOriginalFilename())),
+                                            new OctetString(notification.originalFilename)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.idRuleInfo
                                                                     .getOID()),
-                                            new OctetString(runner.getRuleId())),
+                                            new OctetString(notification.ruleId)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.modeTransInfo
                                                                     .getOID()),
-                                            new OctetString(TRANSFERMODE.values()[runner.getMode()]
-                                                    .name())),
+                                            new OctetString(notification.mode)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.retrieveModeInfo
                                                                     .getOID()),
-                                            new OctetString(runner.isSender() ? "Sender" : "Receiver")),
+                                            new OctetString(notification.isSender ? "Sender" : "Receiver")),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
@@ -259,25 +274,25 @@ public class R66PrivateMib extends WaarpPrivateMib {
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.infoStatusInfo
                                                                     .getOID()),
-                                            new OctetString(runner.getErrorInfo().mesg)),
+                                            new OctetString(notification.infoStatus)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.requesterInfo
                                                                     .getOID()),
-                                            new OctetString(runner.getRequester())),
+                                            new OctetString(notification.requester)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.requestedInfo
                                                                     .getOID()),
-                                            new OctetString(runner.getRequested())),
+                                            new OctetString(notification.requested)),
                                     new VariableBinding(
                                             NotificationElements.InfoTask
                                                     .getOID(rootOIDWaarpNotif,
                                                             NotificationTasks.specialIdInfo
                                                                     .getOID()),
-                                            new OctetString("" + runner.getSpecialId())),
+                                            new OctetString("" + notification.specialId)),
                                     // End of Task
                                     new VariableBinding(SnmpConstants.sysDescr,
                                             snmpv2.getDescr()),
@@ -305,7 +320,7 @@ public class R66PrivateMib extends WaarpPrivateMib {
         if (logger.isDebugEnabled())
             logger.debug("Notify: " + NotificationElements.InfoTask + ":" + message +
                     ":" + runner.toShortString());
-        notifyInternalTask(message, runner);
+        submitTaskNotification(message, runner, true);
     }
 
     /**
@@ -320,7 +335,36 @@ public class R66PrivateMib extends WaarpPrivateMib {
         if (logger.isDebugEnabled())
             logger.debug("Notify: " + NotificationElements.InfoTask + ":" + message +
                     ":" + runner.toShortString());
-        notifyInternalTask(message, runner);
+        submitTaskNotification(message, runner, false);
+    }
+
+    /**
+     * Give the notification to the asynchronous notifier
+     * 
+     * @param message
+     * @param runner
+     * @param info
+     */
+    private void submitTaskNotification(String message, DbTaskRunner runner, boolean info) {
+        try {
+            taskNotifier.submit(message, runner, info);
+        } catch (NullPointerException e) {
+        }
+    }
+
+    /**
+     * Stop the asynchronous notifier
+     */
+    public void stopNotifier() {
+        taskNotifier.stop();
+    }
+
+    /**
+     * 
+     * @return the asynchronous notifier of transfer notifications
+     */
+    public R66TaskNotifier getTaskNotifier() {
+        return taskNotifier;
     }
 
     /**
@@ -0,0 +1,231 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.snmp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
+
+/**
+ * Asynchronous sender of the SNMP notifications on transfers.<br>
+ * <br>
+ * The transfer thread only records a copy of the transfer state. Pending notifications are
+ * coalesced per transfer (and per kind, information or event), such that only the latest state
+ * of a transfer is sent. A dedicated thread sends at most snmpNotificationMaxPerInterval
+ * notifications every snmpNotificationInterval ms. When snmpNotificationQueueSize transfers are
+ * already pending, new ones are dropped.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class R66TaskNotifier implements Runnable {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(R66TaskNotifier.class);
+
+    /**
+     * Copy of the state of a transfer at notification time
+     */
+    static final class TaskNotification {
+        final String message;
+        final int globalLastStep;
+        final int step;
+        final int rank;
+        final String stepStatus;
+        final String filename;
+        final String originalFilename;
+        final String ruleId;
+        final String mode;
+        final boolean isSender;
+        final long start;
+        final String infoStatus;
+        final String requester;
+        final String requested;
+        final long specialId;
+
+        TaskNotification(String message, DbTaskRunner runner) {
+            this.message = message;
+            globalLastStep = runner.getGloballaststep();
+            step = runner.getStep();
+            rank = runner.getRank();
+            stepStatus = runner.getStatus().mesg;
+            filename = runner.getFilename();
+            originalFilename = runner.getOriginalFilename();
+            ruleId = runner.getRuleId();
+            mode = TRANSFERMODE.values()[runner.getMode()].name();
+            isSender = runner.isSender();
+            start = runner.getStart().getTime();
+            infoStatus = runner.getErrorInfo().mesg;
+            requester = runner.getRequester();
+            requested = runner.getRequested();
+            specialId = runner.getSpecialId();
+        }
+    }
+
+    private final R66PrivateMib mib;
+    /**
+     * Pending notifications by transfer, in order of first submission
+     */
+    private final LinkedHashMap<String, TaskNotification> pending =
+            new LinkedHashMap<String, TaskNotification>();
+    private ScheduledExecutorService executor = null;
+
+    private final AtomicLong nbSubmitted = new AtomicLong();
+    private final AtomicLong nbCoalesced = new AtomicLong();
+    private final AtomicLong nbDropped = new AtomicLong();
+    private final AtomicLong nbSent = new AtomicLong();
+
+    /**
+     * @param mib
+     */
+    R66TaskNotifier(R66PrivateMib mib) {
+        this.mib = mib;
+    }
+
+    /**
+     * Record a notification for this transfer, replacing any pending one for the same transfer
+     * and kind
+     * 
+     * @param message
+     * @param runner
+     * @param info
+     *            True for information (error, interruption) notification, False for event
+     */
+    void submit(String message, DbTaskRunner runner, boolean info) {
+        TaskNotification notification = new TaskNotification(message, runner);
+        String key = (info ? "I" : "E") + notification.specialId + "_" +
+                notification.requester + "_" + notification.requested;
+        nbSubmitted.incrementAndGet();
+        synchronized (this) {
+            if (pending.containsKey(key)) {
+                pending.put(key, notification);
+                nbCoalesced.incrementAndGet();
+                return;
+            }
+            if (pending.size() >= Configuration.configuration.snmpNotificationQueueSize) {
+                nbDropped.incrementAndGet();
+                return;
+            }
+            pending.put(key, notification);
+            if (executor == null) {
+                long interval = Configuration.configuration.snmpNotificationInterval;
+                executor = Executors.newSingleThreadScheduledExecutor(
+                        new WaarpThreadFactory("SnmpNotifier"));
+                executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Send at most snmpNotificationMaxPerInterval pending notifications
+     */
+    public void run() {
+        List<TaskNotification> toSend = new ArrayList<TaskNotification>();
+        synchronized (this) {
+            int max = Configuration.configuration.snmpNotificationMaxPerInterval;
+            Iterator<TaskNotification> iterator = pending.values().iterator();
+            while (iterator.hasNext() && toSend.size() < max) {
+                toSend.add(iterator.next());
+                iterator.remove();
+            }
+        }
+        for (TaskNotification notification : toSend) {
+            try {
+                mib.sendTaskNotification(notification);
+                nbSent.incrementAndGet();
+            } catch (Exception e) {
+                logger.debug("Cannot send notification", e);
+            }
+        }
+    }
+
+    /**
+     * Stop the sender, sending what is still pending within the limit of one interval
+     */
+    void stop() {
+        ScheduledExecutorService current;
+        synchronized (this) {
+            current = executor;
+            executor = null;
+        }
+        if (current != null) {
+            current.shutdownNow();
+            run();
+            synchronized (this) {
+                nbDropped.addAndGet(pending.size());
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return the status of the notifier
+     */
+    public String status() {
+        int size;
+        synchronized (this) {
+            size = pending.size();
+        }
+        return "SnmpNotifier: [submitted: " + nbSubmitted.get() + " coalesced: " +
+                nbCoalesced.get() + " dropped: " + nbDropped.get() + " sent: " + nbSent.get() +
+                " pending: " + size + "]";
+    }
+
+    /**
+     * @return the number of submitted notifications
+     */
+    public long getNbSubmitted() {
+        return nbSubmitted.get();
+    }
+
+    /**
+     * @return the number of notifications replaced by a newer one for the same transfer
+     */
+    public long getNbCoalesced() {
+        return nbCoalesced.get();
+    }
+
+    /**
+     * @return the number of notifications dropped since the queue was full
+     */
+    public long getNbDropped() {
+        return nbDropped.get();
+    }
+
+    /**
+     * @return the number of notifications sent
+     */
+    public long getNbSent() {
+        return nbSent.get();
+    }
+}
@@ -42,10 +42,14 @@ import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
 import org.waarp.openr66.context.R66FiniteDualStates;
 import org.waarp.openr66.context.task.localexec.LocalExecClient;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbReadReplica;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.data.DbTaskRunnerExecutor;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.http.rest.handler.DbTaskRunnerChunkedInput;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.packet.AbstractLocalPacket;
 import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
@@ -409,6 +413,10 @@ public class ChannelUtils extends Thread {
         logger.info("Exit Shutdown Command");
         terminateCommandChannels();
         logger.info("Exit Shutdown Db Connection");
+        DbTaskRunnerExecutor.shutdown();
+        DbTaskRunnerChunkedInput.shutdown();
+        DbSessionPool.closeAll();
+        DbReadReplica.initialize(null, DbReadReplica.DEFAULT_RETRY_DELAY);
         DbAdmin.closeAllConnection();
         logger.info("Exit Shutdown ServerStop");
         Configuration.configuration.serverStop();
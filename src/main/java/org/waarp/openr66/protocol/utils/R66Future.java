@@ -17,7 +17,12 @@
  */
 package org.waarp.openr66.protocol.utils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.waarp.common.future.WaarpFuture;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.database.data.DbTaskRunner;
 
@@ -28,8 +33,17 @@ import org.waarp.openr66.database.data.DbTaskRunner;
  * 
  */
 public class R66Future extends WaarpFuture {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(R66Future.class);
 
     private R66Result result = null;
+    /**
+     * Listeners to call once done
+     */
+    private List<R66FutureListener> listeners = null;
     /**
      * Used in some specific occasion, such as client submission in API mode
      */
@@ -64,6 +78,72 @@ public class R66Future extends WaarpFuture {
         this.result = result;
     }
 
+    /**
+     * Add a listener called once this future is done (immediately if already done)
+     * 
+     * @param listener
+     */
+    public void addListener(R66FutureListener listener) {
+        synchronized (this) {
+            if (!isDone()) {
+                if (listeners == null) {
+                    listeners = new ArrayList<R66FutureListener>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    private void notifyListeners() {
+        List<R66FutureListener> toNotify;
+        synchronized (this) {
+            toNotify = listeners;
+            listeners = null;
+        }
+        if (toNotify != null) {
+            for (R66FutureListener listener : toNotify) {
+                notifyListener(listener);
+            }
+        }
+    }
+
+    private void notifyListener(R66FutureListener listener) {
+        try {
+            listener.operationComplete(this);
+        } catch (RuntimeException e) {
+            logger.warn("Exception in a listener of " + this, e);
+        }
+    }
+
+    @Override
+    public boolean setSuccess() {
+        if (super.setSuccess()) {
+            notifyListeners();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean setFailure(Throwable cause) {
+        if (super.setFailure(cause)) {
+            notifyListeners();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean cancel() {
+        if (super.cancel()) {
+            notifyListeners();
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public String toString() {
         return "Future: " + isDone() + " " + isSuccess() + " " +
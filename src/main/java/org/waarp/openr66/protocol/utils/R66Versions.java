@@ -20,7 +20,15 @@ public enum R66Versions {
     /**
      * Change VARCHAR(255) to VARCHAR(8096)
      */
-    V2_4_25;
+    V2_4_25,
+    /**
+     * Add composite indexes on Runner table
+     */
+    V2_4_26,
+    /**
+     * Add Change Version table
+     */
+    V2_4_27;
 
     public String getVersion() {
         return this.name().substring(1).replace('_', '.');
@@ -31,6 +31,7 @@ import org.waarp.openr66.configuration.FileBasedConfiguration;
 import org.waarp.openr66.configuration.RuleFileBasedConfiguration;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbHostConfiguration;
+import org.waarp.openr66.database.model.DbIndexAdvisor;
 import org.waarp.openr66.database.model.DbModelFactory;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
@@ -55,6 +56,7 @@ public class ServerInitDatabase {
     static String sxml = null;
     static boolean database = false;
     static boolean upgradeDb = false;
+    static boolean explainDb = false;
     static String sbusiness = null;
     static String salias = null;
     static String sroles = null;
@@ -74,6 +76,8 @@ public class ServerInitDatabase {
                 FileBasedConfiguration.checkDatabase = false;
             } else if (args[i].equalsIgnoreCase("-upgradeDb")) {
                 upgradeDb = true;
+            } else if (args[i].equalsIgnoreCase("-explainDb")) {
+                explainDb = true;
             } else if (args[i].equalsIgnoreCase("-loadBusiness")) {
                 i++;
                 sbusiness = args[i];
@@ -142,6 +146,14 @@ public class ServerInitDatabase {
                 upgradedb();
                 System.out.println(Messages.getString("ServerInitDatabase.EndUpgrade")); //$NON-NLS-1$
             }
+            if (explainDb) {
+                // check indexes and execution plans of the most frequent requests
+                try {
+                    System.out.println(DbIndexAdvisor.explain(DbConstant.admin.session));
+                } catch (WaarpDatabaseNoConnectionException e) {
+                    logger.error(Messages.getString("Database.CannotConnect"), e); //$NON-NLS-1$
+                }
+            }
             if (sdirconfig != null) {
                 // load Rules
                 File dirConfig = new File(sdirconfig);
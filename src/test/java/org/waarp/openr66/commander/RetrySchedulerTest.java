@@ -0,0 +1,120 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.commander;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Unit tests of the exponential backoff with jitter of the RetryScheduler
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class RetrySchedulerTest {
+    private static final int NB_DRAWS = 100;
+    private static final long BASE = 1000;
+    private static final long MAX = 10000;
+
+    private long delayRetryMax;
+
+    @Before
+    public void setUp() {
+        delayRetryMax = Configuration.configuration.delayRetryMax;
+        Configuration.configuration.delayRetryMax = MAX;
+    }
+
+    @After
+    public void tearDown() {
+        Configuration.configuration.delayRetryMax = delayRetryMax;
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value + " < " + min, value >= min);
+        assertTrue(value + " > " + max, value <= max);
+    }
+
+    @Test
+    public void testFirstDelayWithJitter() {
+        for (int i = 0; i < NB_DRAWS; i++) {
+            String partner = "first" + i;
+            // equal jitter: between half the base delay and the base delay
+            assertBetween(BASE / 2, BASE, RetryScheduler.nextDelay(partner, BASE));
+            RetryScheduler.success(partner);
+        }
+    }
+
+    @Test
+    public void testExponentialBackoffBounded() {
+        String partner = "backoff";
+        long expected = BASE;
+        for (int i = 0; i < 10; i++) {
+            long delay = RetryScheduler.nextDelay(partner, BASE);
+            assertBetween(expected / 2, expected, delay);
+            expected = Math.min(expected * 2, MAX);
+        }
+        // still bounded by the maximum after many failures
+        for (int i = 0; i < NB_DRAWS; i++) {
+            assertBetween(MAX / 2, MAX, RetryScheduler.nextDelay(partner, BASE));
+        }
+        RetryScheduler.success(partner);
+    }
+
+    @Test
+    public void testSuccessResetsBackoff() {
+        String partner = "reset";
+        for (int i = 0; i < 5; i++) {
+            RetryScheduler.nextDelay(partner, BASE);
+        }
+        RetryScheduler.success(partner);
+        assertBetween(BASE / 2, BASE, RetryScheduler.nextDelay(partner, BASE));
+        RetryScheduler.success(partner);
+    }
+
+    @Test
+    public void testNoPartner() {
+        for (int i = 0; i < NB_DRAWS; i++) {
+            // no failure counted without partner
+            assertBetween(BASE / 2, BASE, RetryScheduler.nextDelay(null, BASE));
+        }
+    }
+
+    @Test
+    public void testBaseDelayAboveMax() {
+        String partner = "above";
+        long base = MAX * 2;
+        for (int i = 0; i < 5; i++) {
+            // the maximum is at least the base delay
+            assertBetween(base / 2, base, RetryScheduler.nextDelay(partner, base));
+        }
+        RetryScheduler.success(partner);
+    }
+
+    @Test
+    public void testSpread() {
+        for (int i = 0; i < NB_DRAWS; i++) {
+            assertBetween(BASE, BASE + BASE / 4, RetryScheduler.spread(BASE));
+        }
+        assertEquals(3, RetryScheduler.spread(3));
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.commander;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.json.JsonHandler;
+import org.waarp.openr66.commander.TransferScheduler.Waiting;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.data.DbTaskRunner.Columns;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Unit tests of the priority classes, the weighted fair share and the partner limits of the
+ * TransferScheduler
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class TransferSchedulerTest {
+    /**
+     * Number of transfer threads kept free by the scheduler
+     */
+    private static final int RESERVED_THREADS = 5;
+
+    private int runnerThread;
+    private int maxWaiting;
+    private long nextId = 1;
+
+    @Before
+    public void setUp() {
+        Configuration configuration = Configuration.configuration;
+        runnerThread = configuration.RUNNER_THREAD;
+        maxWaiting = configuration.schedulerMaxWaiting;
+        configuration.schedulerRulePriorities =
+                TransferScheduler.parsePriorities("urgent:URGENT,bulk:BULK");
+        configuration.schedulerPartnerLimit = 0;
+        configuration.schedulerPartnerLimits = null;
+        configuration.schedulerPartnerWeights = null;
+    }
+
+    @After
+    public void tearDown() {
+        Configuration configuration = Configuration.configuration;
+        configuration.RUNNER_THREAD = runnerThread;
+        configuration.schedulerMaxWaiting = maxWaiting;
+        configuration.schedulerRulePriorities = null;
+        configuration.schedulerPartnerLimits = null;
+        configuration.schedulerPartnerWeights = null;
+    }
+
+    private DbTaskRunner runner(String rule, String partner) throws WaarpDatabaseException {
+        ObjectNode node = JsonHandler.createObjectNode();
+        node.put(Columns.SPECIALID.name(), nextId++);
+        node.put(Columns.IDRULE.name(), rule);
+        node.put(Columns.REQUESTER.name(), "requester");
+        node.put(Columns.REQUESTED.name(), partner);
+        return new DbTaskRunner(null, node);
+    }
+
+    private static void setCapacity(int capacity) {
+        Configuration.configuration.RUNNER_THREAD = RESERVED_THREADS + capacity;
+    }
+
+    @Test
+    public void testPriorityClasses() throws WaarpDatabaseException {
+        setCapacity(1);
+        TransferScheduler scheduler = new TransferScheduler();
+        DbTaskRunner bulk = runner("bulk", "hostA");
+        DbTaskRunner normal = runner("normal", "hostA");
+        DbTaskRunner urgent = runner("urgent", "hostA");
+        assertNull(scheduler.offer(bulk));
+        assertNull(scheduler.offer(normal));
+        assertNull(scheduler.offer(urgent));
+        assertEquals(3, scheduler.getWaiting());
+
+        List<Waiting> list = scheduler.poll();
+        assertEquals(1, list.size());
+        assertSame(urgent, list.get(0).getTaskRunner());
+        // no free thread until the end of the running one
+        assertEquals(0, scheduler.poll().size());
+        scheduler.done(urgent);
+
+        list = scheduler.poll();
+        assertEquals(1, list.size());
+        assertSame(normal, list.get(0).getTaskRunner());
+        scheduler.done(normal);
+
+        list = scheduler.poll();
+        assertEquals(1, list.size());
+        assertSame(bulk, list.get(0).getTaskRunner());
+        scheduler.done(bulk);
+        assertEquals(0, scheduler.getWaiting());
+        assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test
+    public void testWeightedFairShare() throws WaarpDatabaseException {
+        setCapacity(6);
+        Configuration.configuration.schedulerPartnerWeights =
+                TransferScheduler.parseIntegers("hostA:2,hostB:1");
+        TransferScheduler scheduler = new TransferScheduler();
+        for (int i = 0; i < 6; i++) {
+            assertNull(scheduler.offer(runner("normal", "hostA")));
+            assertNull(scheduler.offer(runner("normal", "hostB")));
+        }
+        List<Waiting> list = scheduler.poll();
+        assertEquals(6, list.size());
+        int hostA = 0;
+        for (Waiting waiting : list) {
+            if ("hostA".equals(waiting.getTaskRunner().getRequested())) {
+                hostA++;
+            }
+        }
+        // twice the share of hostB
+        assertEquals(4, hostA);
+        assertEquals(6, scheduler.getWaiting());
+    }
+
+    @Test
+    public void testFairShareWithinPriorityOnly() throws WaarpDatabaseException {
+        setCapacity(2);
+        TransferScheduler scheduler = new TransferScheduler();
+        DbTaskRunner urgentA = runner("urgent", "hostA");
+        DbTaskRunner urgentA2 = runner("urgent", "hostA");
+        assertNull(scheduler.offer(runner("normal", "hostB")));
+        assertNull(scheduler.offer(urgentA));
+        assertNull(scheduler.offer(urgentA2));
+        // the higher class is served first even if hostA already got its share
+        List<Waiting> list = scheduler.poll();
+        assertEquals(2, list.size());
+        assertSame(urgentA, list.get(0).getTaskRunner());
+        assertSame(urgentA2, list.get(1).getTaskRunner());
+    }
+
+    @Test
+    public void testPartnerLimit() throws WaarpDatabaseException {
+        setCapacity(10);
+        Configuration.configuration.schedulerPartnerLimits =
+                TransferScheduler.parseIntegers("hostA:1");
+        TransferScheduler scheduler = new TransferScheduler();
+        DbTaskRunner first = runner("normal", "hostA");
+        assertNull(scheduler.offer(first));
+        assertNull(scheduler.offer(runner("normal", "hostA")));
+        assertNull(scheduler.offer(runner("normal", "hostA")));
+        assertNull(scheduler.offer(runner("normal", "hostB")));
+
+        List<Waiting> list = scheduler.poll();
+        assertEquals(2, list.size());
+        assertEquals(2, scheduler.getWaiting());
+        assertEquals(0, scheduler.poll().size());
+
+        scheduler.done(first);
+        list = scheduler.poll();
+        assertEquals(1, list.size());
+        assertEquals("hostA", list.get(0).getTaskRunner().getRequested());
+        assertEquals(1, scheduler.getWaiting());
+    }
+
+    @Test
+    public void testDefaultPartnerLimit() throws WaarpDatabaseException {
+        setCapacity(10);
+        Configuration.configuration.schedulerPartnerLimit = 2;
+        Configuration.configuration.schedulerPartnerLimits =
+                TransferScheduler.parseIntegers("hostB:0");
+        TransferScheduler scheduler = new TransferScheduler();
+        for (int i = 0; i < 3; i++) {
+            assertNull(scheduler.offer(runner("normal", "hostA")));
+            assertNull(scheduler.offer(runner("normal", "hostB")));
+        }
+        // hostA limited to 2 by default, hostB not limited
+        assertEquals(5, scheduler.poll().size());
+        assertEquals(1, scheduler.getWaiting());
+    }
+
+    @Test
+    public void testHeld() throws WaarpDatabaseException {
+        setCapacity(1);
+        TransferScheduler scheduler = new TransferScheduler();
+        DbTaskRunner first = runner("normal", "hostA");
+        DbTaskRunner second = runner("normal", "hostA");
+        assertNull(scheduler.offer(first));
+        assertNull(scheduler.offer(second));
+        assertEquals(1, scheduler.poll().size());
+        // waiting and launched ones are held until done
+        List<DbTaskRunner> held = scheduler.getHeld();
+        assertEquals(2, held.size());
+        assertTrue(held.contains(first) && held.contains(second));
+        scheduler.done(first);
+        held = scheduler.getHeld();
+        assertEquals(1, held.size());
+        assertSame(second, held.get(0));
+    }
+
+    @Test
+    public void testMaxWaiting() throws WaarpDatabaseException {
+        setCapacity(0);
+        Configuration.configuration.schedulerMaxWaiting = 2;
+        TransferScheduler scheduler = new TransferScheduler();
+        DbTaskRunner bulk = runner("bulk", "hostA");
+        DbTaskRunner normal = runner("normal", "hostA");
+        assertNull(scheduler.offer(bulk));
+        assertNull(scheduler.offer(normal));
+        // a lower priority one is rejected for a higher priority one
+        assertSame(bulk, scheduler.offer(runner("urgent", "hostA")));
+        assertEquals(2, scheduler.getWaiting());
+        // no lower priority one: rejected itself
+        DbTaskRunner other = runner("normal", "hostB");
+        assertSame(other, scheduler.offer(other));
+        assertEquals(2, scheduler.getWaiting());
+        assertEquals(2, scheduler.clear().size());
+        assertEquals(0, scheduler.getWaiting());
+    }
+}
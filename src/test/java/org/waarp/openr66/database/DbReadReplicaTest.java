@@ -0,0 +1,180 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.waarp.common.database.DbAdmin;
+import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseNoDataException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.database.model.DbType;
+import org.waarp.openr66.database.model.DbModelFactory;
+
+/**
+ * Tests of the routing of read requests to the read replica, and of the fallback on the main
+ * database, using two H2 in memory databases
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DbReadReplicaTest {
+    private static final String DRIVER = "h2";
+    private static final String PRIMARY = "jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1";
+    private static final String REPLICA = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1";
+    private static final String USER = "sa";
+    private static final String PASSWD = "";
+
+    private static DbAdmin primary;
+    private static DbAdmin replicaWriter;
+    private DbAdmin replica;
+
+    /**
+     * Read the single value of a table, failing with NoData if empty
+     */
+    private static class ReadValue extends DbReadReplica.ReadOperation<Integer> {
+        private final String table;
+
+        private ReadValue(String table) {
+            this.table = table;
+        }
+
+        @Override
+        public Integer read(DbSession session) throws WaarpDatabaseException {
+            DbPreparedStatement statement = new DbPreparedStatement(session);
+            try {
+                statement.createPrepareStatement("SELECT VAL FROM " + table);
+                statement.executeQuery();
+                if (!statement.getNext()) {
+                    throw new WaarpDatabaseNoDataException("No value");
+                }
+                try {
+                    return statement.getResultSet().getInt(1);
+                } catch (SQLException e) {
+                    throw new WaarpDatabaseSqlException(e);
+                }
+            } finally {
+                statement.realClose();
+            }
+        }
+    }
+
+    private static void execute(DbSession session, String request)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        DbPreparedStatement statement = new DbPreparedStatement(session, request);
+        try {
+            statement.executeUpdate();
+        } finally {
+            statement.realClose();
+        }
+    }
+
+    @BeforeClass
+    public static void setUpDatabases() throws WaarpDatabaseException {
+        primary = DbModelFactory.initialize(DRIVER, PRIMARY, USER, PASSWD, true);
+        replicaWriter = new DbAdmin(DbType.getFromDriver(DRIVER), REPLICA, USER, PASSWD, true);
+        // same table with a different value on each database, and one not yet replicated
+        execute(primary.session, "CREATE TABLE ONLYPRIMARY (VAL INT)");
+        execute(primary.session, "INSERT INTO ONLYPRIMARY VALUES (3)");
+        execute(primary.session, "CREATE TABLE BOTH (VAL INT)");
+        execute(primary.session, "INSERT INTO BOTH VALUES (1)");
+        execute(replicaWriter.session, "CREATE TABLE BOTH (VAL INT)");
+        execute(replicaWriter.session, "INSERT INTO BOTH VALUES (2)");
+        execute(primary.session, "CREATE TABLE LAGGING (VAL INT)");
+        execute(primary.session, "INSERT INTO LAGGING VALUES (4)");
+        execute(replicaWriter.session, "CREATE TABLE LAGGING (VAL INT)");
+    }
+
+    @AfterClass
+    public static void tearDownDatabases() {
+        replicaWriter.close();
+        primary.close();
+    }
+
+    @Before
+    public void setUp() throws WaarpDatabaseNoConnectionException {
+        replica = DbModelFactory.initializeReadReplica(DRIVER, REPLICA, USER, PASSWD);
+        DbReadReplica.initialize(replica, DbReadReplica.DEFAULT_RETRY_DELAY);
+    }
+
+    @After
+    public void tearDown() {
+        DbReadReplica.initialize(null, DbReadReplica.DEFAULT_RETRY_DELAY);
+    }
+
+    @Test
+    public void testReadOnReplica() throws WaarpDatabaseException {
+        assertSame(replica.session, DbReadReplica.route(primary.session));
+        assertEquals(2, DbReadReplica.read(primary.session, new ReadValue("BOTH")).intValue());
+    }
+
+    @Test
+    public void testNotYetReplicatedReadOnPrimary() throws WaarpDatabaseException {
+        assertEquals(4, DbReadReplica.read(primary.session, new ReadValue("LAGGING")).intValue());
+        // not an error: the replica is still used
+        assertSame(replica.session, DbReadReplica.route(primary.session));
+    }
+
+    @Test
+    public void testErrorFallbackOnPrimary() throws WaarpDatabaseException {
+        assertEquals(3, DbReadReplica.read(primary.session, new ReadValue("ONLYPRIMARY"))
+                .intValue());
+        // replica not used again before the retry delay
+        assertSame(primary.session, DbReadReplica.route(primary.session));
+        assertEquals(1, DbReadReplica.read(primary.session, new ReadValue("BOTH")).intValue());
+    }
+
+    @Test
+    public void testReplicaDownFallbackOnPrimary() throws WaarpDatabaseException {
+        replica.session.forceDisconnect();
+        assertSame(primary.session, DbReadReplica.route(primary.session));
+        assertEquals(1, DbReadReplica.read(primary.session, new ReadValue("BOTH")).intValue());
+    }
+
+    @Test
+    public void testStatementFallbackOnPrimary() throws WaarpDatabaseException, SQLException {
+        DbPreparedStatement statement = DbReadReplica.executeQuery(primary.session,
+                new DbReadReplica.ReadStatement() {
+                    @Override
+                    public DbPreparedStatement prepare(DbSession session)
+                            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+                        DbPreparedStatement prepared = new DbPreparedStatement(session);
+                        prepared.createPrepareStatement("SELECT VAL FROM ONLYPRIMARY");
+                        return prepared;
+                    }
+                });
+        try {
+            assertEquals(true, statement.getNext());
+            assertEquals(3, statement.getResultSet().getInt(1));
+        } finally {
+            statement.realClose();
+        }
+        assertSame(primary.session, DbReadReplica.route(primary.session));
+    }
+}
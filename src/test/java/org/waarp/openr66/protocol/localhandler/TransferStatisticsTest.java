@@ -0,0 +1,72 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
+
+/**
+ * Unit tests of the accounting of transfers by key in TransferStatistics
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class TransferStatisticsTest {
+    private static final String KEY = "requested requester 1";
+
+    private static TransferStatistics.State state(long start, UpdatedInfo info) {
+        return new TransferStatistics.State(start, info.ordinal(),
+                TASKSTEP.TRANSFERTASK.ordinal(), ErrorCode.Running, ErrorCode.Unknown, false, true);
+    }
+
+    private static long count(TransferStatistics statistics, long start, UpdatedInfo info) {
+        return statistics.snapshot(start)[TransferStatistics.infoIndex(info)];
+    }
+
+    @Test
+    public void testSameTransferFromTwoInstancesCountedOnce() {
+        TransferStatistics statistics = new TransferStatistics();
+        long start = System.currentTimeMillis();
+        statistics.saved(KEY, state(start, UpdatedInfo.TOSUBMIT), true);
+        // a second instance of the same transfer loaded later must not add a new baseline
+        statistics.loaded(KEY, state(start, UpdatedInfo.TOSUBMIT));
+        statistics.saved(KEY, state(start, UpdatedInfo.RUNNING), false);
+        statistics.saved(KEY, state(start, UpdatedInfo.RUNNING), false);
+        assertEquals(0, count(statistics, start, UpdatedInfo.TOSUBMIT));
+        assertEquals(1, count(statistics, start, UpdatedInfo.RUNNING));
+        assertEquals(1, statistics.snapshot(start)[TransferStatistics.ALL]);
+    }
+
+    @Test
+    public void testFinishedTransferIsForgotten() {
+        TransferStatistics statistics = new TransferStatistics();
+        long start = System.currentTimeMillis();
+        statistics.saved(KEY, state(start, UpdatedInfo.RUNNING), true);
+        statistics.saved(KEY, state(start, UpdatedInfo.DONE), false);
+        assertEquals(0, count(statistics, start, UpdatedInfo.RUNNING));
+        assertEquals(1, count(statistics, start, UpdatedInfo.DONE));
+        // unknown previous state: left to the reconciliation
+        statistics.saved(KEY, state(start, UpdatedInfo.TOSUBMIT), false);
+        assertEquals(0, count(statistics, start, UpdatedInfo.TOSUBMIT));
+        assertEquals(1, count(statistics, start, UpdatedInfo.DONE));
+    }
+}
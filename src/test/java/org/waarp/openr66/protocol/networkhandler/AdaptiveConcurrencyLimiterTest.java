@@ -0,0 +1,138 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.waarp.openr66.protocol.networkhandler.AdaptiveConcurrencyLimiter.SAMPLE;
+
+/**
+ * Unit tests of the ramp up and down of the AdaptiveConcurrencyLimiter
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class AdaptiveConcurrencyLimiterTest {
+    /**
+     * Number of samples of one short window of the limiter
+     */
+    private static final int WINDOW_SIZE = 100;
+    private static final long LATENCY = 1000000;
+
+    /**
+     * Fill complete short windows with the same latency
+     */
+    private static void windows(AdaptiveConcurrencyLimiter limiter, int nb, long nanos) {
+        for (int i = 0; i < nb * WINDOW_SIZE; i++) {
+            limiter.sample(SAMPLE.BLOCK, nanos);
+        }
+    }
+
+    /**
+     * Ramp up to the maximum with a stable latency
+     */
+    private static void rampUp(AdaptiveConcurrencyLimiter limiter, int max) {
+        for (int i = 0; i < 1000 && limiter.getLimit() < max; i++) {
+            windows(limiter, 1, LATENCY);
+        }
+        assertEquals(max, limiter.getLimit());
+    }
+
+    @Test
+    public void testStartsAtMinimum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(5, 100);
+        assertEquals(5, limiter.getLimit());
+        // bounds are corrected
+        assertEquals(1, new AdaptiveConcurrencyLimiter(0, 0).getLimit());
+        assertEquals(10, new AdaptiveConcurrencyLimiter(10, 5).getLimit());
+    }
+
+    @Test
+    public void testRampUpWithStableLatency() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 50);
+        int previous = limiter.getLimit();
+        for (int i = 0; i < 20; i++) {
+            windows(limiter, 1, LATENCY);
+            assertTrue(limiter.getLimit() >= previous);
+            previous = limiter.getLimit();
+        }
+        assertTrue(previous > 1);
+        rampUp(limiter, 50);
+        // never above the maximum
+        windows(limiter, 50, LATENCY);
+        assertEquals(50, limiter.getLimit());
+    }
+
+    @Test
+    public void testToleratedLatencyIncrease() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 100);
+        windows(limiter, 10, LATENCY);
+        int before = limiter.getLimit();
+        // below the tolerance: still growing
+        windows(limiter, 10, LATENCY * 14 / 10);
+        assertTrue(limiter.getLimit() >= before);
+    }
+
+    @Test
+    public void testRampDownWithGrowingLatency() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 100);
+        rampUp(limiter, 100);
+        int previous = limiter.getLimit();
+        long latency = LATENCY * 10;
+        for (int i = 0; i < 5; i++) {
+            windows(limiter, 1, latency);
+            assertTrue(limiter.getLimit() < previous);
+            // at most halved at once
+            assertTrue(limiter.getLimit() >= previous / 2);
+            previous = limiter.getLimit();
+        }
+        // never below the minimum
+        for (int i = 0; i < 50; i++) {
+            latency *= 2;
+            windows(limiter, 1, latency);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testRampUpAgainAfterRecovery() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 100);
+        rampUp(limiter, 100);
+        windows(limiter, 10, LATENCY * 10);
+        int low = limiter.getLimit();
+        assertTrue(low < 100);
+        windows(limiter, 10, LATENCY);
+        assertTrue(limiter.getLimit() > low);
+    }
+
+    @Test
+    public void testTryAcquire() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 10);
+        assertTrue(limiter.tryAcquire(0));
+        assertTrue(limiter.tryAcquire(1));
+        assertFalse(limiter.tryAcquire(2));
+        assertEquals(2, limiter.getAccepted());
+        assertEquals(1, limiter.getRejected());
+        // negative samples are ignored
+        limiter.sample(SAMPLE.REQUEST, -1);
+        assertEquals(2, limiter.getLimit());
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.networkhandler.PartnerCircuitBreaker.STATE;
+
+/**
+ * Unit tests of the state transitions of the PartnerCircuitBreaker
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class PartnerCircuitBreakerTest {
+    private static final String HOST = "partner";
+    private static final int THRESHOLD = 3;
+    private static final long DELAY = 100;
+
+    private int threshold;
+    private long delay;
+    private long delayRetryMax;
+    private long timeoutCon;
+
+    @Before
+    public void setUp() {
+        Configuration configuration = Configuration.configuration;
+        threshold = configuration.circuitBreakerThreshold;
+        delay = configuration.circuitBreakerDelay;
+        delayRetryMax = configuration.delayRetryMax;
+        timeoutCon = configuration.TIMEOUTCON;
+        configuration.circuitBreakerThreshold = THRESHOLD;
+        configuration.circuitBreakerDelay = DELAY;
+        configuration.delayRetryMax = DELAY * 10;
+        configuration.TIMEOUTCON = 30000;
+        PartnerCircuitBreaker.clear();
+    }
+
+    @After
+    public void tearDown() {
+        Configuration configuration = Configuration.configuration;
+        configuration.circuitBreakerThreshold = threshold;
+        configuration.circuitBreakerDelay = delay;
+        configuration.delayRetryMax = delayRetryMax;
+        configuration.TIMEOUTCON = timeoutCon;
+        PartnerCircuitBreaker.clear();
+    }
+
+    private static void connectionFailures(int nb) {
+        for (int i = 0; i < nb; i++) {
+            PartnerCircuitBreaker.onFailure(HOST);
+        }
+    }
+
+    private static void waitFor(long delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        Configuration.configuration.circuitBreakerThreshold = 0;
+        connectionFailures(THRESHOLD * 2);
+        assertEquals(STATE.CLOSED, PartnerCircuitBreaker.getState(HOST));
+        assertEquals(0, PartnerCircuitBreaker.allowRequest(HOST));
+    }
+
+    @Test
+    public void testClosedUnderThreshold() {
+        connectionFailures(THRESHOLD - 1);
+        assertEquals(STATE.CLOSED, PartnerCircuitBreaker.getState(HOST));
+        assertEquals(0, PartnerCircuitBreaker.allowRequest(HOST));
+        // a success resets the consecutive failures
+        PartnerCircuitBreaker.onSuccess(HOST);
+        connectionFailures(THRESHOLD - 1);
+        assertEquals(STATE.CLOSED, PartnerCircuitBreaker.getState(HOST));
+    }
+
+    @Test
+    public void testOpenAtThreshold() {
+        connectionFailures(THRESHOLD);
+        assertEquals(STATE.OPEN, PartnerCircuitBreaker.getState(HOST));
+        long deferred = PartnerCircuitBreaker.allowRequest(HOST);
+        assertTrue(deferred > 0 && deferred <= DELAY);
+        // failures of connections started before do not change the delay
+        connectionFailures(1);
+        assertEquals(STATE.OPEN, PartnerCircuitBreaker.getState(HOST));
+        assertTrue(PartnerCircuitBreaker.allowRequest(HOST) <= DELAY);
+    }
+
+    @Test
+    public void testHalfOpenProbeSuccess() {
+        connectionFailures(THRESHOLD);
+        waitFor(DELAY + 20);
+        // the first one is the probe
+        assertEquals(0, PartnerCircuitBreaker.allowRequest(HOST));
+        assertEquals(STATE.HALF_OPEN, PartnerCircuitBreaker.getState(HOST));
+        // the others are deferred while probing
+        assertTrue(PartnerCircuitBreaker.allowRequest(HOST) > 0);
+        PartnerCircuitBreaker.onSuccess(HOST);
+        assertEquals(STATE.CLOSED, PartnerCircuitBreaker.getState(HOST));
+        assertEquals(0, PartnerCircuitBreaker.allowRequest(HOST));
+    }
+
+    @Test
+    public void testHalfOpenProbeFailure() {
+        connectionFailures(THRESHOLD);
+        waitFor(DELAY + 20);
+        assertEquals(0, PartnerCircuitBreaker.allowRequest(HOST));
+        connectionFailures(1);
+        assertEquals(STATE.OPEN, PartnerCircuitBreaker.getState(HOST));
+        // open again with a doubled delay
+        long deferred = PartnerCircuitBreaker.allowRequest(HOST);
+        assertTrue(deferred > DELAY && deferred <= DELAY * 2);
+    }
+
+    @Test
+    public void testOpenDelayBounded() {
+        Configuration.configuration.delayRetryMax = DELAY * 3 / 2;
+        connectionFailures(THRESHOLD);
+        waitFor(DELAY + 20);
+        assertEquals(0, PartnerCircuitBreaker.allowRequest(HOST));
+        connectionFailures(1);
+        long deferred = PartnerCircuitBreaker.allowRequest(HOST);
+        assertTrue(deferred > DELAY && deferred <= DELAY * 3 / 2);
+    }
+
+    @Test
+    public void testNewProbeAfterTimeout() {
+        Configuration.configuration.TIMEOUTCON = DELAY / 2;
+        connectionFailures(THRESHOLD);
+        waitFor(DELAY + 20);
+        assertEquals(0, PartnerCircuitBreaker.allowRequest(HOST));
+        assertTrue(PartnerCircuitBreaker.allowRequest(HOST) > 0);
+        // the probe gave no answer within twice the connection timeout
+        waitFor(DELAY + 20);
+        assertEquals(0, PartnerCircuitBreaker.allowRequest(HOST));
+        assertEquals(STATE.HALF_OPEN, PartnerCircuitBreaker.getState(HOST));
+    }
+}